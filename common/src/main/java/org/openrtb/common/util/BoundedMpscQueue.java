@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.common.util;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded queue handing elements from any number of producer threads over to
+ * a single consumer thread, without locks.
+ * 
+ * Producers claim a slot by moving the tail with compare-and-set and then
+ * publish their element into it; {@link #offer(Object)} never blocks and
+ * fails at once when the queue is full. The consumer takes elements in claim
+ * order, an element claimed but not published yet ends {@link #poll()} until
+ * its producer is done. Only one thread at a time may call {@link #poll()}
+ * and {@link #drainTo(Collection, int)}.
+ */
+public class BoundedMpscQueue<E> {
+	private final AtomicReferenceArray<E> buffer;
+	private final int capacity;
+	private final int mask;
+	// next slot claimed by a producer
+	private final AtomicLong tail = new AtomicLong();
+	// next slot taken by the consumer, only moved by the consumer
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * @param capacity
+	 *            most elements held, rounded up to a power of two
+	 */
+	public BoundedMpscQueue(int capacity) {
+		if ((capacity <= 0) || (capacity > (1 << 30))) {
+			throw new IllegalArgumentException("capacity out of range: "
+					+ capacity);
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.capacity = size;
+		this.mask = size - 1;
+		this.buffer = new AtomicReferenceArray<E>(size);
+	}
+
+	/**
+	 * Appends the element, unless the queue is full.
+	 * 
+	 * @return false if the queue is full.
+	 */
+	public boolean offer(E e) {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		while (true) {
+			long t = tail.get();
+			if (t - head.get() >= capacity) {
+				return false;
+			}
+			if (tail.compareAndSet(t, t + 1)) {
+				// the slot was emptied by the consumer before it moved the
+				// head past it
+				buffer.lazySet((int) t & mask, e);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @return the oldest element, null if there is none ready.
+	 */
+	public E poll() {
+		long h = head.get();
+		int index = (int) h & mask;
+		E e = buffer.get(index);
+		if (e == null) {
+			return null;
+		}
+		buffer.lazySet(index, null);
+		head.lazySet(h + 1);
+		return e;
+	}
+
+	/**
+	 * Moves up to <tt>max</tt> ready elements into the collection.
+	 * 
+	 * @return the number of elements moved.
+	 */
+	public int drainTo(Collection<? super E> to, int max) {
+		int n = 0;
+		while (n < max) {
+			E e = poll();
+			if (e == null) {
+				break;
+			}
+			to.add(e);
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @return the number of elements claimed and not yet taken, racy while
+	 *         producers or the consumer are active.
+	 */
+	public int size() {
+		long size = tail.get() - head.get();
+		return (int) Math.max(0L, Math.min(size, capacity));
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+}
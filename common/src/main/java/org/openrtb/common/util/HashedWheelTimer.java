@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.common.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Timeout scheduler based on a hashed timing wheel, meant to be shared by a
+ * large number of short lived timeouts (request and offer expiries of bidder
+ * transactions) that are usually cancelled before they fire.
+ *
+ * Scheduling and cancelling are O(1) and lock-free: both only enqueue the
+ * timeout, a single worker thread moves new timeouts into the wheel buckets,
+ * unlinks cancelled ones and runs the expired ones once per tick. Timeouts
+ * therefore fire with a precision of one tick, and their tasks run on the
+ * worker thread, so they must be short and must not block.
+ *
+ * The worker thread is started with the first timeout and runs until
+ * {@link #stop()} is called.
+ */
+public class HashedWheelTimer {
+	private static final Logger logger = LoggerFactory
+			.getLogger(HashedWheelTimer.class);
+
+	// max number of new timeouts moved into the wheel per tick, so that a
+	// burst cannot delay the expiry of the timeouts already in the wheel
+	private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+	private static final int STATE_INIT = 0;
+	private static final int STATE_STARTED = 1;
+	private static final int STATE_STOPPED = 2;
+
+	/**
+	 * Handle of a scheduled task.
+	 */
+	public interface Timeout {
+		/**
+		 * Cancels the timeout, unless it has already expired.
+		 * 
+		 * @return true if the task will not run because of this call
+		 */
+		public boolean cancel();
+
+		public boolean isCancelled();
+
+		public boolean isExpired();
+	}
+
+	private final String name;
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final Queue<WheelTimeout> newTimeouts = new ConcurrentLinkedQueue<WheelTimeout>();
+	private final Queue<WheelTimeout> cancelledTimeouts = new ConcurrentLinkedQueue<WheelTimeout>();
+	private final AtomicInteger state = new AtomicInteger(STATE_INIT);
+	private volatile long startNanos;
+	private Thread worker;
+
+	// metrics
+	private final AtomicLong pending = new AtomicLong();
+	private final AtomicLong scheduled = new AtomicLong();
+	private final AtomicLong expired = new AtomicLong();
+	private final AtomicLong cancelled = new AtomicLong();
+
+	/**
+	 * @param name
+	 *            name of the worker thread
+	 * @param tickDuration
+	 *            precision of the timer
+	 * @param ticksPerWheel
+	 *            number of buckets, rounded up to a power of two. Timeouts
+	 *            further away than one revolution are kept in their bucket for
+	 *            several revolutions.
+	 */
+	public HashedWheelTimer(String name, long tickDuration, TimeUnit unit,
+			int ticksPerWheel) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("tickDuration must be positive");
+		}
+		if ((ticksPerWheel <= 0) || (ticksPerWheel > (1 << 30))) {
+			throw new IllegalArgumentException(
+					"ticksPerWheel must be between 1 and 2^30");
+		}
+		int size = 1;
+		while (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		this.name = name;
+		this.tickNanos = unit.toNanos(tickDuration);
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Bucket();
+		}
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Schedules the task to run once, after the given delay.
+	 */
+	public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+		if (task == null) {
+			throw new NullPointerException("task");
+		}
+		start();
+		long deadline = System.nanoTime() + unit.toNanos(Math.max(delay, 0L))
+				- startNanos;
+		WheelTimeout timeout = new WheelTimeout(this, task, deadline);
+		pending.incrementAndGet();
+		scheduled.incrementAndGet();
+		newTimeouts.add(timeout);
+		return timeout;
+	}
+
+	private void start() {
+		switch (state.get()) {
+		case STATE_STARTED:
+			return;
+		case STATE_INIT:
+			synchronized (this) {
+				if (state.get() == STATE_INIT) {
+					startNanos = System.nanoTime();
+					worker = new Thread(new Worker(), name);
+					worker.setDaemon(true);
+					// published before the worker runs, it exits otherwise
+					state.set(STATE_STARTED);
+					worker.start();
+				}
+			}
+			return;
+		default:
+			throw new IllegalStateException("HashedWheelTimer " + name
+					+ " has been stopped");
+		}
+	}
+
+	/**
+	 * Stops the worker thread, timeouts that have not expired yet never run.
+	 */
+	public void stop() {
+		synchronized (this) {
+			int previous = state.getAndSet(STATE_STOPPED);
+			if ((previous == STATE_STARTED) && (worker != null)) {
+				worker.interrupt();
+			}
+		}
+	}
+
+	/** @return timeouts scheduled that have neither expired nor been cancelled */
+	public long getPendingTimeouts() {
+		return pending.get();
+	}
+
+	/** @return total number of timeouts scheduled */
+	public long getScheduledTimeouts() {
+		return scheduled.get();
+	}
+
+	/** @return total number of timeouts whose task has run */
+	public long getExpiredTimeouts() {
+		return expired.get();
+	}
+
+	/** @return total number of timeouts cancelled before they expired */
+	public long getCancelledTimeouts() {
+		return cancelled.get();
+	}
+
+	public long getTickDuration(TimeUnit unit) {
+		return unit.convert(tickNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private final class Worker implements Runnable {
+		private long tick;
+
+		@Override
+		public void run() {
+			while (state.get() == STATE_STARTED) {
+				long now = waitForNextTick();
+				if (now < 0) {
+					break;
+				}
+				removeCancelled();
+				transferNewTimeouts();
+				wheel[(int) (tick & mask)].expire();
+				tick++;
+			}
+		}
+
+		// sleeps until the end of the current tick, returns the elapsed time
+		// relative to the start of the timer
+		private long waitForNextTick() {
+			long deadline = tickNanos * (tick + 1);
+			for (;;) {
+				long now = System.nanoTime() - startNanos;
+				long sleepMs = (deadline - now + 999999L) / 1000000L;
+				if (sleepMs <= 0) {
+					return now;
+				}
+				try {
+					Thread.sleep(sleepMs);
+				} catch (InterruptedException e) {
+					if (state.get() != STATE_STARTED) {
+						return -1L;
+					}
+				}
+			}
+		}
+
+		private void transferNewTimeouts() {
+			for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+				WheelTimeout timeout = newTimeouts.poll();
+				if (timeout == null) {
+					return;
+				}
+				if (timeout.state != WheelTimeout.ST_INIT) {
+					// cancelled before it reached the wheel
+					continue;
+				}
+				long expiryTick = timeout.deadline / tickNanos;
+				timeout.remainingRounds = (expiryTick - tick) / wheel.length;
+				// never schedule for the past, it expires with this tick
+				long ticks = Math.max(expiryTick, tick);
+				wheel[(int) (ticks & mask)].add(timeout);
+			}
+		}
+
+		private void removeCancelled() {
+			for (;;) {
+				WheelTimeout timeout = cancelledTimeouts.poll();
+				if (timeout == null) {
+					return;
+				}
+				if (timeout.bucket != null) {
+					timeout.bucket.remove(timeout);
+				}
+			}
+		}
+	}
+
+	// doubly linked list of timeouts, only accessed by the worker thread
+	private static final class Bucket {
+		private WheelTimeout head;
+		private WheelTimeout tail;
+
+		void add(WheelTimeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		void expire() {
+			WheelTimeout timeout = head;
+			while (timeout != null) {
+				WheelTimeout next = timeout.next;
+				if (timeout.remainingRounds <= 0) {
+					// due within this tick
+					remove(timeout);
+					timeout.expire();
+				} else if (timeout.isCancelled()) {
+					remove(timeout);
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+		}
+
+		void remove(WheelTimeout timeout) {
+			WheelTimeout next = timeout.next;
+			if (timeout.prev != null) {
+				timeout.prev.next = next;
+			}
+			if (next != null) {
+				next.prev = timeout.prev;
+			}
+			if (timeout == head) {
+				head = next;
+			}
+			if (timeout == tail) {
+				tail = timeout.prev;
+			}
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+		}
+	}
+
+	private static final class WheelTimeout implements Timeout {
+		static final int ST_INIT = 0;
+		static final int ST_CANCELLED = 1;
+		static final int ST_EXPIRED = 2;
+		private static final AtomicIntegerFieldUpdater<WheelTimeout> STATE = AtomicIntegerFieldUpdater
+				.newUpdater(WheelTimeout.class, "state");
+
+		private final HashedWheelTimer timer;
+		private final Runnable task;
+		// nanoseconds relative to the start of the timer
+		final long deadline;
+		volatile int state = ST_INIT;
+
+		// owned by the worker thread
+		long remainingRounds;
+		WheelTimeout next;
+		WheelTimeout prev;
+		Bucket bucket;
+
+		WheelTimeout(HashedWheelTimer timer, Runnable task, long deadline) {
+			this.timer = timer;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public boolean cancel() {
+			if (!STATE.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+				return false;
+			}
+			timer.pending.decrementAndGet();
+			timer.cancelled.incrementAndGet();
+			// unlinked from its bucket by the worker on the next tick
+			timer.cancelledTimeouts.add(this);
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return state == ST_CANCELLED;
+		}
+
+		@Override
+		public boolean isExpired() {
+			return state == ST_EXPIRED;
+		}
+
+		void expire() {
+			if (!STATE.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+				return;
+			}
+			timer.pending.decrementAndGet();
+			timer.expired.incrementAndGet();
+			try {
+				task.run();
+			} catch (Throwable t) {
+				logger.warn("Timeout task " + task + " failed: "
+						+ StringUtils.stackTraceToString(t));
+			}
+		}
+	}
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.common.util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Open addressing hash table of expiring counters, held outside of the java
+ * heap so that hundreds of millions of entries add nothing to the work of
+ * the garbage collector.
+ * 
+ * Every entry is 16 bytes: a 64 bit key, and a 64 bit value holding the
+ * expiry of the counter (seconds since the table was created) in its upper
+ * half and the count in its lower half. Keys are claimed and values moved
+ * with compare-and-set, reads are plain volatile loads, there are no locks.
+ * Callers supply keys that are already hashes of whatever they count, two
+ * keys colliding on all 64 bits share a counter.
+ * 
+ * Counters are never removed: an entry whose counter expired more than
+ * {@link #GRACE_SECONDS} ago is reused by the next key probing past it. Its
+ * value is locked while the key changes, and threads that looked up the old
+ * key check it again around their compare-and-set and look the key up anew
+ * when it changed.
+ * Probing is linear and gives up after {@link #MAX_PROBES} entries, in which
+ * case the table is full for that key and the operation is not counted.
+ * 
+ * The memory is released by {@link #close()}, which must only be called once
+ * no other thread uses the table.
+ */
+public class OffHeapCounterTable {
+	public static final int ENTRY_SIZE = 16;
+	public static final int MAX_PROBES = 64;
+	// an expired entry is only reused after this many seconds, so that a
+	// thread that read its key just before it expired is done with it
+	public static final int GRACE_SECONDS = 2;
+
+	private static final long EMPTY = 0L;
+	// value of an entry while it changes keys
+	private static final long RECLAIMING = -1L;
+	// outcomes of increment
+	private static final int COUNTED = 0;
+	private static final int REJECTED = 1;
+	private static final int RETRY = 2;
+
+	private final long address;
+	private final int capacity;
+	private final int mask;
+	private final long epochMillis;
+	private final AtomicLong overflows = new AtomicLong();
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	/**
+	 * @param capacity
+	 *            number of entries, rounded up to a power of two
+	 */
+	public OffHeapCounterTable(int capacity) {
+		if ((capacity <= 0) || (capacity > (1 << 30))) {
+			throw new IllegalArgumentException(
+					"capacity must be between 1 and 2^30");
+		}
+		int c = 1;
+		while (c < capacity) {
+			c <<= 1;
+		}
+		this.capacity = c;
+		this.mask = c - 1;
+		this.address = UnsafeMemory.allocate((long) c * ENTRY_SIZE);
+		this.epochMillis = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return the count of the key, 0 if it has none or it expired.
+	 */
+	public int get(long key) {
+		return get(key, now());
+	}
+
+	/**
+	 * Increments the count of the key if it is below <tt>limit</tt>. A key
+	 * without a live counter starts a new one, expiring after
+	 * <tt>ttlSeconds</tt>.
+	 * 
+	 * @return false if the count has reached the limit. True if it has been
+	 *         incremented, or if the table is full, in which case nothing is
+	 *         counted (see {@link #getOverflows()}).
+	 */
+	public boolean tryIncrement(long key, int limit, int ttlSeconds) {
+		return tryIncrement(key, limit, ttlSeconds, now());
+	}
+
+	/**
+	 * Takes back an increment made by
+	 * {@link #tryIncrement(long, int, int)}, unless the counter expired
+	 * meanwhile.
+	 */
+	public void decrement(long key) {
+		decrement(key, now());
+	}
+
+	int get(long key, int now) {
+		long entry = find(key, now, false);
+		if (entry < 0L) {
+			return 0;
+		}
+		long value = UnsafeMemory.getLongVolatile(entry + 8);
+		return (expiry(value) > now) ? count(value) : 0;
+	}
+
+	boolean tryIncrement(long key, int limit, int ttlSeconds, int now) {
+		checkOpen();
+		if (limit <= 0) {
+			// rejected whatever the count, an entry claimed for it would
+			// never be counted nor reused
+			return false;
+		}
+		if (key == EMPTY) {
+			key = 1L;
+		}
+		for (int attempt = 0; attempt < MAX_PROBES; attempt++) {
+			long entry = find(key, now, true);
+			if (entry < 0L) {
+				break;
+			}
+			int result = increment(entry, key, limit, ttlSeconds, now);
+			if (result != RETRY) {
+				return result == COUNTED;
+			}
+		}
+		overflows.incrementAndGet();
+		return true;
+	}
+
+	// increments the counter of the entry, RETRY if the entry no longer
+	// belongs to the key
+	private int increment(long entry, long key, int limit, int ttlSeconds,
+			int now) {
+		for (;;) {
+			long value = UnsafeMemory.getLongVolatile(entry + 8);
+			if ((value == RECLAIMING)
+					|| (UnsafeMemory.getLongVolatile(entry) != key)) {
+				return RETRY;
+			}
+			long next;
+			if (expiry(value) <= now) {
+				next = ((long) (now + Math.max(ttlSeconds, 1)) << 32) | 1L;
+			} else if (count(value) >= limit) {
+				return REJECTED;
+			} else {
+				next = value + 1L;
+			}
+			if (UnsafeMemory.compareAndSwapLong(entry + 8, value, next)) {
+				// a thread stalled for longer than the grace period could
+				// have seen the entry reclaimed and counted up to the same
+				// value meanwhile
+				return (UnsafeMemory.getLongVolatile(entry) == key) ? COUNTED
+						: RETRY;
+			}
+		}
+	}
+
+	void decrement(long key, int now) {
+		checkOpen();
+		if (key == EMPTY) {
+			key = 1L;
+		}
+		long entry = find(key, now, false);
+		if (entry < 0L) {
+			return;
+		}
+		for (;;) {
+			long value = UnsafeMemory.getLongVolatile(entry + 8);
+			if ((value == RECLAIMING) || (expiry(value) <= now)
+					|| (count(value) == 0)
+					|| (UnsafeMemory.getLongVolatile(entry) != key)) {
+				return;
+			}
+			if (UnsafeMemory.compareAndSwapLong(entry + 8, value, value - 1L)) {
+				return;
+			}
+		}
+	}
+
+	// address of the entry of the key, claiming one if insert is set, -1 if
+	// the key has none or the table is full
+	private long find(long key, int now, boolean insert) {
+		checkOpen();
+		if (key == EMPTY) {
+			key = 1L;
+		}
+		int start = mix(key) & mask;
+		for (int attempt = 0; attempt < 4; attempt++) {
+			long reusable = -1L;
+			long reusableKey = EMPTY;
+			long reusableValue = 0L;
+			boolean restart = false;
+			int slot = start;
+			for (int probe = 0; probe < MAX_PROBES; probe++) {
+				long entry = address + ((long) slot << 4);
+				long k = UnsafeMemory.getLongVolatile(entry);
+				if (k == key) {
+					return entry;
+				}
+				if (k == EMPTY) {
+					if (!insert) {
+						return -1L;
+					}
+					if (reusable >= 0L) {
+						// the key is not further down, take the first
+						// expired entry passed
+						break;
+					}
+					if (UnsafeMemory.compareAndSwapLong(entry, EMPTY, key)) {
+						return entry;
+					}
+					if (UnsafeMemory.getLongVolatile(entry) == key) {
+						return entry;
+					}
+				} else if (insert) {
+					long value = UnsafeMemory.getLongVolatile(entry + 8);
+					if (value == RECLAIMING) {
+						// changing keys, maybe to this one: claiming an entry
+						// further down would count the key twice
+						restart = true;
+						break;
+					}
+					int expiry = expiry(value);
+					// a zero expiry is an entry claimed but not counted yet
+					if ((reusable < 0L) && (expiry != 0)
+							&& (expiry + GRACE_SECONDS <= now)) {
+						reusable = entry;
+						reusableKey = k;
+						reusableValue = value;
+					}
+				}
+				slot = (slot + 1) & mask;
+			}
+			if (!insert) {
+				return -1L;
+			}
+			if (restart) {
+				Thread.yield();
+			} else if (reusable < 0L) {
+				// no empty nor expired entry within reach
+				return -1L;
+			} else if (reclaim(reusable, reusableKey, reusableValue, key)) {
+				return reusable;
+			}
+		}
+		return -1L;
+	}
+
+	// hands an expired entry over to the key. The value is locked first, so
+	// that the threads still holding the old key fail to move it and look
+	// the key up again
+	private boolean reclaim(long entry, long oldKey, long oldValue, long key) {
+		if (!UnsafeMemory.compareAndSwapLong(entry + 8, oldValue, RECLAIMING)) {
+			return false;
+		}
+		// keys only change under the lock, and the value the entry was seen
+		// with can not come back: the key is still the old one
+		UnsafeMemory.putLongVolatile(entry, key);
+		UnsafeMemory.putLongVolatile(entry + 8, 0L);
+		return true;
+	}
+
+	private void checkOpen() {
+		if (closed.get()) {
+			throw new IllegalStateException("table is closed");
+		}
+	}
+
+	// seconds since the table was created, from 1
+	int now() {
+		return (int) ((System.currentTimeMillis() - epochMillis) / 1000L) + 1;
+	}
+
+	private static int expiry(long value) {
+		return (int) (value >>> 32);
+	}
+
+	private static int count(long value) {
+		return (int) value;
+	}
+
+	// spreads the key's bits over the slot index
+	private static int mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of increments not counted for want of an entry.
+	 */
+	public long getOverflows() {
+		return overflows.get();
+	}
+
+	/**
+	 * @return the number of off-heap bytes held by the table.
+	 */
+	public long getMemorySize() {
+		return (long) capacity * ENTRY_SIZE;
+	}
+
+	/**
+	 * Releases the memory of the table.
+	 */
+	public void close() {
+		if (closed.compareAndSet(false, true)) {
+			UnsafeMemory.free(address);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.common.util;
+
+import java.lang.reflect.Field;
+
+import sun.misc.Unsafe;
+
+/**
+ * The raw memory operations of {@link OffHeapCounterTable}, kept apart so
+ * that this is the only class of the project using <tt>sun.misc.Unsafe</tt>.
+ * The module is compiled with <tt>-XDignore.symbol.file</tt>, which keeps
+ * javac from warning about it.
+ * 
+ * Addresses are not checked, callers must only pass the ones they allocated
+ * and have not freed yet.
+ */
+final class UnsafeMemory {
+	private static final Unsafe UNSAFE;
+	static {
+		try {
+			Field f = Unsafe.class.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			UNSAFE = (Unsafe) f.get(null);
+		} catch (Exception e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private UnsafeMemory() {
+	}
+
+	/**
+	 * @return the address of <tt>bytes</tt> of zeroed memory.
+	 */
+	static long allocate(long bytes) {
+		long address = UNSAFE.allocateMemory(bytes);
+		UNSAFE.setMemory(address, bytes, (byte) 0);
+		return address;
+	}
+
+	static void free(long address) {
+		UNSAFE.freeMemory(address);
+	}
+
+	static long getLongVolatile(long address) {
+		return UNSAFE.getLongVolatile(null, address);
+	}
+
+	static void putLongVolatile(long address, long value) {
+		UNSAFE.putLongVolatile(null, address, value);
+	}
+
+	static boolean compareAndSwapLong(long address, long expected, long value) {
+		return UNSAFE.compareAndSwapLong(null, address, expected, value);
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.common.util.statemachines;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Compiled, immutable definition of a finite state machine whose states and
+ * events are the constants of two enums.
+ * 
+ * The transitions are stored in a table indexed by the ordinals of the source
+ * state and of the event, built once and shared by every instance of the
+ * machine. An instance is nothing more than an <tt>int</tt> field of its owner
+ * holding the ordinal of the current state, which {@link #fire} moves with a
+ * compare-and-set: following a transition neither locks nor allocates, and
+ * when two threads race to leave the same state only one of them succeeds.
+ * 
+ * <pre>
+ * static final FSMDefinition&lt;States, Events&gt; FSM = FSMDefinition
+ * 		.builder(States.class, Events.class).initial(States.IDLE)
+ * 		.transition(States.IDLE, Events.START, States.RUNNING).build();
+ * </pre>
+ */
+public final class FSMDefinition<S extends Enum<S>, E extends Enum<E>> {
+	// marks the absence of a transition in the table
+	private static final int NONE = -1;
+
+	private final S[] states;
+	private final E[] events;
+	private final S initial;
+	// ordinal of the target state, indexed by from * events.length + event
+	private final int[] table;
+	private final boolean[] endStates;
+
+	private FSMDefinition(Builder<S, E> builder) {
+		this.states = builder.states;
+		this.events = builder.events;
+		this.initial = builder.initial;
+		this.table = builder.table.clone();
+		this.endStates = new boolean[states.length];
+		for (int s = 0; s < states.length; s++) {
+			boolean end = true;
+			for (int e = 0; end && (e < events.length); e++) {
+				end = (table[s * events.length + e] == NONE);
+			}
+			endStates[s] = end;
+		}
+	}
+
+	public static <S extends Enum<S>, E extends Enum<E>> Builder<S, E> builder(
+			Class<S> stateType, Class<E> eventType) {
+		return new Builder<S, E>(stateType, eventType);
+	}
+
+	public S getInitial() {
+		return initial;
+	}
+
+	/** @return the state of the given ordinal */
+	public S getState(int ordinal) {
+		return states[ordinal];
+	}
+
+	/** @return the event of the given ordinal */
+	public E getEvent(int ordinal) {
+		return events[ordinal];
+	}
+
+	public int getStateCount() {
+		return states.length;
+	}
+
+	public int getEventCount() {
+		return events.length;
+	}
+
+	/**
+	 * @return the state reached by following the event from the state, or
+	 *         <tt>null</tt> if the event is not accepted in that state.
+	 */
+	public S next(S from, E event) {
+		int to = table[from.ordinal() * events.length + event.ordinal()];
+		return (to == NONE) ? null : states[to];
+	}
+
+	/**
+	 * @return true if no event is accepted in the state
+	 */
+	public boolean isEndState(S state) {
+		return endStates[state.ordinal()];
+	}
+
+	/**
+	 * Follows the event from the current state of an instance, the ordinal of
+	 * which is stored in the <tt>int</tt> field behind the updater.
+	 * 
+	 * @return the state entered, or <tt>null</tt> if the event is not accepted
+	 *         in the current state, i.e. because another thread has moved the
+	 *         instance out of the state the event was meant for.
+	 */
+	public <T> S fire(AtomicIntegerFieldUpdater<T> updater, T instance, E event) {
+		long transition = move(updater, instance, event.ordinal());
+		return (transition < 0) ? null : states[(int) transition];
+	}
+
+	/**
+	 * Same as {@link #fire(AtomicIntegerFieldUpdater, Object, Enum)}, the
+	 * transition is also recorded in the trace if it is enabled.
+	 */
+	public <T extends FSMTrace.Traceable> S fire(
+			AtomicIntegerFieldUpdater<T> updater, T instance, E event,
+			FSMTrace<S, E> trace) {
+		long transition = move(updater, instance, event.ordinal());
+		if (transition < 0) {
+			return null;
+		}
+		int to = (int) transition;
+		if (trace.isEnabled()) {
+			trace.record(instance, (int) (transition >>> 32), event.ordinal(), to);
+		}
+		return states[to];
+	}
+
+	// returns from << 32 | to, or NONE
+	private <T> long move(AtomicIntegerFieldUpdater<T> updater, T instance,
+			int event) {
+		for (;;) {
+			int from = updater.get(instance);
+			int to = table[from * events.length + event];
+			if (to == NONE) {
+				return NONE;
+			}
+			if (updater.compareAndSet(instance, from, to)) {
+				return ((long) from << 32) | to;
+			}
+		}
+	}
+
+	/**
+	 * Collects the transitions of a {@link FSMDefinition}, not thread safe.
+	 */
+	public static final class Builder<S extends Enum<S>, E extends Enum<E>> {
+		private final S[] states;
+		private final E[] events;
+		private final int[] table;
+		private S initial;
+
+		private Builder(Class<S> stateType, Class<E> eventType) {
+			this.states = stateType.getEnumConstants();
+			this.events = eventType.getEnumConstants();
+			if ((states.length > 1024) || (events.length > 1024)) {
+				// FSMTrace packs a transition into an int
+				throw new FSMException("builder: at most 1024 states and events");
+			}
+			this.table = new int[states.length * events.length];
+			Arrays.fill(table, NONE);
+			this.initial = states[0];
+		}
+
+		/** Sets the state new instances start in, the first state by default. */
+		public Builder<S, E> initial(S state) {
+			this.initial = state;
+			return this;
+		}
+
+		public Builder<S, E> transition(S from, E event, S to) {
+			int index = from.ordinal() * events.length + event.ordinal();
+			if ((table[index] != NONE) && (table[index] != to.ordinal())) {
+				throw new FSMException("transition: " + event + " already leads from "
+						+ from + " to " + states[table[index]]);
+			}
+			table[index] = to.ordinal();
+			return this;
+		}
+
+		public FSMDefinition<S, E> build() {
+			return new FSMDefinition<S, E>(this);
+		}
+	}
+}
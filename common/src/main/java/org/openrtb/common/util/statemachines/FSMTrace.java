@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.common.util.statemachines;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.openrtb.common.util.LatencyHistogram;
+
+/**
+ * Opt-in record of the transitions followed by the instances of a
+ * {@link FSMDefinition}, meant to replace logging every transition.
+ * 
+ * While enabled, each transition fired through
+ * {@link FSMDefinition#fire(java.util.concurrent.atomic.AtomicIntegerFieldUpdater, Traceable, Enum, FSMTrace)}
+ * <ul>
+ * <li>is written to a ring buffer of the last <tt>capacity</tt> transitions,
+ * as (trace id, from, event, to, nanotime) in preallocated arrays, which
+ * {@link #dump()} and {@link #dump(long)} format on demand,</li>
+ * <li>increments the count of its (from, event) pair, and</li>
+ * <li>records the time spent in the state it leaves in the dwell time
+ * histogram of that state.</li>
+ * </ul>
+ * Recording allocates nothing and takes no lock. The ring buffer is written
+ * concurrently and read without stopping the writers: a slot that is being
+ * overwritten while it is dumped is skipped.
+ */
+public class FSMTrace<S extends Enum<S>, E extends Enum<E>> {
+
+	/**
+	 * Implemented by the owners of the state machine instances being traced.
+	 */
+	public interface Traceable {
+		/** @return id identifying the instance in the trace */
+		public long getTraceId();
+
+		/** @return nanotime the current state was entered at, 0 if unknown */
+		public long getEnteredNanos();
+
+		public void setEnteredNanos(long nanos);
+	}
+
+	// marks a slot being written
+	private static final long WRITING = -1L;
+
+	private final FSMDefinition<S, E> definition;
+	private final int eventCount;
+	private final int mask;
+	private volatile boolean enabled = false;
+
+	// ring buffer, slot i holds the transition of sequence published[i]
+	private final AtomicLong sequence = new AtomicLong();
+	private final AtomicLongArray published;
+	private final long[] ids;
+	private final long[] times;
+	private final int[] transitions;
+
+	private final AtomicLongArray counts;
+	private final LatencyHistogram[] dwellTimes;
+
+	/**
+	 * @param capacity
+	 *            number of transitions kept, rounded up to a power of two
+	 */
+	public FSMTrace(FSMDefinition<S, E> definition, int capacity) {
+		if ((capacity <= 0) || (capacity > (1 << 24))) {
+			throw new IllegalArgumentException("capacity must be between 1 and 2^24");
+		}
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.definition = definition;
+		this.eventCount = definition.getEventCount();
+		this.mask = size - 1;
+		this.published = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			published.set(i, WRITING);
+		}
+		this.ids = new long[size];
+		this.times = new long[size];
+		this.transitions = new int[size];
+		this.counts = new AtomicLongArray(definition.getStateCount() * eventCount);
+		this.dwellTimes = new LatencyHistogram[definition.getStateCount()];
+		for (int s = 0; s < dwellTimes.length; s++) {
+			dwellTimes[s] = new LatencyHistogram();
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	// called by FSMDefinition once the transition is made
+	void record(Traceable instance, int from, int event, int to) {
+		long now = System.nanoTime();
+		long entered = instance.getEnteredNanos();
+		instance.setEnteredNanos(now);
+		counts.incrementAndGet(from * eventCount + event);
+		if (entered != 0) {
+			dwellTimes[from].record(now - entered);
+		}
+		long seq = sequence.getAndIncrement();
+		int slot = (int) (seq & mask);
+		published.set(slot, WRITING);
+		ids[slot] = instance.getTraceId();
+		times[slot] = now;
+		transitions[slot] = (from << 20) | (event << 10) | to;
+		published.set(slot, seq);
+	}
+
+	/** @return number of times the event was followed from the state */
+	public long getTransitionCount(S from, E event) {
+		return counts.get(from.ordinal() * eventCount + event.ordinal());
+	}
+
+	/** @return nanoseconds spent in the state before leaving it */
+	public LatencyHistogram getDwellTime(S state) {
+		return dwellTimes[state.ordinal()];
+	}
+
+	/** @return total number of transitions recorded */
+	public long getRecorded() {
+		return sequence.get();
+	}
+
+	/**
+	 * @return the transitions still in the ring buffer, oldest first, one per
+	 *         line.
+	 */
+	public String dump() {
+		return dump(false, 0L);
+	}
+
+	/**
+	 * @return the transitions of the instance still in the ring buffer.
+	 */
+	public String dump(long traceId) {
+		return dump(true, traceId);
+	}
+
+	private String dump(boolean filter, long traceId) {
+		StringBuilder sb = new StringBuilder();
+		long last = sequence.get();
+		long first = Math.max(0L, last - (mask + 1));
+		long origin = -1L;
+		for (long seq = first; seq < last; seq++) {
+			int slot = (int) (seq & mask);
+			if (published.get(slot) != seq) {
+				continue;
+			}
+			long id = ids[slot];
+			long time = times[slot];
+			int transition = transitions[slot];
+			if (published.get(slot) != seq) {
+				continue; // overwritten while reading it
+			}
+			if (filter && (id != traceId)) {
+				continue;
+			}
+			if (origin < 0) {
+				origin = time;
+			}
+			sb.append('+').append(TimeUnit.NANOSECONDS.toMicros(time - origin))
+					.append("us txn=").append(id).append(' ')
+					.append(definition.getState(transition >>> 20)).append(" --")
+					.append(definition.getEvent((transition >>> 10) & 0x3ff))
+					.append("--> ").append(definition.getState(transition & 0x3ff))
+					.append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -6,6 +6,11 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * @deprecated each instance copies the whole transition map and serializes
+ *             its callers, use a shared {@link FSMDefinition} instead.
+ */
+@Deprecated
 public class FiniteStateMachine<T extends FSMCallback> {
 	private Map<T, FSMState<T>> states = new HashMap<T, FSMState<T>>();
 	private Map<FSMTransition<T, String>, T> transitions = new HashMap<FSMTransition<T, String>, T>();
@@ -88,13 +93,16 @@ public class FiniteStateMachine<T extends FSMCallback> {
 	public void followTransition(FSMTransition<T, String> t,
 			Object context) {
 		// follow the transition t from current state
-		Thread.currentThread().getId();
-    	logger.info("Thread id:" + Thread.currentThread().getId() + " Initial State :" + t.toString());
+		if (logger.isDebugEnabled()) {
+			logger.debug("Thread id:" + Thread.currentThread().getId() + " Initial State :" + t.toString());
+		}
 		if (!transitions.containsKey(t))
 			throw new FSMException("followTransition: Illegal Transition");
 		current = findState(transitions.get(t));
-		logger.info("Thread id:" + Thread.currentThread().getId() + "Final State :" +current.state().toString() );
-    	
+		if (logger.isDebugEnabled()) {
+			logger.debug("Thread id:" + Thread.currentThread().getId() + "Final State :" +current.state().toString() );
+		}
+
 		if (current == null)
 			throw new FSMException("followTransition: Illegal next State");
 			FSMCallback callback = (FSMCallback) current.state();
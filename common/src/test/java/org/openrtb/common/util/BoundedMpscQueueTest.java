@@ -0,0 +1,94 @@
+package org.openrtb.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class BoundedMpscQueueTest {
+
+	@Test
+	public void capacityTest() {
+		assertEquals(8, new BoundedMpscQueue<Object>(5).getCapacity());
+		assertEquals(1, new BoundedMpscQueue<Object>(1).getCapacity());
+		assertEquals(1024, new BoundedMpscQueue<Object>(1024).getCapacity());
+	}
+
+	@Test
+	public void fifoTest() {
+		BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<Integer>(4);
+		assertNull(queue.poll());
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 4; i++) {
+				assertTrue(queue.offer(i));
+			}
+			assertFalse("the queue is full", queue.offer(4));
+			assertEquals(4, queue.size());
+			assertEquals(Integer.valueOf(0), queue.poll());
+			assertTrue(queue.offer(4));
+			List<Integer> drained = new ArrayList<Integer>();
+			assertEquals(3, queue.drainTo(drained, 3));
+			assertEquals(Integer.valueOf(1), drained.get(0));
+			assertEquals(Integer.valueOf(4), queue.poll());
+			assertTrue(queue.isEmpty());
+		}
+	}
+
+	@Test
+	public void concurrentOfferTest() throws InterruptedException {
+		final BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<Integer>(64);
+		final int producers = 4;
+		final int perProducer = 20000;
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final int base = p * perProducer;
+			threads[p] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < perProducer; i++) {
+						while (!queue.offer(base + i)) {
+							Thread.yield();
+						}
+					}
+				}
+			};
+			threads[p].start();
+		}
+		start.countDown();
+		boolean[] seen = new boolean[producers * perProducer];
+		int[] last = new int[producers];
+		Arrays.fill(last, -1);
+		int received = 0;
+		while (received < seen.length) {
+			Integer e = queue.poll();
+			if (e == null) {
+				Thread.yield();
+				continue;
+			}
+			assertFalse("delivered twice: " + e, seen[e]);
+			seen[e] = true;
+			// each producer's elements come out in order
+			int p = e / perProducer;
+			assertTrue(e > last[p]);
+			last[p] = e;
+			received++;
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertTrue(queue.isEmpty());
+	}
+}
@@ -0,0 +1,90 @@
+package org.openrtb.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrtb.common.util.HashedWheelTimer.Timeout;
+
+public class HashedWheelTimerTest {
+
+	private HashedWheelTimer timer;
+
+	@Before
+	public void setUp() {
+		// a small wheel, so that the tests cover timeouts spanning several rounds
+		timer = new HashedWheelTimer("test-timer", 5, TimeUnit.MILLISECONDS, 8);
+	}
+
+	@After
+	public void tearDown() {
+		timer.stop();
+	}
+
+	@Test
+	public void timeoutExpires() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		long start = System.nanoTime();
+		Timeout timeout = timer.newTimeout(new Runnable() {
+			public void run() {
+				latch.countDown();
+			}
+		}, 100, TimeUnit.MILLISECONDS);
+		assertTrue("Timeout should expire", latch.await(2, TimeUnit.SECONDS));
+		long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("Timeout expired too early: " + elapsedMs, elapsedMs >= 95);
+		assertTrue(timeout.isExpired());
+		assertFalse("An expired timeout cannot be cancelled", timeout.cancel());
+		assertEquals(0, timer.getPendingTimeouts());
+		assertEquals(1, timer.getExpiredTimeouts());
+	}
+
+	@Test
+	public void cancelledTimeoutNeverRuns() throws InterruptedException {
+		final AtomicInteger runs = new AtomicInteger();
+		Runnable task = new Runnable() {
+			public void run() {
+				runs.incrementAndGet();
+			}
+		};
+		Timeout cancelled = timer.newTimeout(task, 30, TimeUnit.MILLISECONDS);
+		final CountDownLatch latch = new CountDownLatch(1);
+		timer.newTimeout(new Runnable() {
+			public void run() {
+				latch.countDown();
+			}
+		}, 80, TimeUnit.MILLISECONDS);
+		assertEquals(2, timer.getPendingTimeouts());
+		assertTrue(cancelled.cancel());
+		assertFalse("A timeout is only cancelled once", cancelled.cancel());
+		assertEquals(1, timer.getPendingTimeouts());
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+		assertEquals(0, runs.get());
+		assertTrue(cancelled.isCancelled());
+		assertEquals(1, timer.getCancelledTimeouts());
+		assertEquals(2, timer.getScheduledTimeouts());
+	}
+
+	@Test
+	public void manyTimeoutsExpireInOrder() throws InterruptedException {
+		final int count = 200;
+		final CountDownLatch latch = new CountDownLatch(count);
+		for (int i = 0; i < count; i++) {
+			timer.newTimeout(new Runnable() {
+				public void run() {
+					latch.countDown();
+				}
+			}, i % 50, TimeUnit.MILLISECONDS);
+		}
+		assertTrue("All timeouts should expire", latch.await(5, TimeUnit.SECONDS));
+		assertEquals(0, timer.getPendingTimeouts());
+		assertEquals(count, timer.getExpiredTimeouts());
+	}
+}
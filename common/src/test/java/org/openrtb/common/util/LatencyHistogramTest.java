@@ -0,0 +1,75 @@
+package org.openrtb.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void bucketsTest() {
+		// exact below 16
+		assertEquals(0, LatencyHistogram.bucketOf(0));
+		assertEquals(1, LatencyHistogram.bucketOf(1));
+		assertEquals(15, LatencyHistogram.bucketOf(15));
+		assertEquals(15, LatencyHistogram.getBucketBound(15));
+		// then 16 buckets per power of two
+		assertEquals(16, LatencyHistogram.bucketOf(16));
+		assertEquals(32, LatencyHistogram.bucketOf(32));
+		assertEquals(32, LatencyHistogram.bucketOf(33));
+		assertEquals(33, LatencyHistogram.getBucketBound(32));
+		assertEquals(LatencyHistogram.BUCKETS - 1,
+				LatencyHistogram.bucketOf(Long.MAX_VALUE));
+		assertEquals(Long.MAX_VALUE,
+				LatencyHistogram.getBucketBound(LatencyHistogram.BUCKETS - 1));
+		// every value falls in the bucket whose bounds enclose it
+		for (long value = 1; value > 0; value = value * 3 + 1) {
+			int b = LatencyHistogram.bucketOf(value);
+			assertTrue(value <= LatencyHistogram.getBucketBound(b));
+			assertTrue(value > LatencyHistogram.getBucketBound(b - 1));
+		}
+	}
+
+	@Test
+	public void percentilesTest() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 99; i++) {
+			histogram.record(100);
+		}
+		histogram.record(100000);
+		assertEquals(100, histogram.getCount());
+		assertEquals(100000, histogram.getMax());
+		assertEquals((99 * 100 + 100000) / 100.0, histogram.getMean(), 0.001);
+		// 100 falls in [100, 104)
+		assertEquals(103, histogram.getPercentile(50));
+		assertEquals(103, histogram.getPercentile(99));
+		assertEquals(100000, histogram.getPercentile(100));
+		assertTrue(histogram.getPercentile(99.9) > 103);
+	}
+
+	@Test
+	public void precisionTest() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 100000; value++) {
+			histogram.record(value * 1000);
+		}
+		for (double percentile : new double[] { 50, 90, 99, 99.9 }) {
+			double exact = percentile * 1000.0 * 1000.0;
+			long estimate = histogram.getPercentile(percentile);
+			assertTrue(percentile + ": " + estimate, estimate >= exact);
+			assertTrue(percentile + ": " + estimate, estimate <= exact
+					* (1.0 + 1.0 / LatencyHistogram.SUB_BUCKETS));
+		}
+	}
+
+	@Test
+	public void resetTest() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		assertEquals(1, histogram.getBucketCount(0));
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(50));
+	}
+}
@@ -0,0 +1,165 @@
+package org.openrtb.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OffHeapCounterTableTest {
+	private OffHeapCounterTable table;
+
+	@Before
+	public void setUp() {
+		table = new OffHeapCounterTable(100);
+	}
+
+	@After
+	public void tearDown() {
+		table.close();
+	}
+
+	@Test
+	public void capacityTest() {
+		assertEquals(128, table.getCapacity());
+		assertEquals(128 * OffHeapCounterTable.ENTRY_SIZE, table.getMemorySize());
+	}
+
+	@Test
+	public void limitTest() {
+		assertEquals(0, table.get(42L, 10));
+		assertTrue(table.tryIncrement(42L, 2, 60, 10));
+		assertTrue(table.tryIncrement(42L, 2, 60, 10));
+		assertFalse(table.tryIncrement(42L, 2, 60, 10));
+		assertEquals(2, table.get(42L, 10));
+		assertEquals(0, table.get(43L, 10));
+
+		table.decrement(42L, 10);
+		assertEquals(1, table.get(42L, 10));
+		assertTrue(table.tryIncrement(42L, 2, 60, 10));
+		assertFalse(table.tryIncrement(42L, 0, 60, 10));
+	}
+
+	@Test
+	public void expiryTest() {
+		assertTrue(table.tryIncrement(7L, 1, 60, 10));
+		assertFalse(table.tryIncrement(7L, 1, 60, 69));
+		// the window is over, a new one starts
+		assertEquals(0, table.get(7L, 70));
+		assertTrue(table.tryIncrement(7L, 1, 60, 70));
+		assertFalse(table.tryIncrement(7L, 1, 60, 71));
+		// decrementing an expired counter has no effect
+		table.decrement(7L, 200);
+		assertEquals(0, table.get(7L, 200));
+	}
+
+	@Test
+	public void reuseTest() {
+		// smaller than the probe limit, so every key sees every entry
+		OffHeapCounterTable small = new OffHeapCounterTable(16);
+		try {
+			for (long key = 1; key <= small.getCapacity(); key++) {
+				assertTrue(small.tryIncrement(key, 1, 10, 1));
+			}
+			assertEquals(0, small.getOverflows());
+			// full, new keys are let through without being counted
+			assertTrue(small.tryIncrement(1000L, 1, 10, 1));
+			assertEquals(1, small.getOverflows());
+			assertEquals(0, small.get(1000L, 1));
+
+			// once expired past the grace period, entries are reused
+			int later = 11 + OffHeapCounterTable.GRACE_SECONDS;
+			assertTrue(small.tryIncrement(1000L, 1, 10, later));
+			assertFalse(small.tryIncrement(1000L, 1, 10, later));
+			assertEquals(1, small.getOverflows());
+		} finally {
+			small.close();
+		}
+	}
+
+	@Test
+	public void zeroLimitTest() {
+		OffHeapCounterTable small = new OffHeapCounterTable(16);
+		try {
+			// rejected without claiming entries
+			for (long key = 1; key <= 100; key++) {
+				assertFalse(small.tryIncrement(key, 0, 10, 1));
+			}
+			for (long key = 101; key <= 100 + small.getCapacity(); key++) {
+				assertTrue(small.tryIncrement(key, 1, 10, 1));
+			}
+			assertEquals(0, small.getOverflows());
+		} finally {
+			small.close();
+		}
+	}
+
+	@Test
+	public void reclaimTest() {
+		OffHeapCounterTable small = new OffHeapCounterTable(16);
+		try {
+			for (long key = 1; key <= small.getCapacity(); key++) {
+				assertTrue(small.tryIncrement(key, 2, 10, 1));
+			}
+			// key 1000 takes over an expired entry, and counts from scratch
+			int later = 11 + OffHeapCounterTable.GRACE_SECONDS;
+			assertTrue(small.tryIncrement(1000L, 2, 10, later));
+			assertEquals(1, small.get(1000L, later));
+			assertTrue(small.tryIncrement(1000L, 2, 10, later));
+			assertFalse(small.tryIncrement(1000L, 2, 10, later));
+			small.decrement(1000L, later);
+			assertEquals(1, small.get(1000L, later));
+			assertEquals(0, small.getOverflows());
+		} finally {
+			small.close();
+		}
+	}
+
+	@Test
+	public void concurrentIncrementTest() throws InterruptedException {
+		final int threads = 8;
+		final int limit = 1000;
+		final AtomicInteger accepted = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			new Thread() {
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < limit; i++) {
+							for (long key = 1; key <= 16; key++) {
+								if (table.tryIncrement(key, limit, 3600)) {
+									accepted.incrementAndGet();
+								}
+							}
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		start.countDown();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(16 * limit, accepted.get());
+		for (long key = 1; key <= 16; key++) {
+			assertEquals(limit, table.get(key));
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void closedTest() {
+		OffHeapCounterTable closed = new OffHeapCounterTable(16);
+		closed.close();
+		closed.get(1L);
+	}
+}
@@ -0,0 +1,105 @@
+package org.openrtb.common.util.statemachines;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.junit.Test;
+
+public class FSMDefinitionTest {
+
+	enum States {
+		IDLE, RUNNING, DONE, CANCELLED
+	}
+
+	enum Events {
+		START, FINISH, CANCEL
+	}
+
+	static final FSMDefinition<States, Events> FSM = FSMDefinition
+			.builder(States.class, Events.class)
+			.transition(States.IDLE, Events.START, States.RUNNING)
+			.transition(States.IDLE, Events.CANCEL, States.CANCELLED)
+			.transition(States.RUNNING, Events.FINISH, States.DONE)
+			.transition(States.RUNNING, Events.CANCEL, States.CANCELLED)
+			.build();
+
+	static class Instance {
+		volatile int state = FSM.getInitial().ordinal();
+	}
+
+	static final AtomicIntegerFieldUpdater<Instance> STATE = AtomicIntegerFieldUpdater
+			.newUpdater(Instance.class, "state");
+
+	@Test
+	public void tableTest() {
+		assertSame(States.IDLE, FSM.getInitial());
+		assertSame(States.RUNNING, FSM.next(States.IDLE, Events.START));
+		assertSame(States.DONE, FSM.next(States.RUNNING, Events.FINISH));
+		assertNull(FSM.next(States.IDLE, Events.FINISH));
+		assertNull(FSM.next(States.DONE, Events.CANCEL));
+		assertFalse(FSM.isEndState(States.RUNNING));
+		assertTrue(FSM.isEndState(States.DONE));
+		assertTrue(FSM.isEndState(States.CANCELLED));
+	}
+
+	@Test(expected = FSMException.class)
+	public void conflictingTransitionTest() {
+		FSMDefinition.builder(States.class, Events.class)
+				.transition(States.IDLE, Events.START, States.RUNNING)
+				.transition(States.IDLE, Events.START, States.DONE);
+	}
+
+	@Test
+	public void fireTest() {
+		Instance instance = new Instance();
+		assertNull("FINISH is not accepted in IDLE",
+				FSM.fire(STATE, instance, Events.FINISH));
+		assertEquals(States.IDLE.ordinal(), instance.state);
+		assertSame(States.RUNNING, FSM.fire(STATE, instance, Events.START));
+		assertSame(States.DONE, FSM.fire(STATE, instance, Events.FINISH));
+		assertNull(FSM.fire(STATE, instance, Events.CANCEL));
+		assertSame(States.DONE, FSM.getState(instance.state));
+	}
+
+	@Test
+	public void racingEventsTest() throws InterruptedException {
+		// FINISH and CANCEL race to leave RUNNING, only one may get through
+		for (int round = 0; round < 200; round++) {
+			final Instance instance = new Instance();
+			FSM.fire(STATE, instance, Events.START);
+			final CountDownLatch start = new CountDownLatch(1);
+			final AtomicInteger winners = new AtomicInteger();
+			Thread[] threads = new Thread[2];
+			final Events[] events = { Events.FINISH, Events.CANCEL };
+			for (int i = 0; i < threads.length; i++) {
+				final Events event = events[i];
+				threads[i] = new Thread() {
+					public void run() {
+						try {
+							start.await();
+						} catch (InterruptedException e) {
+							return;
+						}
+						if (FSM.fire(STATE, instance, event) != null) {
+							winners.incrementAndGet();
+						}
+					}
+				};
+				threads[i].start();
+			}
+			start.countDown();
+			for (Thread t : threads) {
+				t.join();
+			}
+			assertEquals(1, winners.get());
+			assertTrue(FSM.isEndState(FSM.getState(instance.state)));
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package org.openrtb.common.util.statemachines;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.junit.Test;
+
+public class FSMTraceTest {
+
+	enum States {
+		IDLE, RUNNING, DONE
+	}
+
+	enum Events {
+		START, FINISH
+	}
+
+	static final FSMDefinition<States, Events> FSM = FSMDefinition
+			.builder(States.class, Events.class)
+			.transition(States.IDLE, Events.START, States.RUNNING)
+			.transition(States.RUNNING, Events.FINISH, States.DONE).build();
+
+	static class Instance implements FSMTrace.Traceable {
+		volatile int state;
+		final long id;
+		long entered = System.nanoTime();
+
+		Instance(long id) {
+			this.id = id;
+		}
+
+		public long getTraceId() {
+			return id;
+		}
+
+		public long getEnteredNanos() {
+			return entered;
+		}
+
+		public void setEnteredNanos(long nanos) {
+			entered = nanos;
+		}
+	}
+
+	static final AtomicIntegerFieldUpdater<Instance> STATE = AtomicIntegerFieldUpdater
+			.newUpdater(Instance.class, "state");
+
+	@Test
+	public void disabledTraceRecordsNothingTest() {
+		FSMTrace<States, Events> trace = new FSMTrace<States, Events>(FSM, 16);
+		Instance instance = new Instance(1);
+		FSM.fire(STATE, instance, Events.START, trace);
+		assertEquals(0, trace.getRecorded());
+		assertEquals(0, trace.getTransitionCount(States.IDLE, Events.START));
+		assertEquals("", trace.dump());
+	}
+
+	@Test
+	public void countsAndDwellTimesTest() throws InterruptedException {
+		FSMTrace<States, Events> trace = new FSMTrace<States, Events>(FSM, 16);
+		trace.setEnabled(true);
+		for (int i = 0; i < 3; i++) {
+			Instance instance = new Instance(i);
+			FSM.fire(STATE, instance, Events.START, trace);
+			Thread.sleep(2);
+			FSM.fire(STATE, instance, Events.FINISH, trace);
+			// not accepted, not recorded
+			FSM.fire(STATE, instance, Events.FINISH, trace);
+		}
+		assertEquals(6, trace.getRecorded());
+		assertEquals(3, trace.getTransitionCount(States.IDLE, Events.START));
+		assertEquals(3, trace.getTransitionCount(States.RUNNING, Events.FINISH));
+		assertEquals(0, trace.getTransitionCount(States.IDLE, Events.FINISH));
+		assertEquals(3, trace.getDwellTime(States.RUNNING).getCount());
+		assertTrue(trace.getDwellTime(States.RUNNING).getMax() >= 2000000L);
+	}
+
+	@Test
+	public void dumpTest() {
+		FSMTrace<States, Events> trace = new FSMTrace<States, Events>(FSM, 4);
+		trace.setEnabled(true);
+		for (int i = 0; i < 3; i++) {
+			Instance instance = new Instance(i);
+			FSM.fire(STATE, instance, Events.START, trace);
+			FSM.fire(STATE, instance, Events.FINISH, trace);
+		}
+		String dump = trace.dump();
+		// only the last 4 transitions are kept
+		assertEquals(4, dump.split("\n").length);
+		assertFalse(dump.contains("txn=0 "));
+		String txn = trace.dump(2);
+		assertEquals(2, txn.split("\n").length);
+		assertTrue(txn, txn.contains("txn=2 IDLE --START--> RUNNING"));
+		assertTrue(txn, txn.contains("txn=2 RUNNING --FINISH--> DONE"));
+	}
+}
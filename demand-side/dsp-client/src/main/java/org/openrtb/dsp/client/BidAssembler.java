@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openrtb.dsp.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.avro.util.Utf8;
+import org.openrtb.common.api.Bid;
+import org.openrtb.common.api.BidResponse;
+import org.openrtb.common.api.SeatBid;
+import org.openrtb.dsp.intf.service.IdGenerator;
+
+/**
+ * Source of the {@link SeatBid} and {@link Bid} records of the responses built
+ * on the calling thread.
+ * 
+ * Bidders group their bids by seat: one {@link SeatBid} per seat, holding the
+ * bids of that seat for all the impressions of the request. Once a response
+ * has been encoded its records are handed back through
+ * {@link #recycle(BidResponse)} and kept in a bounded pool, so that steady
+ * state responses allocate no records besides the response itself and its
+ * list of seat bids. Records beyond the pool size are left to the garbage
+ * collector.
+ * 
+ * An assembler belongs to one thread (see {@link #get()}) and is not thread
+ * safe. Records recycled on another thread than the one that built them
+ * simply move to that thread's pool.
+ */
+public final class BidAssembler {
+	static final int MAX_POOLED_SEATBIDS = 256;
+	static final int MAX_POOLED_BIDS = 4096;
+
+	private static final ThreadLocal<BidAssembler> assemblers = new ThreadLocal<BidAssembler>() {
+		@Override
+		protected BidAssembler initialValue() {
+			return new BidAssembler();
+		}
+	};
+
+	private final SeatBid[] seatBids = new SeatBid[MAX_POOLED_SEATBIDS];
+	private int pooledSeatBids;
+	private final Bid[] bids = new Bid[MAX_POOLED_BIDS];
+	private int pooledBids;
+
+	BidAssembler() {
+	}
+
+	/**
+	 * @return the assembler of the calling thread.
+	 */
+	public static BidAssembler get() {
+		return assemblers.get();
+	}
+
+	/**
+	 * @return an empty seat bid for <tt>seat</tt>, its bid list sized for
+	 *         <tt>expectedBids</tt>.
+	 */
+	public SeatBid seatBid(CharSequence seat, int expectedBids) {
+		SeatBid seatBid;
+		if (pooledSeatBids > 0) {
+			seatBid = seatBids[--pooledSeatBids];
+			seatBids[pooledSeatBids] = null;
+			((ArrayList<Bid>) seatBid.bid).ensureCapacity(expectedBids);
+		} else {
+			seatBid = new SeatBid();
+			seatBid.bid = new ArrayList<Bid>(expectedBids);
+		}
+		seatBid.seat = seat;
+		return seatBid;
+	}
+
+	/**
+	 * @return an empty bid carrying a new id from <tt>ids</tt>, the string
+	 *         of a recycled bid's id is overwritten rather than reallocated.
+	 */
+	public Bid bid(IdGenerator ids) {
+		Bid bid;
+		if (pooledBids > 0) {
+			bid = bids[--pooledBids];
+			bids[pooledBids] = null;
+		} else {
+			bid = new Bid();
+		}
+		bid.id = ids.nextId(bid.id instanceof Utf8 ? (Utf8) bid.id : null);
+		return bid;
+	}
+
+	/**
+	 * Returns the seat bids and bids of the response to the pool, and empties
+	 * its list of seat bids. Recycling a response twice has no effect.
+	 */
+	public void recycle(BidResponse response) {
+		List<SeatBid> list = response.seatbid;
+		if (list == null) {
+			return;
+		}
+		for (int i = 0; i < list.size(); i++) {
+			SeatBid seatBid = list.get(i);
+			List<Bid> bidList = seatBid.bid;
+			if (bidList != null) {
+				for (int j = 0; j < bidList.size(); j++) {
+					release(bidList.get(j));
+				}
+			}
+			release(seatBid);
+		}
+		list.clear();
+	}
+
+	private void release(SeatBid seatBid) {
+		// only seat bids built here own a resizable list
+		if ((pooledSeatBids == MAX_POOLED_SEATBIDS)
+				|| !(seatBid.bid instanceof ArrayList)) {
+			return;
+		}
+		seatBid.bid.clear();
+		seatBid.seat = null;
+		seatBid.group = null;
+		seatBid.ext = null;
+		seatBids[pooledSeatBids++] = seatBid;
+	}
+
+	private void release(Bid bid) {
+		if (pooledBids == MAX_POOLED_BIDS) {
+			return;
+		}
+		// the id is kept, to be overwritten by the next one
+		bid.impid = null;
+		bid.price = null;
+		bid.adid = null;
+		bid.nurl = null;
+		bid.adm = null;
+		bid.adomain = null;
+		bid.iurl = null;
+		bid.cid = null;
+		bid.crid = null;
+		bid.attr = null;
+		bid.ext = null;
+		bids[pooledBids++] = bid;
+	}
+
+	int getPooledSeatBids() {
+		return pooledSeatBids;
+	}
+
+	int getPooledBids() {
+		return pooledBids;
+	}
+}
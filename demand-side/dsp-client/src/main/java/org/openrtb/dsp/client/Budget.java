@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openrtb.dsp.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Spend counter of one advertiser, paced over a period.
+ * 
+ * Amounts are micro units of the bid currency. The budget is released to a
+ * pool in equal parts at the start of every slice of the pacing period,
+ * tokens left unspent in a slice carry over to the next ones. Spending never
+ * touches the pool directly: each thread is assigned one of a fixed number of
+ * padded shards, and spends the tokens of its shard with a compare-and-set.
+ * A shard that runs short takes a chunk of tokens from the pool, so request
+ * threads only contend on the pool once per chunk and checking a bid against
+ * the budget is a single atomic operation in the common case.
+ * 
+ * Tokens taken by a shard but not spent are invisible to the other shards.
+ * They are returned to the pool whenever a new slice starts, and by
+ * {@link #reconcile()}; the amount held by the shards, hence the amount by
+ * which the spend can exceed a lowered total or fall short of the paced
+ * amount, is bounded by {@link #getMaxError()}.
+ */
+public class Budget {
+	/** micro units in one unit of the bid currency */
+	public static final long MICROS = 1000000L;
+
+	private static final int SHARDS;
+	static {
+		int n = 1;
+		while ((n < Runtime.getRuntime().availableProcessors()) && (n < 64)) {
+			n <<= 1;
+		}
+		SHARDS = n;
+	}
+	private static final AtomicInteger nextShard = new AtomicInteger();
+	private static final ThreadLocal<Integer> shardIndex = new ThreadLocal<Integer>() {
+		@Override
+		protected Integer initialValue() {
+			return nextShard.getAndIncrement() & (SHARDS - 1);
+		}
+	};
+
+	// the unspent tokens of the shard
+	@SuppressWarnings("serial")
+	private static final class Shard extends AtomicLong {
+		volatile long spent;
+		// keeps neighbouring shards off the cache line of the tokens
+		long p1, p2, p3, p4, p5, p6;
+	}
+
+	private static final AtomicLongFieldUpdater<Shard> SPENT = AtomicLongFieldUpdater
+			.newUpdater(Shard.class, "spent");
+
+	private volatile long total;
+	private final long startNanos;
+	private final long sliceNanos;
+	private final int slices;
+	private final long chunk;
+	private final Shard[] shards = new Shard[SHARDS];
+	// tokens released so far, at most total
+	private final AtomicLong released = new AtomicLong();
+	// released tokens not held by a shard, negative after lowering the total
+	private final AtomicLong pool = new AtomicLong();
+	private volatile long nextSliceNanos;
+
+	/**
+	 * @param total
+	 *            the budget, in micro units
+	 * @param periodMillis
+	 *            the period the budget is paced over, 0 to release it at once
+	 * @param sliceMillis
+	 *            the period between two releases
+	 * @param maxError
+	 *            bound of the tokens held by the shards, in micro units
+	 */
+	public Budget(long total, long periodMillis, long sliceMillis, long maxError) {
+		if ((total < 0) || (periodMillis < 0) || (sliceMillis <= 0)
+				|| (maxError < 0)) {
+			throw new IllegalArgumentException("invalid budget: total=" + total
+					+ ", period=" + periodMillis + "ms, slice=" + sliceMillis
+					+ "ms, maxError=" + maxError);
+		}
+		this.total = total;
+		this.startNanos = System.nanoTime();
+		this.sliceNanos = sliceMillis * 1000000L;
+		this.slices = (int) Math.max(1L, Math.min(Integer.MAX_VALUE,
+				periodMillis / sliceMillis));
+		this.chunk = Math.max(1L, maxError / SHARDS);
+		for (int i = 0; i < SHARDS; i++) {
+			shards[i] = new Shard();
+		}
+		this.nextSliceNanos = startNanos;
+		pace();
+	}
+
+	/**
+	 * Deducts <tt>amount</tt> unless that would exceed the tokens released so
+	 * far.
+	 * 
+	 * @return true if the amount was deducted
+	 */
+	public boolean trySpend(long amount) {
+		if (amount <= 0) {
+			return true;
+		}
+		Shard s = shards[shardIndex.get()];
+		for (;;) {
+			long tokens = s.get();
+			if (tokens >= amount) {
+				if (s.compareAndSet(tokens, tokens - amount)) {
+					SPENT.addAndGet(s, amount);
+					return true;
+				}
+			} else if (!refill(s, amount - tokens)) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Gives back an amount deducted by {@link #trySpend(long)}, i.e. the part
+	 * of a bid that was not charged.
+	 */
+	public void refund(long amount) {
+		if (amount <= 0) {
+			return;
+		}
+		Shard s = shards[shardIndex.get()];
+		s.addAndGet(amount);
+		SPENT.addAndGet(s, -amount);
+	}
+
+	/**
+	 * @return false if <tt>amount</tt> cannot be spent at this time. A true
+	 *         result is a hint, as other threads may spend concurrently.
+	 */
+	public boolean canSpend(long amount) {
+		return (shards[shardIndex.get()].get() >= amount)
+				|| (pool.get() >= amount)
+				|| (System.nanoTime() - nextSliceNanos >= 0);
+	}
+
+	/**
+	 * Returns the tokens held by the shards to the pool, settling the pool's
+	 * debt after the total was lowered.
+	 */
+	public void reconcile() {
+		for (Shard s : shards) {
+			long tokens = s.getAndSet(0L);
+			if (tokens != 0L) {
+				pool.addAndGet(tokens);
+			}
+		}
+	}
+
+	/**
+	 * Changes the total, the part of the new total due at this point of the
+	 * pacing period is released or taken back at the next slice.
+	 */
+	public void setTotal(long total) {
+		if (total < 0) {
+			throw new IllegalArgumentException("total must not be negative");
+		}
+		this.total = total;
+		nextSliceNanos = System.nanoTime();
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	public long getSpent() {
+		long spent = 0L;
+		for (Shard s : shards) {
+			spent += s.spent;
+		}
+		return spent;
+	}
+
+	/**
+	 * @return the tokens released but not spent yet.
+	 */
+	public long getAvailable() {
+		long available = pool.get();
+		for (Shard s : shards) {
+			available += s.get();
+		}
+		return available;
+	}
+
+	/**
+	 * @return the most the shards may hold: one chunk each, or the largest
+	 *         amount spent at once if larger.
+	 */
+	public long getMaxError() {
+		return chunk * SHARDS;
+	}
+
+	// moves up to max(need, chunk) tokens from the pool into the shard
+	private boolean refill(Shard s, long need) {
+		pace();
+		long take = Math.max(need, chunk);
+		for (;;) {
+			long p = pool.get();
+			if (p <= 0L) {
+				return false;
+			}
+			long got = Math.min(p, take);
+			if (pool.compareAndSet(p, p - got)) {
+				s.addAndGet(got);
+				return got >= need;
+			}
+		}
+	}
+
+	// releases the tokens due at the current slice, and reconciles the
+	// shards once per slice
+	private void pace() {
+		long now = System.nanoTime();
+		long next = nextSliceNanos;
+		if (now - next < 0) {
+			return;
+		}
+		long slice = Math.min(slices, (now - startNanos) / sliceNanos + 1);
+		long due = (slice >= slices) ? total
+				: (long) ((double) total * slice / slices);
+		long r = released.get();
+		if ((due != r) && released.compareAndSet(r, due)) {
+			pool.addAndGet(due - r);
+		}
+		nextSliceNanos = (slice >= slices) ? Long.MAX_VALUE / 2 + now
+				: startNanos + slice * sliceNanos;
+		reconcile();
+	}
+
+	int getShardCount() {
+		return SHARDS;
+	}
+}
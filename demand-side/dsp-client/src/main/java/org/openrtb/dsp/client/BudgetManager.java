@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openrtb.dsp.client;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openrtb.dsp.intf.model.RTBAdvertiser;
+
+/**
+ * The {@link Budget}s of the advertisers, keyed by landing page.
+ * 
+ * A budget is created the first time an advertiser with a
+ * {@link RTBAdvertiser#getBudget() budget} bids, and outlives configuration
+ * reloads: a reloaded advertiser keeps its spend, and a changed budget only
+ * changes the total. Advertisers without a budget are not limited.
+ */
+public class BudgetManager {
+	public static final long DEFAULT_PERIOD_MILLIS = TimeUnit.DAYS.toMillis(1);
+	public static final long DEFAULT_SLICE_MILLIS = TimeUnit.SECONDS.toMillis(1);
+	public static final long DEFAULT_MAX_ERROR = Budget.MICROS;
+
+	private final ConcurrentMap<String, Budget> budgets = new ConcurrentHashMap<String, Budget>();
+	private final long periodMillis;
+	private final long sliceMillis;
+	private final long maxError;
+
+	public BudgetManager() {
+		this(DEFAULT_PERIOD_MILLIS, DEFAULT_SLICE_MILLIS, DEFAULT_MAX_ERROR);
+	}
+
+	/**
+	 * @see Budget#Budget(long, long, long, long)
+	 */
+	public BudgetManager(long periodMillis, long sliceMillis, long maxError) {
+		this.periodMillis = periodMillis;
+		this.sliceMillis = sliceMillis;
+		this.maxError = maxError;
+	}
+
+	/**
+	 * @return the budget of the advertiser, null if it has none.
+	 */
+	public Budget getBudget(RTBAdvertiser advertiser) {
+		Double amount = advertiser.getBudget();
+		if (amount == null) {
+			return null;
+		}
+		long total = Math.round(amount.doubleValue() * Budget.MICROS);
+		Budget budget = budgets.get(advertiser.getLandingPage());
+		if (budget == null) {
+			budget = new Budget(total, periodMillis, sliceMillis, maxError);
+			Budget existing = budgets.putIfAbsent(advertiser.getLandingPage(),
+					budget);
+			if (existing != null) {
+				budget = existing;
+			}
+		}
+		if (budget.getTotal() != total) {
+			budget.setTotal(total);
+		}
+		return budget;
+	}
+
+	/**
+	 * @return the budget of the advertiser with this landing page, null if it
+	 *         has not bid with a budget.
+	 */
+	public Budget getBudget(String landingPage) {
+		return budgets.get(landingPage);
+	}
+
+	/**
+	 * @return the cost of an impression won at <tt>cpm</tt>, in micro units.
+	 */
+	public static long costOf(float cpm) {
+		// cpm / 1000 impressions * MICROS
+		return Math.round(cpm * (double) (Budget.MICROS / 1000L));
+	}
+
+	/**
+	 * Returns the tokens held by the shards of every budget to their pool.
+	 */
+	public void reconcile() {
+		for (Budget budget : budgets.values()) {
+			budget.reconcile();
+		}
+	}
+}
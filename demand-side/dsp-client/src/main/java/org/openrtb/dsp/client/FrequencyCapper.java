@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openrtb.dsp.client;
+
+import org.apache.avro.util.Utf8;
+import org.openrtb.common.api.BidRequest;
+import org.openrtb.common.api.User;
+import org.openrtb.common.util.OffHeapCounterTable;
+import org.openrtb.dsp.intf.model.RTBAdvertiser;
+
+/**
+ * Per user, per advertiser frequency caps, counted in an
+ * {@link OffHeapCounterTable} keyed by a 64 bit hash of the user's
+ * <tt>User.id</tt> (or <tt>buyeruid</tt> when the exchange sends no id) and
+ * the advertiser's landing page.
+ * 
+ * A bid counts against the cap of its advertiser as it is made, and bidders
+ * that learn which bids lost give the count back with
+ * {@link #uncount(long)}. Requests without a user id cannot be capped and are
+ * let through. The table is allocated on the first capped bid, so that
+ * bidders without capped advertisers hold no memory for it.
+ * 
+ * The table holds a fixed number of pairs: once the entries a pair probes
+ * are all taken by live counts, its bids are let through uncounted (see
+ * {@link #getOverflows()}). The capacity should leave room for about a third
+ * more than the pairs capped at once over a window, each taking 16 bytes off
+ * the heap.
+ */
+public class FrequencyCapper {
+	// 64MB, room for about 3 million pairs
+	public static final int DEFAULT_CAPACITY = 1 << 22;
+	public static final int DEFAULT_WINDOW_SECONDS = 24 * 60 * 60;
+
+	private static volatile FrequencyCapper defaultInstance;
+	private static int defaultCapacity = DEFAULT_CAPACITY;
+
+	private final int capacity;
+	private volatile OffHeapCounterTable table;
+
+	public FrequencyCapper() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            number of user and advertiser pairs counted at once
+	 */
+	public FrequencyCapper(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Sets the capacity of the capper returned by {@link #getDefault()}, to
+	 * be called before the bidders are created.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the default capper was already created with another
+	 *             capacity.
+	 */
+	public static synchronized void setDefaultCapacity(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		FrequencyCapper capper = defaultInstance;
+		if ((capper != null) && (capper.capacity != capacity)) {
+			throw new IllegalStateException(
+					"the default capper is already in use with a capacity of "
+							+ capper.capacity);
+		}
+		defaultCapacity = capacity;
+	}
+
+	/**
+	 * @return the capper shared by the bidders of this process.
+	 */
+	public static FrequencyCapper getDefault() {
+		FrequencyCapper capper = defaultInstance;
+		if (capper == null) {
+			synchronized (FrequencyCapper.class) {
+				capper = defaultInstance;
+				if (capper == null) {
+					capper = new FrequencyCapper(defaultCapacity);
+					defaultInstance = capper;
+				}
+			}
+		}
+		return capper;
+	}
+
+	/**
+	 * Closes the capper returned by {@link #getDefault()} once no bidder uses
+	 * it anymore, i.e. as the application is undeployed, so that its memory
+	 * does not outlive the class loader. A later call to getDefault creates
+	 * another one.
+	 */
+	public static synchronized void closeDefault() {
+		FrequencyCapper capper = defaultInstance;
+		if (capper != null) {
+			defaultInstance = null;
+			capper.close();
+		}
+	}
+
+	/**
+	 * @return the hash of the user the request is for, 0 if it has no user
+	 *         id.
+	 */
+	public static long userKey(BidRequest request) {
+		User user = request.getUser();
+		if (user == null) {
+			return 0L;
+		}
+		CharSequence id = user.getId();
+		if ((id == null) || (id.length() == 0)) {
+			id = user.getBuyeruid();
+		}
+		if ((id == null) || (id.length() == 0)) {
+			return 0L;
+		}
+		return hash(id, 0xcbf29ce484222325L);
+	}
+
+	/**
+	 * Counts a bid of the advertiser for the user, unless the user reached
+	 * the advertiser's cap.
+	 * 
+	 * @return the key of the count, to be passed to {@link #uncount(long)}
+	 *         if the bid loses, 0 if nothing was counted (no cap or no user
+	 *         id), -1 if the cap is reached.
+	 */
+	public long count(long userKey, RTBAdvertiser advertiser) {
+		Integer cap = advertiser.getFrequencyCap();
+		if ((cap == null) || (userKey == 0L)) {
+			return 0L;
+		}
+		Integer window = advertiser.getFrequencyCapWindow();
+		long key = hash(advertiser.getLandingPage(), userKey);
+		if (key == 0L || key == -1L) {
+			key = 1L;
+		}
+		if (!getTable().tryIncrement(key, cap.intValue(),
+				(window == null) ? DEFAULT_WINDOW_SECONDS : window.intValue())) {
+			return -1L;
+		}
+		return key;
+	}
+
+	/**
+	 * Takes back a count made by {@link #count(long, RTBAdvertiser)}.
+	 */
+	public void uncount(long key) {
+		if ((key != 0L) && (key != -1L)) {
+			getTable().decrement(key);
+		}
+	}
+
+	/**
+	 * @return the number of bids for the user and advertiser in the current
+	 *         window.
+	 */
+	public int getCount(long userKey, RTBAdvertiser advertiser) {
+		OffHeapCounterTable t = table;
+		if ((t == null) || (userKey == 0L)) {
+			return 0;
+		}
+		long key = hash(advertiser.getLandingPage(), userKey);
+		return t.get((key == 0L || key == -1L) ? 1L : key);
+	}
+
+	/**
+	 * @return the number of user and advertiser pairs counted at once.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of counts dropped because the table was full.
+	 */
+	public long getOverflows() {
+		OffHeapCounterTable t = table;
+		return (t == null) ? 0L : t.getOverflows();
+	}
+
+	/**
+	 * Releases the off-heap memory, once no bidder uses the capper anymore.
+	 */
+	public void close() {
+		OffHeapCounterTable t = table;
+		if (t != null) {
+			t.close();
+		}
+	}
+
+	private OffHeapCounterTable getTable() {
+		OffHeapCounterTable t = table;
+		if (t == null) {
+			synchronized (this) {
+				t = table;
+				if (t == null) {
+					t = new OffHeapCounterTable(capacity);
+					table = t;
+				}
+			}
+		}
+		return t;
+	}
+
+	// FNV-1a over the utf-8 bytes, avro strings are hashed without decoding
+	static long hash(CharSequence s, long seed) {
+		Utf8 utf8 = (s instanceof Utf8) ? (Utf8) s : new Utf8(s.toString());
+		byte[] bytes = utf8.getBytes();
+		long h = seed;
+		for (int i = 0; i < utf8.getByteLength(); i++) {
+			h ^= bytes[i] & 0xff;
+			h *= 0x100000001b3L;
+		}
+		// final avalanche, FNV alone leaves the low bits weak
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -43,6 +43,7 @@ import org.codehaus.jackson.map.annotate.JsonSerialize;
 import org.codehaus.jackson.map.annotate.JsonSerialize.Inclusion;
 import org.openrtb.common.util.StringUtils;
 import org.openrtb.dsp.intf.model.DSPException;
+import org.openrtb.dsp.intf.model.DemandSideConfig;
 import org.openrtb.dsp.intf.model.DemandSideDAO;
 import org.openrtb.dsp.intf.model.RTBAdvertiser;
 import org.openrtb.dsp.intf.model.RTBExchange;
@@ -56,6 +57,13 @@ import org.slf4j.LoggerFactory;
  *   "exchanges" : [ { "orgname" : "BigAdExchange", "rtburl" : "http://bigadex.com/rtb", "rtbctype" : "application/json", "batchurl" : "http://bigadex.com/blocklist", "batchctype" : "application/json" }, .. {} ],
  *   "advertisers" : [ { "orgname" : "BigBrand", "nurl" : "http://bigbrand-adserver.com/nurl", "categories": [ "cat1", "cat2", ... ], "seats" : [ { "BigAdExchange" : "SeatID" }, ... {} }, ... {} ]
  * }
+ * An optional "winurl", i.e. "http://dsp.example.com/dsp/win", points the nurl
+ * of the bids to the win notice endpoint of the DSP instead of the nurl of the
+ * advertisers, so that bidders tracking their offers hear of their wins.
+ * An advertiser may also hold a "budget" (see BudgetManager), a "frequencyCap"
+ * and "frequencyCapWindow" in seconds (see FrequencyCapper) and a "targeting"
+ * object (see Targeting), i.e.
+ *   "targeting" : { "countries" : [ "USA" ], "sizes" : [ "300x250" ], "videoDuration" : 30 }
  */
 
 
@@ -65,10 +73,10 @@ public class JsonFileBackedDAO implements DemandSideDAO {
 
 	private final ObjectMapper mapper = new ObjectMapper();
 	
-	// data
-	private final ConcurrentMap<String, Integer> properties = new ConcurrentHashMap<String, Integer>();	
-	private final ConcurrentMap<String, RTBExchange> exchanges = new ConcurrentHashMap<String, RTBExchange>();
-	private final ConcurrentMap<String, RTBAdvertiser> advertisers = new ConcurrentHashMap<String, RTBAdvertiser>();
+	// data, an immutable snapshot replaced as a whole on every load, so that
+	// readers never lock. Loads are synchronized on the DAO: each one builds
+	// on the snapshot published by the previous one, none is lost
+	private volatile DemandSideConfig snapshot = DemandSideConfig.EMPTY;
 	
 	// encapsulate all the config properties in the Json file backed data store in a temporary class
 	// this is used by a Jackson object mapper to load data from a JSON file.
@@ -77,7 +85,7 @@ public class JsonFileBackedDAO implements DemandSideDAO {
 	// use this internal class
 
 	@JsonSerialize(include=Inclusion.NON_DEFAULT)
-	@JsonPropertyOrder({"serverport", "requestTO", "offerTO", "exchanges", "advertisers"})	
+	@JsonPropertyOrder({"serverport", "requestTO", "offerTO", "winurl", "exchanges", "advertisers"})	
 	static class DSPProps {
 	    public DSPProps() {
 			super();
@@ -92,6 +100,9 @@ public class JsonFileBackedDAO implements DemandSideDAO {
 	    @JsonProperty("offerTO")
 	    int defaultOfferTimeout;
 
+	    @JsonProperty("winurl")
+	    String winNoticeUrl;
+
 	    @JsonProperty("exchanges")
 		List<RTBExchange> exchanges;
 
@@ -122,6 +133,14 @@ public class JsonFileBackedDAO implements DemandSideDAO {
 			this.defaultOfferTimeout = defaultOfferTimeout;
 		}
 
+	    @JsonProperty("winurl")
+		String getWinNoticeUrl() {
+			return winNoticeUrl;
+		}
+		void setWinNoticeUrl(String winNoticeUrl) {
+			this.winNoticeUrl = winNoticeUrl;
+		}
+
 	    @JsonProperty("exchanges")
 		List<RTBExchange> getExchanges() {
 			return exchanges;
@@ -143,20 +162,28 @@ public class JsonFileBackedDAO implements DemandSideDAO {
 		this.loadData(dbLocation);
 	}
 	
-	// the get method of ConcurrentMap is not blocking, hence make this synchronized
 	@Override
-	public synchronized long getServerPort() {
-		return properties.get("server_port");
+	public DemandSideConfig getSnapshot() {
+		return snapshot;
 	}
 
+	@Override
+	public long getServerPort() {
+		return snapshot.getServerPort();
+	}
+
+	// copies of the current snapshot's maps, which are read only: changes
+	// made to a copy are not seen by the DSP, use loadData instead
 	@Override
 	public ConcurrentMap<String, RTBExchange> getExchanges() {
-		return exchanges;
+		return new ConcurrentHashMap<String, RTBExchange>(
+				snapshot.getExchanges());
 	}
 
 	@Override
 	public ConcurrentMap<String, RTBAdvertiser> getAdvertisers() {
-		return advertisers;
+		return new ConcurrentHashMap<String, RTBAdvertiser>(
+				snapshot.getAdvertisers());
 	}
 
 	@Override
@@ -171,15 +198,11 @@ public class JsonFileBackedDAO implements DemandSideDAO {
 			// read the properties as an object using ObjectMapper
 			DSPProps props = mapper.readValue(new File(this.dbLocation), DSPProps.class);
 			
-			this.properties.put("server_port", props.dspServerPort);
-			this.properties.put("request_timeout", props.defaultReqTimeout);
-			this.properties.put("offer_timeout", props.defaultOfferTimeout);			
-			for (RTBExchange ex : props.exchanges) {
-				this.exchanges.put(ex.getOrgName(), ex);
-			}
-			for (RTBAdvertiser adv : props.advertisers) {
-				this.advertisers.put(adv.getLandingPage(), adv);
-			}
+			// build the next snapshot aside and publish it in one step,
+			// loaded entries are added to the ones already configured
+			this.snapshot = snapshot.update(props.dspServerPort,
+					props.defaultReqTimeout, props.defaultOfferTimeout,
+					props.winNoticeUrl, props.exchanges, props.advertisers);
 			
 		} catch (Exception e) {
 			logger.error("JsonFileBackedDAO-Error in loading Configuration data : " + StringUtils.stackTraceToString(e));
@@ -188,8 +211,8 @@ public class JsonFileBackedDAO implements DemandSideDAO {
 	}
 
 	@Override
-	public synchronized long getDefaultTimeout(String string) {
-		return properties.get(string);
+	public long getDefaultTimeout(String string) {
+		return snapshot.getProperty(string);
 	}	
 	
 }
@@ -33,65 +33,187 @@
 package org.openrtb.dsp.client;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.avro.AvroRemoteException;
 import org.openrtb.common.api.*;
+import org.openrtb.dsp.intf.model.Deadline;
+import org.openrtb.dsp.intf.model.EligibilityIndex;
 import org.openrtb.dsp.intf.model.RTBAdvertiser;
 import org.openrtb.dsp.intf.model.RTBRequestWrapper;
+import org.openrtb.dsp.intf.service.DroppedResponseListener;
+import org.openrtb.dsp.intf.service.IdGenerator;
+import org.openrtb.dsp.intf.service.ResponseRecycler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class SimpleBidder implements OpenRTBAPI
+public class SimpleBidder implements OpenRTBAPI, ResponseRecycler,
+        DroppedResponseListener
 {
     private final Logger logger = LoggerFactory.getLogger(SimpleBidder.class);
-    private long lastBidNum;
+    private volatile IdGenerator idGenerator = SnowflakeIdGenerator.getDefault();
+    private volatile BudgetManager budgets = new BudgetManager();
+    private volatile FrequencyCapper capper = FrequencyCapper.getDefault();
     private final String adId = "AD123456789";
+    // what the bids of the last response built on each thread took, given
+    // back if the server drops that response
+    private final ThreadLocal<Charges> charges = new ThreadLocal<Charges>()
+    {
+        @Override
+        protected Charges initialValue()
+        {
+            return new Charges();
+        }
+    };
 
     public SimpleBidder()
     {
-        lastBidNum = 1L;
+    }
+
+    public void setIdGenerator(IdGenerator idGenerator)
+    {
+        this.idGenerator = idGenerator;
+    }
+
+    public void setBudgetManager(BudgetManager budgets)
+    {
+        this.budgets = budgets;
+    }
+
+    public BudgetManager getBudgetManager()
+    {
+        return budgets;
+    }
+
+    public void setFrequencyCapper(FrequencyCapper capper)
+    {
+        this.capper = capper;
+    }
+
+    public FrequencyCapper getFrequencyCapper()
+    {
+        return capper;
     }
 
     @Override
     public BidResponse process(BidRequest request) throws AvroRemoteException
     { 
         BidResponse response = null;
+        Charges charged = charges.get();
+        charged.reset(null);
         if (validateRequest(request))
         {   RTBRequestWrapper wReq = (RTBRequestWrapper)request;
             response = new BidResponse();
+            charged.reset(response);
             response.id = wReq.getId();          
-            response.bidid = "simple-bid-tracker";
-            Map<String, String> seats = wReq.getUnblockedSeats(wReq.getSSPName());
-            for (Impression i : wReq.getRequest().getImp())
-            {    
-                for (Map.Entry<String, String> s : seats.entrySet())
-                {  
-                    RTBAdvertiser a = wReq.getAdvertiser(s.getValue());
-                    SeatBid seat_bid = new SeatBid();
-                    seat_bid.seat = s.getKey();
-                    seat_bid.bid = new ArrayList<Bid>();
-                    Bid b = new Bid();
-                    b.id = "SimpleBid#" + lastBidNum++;
-                    b.impid = i.getId();
-                   
-                    b.price = i.getBidfloor() + (float) 0.10; // always bid 10 cents
+            response.bidid = idGenerator.nextId(null);
+            EligibilityIndex index = wReq.getEligibilityIndex(wReq.getSSPName());
+            BitSet[] targeted = wReq.getTargetedAdvertisers(wReq.getSSPName());
+            List<Impression> imps = wReq.getRequest().getImp();
+            BitSet bidders = new BitSet();
+            long user = FrequencyCapper.userKey(wReq.getRequest());
+            for (int i = 0; (targeted != null) && (i < targeted.length); i++)
+            {
+                bidders.or(targeted[i]);
+            }
+            // one seat bid per seat, holding its bids for all the impressions
+            // it targets
+            BidAssembler assembler = BidAssembler.get();
+            List<SeatBid> seatBids = new ArrayList<SeatBid>(bidders.cardinality());
+            Deadline deadline = wReq.getDeadline();
+            for (int s = bidders.nextSetBit(0); s >= 0; s = bidders.nextSetBit(s + 1))
+            {
+                if ((deadline != null) && deadline.isExpired())
+                {
+                    // too late to be answered in time, the bids made so far
+                    // are given back as the server drops the response
+                    logger.debug("Deadline passed while bidding on " + wReq.getId());
+                    break;
+                }
+                RTBAdvertiser a = index.getAdvertiser(s);
+                Budget budget = budgets.getBudget(a);
+                SeatBid seat_bid = null;
+                for (int n = 0; n < imps.size(); n++)
+                {
+                    if (!targeted[n].get(s))
+                    {
+                        continue;
+                    }
+                    Impression i = imps.get(n);
+                    float price = i.getBidfloor() + (float) 0.10; // always bid 10 cents
                                                          // more than the floor
-                  
-                    b.nurl = a.getNurl();
+                    // the bid is counted and charged up front, as wins are
+                    // not tracked
+                    long capKey = capper.count(user, a);
+                    if (capKey == -1L)
+                    {
+                        break; // the user saw enough of this advertiser
+                    }
+                    long cost = BudgetManager.costOf(price);
+                    if ((budget != null) && !budget.trySpend(cost))
+                    {
+                        capper.uncount(capKey);
+                        continue;
+                    }
+                    charged.add(budget, cost, capKey);
+                    if (seat_bid == null)
+                    {
+                        seat_bid = assembler.seatBid(index.getSeat(s), imps.size());
+                        seatBids.add(seat_bid);
+                    }
+                    Bid b = assembler.bid(idGenerator);
+                    b.impid = i.getId();
+                    b.price = price;
+                    b.nurl = wReq.getNurl(a, b.id);
                     b.adid = adId; // serves up the same ad to all impressions
                     seat_bid.bid.add(b);
-                    List<SeatBid> list = new ArrayList<SeatBid>();
-                    list.add(seat_bid);
-                    response.setSeatbid(list);
                 }
             }
+            response.setSeatbid(seatBids);
+            if (seatBids.isEmpty())
+            {
+                // nothing was charged, answered as a no bid rather than an
+                // empty response
+                charged.reset(null);
+                assembler.recycle(response);
+                return null;
+            }
         }
         return response;
     }
 
+    @Override
+    public void recycle(BidResponse response)
+    {
+        BidAssembler.get().recycle(response);
+    }
+
+    /**
+     * Refunds the cost and cap counts of the bids of a response the server
+     * did not send, if it is the last one built on the calling thread.
+     */
+    @Override
+    public void responseDropped(BidResponse response)
+    {
+        Charges charged = charges.get();
+        if ((response == null) || (charged.response != response))
+        {
+            return;
+        }
+        for (int n = 0; n < charged.size; n++)
+        {
+            if (charged.budgets[n] != null)
+            {
+                charged.budgets[n].refund(charged.costs[n]);
+            }
+            capper.uncount(charged.capKeys[n]);
+        }
+        charged.reset(null);
+    }
+
 	public boolean validateRequest(BidRequest request) {
 		if (request == null) {
 			logger.error("BidRequest object was null");
@@ -134,4 +256,38 @@ public class SimpleBidder implements OpenRTBAPI
 		return true;
 	}
 
+    // the budget, cost and cap count of every bid of a response
+    private static class Charges
+    {
+        BidResponse response;
+        int size;
+        Budget[] budgets = new Budget[16];
+        long[] costs = new long[16];
+        long[] capKeys = new long[16];
+
+        void reset(BidResponse response)
+        {
+            this.response = response;
+            for (int n = 0; n < size; n++)
+            {
+                budgets[n] = null;
+            }
+            size = 0;
+        }
+
+        void add(Budget budget, long cost, long capKey)
+        {
+            if (size == costs.length)
+            {
+                budgets = Arrays.copyOf(budgets, size * 2);
+                costs = Arrays.copyOf(costs, size * 2);
+                capKeys = Arrays.copyOf(capKeys, size * 2);
+            }
+            budgets[size] = budget;
+            costs[size] = cost;
+            capKeys[size] = capKey;
+            size++;
+        }
+    }
+
 }
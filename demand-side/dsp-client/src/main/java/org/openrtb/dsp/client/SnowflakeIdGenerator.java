@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openrtb.dsp.client;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.avro.util.Utf8;
+import org.openrtb.dsp.intf.service.IdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link IdGenerator} in the style of Twitter's Snowflake: a 63 bit id made of
+ * <ul>
+ * <li>41 bits of milliseconds since {@link #EPOCH}, about 69 years,</li>
+ * <li>10 bits of node id, unique to each bidder process of the fleet,</li>
+ * <li>4 bits of stripe, and</li>
+ * <li>8 bits of sequence within the millisecond and the stripe.</li>
+ * </ul>
+ * Each thread is assigned one of the 16 stripes, each stripe keeps its last
+ * timestamp and sequence in an {@link AtomicLong} moved by compare-and-set, so
+ * that request threads do not contend on a single counter. A stripe running
+ * out of sequence numbers within a millisecond borrows the next millisecond,
+ * and the clock going backwards never makes a stripe reuse a timestamp, hence
+ * ids are unique as long as node ids are.
+ *
+ * Ids are formatted as 16 lower case hexadecimal digits, written straight into
+ * the bytes of an avro {@link Utf8}.
+ */
+public class SnowflakeIdGenerator implements IdGenerator {
+	private static final Logger logger = LoggerFactory
+			.getLogger(SnowflakeIdGenerator.class);
+
+	/** system property holding the node id of the default generator */
+	public static final String NODE_ID_PROPERTY = "org.openrtb.dsp.nodeId";
+
+	/** 2013-01-01T00:00:00Z */
+	public static final long EPOCH = 1356998400000L;
+
+	public static final int NODE_BITS = 10;
+	public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+	private static final int STRIPE_BITS = 4;
+	private static final int SEQUENCE_BITS = 8;
+	private static final int STRIPES = 1 << STRIPE_BITS;
+	private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+	private static final int TIMESTAMP_SHIFT = NODE_BITS + STRIPE_BITS
+			+ SEQUENCE_BITS;
+
+	private static final byte[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5',
+			'6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+	public static final int FORMATTED_LENGTH = 16;
+
+	private static volatile SnowflakeIdGenerator defaultInstance;
+
+	// holds timestamp << SEQUENCE_BITS | sequence
+	@SuppressWarnings("serial")
+	private static final class Stripe extends AtomicLong {
+		final long bits;
+		// keeps neighbouring stripes off the cache line of the value
+		long p1, p2, p3, p4, p5, p6, p7;
+
+		Stripe(int index) {
+			this.bits = (long) index << SEQUENCE_BITS;
+		}
+	}
+
+	private final long nodeBits;
+	private final Stripe[] stripes = new Stripe[STRIPES];
+	private final AtomicInteger nextStripe = new AtomicInteger();
+	private final ThreadLocal<Stripe> stripe = new ThreadLocal<Stripe>() {
+		@Override
+		protected Stripe initialValue() {
+			return stripes[nextStripe.getAndIncrement() & (STRIPES - 1)];
+		}
+	};
+
+	public SnowflakeIdGenerator(int nodeId) {
+		if ((nodeId < 0) || (nodeId > MAX_NODE_ID)) {
+			throw new IllegalArgumentException("nodeId must be between 0 and "
+					+ MAX_NODE_ID);
+		}
+		this.nodeBits = (long) nodeId << (STRIPE_BITS + SEQUENCE_BITS);
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe(i);
+		}
+	}
+
+	/**
+	 * @return the generator shared by the bidders of this process, for the
+	 *         node id set in the {@link #NODE_ID_PROPERTY} system property.
+	 */
+	public static SnowflakeIdGenerator getDefault() {
+		SnowflakeIdGenerator generator = defaultInstance;
+		if (generator == null) {
+			synchronized (SnowflakeIdGenerator.class) {
+				generator = defaultInstance;
+				if (generator == null) {
+					generator = new SnowflakeIdGenerator(defaultNodeId());
+					defaultInstance = generator;
+				}
+			}
+		}
+		return generator;
+	}
+
+	private static int defaultNodeId() {
+		String nodeId = System.getProperty(NODE_ID_PROPERTY);
+		if (nodeId != null) {
+			return Integer.parseInt(nodeId.trim());
+		}
+		int hashed = 0;
+		try {
+			hashed = InetAddress.getLocalHost().getHostName().hashCode()
+					& MAX_NODE_ID;
+		} catch (Exception e) {
+			logger.warn("Unable to resolve the local host name: " + e.getMessage());
+		}
+		logger.warn(NODE_ID_PROPERTY + " is not set, using node id " + hashed
+				+ " derived from the host name, ids may collide across nodes");
+		return hashed;
+	}
+
+	@Override
+	public long nextId() {
+		Stripe state = stripe.get();
+		for (;;) {
+			long last = state.get();
+			long lastTime = last >>> SEQUENCE_BITS;
+			long now = System.currentTimeMillis() - EPOCH;
+			long next;
+			if (now > lastTime) {
+				next = now << SEQUENCE_BITS;
+			} else if ((last & MAX_SEQUENCE) < MAX_SEQUENCE) {
+				next = last + 1;
+			} else {
+				// sequence exhausted, borrow the next millisecond
+				next = (lastTime + 1) << SEQUENCE_BITS;
+			}
+			if (state.compareAndSet(last, next)) {
+				long time = next >>> SEQUENCE_BITS;
+				return (time << TIMESTAMP_SHIFT) | nodeBits | state.bits
+						| (next & MAX_SEQUENCE);
+			}
+		}
+	}
+
+	@Override
+	public Utf8 nextId(Utf8 reuse) {
+		return format(nextId(), reuse);
+	}
+
+	/**
+	 * Writes the id as 16 hexadecimal digits into <tt>reuse</tt>, or a new
+	 * {@link Utf8} if it is <tt>null</tt>.
+	 */
+	public static Utf8 format(long id, Utf8 reuse) {
+		Utf8 utf8 = (reuse == null) ? new Utf8() : reuse;
+		utf8.setByteLength(FORMATTED_LENGTH);
+		byte[] bytes = utf8.getBytes();
+		for (int i = FORMATTED_LENGTH - 1; i >= 0; i--) {
+			bytes[i] = HEX_DIGITS[(int) (id & 0xf)];
+			id >>>= 4;
+		}
+		return utf8;
+	}
+
+	/** @return the node id the id was generated on */
+	public static int getNodeId(long id) {
+		return (int) ((id >>> (STRIPE_BITS + SEQUENCE_BITS)) & MAX_NODE_ID);
+	}
+
+	/** @return the time the id was generated at, in epoch milliseconds */
+	public static long getTimestamp(long id) {
+		return (id >>> TIMESTAMP_SHIFT) + EPOCH;
+	}
+}
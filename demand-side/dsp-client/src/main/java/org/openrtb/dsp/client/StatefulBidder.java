@@ -33,13 +33,12 @@
 package org.openrtb.dsp.client;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.avro.AvroRemoteException;
 import org.openrtb.common.api.Bid;
@@ -48,38 +47,112 @@ import org.openrtb.common.api.BidResponse;
 import org.openrtb.common.api.Impression;
 import org.openrtb.common.api.OpenRTBAPI;
 import org.openrtb.common.api.SeatBid;
+import org.openrtb.common.util.HashedWheelTimer;
 import org.openrtb.common.util.StringUtils;
-import org.openrtb.common.util.statemachines.FSMCallback;
-import org.openrtb.common.util.statemachines.FSMException;
-import org.openrtb.common.util.statemachines.FSMTransition;
-import org.openrtb.common.util.statemachines.FiniteStateMachine;
+import org.openrtb.common.util.statemachines.FSMDefinition;
+import org.openrtb.common.util.statemachines.FSMTrace;
+import org.openrtb.dsp.intf.model.Deadline;
+import org.openrtb.dsp.intf.model.EligibilityIndex;
 import org.openrtb.dsp.intf.model.RTBAdvertiser;
 import org.openrtb.dsp.intf.model.RTBRequestWrapper;
+import org.openrtb.dsp.intf.model.WinNotice;
+import org.openrtb.dsp.intf.service.DroppedResponseListener;
+import org.openrtb.dsp.intf.service.IdGenerator;
+import org.openrtb.dsp.intf.service.ResponseRecycler;
+import org.openrtb.dsp.intf.service.WinNoticeListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class StatefulBidder implements OpenRTBAPI {
+public class StatefulBidder implements OpenRTBAPI, WinNoticeListener,
+		ResponseRecycler, DroppedResponseListener {
 	private final String adId = "AD123456789";
-	private long numBids;
-	private long numResponses;
+	private volatile IdGenerator idGenerator = SnowflakeIdGenerator.getDefault();
+	private volatile BudgetManager budgets = new BudgetManager();
+	private volatile FrequencyCapper capper = FrequencyCapper.getDefault();
 
-	// SL4J Logger, ConcurrentMap and ConcurrentHashMap are threadsafe
+	// default max number of open transactions
+	public static final int DEFAULT_CAPACITY = 1 << 17;
+
+	// SL4J Logger and TransactionTable are threadsafe
 	private final Logger logger = LoggerFactory.getLogger(StatefulBidder.class);
-	private final ConcurrentMap<String, TSMController> transactions = new ConcurrentHashMap<String, TSMController>();
+	private final TransactionTable<TSMController> transactions;
+	private final AtomicLong transactionIds = new AtomicLong();
+	// disabled unless enabled through getTrace()
+	private final FSMTrace<TSMStates, TSMEvents> trace = new FSMTrace<TSMStates, TSMEvents>(
+			TSM, 4096);
+
+	// one timer thread drives the request and offer timeouts of every
+	// transaction, shared by all bidders unless one is supplied
+	private static final HashedWheelTimer SHARED_TIMER = new HashedWheelTimer(
+			"stateful-bidder-timer", 10, TimeUnit.MILLISECONDS, 512);
+	private final HashedWheelTimer timer;
+	// the transaction of the last response offered on each thread, closed
+	// if the server drops that response
+	private final ThreadLocal<TSMController> offered = new ThreadLocal<TSMController>();
 
 	public StatefulBidder() {
-		numBids = 0L;
-		numResponses = 0L;
+		this(SHARED_TIMER);
+	}
+
+	public StatefulBidder(HashedWheelTimer timer) {
+		this(timer, DEFAULT_CAPACITY);
 	}
 
-	private synchronized long nextBidNum() {
-		this.numBids++;
-		return this.numBids;
+	public StatefulBidder(HashedWheelTimer timer, int capacity) {
+		this.timer = timer;
+		this.transactions = new TransactionTable<TSMController>(capacity);
 	}
 
-	private synchronized long nextResponseNum() {
-		this.numResponses++;
-		return this.numResponses;
+	/**
+	 * Stops the timer shared by the bidders created without one, once none of
+	 * them is used anymore, i.e. as the application is undeployed, so that its
+	 * thread does not outlive the class loader.
+	 */
+	public static void stopSharedTimer() {
+		SHARED_TIMER.stop();
+	}
+
+	/**
+	 * @return the timer driving the transaction timeouts, i.e. to monitor the
+	 *         number of pending timeouts.
+	 */
+	public HashedWheelTimer getTimer() {
+		return timer;
+	}
+
+	/**
+	 * @return the trace of the transitions of the transactions, disabled by
+	 *         default.
+	 */
+	public FSMTrace<TSMStates, TSMEvents> getTrace() {
+		return trace;
+	}
+
+	/**
+	 * @return the transactions that have not reached an end state yet.
+	 */
+	public TransactionTable<?> getTransactions() {
+		return transactions;
+	}
+
+	public void setIdGenerator(IdGenerator idGenerator) {
+		this.idGenerator = idGenerator;
+	}
+
+	public void setBudgetManager(BudgetManager budgets) {
+		this.budgets = budgets;
+	}
+
+	public BudgetManager getBudgetManager() {
+		return budgets;
+	}
+
+	public void setFrequencyCapper(FrequencyCapper capper) {
+		this.capper = capper;
+	}
+
+	public FrequencyCapper getFrequencyCapper() {
+		return capper;
 	}
 
 	public boolean validateRequest(BidRequest request) {
@@ -124,263 +197,529 @@ public class StatefulBidder implements OpenRTBAPI {
 		return true;
 	}
 
+	/**
+	 * Bids on the request, charging every bid to its advertiser's budget and
+	 * counting it against the advertiser's frequency cap for the user. Nothing
+	 * is charged if no response is returned.
+	 */
 	public BidResponse selectBids(RTBRequestWrapper wReq, BidResponse response) {
+		List<Reservation> charges = new ArrayList<Reservation>(4);
+		response = selectBids(wReq, response, charges);
+		if (response == null) {
+			for (Reservation r : charges) {
+				giveBack(r);
+			}
+		}
+		return response;
+	}
+
+	// bids on the request, adding the cost and cap count of every bid to
+	// the reservations, which are given back by the caller if no response
+	// is returned
+	private BidResponse selectBids(RTBRequestWrapper wReq,
+			BidResponse response, List<Reservation> reservations) {
 
 		if (wReq.getImp().size()<=0)
 			response = null;
 		else {
 			response = new BidResponse();
 			response.id = wReq.getRequest().getId();
-			response.bidid = "simple-bid-tracker-" + nextResponseNum();
+			response.bidid = idGenerator.nextId(null);
 
-			Map<String, String> seats = wReq.getUnblockedSeats(wReq
+			EligibilityIndex index = wReq.getEligibilityIndex(wReq
 					.getSSPName());
-			for (Impression i : wReq.getRequest().getImp()) {
-				for (Map.Entry<String, String> s : seats.entrySet()) {
-					RTBAdvertiser a = wReq.getAdvertiser(s.getValue());
-
-					SeatBid seat_bid = new SeatBid();
-					seat_bid.seat = s.getKey();
-					seat_bid.bid = new ArrayList<Bid>();
-					Bid b = new Bid();
-					b.id = "StatefulBid #" + nextBidNum();
+			BitSet[] targeted = wReq.getTargetedAdvertisers(wReq.getSSPName());
+			List<Impression> imps = wReq.getRequest().getImp();
+			BitSet bidders = new BitSet();
+			long user = FrequencyCapper.userKey(wReq.getRequest());
+			for (int i = 0; (targeted != null) && (i < targeted.length); i++) {
+				bidders.or(targeted[i]);
+			}
+			// one seat bid per seat, holding its bids for all the impressions
+			// it targets
+			BidAssembler assembler = BidAssembler.get();
+			List<SeatBid> seatBids = new ArrayList<SeatBid>(
+					bidders.cardinality());
+			Deadline deadline = wReq.getDeadline();
+			for (int s = bidders.nextSetBit(0); s >= 0; s = bidders
+					.nextSetBit(s + 1)) {
+				if ((deadline != null) && deadline.isExpired()) {
+					// no bid, the reservations made so far are given back
+					// by the caller
+					logger.debug("StatefulBidder: deadline passed while bidding on "
+							+ response.id);
+					response.setSeatbid(seatBids);
+					assembler.recycle(response);
+					return null;
+				}
+				RTBAdvertiser a = index.getAdvertiser(s);
+				Budget budget = budgets.getBudget(a);
+				SeatBid seat_bid = null;
+				for (int n = 0; n < imps.size(); n++) {
+					if (!targeted[n].get(s)) {
+						continue;
+					}
+					Impression i = imps.get(n);
+					float price = i.getBidfloor() + (float) 0.10; // always bid 10c ents
+																	// more than the floor
+					long cost = BudgetManager.costOf(price);
+					long capKey = capper.count(user, a);
+					if (capKey == -1L) {
+						break; // the user saw enough of this advertiser
+					}
+					if ((budget != null) && !budget.trySpend(cost)) {
+						capper.uncount(capKey);
+						continue;
+					}
+					if (seat_bid == null) {
+						seat_bid = assembler.seatBid(index.getSeat(s),
+								imps.size());
+						seatBids.add(seat_bid);
+					}
+					Bid b = assembler.bid(idGenerator);
 					b.impid = i.getId();
-					b.price = i.getBidfloor() + (float) 0.10; // always bid 10c ents
-																// more than the floor
-					b.nurl = a.getNurl();
+					b.price = price;
+					b.nurl = wReq.getNurl(a, b.id);
 					b.adid = adId; // serves up the same ad to all impressions
 					seat_bid.bid.add(b);
-					List<SeatBid> seatBidList = new ArrayList<SeatBid>();
-					seatBidList.add(seat_bid);
-					response.setSeatbid(seatBidList);
+					if ((budget != null) || (capKey != 0L)) {
+						// the id is recycled with the bid, keep a copy
+						reservations.add(new Reservation(budget, cost, capKey,
+								b.id.toString()));
+					}
 				}
 			}
+			response.setSeatbid(seatBids);
+			if (seatBids.isEmpty()) {
+				// nothing was reserved, answered as a no bid rather than an
+				// empty response
+				assembler.recycle(response);
+				return null;
+			}
 		}
 		return response;
 	}
 
 	@Override
 	public BidResponse process(BidRequest request) throws AvroRemoteException {
+		TSMController last = offered.get();
+		if (last != null) {
+			// the previous response was sent
+			last.offered = null;
+			offered.set(null);
+		}
 		// get the transaction wrapper around the request object
 		RTBRequestWrapper transaction = (RTBRequestWrapper) request;
 		// create a new state machine controller to execute this transaction
 		TSMController controller = new TSMController(this, transaction);
-		transactions.put(transaction.getSSPName(), controller);
+		if (!transactions.put(controller.exchange, controller.requestId,
+				controller)) {
+			// bidding without tracking the transaction would leave the offer
+			// unsettled, decline instead
+			logger.warn("StatefulBidder: cannot open transaction "
+					+ controller.requestId + " from " + controller.exchange
+					+ ", duplicate request id or too many open transactions");
+			return null;
+		}
 		try {
-			controller.exec(TSMStates.TXN_CLOSED);
+			controller.exec();
 		} catch (Exception e) {
+			controller.close();
+			controller.settle();
 			logger.error("StatefulBidder: Exception in process method : " + StringUtils.stackTraceToString(e));
+			if (trace.isEnabled()) {
+				logger.error("StatefulBidder: transitions of transaction "
+						+ controller.traceId + " :\n" + trace.dump(controller.traceId));
+			}
 			throw new AvroRemoteException(e.getMessage());
+		} finally {
+			// the wrapper is recycled by the server once answered, the timers
+			// only need the exchange and request id
+			controller.request = null;
 		}
 		// transaction.setRequestHistory(controller.getHistory());
-		return controller.response;
+		BidResponse response = controller.response;
+		controller.response = null;
+		int state = controller.state;
+		if ((state != TSMStates.TXN_WAIT_BIDSOFFERED.ordinal())
+				&& (state != TSMStates.TXN_OFFEREXPIRED.ordinal())
+				&& (state != TSMStates.TXN_COMPLETE.ordinal())) {
+			// ended without an offer, i.e. the request timer went off while
+			// bidding: the transaction is closed and nothing may be offered.
+			// The reservations were all made on this thread
+			controller.settle();
+			if (response != null) {
+				recycle(response);
+			}
+			return null;
+		}
+		// the response belongs to the caller from now on, and is recycled
+		// once encoded
+		if (response != null) {
+			controller.offered = response;
+			offered.set(controller);
+		}
+		return response;
+	}
+
+	// gives back the cost and cap count of a bid that was not won
+	private void giveBack(Reservation r) {
+		if (r.budget != null) {
+			r.budget.refund(r.cost);
+		}
+		capper.uncount(r.capKey);
+	}
+
+	@Override
+	public void recycle(BidResponse response) {
+		BidAssembler.get().recycle(response);
 	}
 
-	// use type inference to avoid having to type long generic type names
-	// *not* pseudo typedefs
-	private static <A extends FSMCallback, B> FSMTransition<A, B> newTransition(
-			B event) {
-		return new FSMTransition<A, B>(event);
+	/**
+	 * Closes the transaction of a response the server did not send, if it is
+	 * the last one offered on the calling thread. The offer expires right
+	 * away, which gives back its reservations instead of holding them until
+	 * the offer timer goes off.
+	 */
+	@Override
+	public void responseDropped(BidResponse response) {
+		TSMController controller = offered.get();
+		if ((response == null) || (controller == null)
+				|| (controller.offered != response)) {
+			return;
+		}
+		offered.set(null);
+		controller.offered = null;
+		controller.fire(TSMEvents.OFFER_EXPIRED);
 	}
 
-	public static final FSMTransition<TSMStates, String> EV_NEWREQUEST = StatefulBidder
-			.newTransition("NewRequest");
-	private static final FSMTransition<TSMStates, String> EV_FORMATERROR = StatefulBidder
-			.newTransition("FormatError");
-	private static final FSMTransition<TSMStates, String> EV_NOTSUPPORTED = StatefulBidder
-			.newTransition("NotSupported");
-	private static final FSMTransition<TSMStates, String> EV_SELECTBIDS = StatefulBidder
-			.newTransition("SelectBids");
-	private static final FSMTransition<TSMStates, String> EV_REQUEST_EXPIRED = StatefulBidder
-			.newTransition("RequestExpired");
-	private static final FSMTransition<TSMStates, String> EV_BIDSOFFERED = StatefulBidder
-			.newTransition("BidsOffered");
-	private static final FSMTransition<TSMStates, String> EV_NOMATCHINGBIDS = StatefulBidder
-			.newTransition("NoMatchingBids");
-	private static final FSMTransition<TSMStates, String> EV_OFFER_EXPIRED = StatefulBidder
-			.newTransition("OfferExpired");
-	private static final FSMTransition<TSMStates, String> EV_WIN_NOTIFICATION = StatefulBidder
-	.newTransition("WinNotification");	
-
-	private class TSMController {
+	/**
+	 * Completes the transaction the notice refers to, which cancels its offer
+	 * timer.
+	 */
+	@Override
+	public boolean notifyWin(WinNotice notice) {
+		TSMController controller = transactions.get(notice.getExchange(),
+				notice.getRequestId());
+		if (controller == null) {
+			return false;
+		}
+		controller.win = notice;
+		return controller.fire(TSMEvents.WIN_NOTIFICATION);
+	}
+
+	// events driving the transaction state machine
+	public enum TSMEvents {
+		NEW_REQUEST, FORMAT_ERROR, NOT_SUPPORTED, SELECT_BIDS, REQUEST_EXPIRED,
+		BIDS_OFFERED, NO_MATCHING_BIDS, OFFER_EXPIRED, WIN_NOTIFICATION
+	}
+
+	// the transaction state machine, shared by all the transactions
+	static final FSMDefinition<TSMStates, TSMEvents> TSM = FSMDefinition
+			.builder(TSMStates.class, TSMEvents.class)
+			.initial(TSMStates.TXN_CLOSED)
+			.transition(TSMStates.TXN_CLOSED, TSMEvents.NEW_REQUEST, TSMStates.TXN_WAIT_NEW)
+			.transition(TSMStates.TXN_WAIT_NEW, TSMEvents.FORMAT_ERROR, TSMStates.TXN_FORMATERROR)
+			.transition(TSMStates.TXN_WAIT_NEW, TSMEvents.REQUEST_EXPIRED, TSMStates.TXN_REQUESTEXPIRED)
+			.transition(TSMStates.TXN_WAIT_NEW, TSMEvents.SELECT_BIDS, TSMStates.TXN_WAIT_OPEN)
+			.transition(TSMStates.TXN_WAIT_OPEN, TSMEvents.FORMAT_ERROR, TSMStates.TXN_FORMATERROR)
+			.transition(TSMStates.TXN_WAIT_OPEN, TSMEvents.REQUEST_EXPIRED, TSMStates.TXN_REQUESTEXPIRED)
+			.transition(TSMStates.TXN_WAIT_OPEN, TSMEvents.NOT_SUPPORTED, TSMStates.TXN_NOBID)
+			.transition(TSMStates.TXN_WAIT_OPEN, TSMEvents.NO_MATCHING_BIDS, TSMStates.TXN_NOBID)
+			.transition(TSMStates.TXN_WAIT_OPEN, TSMEvents.BIDS_OFFERED, TSMStates.TXN_WAIT_BIDSOFFERED)
+			.transition(TSMStates.TXN_WAIT_BIDSOFFERED, TSMEvents.OFFER_EXPIRED, TSMStates.TXN_OFFEREXPIRED)
+			.transition(TSMStates.TXN_WAIT_BIDSOFFERED, TSMEvents.WIN_NOTIFICATION, TSMStates.TXN_COMPLETE)
+			.build();
+
+	private static final AtomicIntegerFieldUpdater<TSMController> TXN_STATE = AtomicIntegerFieldUpdater
+			.newUpdater(TSMController.class, "state");
+	private static final AtomicIntegerFieldUpdater<TSMController> TXN_SETTLED = AtomicIntegerFieldUpdater
+			.newUpdater(TSMController.class, "settled");
+
+	// cost of a bid reserved on its advertiser's budget (if any), and the
+	// key of its count against the advertiser's frequency cap (0 if none)
+	private static final class Reservation {
+		final Budget budget;
+		final long cost;
+		final long capKey;
+		final String bidId;
+
+		Reservation(Budget budget, long cost, long capKey, String bidId) {
+			this.budget = budget;
+			this.cost = cost;
+			this.capKey = capKey;
+			this.bidId = bidId;
+		}
+	}
+
+	private static class TSMController implements FSMTrace.Traceable {
 		StatefulBidder bidder;
+		// only set while process runs, the server recycles the wrapper after
 		RTBRequestWrapper request;
+		// key in the transaction table, the request is not kept past process
+		final String exchange;
+		final String requestId;
 		BidResponse response;
-		FiniteStateMachine<TSMStates> tsm;
-		private final Timer requestTimer = new Timer();
-		private final Timer offerTimer = new Timer();
+		// the response returned by process, until it is dropped or another
+		// request is processed on the thread
+		BidResponse offered;
+		// ordinal of the current TSMStates, only moved through TSM
+		volatile int state;
+		final long traceId;
+		volatile long enteredNanos;
+		private HashedWheelTimer.Timeout requestTimeout;
+		private HashedWheelTimer.Timeout offerTimeout;
+		// made on the thread selecting the bids, settled once
+		private List<Reservation> reservations;
+		volatile int settled;
+		// the notice that completed the transaction, if any
+		volatile WinNotice win;
 	
 		TSMController(StatefulBidder statefulBidder, RTBRequestWrapper wReq) {
 			this.bidder = statefulBidder;
 			this.request = wReq;
+			this.exchange = String.valueOf(wReq.getSSPName());
+			this.requestId = String.valueOf(wReq.getRequest().getId());
 			this.response = null;
-			this.tsm = new FiniteStateMachine<TSMStates>();
-			tsm.addStates(TSMStates.values());
-			tsm.addTransition(TSMStates.TXN_CLOSED, EV_NEWREQUEST, TSMStates.TXN_WAIT_NEW);
-			tsm.addTransition(TSMStates.TXN_WAIT_NEW, EV_FORMATERROR, TSMStates.TXN_FORMATERROR);
-			tsm.addTransition(TSMStates.TXN_WAIT_NEW, EV_REQUEST_EXPIRED, TSMStates.TXN_REQUESTEXPIRED);
-			tsm.addTransition(TSMStates.TXN_WAIT_NEW, EV_SELECTBIDS, TSMStates.TXN_WAIT_OPEN);
-			tsm.addTransition(TSMStates.TXN_WAIT_OPEN, EV_FORMATERROR, TSMStates.TXN_FORMATERROR);
-			tsm.addTransition(TSMStates.TXN_WAIT_OPEN, EV_REQUEST_EXPIRED, TSMStates.TXN_REQUESTEXPIRED);
-			tsm.addTransition(TSMStates.TXN_WAIT_OPEN, EV_NOTSUPPORTED, TSMStates.TXN_NOBID);
-			tsm.addTransition(TSMStates.TXN_WAIT_OPEN, EV_NOMATCHINGBIDS, TSMStates.TXN_NOBID);		
-			tsm.addTransition(TSMStates.TXN_WAIT_OPEN, EV_BIDSOFFERED, TSMStates.TXN_WAIT_BIDSOFFERED);
-			tsm.addTransition(TSMStates.TXN_WAIT_BIDSOFFERED, EV_OFFER_EXPIRED, TSMStates.TXN_OFFEREXPIRED);
-			tsm.addTransition(TSMStates.TXN_WAIT_BIDSOFFERED, EV_WIN_NOTIFICATION, TSMStates.TXN_COMPLETE);
-			
+			this.state = TSM.getInitial().ordinal();
+			this.traceId = statefulBidder.transactionIds.incrementAndGet();
+			this.enteredNanos = statefulBidder.trace.isEnabled() ? System
+					.nanoTime() : 0L;
 		}
-		public void exec(TSMStates startState) {
-			tsm.exec(startState, this);
+
+		@Override
+		public long getTraceId() {
+			return traceId;
 		}
 
-		private final TimerTask requestTimerTask = new TimerTask() {
+		@Override
+		public long getEnteredNanos() {
+			return enteredNanos;
+		}
+
+		@Override
+		public void setEnteredNanos(long nanos) {
+			this.enteredNanos = nanos;
+		}
+
+		public void exec() {
+			run(TSM.getInitial());
+		}
+
+		// follows the event from the current state, false if the event is not
+		// accepted there, i.e. the offer timer and the win notice race to
+		// leave TXN_WAIT_BIDSOFFERED and only the first one gets through
+		boolean fire(TSMEvents event) {
+			TSMStates entered = TSM.fire(TXN_STATE, this, event, bidder.trace);
+			if (entered == null) {
+				return false;
+			}
+			run(entered);
+			return true;
+		}
+
+		// runs the states entered until one waits for an external event
+		private void run(TSMStates entered) {
+			TSMEvents event = entered.exec(this);
+			while (event != null) {
+				entered = TSM.fire(TXN_STATE, this, event, bidder.trace);
+				if (entered == null) {
+					// moved meanwhile by another thread, i.e. the request timer
+					return;
+				}
+				event = entered.exec(this);
+			}
+		}
+
+		private final Runnable requestTimerTask = new Runnable() {
 			@Override
 			public void run() {
-				EV_REQUEST_EXPIRED.setState(tsm.getCurrent());
-				tsm.followTransition(EV_REQUEST_EXPIRED, this);
+				fire(TSMEvents.REQUEST_EXPIRED);
 			}
 		};
 
-		private final TimerTask offerTimerTask = new TimerTask() {
+		private final Runnable offerTimerTask = new Runnable() {
 			@Override
 			public void run() {
-				EV_OFFER_EXPIRED.setState(tsm.getCurrent());
-				tsm.followTransition(EV_OFFER_EXPIRED, this);
+				fire(TSMEvents.OFFER_EXPIRED);
 			}
 		};
 
-		public void setRequestTimer() {
-			//requestTimer.cancel();
-			requestTimer.schedule(requestTimerTask, request.getRequestTO());
+		public synchronized void setRequestTimer() {
+			if (requestTimeout == null) {
+				// counted from the arrival of the request
+				Deadline deadline = request.getDeadline();
+				requestTimeout = bidder.timer.newTimeout(requestTimerTask,
+						(deadline == null) ? request.getRequestTO() : deadline
+								.remainingMillis(), TimeUnit.MILLISECONDS);
+			}
 		}
 
-		public void cancelRequestTimer() {
-			requestTimer.cancel();
+		public synchronized void cancelRequestTimer() {
+			if (requestTimeout != null) {
+				requestTimeout.cancel();
+			}
 		}
 
 		public synchronized void setOfferTimer() {
 			if (!request.isOfferTimerActive()) {
-				offerTimer.schedule(offerTimerTask, request.getOfferTO());
+				offerTimeout = bidder.timer.newTimeout(offerTimerTask,
+						request.getOfferTO(), TimeUnit.MILLISECONDS);
 				request.setOfferTimerActive(true);
 			}
 		}
 
 		public synchronized void cancelOfferTimer() {
-			offerTimer.cancel();
+			if (offerTimeout != null) {
+				offerTimeout.cancel();
+			}
+		}
+
+		List<Reservation> reservations() {
+			if (reservations == null) {
+				reservations = new ArrayList<Reservation>(4);
+			}
+			return reservations;
+		}
+
+		// charges the winning bid at its clearing price, capped by the bid,
+		// and gives back the cost and cap count of the other bids
+		void settle() {
+			if ((reservations == null)
+					|| !TXN_SETTLED.compareAndSet(this, 0, 1)) {
+				return;
+			}
+			WinNotice notice = win;
+			for (Reservation r : reservations) {
+				if ((notice == null) || !r.bidId.equals(notice.getBidId())) {
+					bidder.giveBack(r);
+					continue;
+				}
+				long charged = (notice.getPrice() == null) ? r.cost : Math
+						.min(r.cost, BudgetManager.costOf(notice.getPrice()));
+				if (r.budget != null) {
+					r.budget.refund(r.cost - charged);
+				}
+			}
+		}
+
+		// called from every end state
+		public void close() {
+			cancelRequestTimer();
+			cancelOfferTimer();
+			bidder.transactions.remove(exchange, requestId, this);
 		}
 	}
 
-	public enum TSMStates implements FSMCallback {
+	public enum TSMStates {
 		TXN_CLOSED {
-			public synchronized FSMTransition<TSMStates, String> exec(Object ctx)
-					throws FSMException {
+			public TSMEvents exec(Object ctx) {
 				TSMController context = (TSMController) ctx;
-				context.bidder.logger.info("New Request");				
+				context.bidder.logger.debug("New Request");				
 				context.setRequestTimer();
-				EV_NEWREQUEST.setState(this);
-				return EV_NEWREQUEST;
+				return TSMEvents.NEW_REQUEST;
 			}
 		},
 
 		TXN_WAIT_NEW {
-			public synchronized FSMTransition<TSMStates, String> exec(Object ctx)
-					throws FSMException {
+			public TSMEvents exec(Object ctx) {
 				TSMController context = (TSMController) ctx;
-				context.bidder.logger.info("Validating Request Message Format");
+				context.bidder.logger.debug("Validating Request Message Format");
 				boolean valid = context.bidder.validateRequest(context.request
 						.getRequest());
 				if (!valid) {
-					EV_FORMATERROR.setState(this);
-					return EV_FORMATERROR;
+					return TSMEvents.FORMAT_ERROR;
 				}
-				return EV_SELECTBIDS;
+				return TSMEvents.SELECT_BIDS;
 			}
 		},
 
 		TXN_FORMATERROR {
-			public synchronized FSMTransition<TSMStates, String> exec(Object ctx)
-					throws FSMException {
+			public TSMEvents exec(Object ctx) {
 				TSMController context = (TSMController) ctx;
 				context.bidder.logger
 						.error("Terminating transaction due to Format Error");
-				context.cancelRequestTimer();
+				context.close();
 				context.response = null;
 				return null; // this is an end state for this TSM
 			}
 		},
 
 		TXN_WAIT_OPEN {
-			public synchronized FSMTransition<TSMStates, String> exec(Object ctx)
-					throws FSMException {
+			public TSMEvents exec(Object ctx) {
 				TSMController context = (TSMController) ctx;
-				context.bidder.logger.info("Finding matching Bids");
+				context.bidder.logger.debug("Finding matching Bids");
 				context.response = context.bidder.selectBids(context.request,
-						context.response);
+						context.response, context.reservations());
 				if (context.response == null) {
-					EV_NOMATCHINGBIDS.setState(this);
-					return EV_NOMATCHINGBIDS;
+					return TSMEvents.NO_MATCHING_BIDS;
 				}
-				EV_BIDSOFFERED.setState(this);
-				context.cancelRequestTimer();
-				return null; //this should be end state
+				return TSMEvents.BIDS_OFFERED;
 			}
 		},
 
 		TXN_NOBID {
-			public synchronized FSMTransition<TSMStates, String> exec(Object ctx)
-					throws FSMException {
+			public TSMEvents exec(Object ctx) {
 				TSMController context = (TSMController) ctx;
 				context.bidder.logger
-						.info("No matching bids were found, there will be no response");
-				context.cancelRequestTimer();
+						.debug("No matching bids were found, there will be no response");
+				context.close();
 				return null; // this is an end state for this TSM
 			}
 		},
 
 		TXN_WAIT_BIDSOFFERED {
-			public synchronized FSMTransition<TSMStates, String> exec(Object ctx)
-					throws FSMException {
+			public TSMEvents exec(Object ctx) {
 				TSMController context = (TSMController) ctx;
-				context.bidder.logger
-						.info("Waiting for Notification on Bids for BidRequest id: "
-								+ context.request.getRequest().getId()
-										.toString());
+				if (context.bidder.logger.isDebugEnabled()) {
+					context.bidder.logger
+							.debug("Waiting for Notification on Bids for BidRequest id: "
+									+ context.requestId);
+				}
 				context.cancelRequestTimer();
 				context.setOfferTimer();
-				EV_BIDSOFFERED.setState(this);
-				return EV_BIDSOFFERED;
+				return null; // waits for the win notification or the offer timer
 			}
 		},
 
 		TXN_REQUESTEXPIRED {
-			public synchronized FSMTransition<TSMStates, String> exec(Object ctx)
-					throws FSMException {
+			public TSMEvents exec(Object ctx) {
 				TSMController context = (TSMController) ctx;
 				context.bidder.logger
-						.info("Request timed out. Terminating state machine.");
+						.debug("Request timed out. Terminating state machine.");
+				context.close();
 				context.response = null;
 				return null; // this is an end state
 			}
 		},
 
 		TXN_OFFEREXPIRED {
-			public synchronized FSMTransition<TSMStates, String> exec(Object ctx)
-					throws FSMException {
+			public TSMEvents exec(Object ctx) {
 				StatefulBidder.TSMController context = (StatefulBidder.TSMController) ctx;
 				context.bidder.logger
-						.info("Offer timed out. Terminating state machine.");
-				context.cancelOfferTimer();
+						.debug("Offer timed out. Terminating state machine.");
+				context.close();
+				context.settle();
 				return null; // this is an end state
 			}
 		},
 		
 		TXN_COMPLETE {
-			public synchronized FSMTransition<TSMStates, String> exec(Object ctx)
-					throws FSMException {
+			public TSMEvents exec(Object ctx) {
 				TSMController context = (TSMController) ctx;
+				context.bidder.logger
+						.debug("Bid won. Terminating state machine.");
+				context.close();
+				context.settle();
 				context.response = null;
 				return null; // this is an end state
 			}
-		}
+		};
+
+		// runs the state entered, returns the event to follow next or null
+		// to wait for an external one. The states are shared by all the
+		// transactions and hold no data, only the controller passed in is
+		// touched, so transactions run their states in parallel.
+		public abstract TSMEvents exec(Object ctx);
 	}
 }
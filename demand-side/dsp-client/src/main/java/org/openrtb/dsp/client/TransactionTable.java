@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openrtb.dsp.client;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Table of the open transactions of a bidder, keyed by exchange name and
+ * {@link org.openrtb.common.api.BidRequest} id.
+ * 
+ * The table holds at most <tt>capacity</tt> transactions: once full, new
+ * transactions are refused rather than evicting open ones, so that the memory
+ * used stays flat however long the offers take to settle. Entries are removed
+ * by their owner when the transaction reaches an end state.
+ */
+public class TransactionTable<V> {
+	private final ConcurrentMap<Key, V> table;
+	private final int capacity;
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicLong rejected = new AtomicLong();
+
+	public TransactionTable(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.capacity = capacity;
+		this.table = new ConcurrentHashMap<Key, V>(Math.min(capacity, 1 << 16));
+	}
+
+	/**
+	 * Adds a transaction unless the table is full or already holds a
+	 * transaction with the same key.
+	 * 
+	 * @return true if the transaction was added
+	 */
+	public boolean put(String exchange, String requestId, V transaction) {
+		if (size.incrementAndGet() > capacity) {
+			size.decrementAndGet();
+			rejected.incrementAndGet();
+			return false;
+		}
+		if (table.putIfAbsent(new Key(exchange, requestId), transaction) != null) {
+			size.decrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	public V get(String exchange, String requestId) {
+		return table.get(new Key(exchange, requestId));
+	}
+
+	/**
+	 * Removes the transaction, provided it is still the one stored under the
+	 * key.
+	 */
+	public boolean remove(String exchange, String requestId, V transaction) {
+		if (table.remove(new Key(exchange, requestId), transaction)) {
+			size.decrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/** @return number of transactions refused because the table was full */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	private static final class Key {
+		private final String exchange;
+		private final String requestId;
+		private final int hash;
+
+		Key(String exchange, String requestId) {
+			this.exchange = exchange;
+			this.requestId = requestId;
+			this.hash = 31 * exchange.hashCode() + requestId.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return (hash == key.hash) && requestId.equals(key.requestId)
+					&& exchange.equals(key.exchange);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package org.openrtb.dsp.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.openrtb.common.api.Bid;
+import org.openrtb.common.api.BidResponse;
+import org.openrtb.common.api.SeatBid;
+
+public class BidAssemblerTest {
+	private final SnowflakeIdGenerator ids = new SnowflakeIdGenerator(1);
+
+	// a response with one seat bid per seat, each bidding on every impression
+	private BidResponse assemble(BidAssembler assembler, int seats, int imps) {
+		BidResponse response = new BidResponse();
+		response.seatbid = new ArrayList<SeatBid>(seats);
+		for (int s = 0; s < seats; s++) {
+			SeatBid seatBid = assembler.seatBid("seat" + s, imps);
+			for (int i = 0; i < imps; i++) {
+				Bid bid = assembler.bid(ids);
+				bid.impid = "imp" + i;
+				bid.price = 1.0f;
+				seatBid.bid.add(bid);
+			}
+			response.seatbid.add(seatBid);
+		}
+		return response;
+	}
+
+	@Test
+	public void recycleReusesRecordsTest() {
+		BidAssembler assembler = new BidAssembler();
+		BidResponse first = assemble(assembler, 2, 3);
+		SeatBid seatBid = first.seatbid.get(1);
+		Bid bid = seatBid.bid.get(2);
+		CharSequence id = bid.id;
+
+		assembler.recycle(first);
+		assertTrue(first.seatbid.isEmpty());
+		assertEquals(2, assembler.getPooledSeatBids());
+		assertEquals(6, assembler.getPooledBids());
+		assertNull(bid.impid);
+		assertNull(bid.price);
+		assertNull(seatBid.seat);
+		// recycling twice must not pool the records twice
+		assembler.recycle(first);
+		assertEquals(6, assembler.getPooledBids());
+
+		BidResponse second = assemble(assembler, 2, 3);
+		assertEquals(0, assembler.getPooledSeatBids());
+		assertEquals(0, assembler.getPooledBids());
+		assertSame(seatBid, second.seatbid.get(0));
+		assertEquals("seat0", second.seatbid.get(0).seat.toString());
+		assertEquals(3, seatBid.bid.size());
+		assertSame(bid, seatBid.bid.get(0));
+		// the id string is overwritten with a new id
+		assertSame(id, bid.id);
+		assertNotSame(first, second);
+	}
+
+	@Test
+	public void poolIsBoundedTest() {
+		BidAssembler assembler = new BidAssembler();
+		int imps = BidAssembler.MAX_POOLED_BIDS / 4 + 1;
+		BidResponse response = assemble(assembler, 5, imps);
+		assembler.recycle(response);
+		assertEquals(5, assembler.getPooledSeatBids());
+		assertEquals(BidAssembler.MAX_POOLED_BIDS, assembler.getPooledBids());
+	}
+
+	@Test
+	public void foreignSeatBidsAreNotPooledTest() {
+		BidAssembler assembler = new BidAssembler();
+		BidResponse response = new BidResponse();
+		SeatBid seatBid = new SeatBid();
+		List<Bid> bids = new ArrayList<Bid>();
+		bids.add(new Bid());
+		seatBid.bid = Collections.unmodifiableList(bids);
+		response.seatbid = new ArrayList<SeatBid>();
+		response.seatbid.add(seatBid);
+		assembler.recycle(response);
+		assertEquals(0, assembler.getPooledSeatBids());
+		assertEquals(1, assembler.getPooledBids());
+	}
+}
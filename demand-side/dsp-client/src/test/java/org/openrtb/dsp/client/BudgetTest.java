@@ -0,0 +1,115 @@
+package org.openrtb.dsp.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.openrtb.dsp.intf.model.RTBAdvertiser;
+
+public class BudgetTest {
+
+	@Test
+	public void spendTest() {
+		Budget budget = new Budget(1000L, 0L, 1000L, 100L);
+		assertTrue(budget.trySpend(600L));
+		assertFalse(budget.trySpend(500L));
+		assertTrue(budget.trySpend(400L));
+		assertFalse(budget.trySpend(1L));
+		assertEquals(1000L, budget.getSpent());
+		assertEquals(0L, budget.getAvailable());
+
+		budget.refund(300L);
+		assertEquals(700L, budget.getSpent());
+		assertTrue(budget.canSpend(300L));
+		assertTrue(budget.trySpend(300L));
+		assertFalse(budget.canSpend(1L));
+	}
+
+	@Test
+	public void pacingTest() throws InterruptedException {
+		// 10 slices of 100
+		Budget budget = new Budget(1000L, 2000L, 200L, 10L);
+		assertTrue(budget.trySpend(100L));
+		assertFalse("the next slice is not released yet", budget.trySpend(1L));
+		Thread.sleep(250L);
+		assertTrue(budget.trySpend(100L));
+		assertEquals(200L, budget.getSpent());
+		assertTrue(budget.getAvailable() <= 100L);
+	}
+
+	@Test
+	public void loweredTotalTest() {
+		Budget budget = new Budget(100000L, 0L, 1000L, 8000L);
+		assertTrue(budget.trySpend(40000L));
+		budget.setTotal(50000L);
+		while (budget.trySpend(1000L)) {
+		}
+		assertTrue(budget.getSpent() <= 50000L + budget.getMaxError());
+		budget.reconcile();
+		// once reconciled the debt leaves nothing to spend
+		assertFalse(budget.trySpend(1L));
+	}
+
+	@Test
+	public void concurrentSpendTest() throws InterruptedException {
+		final Budget budget = new Budget(100000L, 0L, 1000L, 1000L);
+		final int threads = 8;
+		final AtomicLong accepted = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			new Thread() {
+				public void run() {
+					try {
+						start.await();
+						int misses = 0;
+						// a shard may run dry while others hold tokens, retry
+						// after reconciling
+						while (misses < 3) {
+							if (budget.trySpend(7L)) {
+								accepted.addAndGet(7L);
+								misses = 0;
+							} else {
+								budget.reconcile();
+								misses++;
+							}
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		start.countDown();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(accepted.get(), budget.getSpent());
+		assertTrue("never overspent", budget.getSpent() <= 100000L);
+		assertTrue(budget.getSpent() > 100000L - 7L * threads);
+	}
+
+	@Test
+	public void managerTest() {
+		BudgetManager manager = new BudgetManager();
+		RTBAdvertiser adv = new RTBAdvertiser("MyPage", "BigBrandIndia",
+				"http://nurl", null, new HashMap<String, String>());
+		assertNull(manager.getBudget(adv));
+		adv.setBudget(2.5);
+		Budget budget = manager.getBudget(adv);
+		assertEquals(2500000L, budget.getTotal());
+		assertSame(budget, manager.getBudget("MyPage"));
+		adv.setBudget(3.0);
+		assertSame(budget, manager.getBudget(adv));
+		assertEquals(3000000L, budget.getTotal());
+		assertEquals(10185L, BudgetManager.costOf(10.185f));
+	}
+}
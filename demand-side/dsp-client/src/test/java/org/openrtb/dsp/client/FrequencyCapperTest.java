@@ -0,0 +1,115 @@
+package org.openrtb.dsp.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+
+import org.apache.avro.util.Utf8;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrtb.common.api.BidRequest;
+import org.openrtb.common.api.User;
+import org.openrtb.dsp.intf.model.RTBAdvertiser;
+
+public class FrequencyCapperTest {
+	private FrequencyCapper capper;
+	private RTBAdvertiser advertiser;
+
+	@Before
+	public void setUp() {
+		capper = new FrequencyCapper(1024);
+		advertiser = new RTBAdvertiser("MyPage", "BigBrandIndia",
+				"http://bigbrand-adserver.com/nurl",
+				Collections.<String> emptyList(),
+				Collections.singletonMap("BigAdExchange", "1001"));
+		advertiser.setFrequencyCap(2);
+	}
+
+	@After
+	public void tearDown() {
+		capper.close();
+	}
+
+	@Test
+	public void userKeyTest() {
+		BidRequest request = new BidRequest();
+		assertEquals(0L, FrequencyCapper.userKey(request));
+		User user = new User();
+		request.setUser(user);
+		assertEquals(0L, FrequencyCapper.userKey(request));
+
+		user.setBuyeruid("buyer-1");
+		long buyer = FrequencyCapper.userKey(request);
+		assertTrue(buyer != 0L);
+		// the exchange's user id takes precedence over the buyer id
+		user.setId(new Utf8("user-1"));
+		long id = FrequencyCapper.userKey(request);
+		assertTrue(id != buyer);
+		// avro and java strings hash the same
+		user.setId("user-1");
+		assertEquals(id, FrequencyCapper.userKey(request));
+	}
+
+	@Test
+	public void capTest() {
+		long user = 42L;
+		long key = capper.count(user, advertiser);
+		assertTrue(key > 0L || key < -1L);
+		assertEquals(key, capper.count(user, advertiser));
+		assertEquals(-1L, capper.count(user, advertiser));
+		assertEquals(2, capper.getCount(user, advertiser));
+
+		capper.uncount(key);
+		assertEquals(1, capper.getCount(user, advertiser));
+		assertEquals(key, capper.count(user, advertiser));
+		// other users have their own count
+		assertEquals(0, capper.getCount(43L, advertiser));
+		assertFalse(capper.count(43L, advertiser) == -1L);
+	}
+
+	@Test
+	public void uncappedTest() {
+		assertEquals("no user id", 0L, capper.count(0L, advertiser));
+		advertiser.setFrequencyCap(null);
+		for (int i = 0; i < 10; i++) {
+			assertEquals(0L, capper.count(42L, advertiser));
+		}
+		capper.uncount(0L);
+		assertEquals(0L, capper.getOverflows());
+	}
+
+	@Test
+	public void defaultCapacityTest() {
+		FrequencyCapper shared = FrequencyCapper.getDefault();
+		// the capacity it was created with can be set again, not another
+		FrequencyCapper.setDefaultCapacity(shared.getCapacity());
+		try {
+			FrequencyCapper.setDefaultCapacity(shared.getCapacity() * 2);
+			fail("the default capper is already in use");
+		} catch (IllegalStateException e) {
+			assertEquals(shared.getCapacity(), FrequencyCapper.getDefault()
+					.getCapacity());
+		}
+	}
+
+	@Test
+	public void closeDefaultTest() {
+		FrequencyCapper shared = FrequencyCapper.getDefault();
+		FrequencyCapper.closeDefault();
+		// another capacity can be set once the default capper is closed
+		FrequencyCapper.setDefaultCapacity(1024);
+		try {
+			FrequencyCapper capper = FrequencyCapper.getDefault();
+			assertNotSame(shared, capper);
+			assertEquals(1024, capper.getCapacity());
+		} finally {
+			FrequencyCapper.closeDefault();
+			FrequencyCapper.setDefaultCapacity(FrequencyCapper.DEFAULT_CAPACITY);
+		}
+	}
+}
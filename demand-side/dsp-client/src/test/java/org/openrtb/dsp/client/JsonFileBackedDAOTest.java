@@ -9,6 +9,7 @@ import java.util.concurrent.ConcurrentMap;
 
 import org.junit.Test;
 import org.openrtb.dsp.intf.model.DSPException;
+import org.openrtb.dsp.intf.model.DemandSideConfig;
 import org.openrtb.dsp.intf.model.RTBAdvertiser;
 import org.openrtb.dsp.intf.model.RTBExchange;
 
@@ -81,6 +82,76 @@ public class JsonFileBackedDAOTest
         assertTrue("expected size of exchange is", exchanges.size() == 1);
     }
 
+    /**
+	 * This method is used to test that a reload publishes a new snapshot and
+	 * leaves the previous one untouched
+	 */
+    @Test
+    public void reloadPublishesNewSnapshotTest() throws DSPException
+    {
+        URL url = this.getClass().getResource(jsonFile);
+        dao.loadData(url.getPath());
+        DemandSideConfig first = dao.getSnapshot();
+        url = this.getClass().getResource(jsonFileForConcurrencyTest);
+        dao.loadData(url.getPath());
+        DemandSideConfig second = dao.getSnapshot();
+        assertTrue("a reload should publish a new snapshot", first != second);
+        assertTrue("version should increase", second.getVersion() > first.getVersion());
+        assertTrue("previous snapshot should not change", first.getAdvertisers().size() == 1);
+        assertTrue("loaded advertisers are added", second.getAdvertisers().size() == 2);
+        assertTrue("getters read the current snapshot", dao.getExchanges().size() == 2);
+    }
+
+    /**
+	 * This method is used to test that concurrent loads are not lost
+	 */
+    @Test
+    public void concurrentLoadsTest() throws Exception
+    {
+        final URL url = getClass().getResource(jsonFile);
+        Thread[] threads = new Thread[4];
+        final int loads = 25;
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for (int j = 0; j < loads; j++)
+                        {
+                            dao.loadData(url.getPath());
+                        }
+                    }
+                    catch (DSPException e)
+                    {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads)
+        {
+            t.join();
+        }
+        assertTrue("every load should publish a version", dao.getSnapshot().getVersion() == threads.length * loads);
+    }
+
+    /**
+	 * This method is used to test that the maps returned by the DAO are
+	 * copies, changing them leaves the configuration untouched
+	 */
+    @Test
+    public void gettersReturnCopiesTest() throws DSPException
+    {
+        URL url = this.getClass().getResource(jsonFile);
+        dao.loadData(url.getPath());
+        dao.getAdvertisers().clear();
+        assertTrue("the snapshot should not change", dao.getSnapshot().getAdvertisers().size() == 1);
+    }
+
     /**
 	 * This method test the Validate loadData property for Concurrency Test .
 	 */
@@ -1,6 +1,8 @@
 package org.openrtb.dsp.client;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -9,9 +11,11 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.avro.AvroRemoteException;
 import org.junit.Before;
@@ -21,12 +25,15 @@ import org.openrtb.common.api.Banner;
 import org.openrtb.common.api.BidRequest;
 import org.openrtb.common.api.BidResponse;
 import org.openrtb.common.api.Impression;
+import org.openrtb.common.api.SeatBid;
 import org.openrtb.common.api.Site;
+import org.openrtb.common.api.User;
 import org.openrtb.common.api.Video;
 import org.openrtb.dsp.intf.model.DSPException;
 import org.openrtb.dsp.intf.model.RTBAdvertiser;
 import org.openrtb.dsp.intf.model.RTBExchange;
 import org.openrtb.dsp.intf.model.RTBRequestWrapper;
+import org.openrtb.dsp.intf.model.Targeting;
 
 /*
  * This Class is used  to Validate SimpleBidder class methods
@@ -68,7 +75,7 @@ public class SimpleBidderTest {
 				Collections.<Impression> singletonList(imp));
 		when(request.getApp()).thenReturn(app);
 		when(request.getWseat()).thenReturn(
-				Collections.<CharSequence> singletonList("012asfdfd25"));
+				Collections.<CharSequence> singletonList("1001"));
 	}
 
 	@Before
@@ -99,7 +106,7 @@ public class SimpleBidderTest {
 		when(requestSite.getImp()).thenReturn(
 				Collections.<Impression> singletonList(imp));
 		when(requestSite.getWseat()).thenReturn(
-				Collections.<CharSequence> singletonList("012asfdfd25"));
+				Collections.<CharSequence> singletonList("1001"));
 		when(requestSite.getSite()).thenReturn(site);
 	}
 	
@@ -185,7 +192,7 @@ public class SimpleBidderTest {
 	public void wseatTest() {
 		List<CharSequence> wseat = request.getWseat();
 		assertTrue("wseat is empty", wseat.size() == 1);
-		assertTrue("Match wseatId", wseat.get(0).equals("012asfdfd25"));
+		assertTrue("Match wseatId", wseat.get(0).equals("1001"));
 	}
 	/**
 	 * This method test the functionality of process method of SimpleBidder class
@@ -243,7 +250,193 @@ public class SimpleBidderTest {
 				response.getSeatbid().size()>0);
 		assertTrue("Response has 1 Bid object ",
 				response.getSeatbid().size()==1);
-		assertTrue("Response should have valid Bid ID ", response.getBidid()=="simple-bid-tracker");
+		assertTrue("Response should have valid Bid ID ", response.getBidid().length()==SnowflakeIdGenerator.FORMATTED_LENGTH);
 		assertTrue("Response should have valid response ID ", response.getId()=="ad1d762d6d9719b6b3c9e09f6433a76d9b593738");
 	}
+
+	/**
+	 * This method test that the bids are grouped by seat, one seat bid per
+	 * seat holding a bid for every impression
+	 */
+	@Test
+	public void groupsBidsBySeatTest() throws AvroRemoteException {
+		BidRequest multi = mock(BidRequest.class);
+		List<Impression> imps = new ArrayList<Impression>();
+		for (int i = 0; i < 3; i++) {
+			Impression imp = new Impression();
+			imp.setId("imp" + i);
+			imp.setBanner(new Banner());
+			imp.setBidfloor((float) i);
+			imps.add(imp);
+		}
+		when(multi.getId()).thenReturn("multi-seat-request");
+		when(multi.getImp()).thenReturn(imps);
+		when(multi.getSite()).thenReturn(new Site());
+		RTBRequestWrapper wReq = new RTBRequestWrapper(multi);
+		RTBExchange exchange = new RTBExchange("BigAdExchange",
+				"http://bigadex.com/rtb", "application/json");
+		Map<String, RTBAdvertiser> advertisers = new HashMap<String, RTBAdvertiser>();
+		for (String seat : new String[] { "1001", "1002" }) {
+			RTBAdvertiser adv = new RTBAdvertiser("page" + seat, "brand" + seat,
+					"http://bigbrand-adserver.com/nurl", new ArrayList<String>(),
+					Collections.singletonMap("BigAdExchange", seat));
+			advertisers.put(adv.getLandingPage(), adv);
+		}
+		wReq.setContext(exchange, advertisers, 2000, 1000);
+		BidResponse response = bidder.process(wReq);
+		assertNotNull("Response should not be empty ", response);
+		assertEquals(2, response.getSeatbid().size());
+		Set<String> seats = new HashSet<String>();
+		for (SeatBid seatBid : response.getSeatbid()) {
+			seats.add(seatBid.getSeat().toString());
+			assertEquals(imps.size(), seatBid.getBid().size());
+			for (int i = 0; i < imps.size(); i++) {
+				assertEquals("imp" + i, seatBid.getBid().get(i).getImpid());
+			}
+		}
+		assertTrue(seats.contains("1001") && seats.contains("1002"));
+
+		// the records are reused by the next response built on this thread
+		SeatBid first = response.getSeatbid().get(0);
+		bidder.recycle(response);
+		BidResponse next = bidder.process(wReq);
+		assertTrue(next.getSeatbid().contains(first));
+	}
+
+	/**
+	 * This method test that seats only bid on the impressions they target
+	 */
+	@Test
+	public void targetingTest() throws AvroRemoteException {
+		BidRequest multi = mock(BidRequest.class);
+		List<Impression> imps = new ArrayList<Impression>();
+		for (int w : new int[] { 300, 728 }) {
+			Impression imp = new Impression();
+			imp.setId("imp" + w);
+			Banner banner = new Banner();
+			banner.setW(w);
+			banner.setH(w == 300 ? 250 : 90);
+			imp.setBanner(banner);
+			imp.setBidfloor(1.0f);
+			imps.add(imp);
+		}
+		when(multi.getId()).thenReturn("targeted-request");
+		when(multi.getImp()).thenReturn(imps);
+		RTBRequestWrapper wReq = new RTBRequestWrapper(multi);
+		RTBExchange exchange = new RTBExchange("BigAdExchange",
+				"http://bigadex.com/rtb", "application/json");
+		Map<String, RTBAdvertiser> advertisers = new HashMap<String, RTBAdvertiser>();
+		for (String seat : new String[] { "1001", "1002", "1003" }) {
+			RTBAdvertiser adv = new RTBAdvertiser("page" + seat, "brand" + seat,
+					"http://bigbrand-adserver.com/nurl", new ArrayList<String>(),
+					Collections.singletonMap("BigAdExchange", seat));
+			if (!seat.equals("1001")) {
+				Targeting targeting = new Targeting();
+				targeting.setSizes(Collections.singletonList(seat.equals("1002")
+						? "728x90" : "120x600"));
+				adv.setTargeting(targeting);
+			}
+			advertisers.put(adv.getLandingPage(), adv);
+		}
+		wReq.setContext(exchange, advertisers, 2000, 1000);
+		BidResponse response = bidder.process(wReq);
+		assertNotNull("Response should not be empty ", response);
+		// 1003 targets neither impression and does not bid
+		assertEquals(2, response.getSeatbid().size());
+		for (SeatBid seatBid : response.getSeatbid()) {
+			if (seatBid.getSeat().toString().equals("1002")) {
+				assertEquals(1, seatBid.getBid().size());
+				assertEquals("imp728", seatBid.getBid().get(0).getImpid());
+			} else {
+				assertEquals(2, seatBid.getBid().size());
+			}
+		}
+	}
+
+	/**
+	 * This method test that an advertiser stops bidding for a user once its
+	 * frequency cap is reached, and keeps bidding for other users
+	 */
+	@Test
+	public void frequencyCapTest() throws AvroRemoteException {
+		FrequencyCapper capper = new FrequencyCapper(1024);
+		try {
+			bidder.setFrequencyCapper(capper);
+			User user = new User();
+			user.setBuyeruid("buyer-1");
+			when(request.getUser()).thenReturn(user);
+			RTBRequestWrapper wReq = new RTBRequestWrapper(request);
+			RTBExchange exchange = new RTBExchange("BigAdExchange",
+					"http://bigadex.com/rtb", "application/json");
+			RTBAdvertiser adv = new RTBAdvertiser("MyPage", "BigBrandIndia",
+					"http://bigbrand-adserver.com/nurl", new ArrayList<String>(),
+					Collections.singletonMap("BigAdExchange", "1001"));
+			adv.setFrequencyCap(2);
+			adv.setFrequencyCapWindow(60);
+			wReq.setContext(exchange,
+					Collections.singletonMap(adv.getLandingPage(), adv), 2000,
+					1000);
+			assertEquals(1, bidder.process(wReq).getSeatbid().size());
+			assertEquals(1, bidder.process(wReq).getSeatbid().size());
+			assertNull("the user saw enough of the advertiser",
+					bidder.process(wReq));
+
+			user.setBuyeruid("buyer-2");
+			assertEquals(1, bidder.process(wReq).getSeatbid().size());
+			// requests without a user id are not capped
+			when(request.getUser()).thenReturn(null);
+			assertEquals(1, bidder.process(wReq).getSeatbid().size());
+		} finally {
+			capper.close();
+		}
+	}
+
+	/**
+	 * This method test that the budget and cap counts taken by the bids of a
+	 * response are given back when the server drops it
+	 */
+	@Test
+	public void responseDroppedTest() throws AvroRemoteException {
+		FrequencyCapper capper = new FrequencyCapper(1024);
+		try {
+			bidder.setFrequencyCapper(capper);
+			bidder.setBudgetManager(new BudgetManager(0L, 1000L, 1000L));
+			User user = new User();
+			user.setBuyeruid("buyer-1");
+			when(request.getUser()).thenReturn(user);
+			RTBRequestWrapper wReq = new RTBRequestWrapper(request);
+			RTBExchange exchange = new RTBExchange("BigAdExchange",
+					"http://bigadex.com/rtb", "application/json");
+			RTBAdvertiser adv = new RTBAdvertiser("MyPage", "BigBrandIndia",
+					"http://bigbrand-adserver.com/nurl", new ArrayList<String>(),
+					Collections.singletonMap("BigAdExchange", "1001"));
+			adv.setBudget(1.0);
+			adv.setFrequencyCap(2);
+			wReq.setContext(exchange,
+					Collections.singletonMap(adv.getLandingPage(), adv), 2000,
+					1000);
+			long userKey = FrequencyCapper.userKey(request);
+			Budget budget = bidder.getBudgetManager().getBudget(adv);
+
+			BidResponse sent = bidder.process(wReq);
+			assertEquals(1, sent.getSeatbid().size());
+			BidResponse late = bidder.process(wReq);
+			assertEquals(1, late.getSeatbid().size());
+			assertEquals(2, capper.getCount(userKey, adv));
+			long charged = budget.getSpent();
+
+			// only the last response of the thread can be handed back
+			bidder.responseDropped(sent);
+			assertEquals(charged, budget.getSpent());
+			bidder.responseDropped(late);
+			assertEquals(charged / 2, budget.getSpent());
+			assertEquals(1, capper.getCount(userKey, adv));
+			// and only once
+			bidder.responseDropped(late);
+			assertEquals(charged / 2, budget.getSpent());
+			assertEquals(1, capper.getCount(userKey, adv));
+		} finally {
+			capper.close();
+		}
+	}
 }
@@ -0,0 +1,70 @@
+package org.openrtb.dsp.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.util.Utf8;
+import org.junit.Test;
+
+public class SnowflakeIdGeneratorTest {
+
+	@Test
+	public void idLayoutTest() {
+		SnowflakeIdGenerator generator = new SnowflakeIdGenerator(513);
+		long before = System.currentTimeMillis();
+		long id = generator.nextId();
+		long after = System.currentTimeMillis();
+		assertTrue(id > 0);
+		assertEquals(513, SnowflakeIdGenerator.getNodeId(id));
+		long time = SnowflakeIdGenerator.getTimestamp(id);
+		assertTrue(time >= before && time <= after + 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidNodeIdTest() {
+		new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_NODE_ID + 1);
+	}
+
+	@Test
+	public void formatTest() {
+		Utf8 id = SnowflakeIdGenerator.format(0x1234abcdL, null);
+		assertEquals("000000001234abcd", id.toString());
+		Utf8 reused = SnowflakeIdGenerator.format(Long.MAX_VALUE, id);
+		assertSame(id, reused);
+		assertEquals("7fffffffffffffff", reused.toString());
+		assertEquals(SnowflakeIdGenerator.FORMATTED_LENGTH, reused.length());
+	}
+
+	@Test
+	public void uniqueAcrossThreadsTest() throws InterruptedException {
+		final SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1);
+		final int threads = 8;
+		// more than a stripe hands out in a millisecond, to borrow ahead
+		final int idsPerThread = 5000;
+		final Set<Long> ids = Collections.synchronizedSet(new HashSet<Long>());
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			new Thread() {
+				public void run() {
+					long[] local = new long[idsPerThread];
+					for (int i = 0; i < idsPerThread; i++) {
+						local[i] = generator.nextId();
+					}
+					for (long id : local) {
+						ids.add(id);
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		assertEquals(threads * idsPerThread, ids.size());
+	}
+}
@@ -0,0 +1,187 @@
+package org.openrtb.dsp.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrtb.common.api.Banner;
+import org.openrtb.common.api.BidRequest;
+import org.openrtb.common.api.Impression;
+import org.openrtb.common.api.Site;
+import org.openrtb.common.util.HashedWheelTimer;
+import org.openrtb.dsp.intf.model.RTBAdvertiser;
+import org.openrtb.dsp.intf.model.RTBExchange;
+import org.openrtb.dsp.intf.model.RTBRequestWrapper;
+
+/*
+ * Checks that transactions run the states of the StatefulBidder in parallel.
+ * The work done in a state is simulated by waiting rather than computing, so
+ * that the results do not depend on the number of cores available.
+ */
+public class StatefulBidderConcurrencyTest {
+	private static final int THREADS = 8;
+	private static final int TRANSACTIONS_PER_THREAD = 10;
+	private static final long VALIDATION_MS = 20;
+
+	private final AtomicInteger requestIds = new AtomicInteger();
+	private HashedWheelTimer timer;
+	private RTBExchange exchange;
+	private Map<String, RTBAdvertiser> advertisers;
+
+	@Before
+	public void setUp() {
+		timer = new HashedWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 64);
+		exchange = new RTBExchange("BigAdExchange", "http://bigadex.com/rtb",
+				"application/json");
+		Map<String, String> seats = new HashMap<String, String>();
+		seats.put("BigAdExchange", "1001");
+		RTBAdvertiser adv = new RTBAdvertiser("MyPage", "BigBrandIndia",
+				"http://bigbrand-adserver.com/nurl",
+				Collections.singletonList("cat1"), seats);
+		advertisers = new HashMap<String, RTBAdvertiser>();
+		advertisers.put(adv.getLandingPage(), adv);
+	}
+
+	@After
+	public void tearDown() {
+		timer.stop();
+	}
+
+	/**
+	 * All the threads must be inside TXN_WAIT_NEW at the same time for the
+	 * barrier to open, which fails if the state is locked.
+	 */
+	@Test
+	public void transactionsShareStatesTest() throws Exception {
+		final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+		final StatefulBidder bidder = new StatefulBidder(timer) {
+			@Override
+			public boolean validateRequest(BidRequest request) {
+				try {
+					barrier.await(5, TimeUnit.SECONDS);
+				} catch (Exception e) {
+					return false;
+				}
+				return super.validateRequest(request);
+			}
+		};
+		final List<RTBRequestWrapper> requests = newRequests(THREADS);
+		final AtomicInteger bids = new AtomicInteger();
+		runThreads(THREADS, new Worker() {
+			public void run(int thread) throws Exception {
+				if (bidder.process(requests.get(thread)) != null) {
+					bids.incrementAndGet();
+				}
+			}
+		});
+		assertEquals("Every transaction should bid", THREADS, bids.get());
+	}
+
+	/**
+	 * The same number of transactions, each spending VALIDATION_MS in
+	 * TXN_WAIT_NEW, is processed by 1 and by THREADS threads: the throughput
+	 * must grow with the number of threads.
+	 */
+	@Test
+	public void throughputScalesWithThreadsTest() throws Exception {
+		final StatefulBidder bidder = new StatefulBidder(timer) {
+			@Override
+			public boolean validateRequest(BidRequest request) {
+				try {
+					Thread.sleep(VALIDATION_MS);
+				} catch (InterruptedException e) {
+					return false;
+				}
+				return super.validateRequest(request);
+			}
+		};
+		int transactions = THREADS * TRANSACTIONS_PER_THREAD;
+		long serialNanos = timeTransactions(bidder, 1, transactions);
+		long parallelNanos = timeTransactions(bidder, THREADS, transactions);
+		double speedup = (double) serialNanos / parallelNanos;
+		// ideally THREADS, allow for scheduling noise
+		assertTrue("Speedup with " + THREADS + " threads is only " + speedup,
+				speedup > THREADS / 2.0);
+	}
+
+	private long timeTransactions(final StatefulBidder bidder, final int threads,
+			int transactions) throws Exception {
+		final List<RTBRequestWrapper> requests = newRequests(transactions);
+		final int perThread = transactions / threads;
+		long start = System.nanoTime();
+		runThreads(threads, new Worker() {
+			public void run(int thread) throws Exception {
+				for (int i = 0; i < perThread; i++) {
+					assertNotNull(bidder.process(requests.get(thread * perThread + i)));
+				}
+			}
+		});
+		return System.nanoTime() - start;
+	}
+
+	private interface Worker {
+		void run(int thread) throws Exception;
+	}
+
+	private static void runThreads(int threads, final Worker worker)
+			throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(threads);
+		final List<Throwable> failures = Collections
+				.synchronizedList(new ArrayList<Throwable>());
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			new Thread() {
+				public void run() {
+					try {
+						worker.run(thread);
+					} catch (Throwable e) {
+						failures.add(e);
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		assertTrue("Threads did not finish", done.await(30, TimeUnit.SECONDS));
+		assertTrue("Failures: " + failures, failures.isEmpty());
+	}
+
+	private List<RTBRequestWrapper> newRequests(int count) {
+		List<RTBRequestWrapper> requests = new ArrayList<RTBRequestWrapper>(count);
+		for (int i = 0; i < count; i++) {
+			Banner banner = new Banner();
+			banner.setH(25);
+			banner.setW(30);
+			Impression imp = new Impression();
+			imp.setId("10212sdsa1");
+			imp.setBanner(banner);
+			imp.setBidfloor(new Float(10.085));
+			Site site = new Site();
+			site.setId("siteTest0214");
+			BidRequest request = mock(BidRequest.class);
+			when(request.getId()).thenReturn("request-" + requestIds.incrementAndGet());
+			when(request.getImp()).thenReturn(Collections.<Impression> singletonList(imp));
+			when(request.getSite()).thenReturn(site);
+			when(request.getWseat()).thenReturn(Collections.<CharSequence> singletonList("1001"));
+			RTBRequestWrapper wReq = new RTBRequestWrapper(request);
+			wReq.setContext(exchange, advertisers, 5000, 5000);
+			requests.add(wReq);
+		}
+		return requests;
+	}
+}
@@ -1,31 +1,46 @@
 package org.openrtb.dsp.client;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.net.URLDecoder;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.avro.AvroRemoteException;
+import org.apache.avro.util.Utf8;
 import org.junit.Before;
 import org.junit.Test;
 import org.openrtb.common.api.App;
 import org.openrtb.common.api.Banner;
+import org.openrtb.common.api.Bid;
 import org.openrtb.common.api.BidRequest;
 import org.openrtb.common.api.BidResponse;
 import org.openrtb.common.api.Impression;
 import org.openrtb.common.api.Site;
+import org.openrtb.common.api.User;
 import org.openrtb.common.api.Video;
+import org.openrtb.common.util.HashedWheelTimer;
+import org.openrtb.common.util.statemachines.FSMTrace;
 import org.openrtb.dsp.intf.model.DSPException;
+import org.openrtb.dsp.intf.model.Deadline;
+import org.openrtb.dsp.intf.model.DemandSideConfig;
 import org.openrtb.dsp.intf.model.RTBAdvertiser;
 import org.openrtb.dsp.intf.model.RTBExchange;
 import org.openrtb.dsp.intf.model.RTBRequestWrapper;
+import org.openrtb.dsp.intf.model.WinNotice;
+import org.openrtb.dsp.intf.service.IdGenerator;
 
 /*
  * This Class is used  to Validate StatefulBidder class functionality
@@ -65,7 +80,7 @@ public class StatefulBidderTest {
 				Collections.<Impression> singletonList(imp));
 		when(request.getApp()).thenReturn(app);
 		when(request.getWseat()).thenReturn(
-				Collections.<CharSequence> singletonList("012asfdfd25"));
+				Collections.<CharSequence> singletonList("1001"));
 	}
 
 	@Before
@@ -97,7 +112,7 @@ public class StatefulBidderTest {
 				Collections.<Impression> singletonList(imp));
 		when(requestSite.getSite()).thenReturn(site);
 		when(requestSite.getWseat()).thenReturn(
-				Collections.<CharSequence> singletonList("012asfdfd25"));
+				Collections.<CharSequence> singletonList("1001"));
 	}
 	
 	/**
@@ -179,7 +194,7 @@ public class StatefulBidderTest {
 	public void wseatTest() {
 		List<CharSequence> wseat = request.getWseat();
 		assertTrue("wseat is empty", wseat.size() == 1);
-		assertTrue("Match wseatId", wseat.get(0).equals("012asfdfd25"));
+		assertTrue("Match wseatId", wseat.get(0).equals("1001"));
 	}
 	/**
 	 * This method test the  selectBids property in a BidRequest
@@ -220,7 +235,7 @@ public class StatefulBidderTest {
 		List<String> categories = new ArrayList<String>();
 		categories.add("cat1");
 		Map<String, String> seats = new HashMap<String, String>();
-		seats.put("BigAdExchange", "151");
+		seats.put("BigAdExchange", "1001");
 		seats.put("SmallAdExchange", "102");
 		RTBAdvertiser adv = new RTBAdvertiser("AdversiderPage", "BigIndia",
 				"http://bigbrand-adserver.com", categories, seats);
@@ -266,4 +281,516 @@ public class StatefulBidderTest {
 		assertTrue("Response should have valid response ID ", response.getId()=="ad1d762d6d9719b6b3c9e09f6433a76d9b593738");
 	}
 
+	/**
+	 * This method test that a transaction offering bids stays open until the
+	 * offer timer expires, and is evicted from the transaction table then
+	 */
+	@Test
+	public void offerExpiryClosesTransactionTest() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10,
+				TimeUnit.MILLISECONDS, 64);
+		try {
+			StatefulBidder timedBidder = new StatefulBidder(timer, 16);
+			RTBRequestWrapper wReq = new RTBRequestWrapper(request);
+			RTBExchange exchange = new RTBExchange("BigAdExchange",
+					"http://bigadex.com/rtb", "application/json");
+			Map<String, String> seats = new HashMap<String, String>();
+			seats.put("BigAdExchange", "1001");
+			RTBAdvertiser adv = new RTBAdvertiser("MyPage", "BigBrandIndia",
+					"http://bigbrand-adserver.com/nurl",
+					Collections.singletonList("cat1"), seats);
+			Map<String, RTBAdvertiser> advertisers = new HashMap<String, RTBAdvertiser>();
+			advertisers.put(adv.getLandingPage(), adv);
+			wReq.setContext(exchange, advertisers, 2000, 50);
+			BidResponse response = timedBidder.process(wReq);
+			assertNotNull("Response should not be empty ", response);
+			assertEquals("Request and offer timers should be scheduled", 2,
+					timer.getScheduledTimeouts());
+			assertEquals("Request timer should be cancelled", 1,
+					timer.getCancelledTimeouts());
+			assertEquals("Transaction should be open", 1,
+					timedBidder.getTransactions().size());
+
+			// the same request id cannot open a second transaction
+			assertNull("Duplicate request should not be answered",
+					timedBidder.process(wReq));
+
+			long deadline = System.currentTimeMillis() + 2000;
+			while (timedBidder.getTransactions().size() > 0
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals("Transaction should be closed by the offer timer", 0,
+					timedBidder.getTransactions().size());
+			assertEquals(1, timer.getExpiredTimeouts());
+			assertEquals(0, timer.getPendingTimeouts());
+		} finally {
+			timer.stop();
+		}
+	}
+
+	/**
+	 * This method test that a win notice completes the transaction and
+	 * cancels its offer timer
+	 */
+	@Test
+	public void winNoticeCompletesTransactionTest() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10,
+				TimeUnit.MILLISECONDS, 64);
+		try {
+			StatefulBidder timedBidder = new StatefulBidder(timer, 16);
+			RTBRequestWrapper wReq = new RTBRequestWrapper(request);
+			RTBExchange exchange = new RTBExchange("BigAdExchange",
+					"http://bigadex.com/rtb", "application/json");
+			Map<String, String> seats = new HashMap<String, String>();
+			seats.put("BigAdExchange", "1001");
+			RTBAdvertiser adv = new RTBAdvertiser("MyPage", "BigBrandIndia",
+					"http://bigbrand-adserver.com/nurl",
+					Collections.singletonList("cat1"), seats);
+			Map<String, RTBAdvertiser> advertisers = new HashMap<String, RTBAdvertiser>();
+			advertisers.put(adv.getLandingPage(), adv);
+			wReq.setContext(exchange, advertisers, 2000, 5000);
+			BidResponse response = timedBidder.process(wReq);
+			assertNotNull("Response should not be empty ", response);
+
+			assertFalse("Unknown request should not match",
+					timedBidder.notifyWin(new WinNotice("BigAdExchange",
+							"unknown", null, null, null)));
+			WinNotice win = new WinNotice("BigAdExchange",
+					"ad1d762d6d9719b6b3c9e09f6433a76d9b593738", "10212sdsa1",
+					null, 10.185f);
+			assertTrue("Win should settle the offer", timedBidder.notifyWin(win));
+			assertFalse("Offer is settled once", timedBidder.notifyWin(win));
+			assertEquals("Transaction should be closed", 0, timedBidder
+					.getTransactions().size());
+			assertEquals("Both timers should be cancelled", 2,
+					timer.getCancelledTimeouts());
+			assertEquals(0, timer.getPendingTimeouts());
+		} finally {
+			timer.stop();
+		}
+	}
+
+	/**
+	 * This method test that the nurl of a bid points to the win notice
+	 * endpoint of the DSP, and that the notice sent to it once the exchange
+	 * filled in the macros settles the transaction
+	 */
+	@Test
+	public void winNoticeUrlTest() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10,
+				TimeUnit.MILLISECONDS, 64);
+		try {
+			StatefulBidder timedBidder = new StatefulBidder(timer, 16);
+			timedBidder.setBudgetManager(new BudgetManager(0L, 1000L, 1000L));
+			RTBExchange exchange = new RTBExchange("Big Ad Exchange",
+					"http://bigadex.com/rtb", "application/json");
+			Map<String, String> seats = new HashMap<String, String>();
+			seats.put("Big Ad Exchange", "1001");
+			RTBAdvertiser adv = new RTBAdvertiser("MyPage", "BigBrandIndia",
+					"http://bigbrand-adserver.com/nurl",
+					Collections.singletonList("cat1"), seats);
+			adv.setBudget(1.0);
+			DemandSideConfig config = DemandSideConfig.EMPTY.update(8080,
+					2000, 5000, "http://dsp.example.com/dsp/win",
+					Collections.singletonList(exchange),
+					Collections.singletonList(adv));
+			RTBRequestWrapper wReq = new RTBRequestWrapper(request);
+			wReq.setContext(config, "Big Ad Exchange");
+			BidResponse response = timedBidder.process(wReq);
+			Bid bid = response.getSeatbid().get(0).getBid().get(0);
+			String nurl = bid.getNurl().toString();
+			assertTrue(nurl, nurl.startsWith("http://dsp.example.com/dsp/win?"
+					+ "ssp_name=Big+Ad+Exchange&id=${AUCTION_ID}"));
+
+			// as the exchange calls it
+			nurl = nurl.replace("${AUCTION_ID}", URLEncoder.encode(
+					request.getId().toString(), "UTF-8"))
+					.replace("${AUCTION_IMP_ID}", "10212sdsa1")
+					.replace("${AUCTION_PRICE}", "5.0");
+			Map<String, String> params = new HashMap<String, String>();
+			for (String param : nurl.substring(nurl.indexOf('?') + 1).split("&")) {
+				int eq = param.indexOf('=');
+				params.put(param.substring(0, eq), URLDecoder.decode(
+						param.substring(eq + 1), "UTF-8"));
+			}
+			WinNotice win = new WinNotice(params.get("ssp_name"),
+					params.get("id"), params.get("impid"), params.get("bidid"),
+					Float.valueOf(params.get("price")));
+			assertEquals(bid.getId().toString(), win.getBidId());
+			assertTrue("Win should settle the offer", timedBidder.notifyWin(win));
+			assertEquals("Transaction should be closed", 0, timedBidder
+					.getTransactions().size());
+			assertEquals("the clearing price is charged", 5000L, timedBidder
+					.getBudgetManager().getBudget("MyPage").getSpent());
+		} finally {
+			timer.stop();
+		}
+	}
+
+	/**
+	 * This method test that bids reserve their cost on the advertiser's
+	 * budget, and that a win charges the clearing price
+	 */
+	@Test
+	public void budgetTest() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10,
+				TimeUnit.MILLISECONDS, 64);
+		try {
+			StatefulBidder timedBidder = new StatefulBidder(timer, 16);
+			timedBidder.setBudgetManager(new BudgetManager(0L, 1000L, 1000L));
+			RTBRequestWrapper wReq = new RTBRequestWrapper(request);
+			RTBExchange exchange = new RTBExchange("BigAdExchange",
+					"http://bigadex.com/rtb", "application/json");
+			Map<String, String> seats = new HashMap<String, String>();
+			seats.put("BigAdExchange", "1001");
+			RTBAdvertiser adv = new RTBAdvertiser("MyPage", "BigBrandIndia",
+					"http://bigbrand-adserver.com/nurl",
+					Collections.singletonList("cat1"), seats);
+			// room for one bid at 10.185 CPM
+			adv.setBudget(0.015);
+			Map<String, RTBAdvertiser> advertisers = new HashMap<String, RTBAdvertiser>();
+			advertisers.put(adv.getLandingPage(), adv);
+			wReq.setContext(exchange, advertisers, 2000, 5000);
+			BidResponse response = timedBidder.process(wReq);
+			assertEquals(1, response.getSeatbid().size());
+			Budget budget = timedBidder.getBudgetManager().getBudget("MyPage");
+			assertEquals("the bid is reserved", 10185L, budget.getSpent());
+
+			WinNotice win = new WinNotice("BigAdExchange",
+					"ad1d762d6d9719b6b3c9e09f6433a76d9b593738", "10212sdsa1",
+					response.getSeatbid().get(0).getBid().get(0).getId()
+							.toString(), 5.0f);
+			assertTrue(timedBidder.notifyWin(win));
+			assertEquals("the clearing price is charged", 5000L,
+					budget.getSpent());
+
+			// the transaction is closed, the request id can be reused, but
+			// what is left of the budget does not cover another bid
+			response = timedBidder.process(wReq);
+			assertNull(response);
+			assertEquals(5000L, budget.getSpent());
+		} finally {
+			timer.stop();
+		}
+	}
+
+	/**
+	 * This method test that a response dropped by the server closes its
+	 * transaction right away, and gives back its reservations
+	 */
+	@Test
+	public void responseDroppedTest() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10,
+				TimeUnit.MILLISECONDS, 64);
+		FrequencyCapper capper = new FrequencyCapper(1024);
+		try {
+			StatefulBidder timedBidder = new StatefulBidder(timer, 16);
+			timedBidder.setBudgetManager(new BudgetManager(0L, 1000L, 1000L));
+			timedBidder.setFrequencyCapper(capper);
+			User user = new User();
+			user.setId("user-1");
+			when(request.getUser()).thenReturn(user);
+			RTBRequestWrapper wReq = new RTBRequestWrapper(request);
+			RTBExchange exchange = new RTBExchange("BigAdExchange",
+					"http://bigadex.com/rtb", "application/json");
+			Map<String, String> seats = new HashMap<String, String>();
+			seats.put("BigAdExchange", "1001");
+			RTBAdvertiser adv = new RTBAdvertiser("MyPage", "BigBrandIndia",
+					"http://bigbrand-adserver.com/nurl",
+					Collections.singletonList("cat1"), seats);
+			adv.setBudget(1.0);
+			adv.setFrequencyCap(1);
+			Map<String, RTBAdvertiser> advertisers = new HashMap<String, RTBAdvertiser>();
+			advertisers.put(adv.getLandingPage(), adv);
+			wReq.setContext(exchange, advertisers, 2000, 5000);
+			Budget budget = timedBidder.getBudgetManager().getBudget(adv);
+
+			BidResponse late = timedBidder.process(wReq);
+			assertEquals(1, late.getSeatbid().size());
+			assertEquals(1, timedBidder.getTransactions().size());
+			assertEquals(10185L, budget.getSpent());
+
+			timedBidder.responseDropped(late);
+			assertEquals("Transaction should be closed", 0, timedBidder
+					.getTransactions().size());
+			assertEquals(0L, budget.getSpent());
+			assertEquals(0, capper.getCount(FrequencyCapper.userKey(request),
+					adv));
+			assertEquals("Both timers should be cancelled", 2,
+					timer.getCancelledTimeouts());
+			// and only once
+			timedBidder.responseDropped(late);
+			assertEquals(0L, budget.getSpent());
+		} finally {
+			timer.stop();
+			capper.close();
+		}
+	}
+
+	/**
+	 * This method test that no bid is made once the budget is spent
+	 */
+	@Test
+	public void budgetExhaustedTest() throws AvroRemoteException {
+		bidder.setBudgetManager(new BudgetManager(0L, 1000L, 1000L));
+		RTBRequestWrapper wReq = new RTBRequestWrapper(request);
+		RTBExchange exchange = new RTBExchange("BigAdExchange",
+				"http://bigadex.com/rtb", "application/json");
+		Map<String, String> seats = new HashMap<String, String>();
+		seats.put("BigAdExchange", "1001");
+		RTBAdvertiser adv = new RTBAdvertiser("MyPage", "BigBrandIndia",
+				"http://bigbrand-adserver.com/nurl",
+				Collections.singletonList("cat1"), seats);
+		adv.setBudget(0.01);
+		Map<String, RTBAdvertiser> advertisers = new HashMap<String, RTBAdvertiser>();
+		advertisers.put(adv.getLandingPage(), adv);
+		wReq.setContext(exchange, advertisers, 2000, 1000);
+		BidResponse response = bidder.selectBids(wReq, null);
+		assertNull("10.185 CPM exceeds the budget", response);
+	}
+
+	/**
+	 * This method test that no bid is made once the deadline of the request
+	 * has passed, and that nothing is left reserved
+	 */
+	@Test
+	public void deadlineTest() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10,
+				TimeUnit.MILLISECONDS, 64);
+		try {
+			StatefulBidder timedBidder = new StatefulBidder(timer, 16);
+			timedBidder.setBudgetManager(new BudgetManager(0L, 1000L, 1000L));
+			RTBRequestWrapper wReq = new RTBRequestWrapper(request);
+			// arrived a second ago
+			wReq.setDeadline(new Deadline(System.nanoTime()
+					- TimeUnit.SECONDS.toNanos(1)));
+			RTBExchange exchange = new RTBExchange("BigAdExchange",
+					"http://bigadex.com/rtb", "application/json");
+			Map<String, String> seats = new HashMap<String, String>();
+			seats.put("BigAdExchange", "1001");
+			RTBAdvertiser adv = new RTBAdvertiser("MyPage", "BigBrandIndia",
+					"http://bigbrand-adserver.com/nurl",
+					Collections.singletonList("cat1"), seats);
+			adv.setBudget(1.0);
+			Map<String, RTBAdvertiser> advertisers = new HashMap<String, RTBAdvertiser>();
+			advertisers.put(adv.getLandingPage(), adv);
+			wReq.setContext(exchange, advertisers, 500, 5000);
+			assertNull(timedBidder.process(wReq));
+			assertEquals(0, timedBidder.getTransactions().size());
+			assertEquals(0L, timedBidder.getBudgetManager().getBudget(adv)
+					.getSpent());
+		} finally {
+			timer.stop();
+		}
+	}
+
+	/**
+	 * This method test that the bids selected while the request timer goes
+	 * off are not offered, and that their reservations are given back
+	 */
+	@Test
+	public void requestExpiredWhileBiddingTest() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10,
+				TimeUnit.MILLISECONDS, 64);
+		FrequencyCapper capper = new FrequencyCapper(1024);
+		try {
+			StatefulBidder timedBidder = new StatefulBidder(timer, 16);
+			timedBidder.setBudgetManager(new BudgetManager(0L, 1000L, 1000L));
+			timedBidder.setFrequencyCapper(capper);
+			// the id of the bid is drawn once the deadline was checked, long
+			// enough for the request timer to go off
+			final IdGenerator ids = SnowflakeIdGenerator.getDefault();
+			timedBidder.setIdGenerator(new IdGenerator() {
+				private int calls;
+
+				public long nextId() {
+					return ids.nextId();
+				}
+
+				public Utf8 nextId(Utf8 reuse) {
+					if (++calls == 2) {
+						try {
+							Thread.sleep(200);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+					return ids.nextId(reuse);
+				}
+			});
+			User user = new User();
+			user.setId("user-1");
+			when(request.getUser()).thenReturn(user);
+			RTBRequestWrapper wReq = new RTBRequestWrapper(request);
+			RTBExchange exchange = new RTBExchange("BigAdExchange",
+					"http://bigadex.com/rtb", "application/json");
+			Map<String, String> seats = new HashMap<String, String>();
+			seats.put("BigAdExchange", "1001");
+			RTBAdvertiser adv = new RTBAdvertiser("MyPage", "BigBrandIndia",
+					"http://bigbrand-adserver.com/nurl",
+					Collections.singletonList("cat1"), seats);
+			adv.setBudget(1.0);
+			adv.setFrequencyCap(1);
+			Map<String, RTBAdvertiser> advertisers = new HashMap<String, RTBAdvertiser>();
+			advertisers.put(adv.getLandingPage(), adv);
+			wReq.setContext(exchange, advertisers, 20, 5000);
+			assertNull(timedBidder.process(wReq));
+			assertEquals(0, timedBidder.getTransactions().size());
+			assertEquals(0L, timedBidder.getBudgetManager().getBudget(adv)
+					.getSpent());
+			assertEquals(0, capper.getCount(FrequencyCapper.userKey(request),
+					adv));
+		} finally {
+			timer.stop();
+			capper.close();
+		}
+	}
+
+	/**
+	 * This method test that the bids selected outside of a transaction are
+	 * given back when the deadline passes before all the seats are bid on
+	 */
+	@Test
+	public void selectBidsDeadlineTest() throws Exception {
+		FrequencyCapper capper = new FrequencyCapper(1024);
+		try {
+			bidder.setBudgetManager(new BudgetManager(0L, 1000L, 1000L));
+			bidder.setFrequencyCapper(capper);
+			// the id of the first bid is drawn long enough for the deadline
+			// to pass before the second seat
+			final IdGenerator ids = SnowflakeIdGenerator.getDefault();
+			bidder.setIdGenerator(new IdGenerator() {
+				private int calls;
+
+				public long nextId() {
+					return ids.nextId();
+				}
+
+				public Utf8 nextId(Utf8 reuse) {
+					if (++calls == 2) {
+						try {
+							Thread.sleep(100);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+					return ids.nextId(reuse);
+				}
+			});
+			User user = new User();
+			user.setId("user-1");
+			when(request.getUser()).thenReturn(user);
+			RTBRequestWrapper wReq = new RTBRequestWrapper(request);
+			RTBExchange exchange = new RTBExchange("BigAdExchange",
+					"http://bigadex.com/rtb", "application/json");
+			Map<String, String> seats = new HashMap<String, String>();
+			seats.put("BigAdExchange", "1001");
+			Map<String, RTBAdvertiser> advertisers = new HashMap<String, RTBAdvertiser>();
+			for (String page : new String[] { "MyPage", "MyOtherPage" }) {
+				RTBAdvertiser adv = new RTBAdvertiser(page, "BigBrandIndia",
+						"http://bigbrand-adserver.com/nurl",
+						Collections.singletonList("cat1"), seats);
+				adv.setBudget(1.0);
+				adv.setFrequencyCap(1);
+				advertisers.put(adv.getLandingPage(), adv);
+			}
+			wReq.setContext(exchange, advertisers, 20, 5000);
+			assertNull(bidder.selectBids(wReq, null));
+			for (RTBAdvertiser adv : advertisers.values()) {
+				assertEquals(0L, bidder.getBudgetManager().getBudget(adv)
+						.getSpent());
+				assertEquals(0, capper.getCount(
+						FrequencyCapper.userKey(request), adv));
+			}
+		} finally {
+			capper.close();
+		}
+	}
+
+	/**
+	 * This method test that a bid counts against the advertiser's frequency
+	 * cap for the user, and that the count is given back when the offer
+	 * expires without a win
+	 */
+	@Test
+	public void frequencyCapTest() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10,
+				TimeUnit.MILLISECONDS, 64);
+		FrequencyCapper capper = new FrequencyCapper(1024);
+		try {
+			StatefulBidder timedBidder = new StatefulBidder(timer, 16);
+			timedBidder.setFrequencyCapper(capper);
+			User user = new User();
+			user.setId("user-1");
+			when(request.getUser()).thenReturn(user);
+			RTBRequestWrapper wReq = new RTBRequestWrapper(request);
+			RTBExchange exchange = new RTBExchange("BigAdExchange",
+					"http://bigadex.com/rtb", "application/json");
+			Map<String, String> seats = new HashMap<String, String>();
+			seats.put("BigAdExchange", "1001");
+			RTBAdvertiser adv = new RTBAdvertiser("MyPage", "BigBrandIndia",
+					"http://bigbrand-adserver.com/nurl",
+					Collections.singletonList("cat1"), seats);
+			adv.setFrequencyCap(1);
+			Map<String, RTBAdvertiser> advertisers = new HashMap<String, RTBAdvertiser>();
+			advertisers.put(adv.getLandingPage(), adv);
+			wReq.setContext(exchange, advertisers, 2000, 50);
+			long userKey = FrequencyCapper.userKey(request);
+
+			BidResponse response = timedBidder.process(wReq);
+			assertEquals(1, response.getSeatbid().size());
+			assertEquals(1, capper.getCount(userKey, adv));
+			// the cap is reached while the offer is open
+			assertNull(timedBidder.selectBids(wReq, null));
+
+			long deadline = System.currentTimeMillis() + 2000;
+			while (capper.getCount(userKey, adv) > 0
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals("the expired offer gives back its count", 0,
+					capper.getCount(userKey, adv));
+		} finally {
+			timer.stop();
+			capper.close();
+		}
+	}
+
+	/**
+	 * This method test that the transitions of a transaction are traced once
+	 * the trace is enabled
+	 */
+	@Test
+	public void traceTest() throws AvroRemoteException {
+		StatefulBidder tracedBidder = new StatefulBidder();
+		FSMTrace<StatefulBidder.TSMStates, StatefulBidder.TSMEvents> trace = tracedBidder
+				.getTrace();
+		trace.setEnabled(true);
+		RTBRequestWrapper wReq = new RTBRequestWrapper(request);
+		RTBExchange exchange = new RTBExchange("BigAdExchange",
+				"http://bigadex.com/rtb", "application/json");
+		Map<String, String> seats = new HashMap<String, String>();
+		seats.put("BigAdExchange", "1001");
+		RTBAdvertiser adv = new RTBAdvertiser("MyPage", "BigBrandIndia",
+				"http://bigbrand-adserver.com/nurl",
+				Collections.singletonList("cat1"), seats);
+		Map<String, RTBAdvertiser> advertisers = new HashMap<String, RTBAdvertiser>();
+		advertisers.put(adv.getLandingPage(), adv);
+		wReq.setContext(exchange, advertisers, 2000, 5000);
+		assertNotNull(tracedBidder.process(wReq));
+		assertTrue(tracedBidder.notifyWin(new WinNotice("BigAdExchange",
+				"ad1d762d6d9719b6b3c9e09f6433a76d9b593738", null, null, null)));
+
+		assertEquals("NEW_REQUEST, SELECT_BIDS, BIDS_OFFERED, WIN_NOTIFICATION",
+				4, trace.getRecorded());
+		assertEquals(1, trace.getTransitionCount(
+				StatefulBidder.TSMStates.TXN_WAIT_BIDSOFFERED,
+				StatefulBidder.TSMEvents.WIN_NOTIFICATION));
+		assertEquals(1, trace.getDwellTime(
+				StatefulBidder.TSMStates.TXN_WAIT_BIDSOFFERED).getCount());
+		assertTrue(trace.dump(1).contains(
+				"TXN_WAIT_BIDSOFFERED --WIN_NOTIFICATION--> TXN_COMPLETE"));
+	}
+
 }
@@ -0,0 +1,51 @@
+package org.openrtb.dsp.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TransactionTableTest {
+
+	@Test
+	public void keyedByExchangeAndRequestIdTest() {
+		TransactionTable<String> table = new TransactionTable<String>(8);
+		assertTrue(table.put("BigAdExchange", "1", "big-1"));
+		assertTrue(table.put("BigAdExchange", "2", "big-2"));
+		assertTrue(table.put("SmallAdExchange", "1", "small-1"));
+		assertFalse("Request ids are unique per exchange",
+				table.put("BigAdExchange", "1", "big-1-again"));
+		assertEquals(3, table.size());
+		assertSame("big-1", table.get("BigAdExchange", "1"));
+		assertSame("small-1", table.get("SmallAdExchange", "1"));
+		assertNull(table.get("SmallAdExchange", "2"));
+	}
+
+	@Test
+	public void removeTest() {
+		TransactionTable<String> table = new TransactionTable<String>(8);
+		table.put("BigAdExchange", "1", "big-1");
+		assertFalse("Only the stored transaction is removed",
+				table.remove("BigAdExchange", "1", "other"));
+		assertTrue(table.remove("BigAdExchange", "1", "big-1"));
+		assertFalse(table.remove("BigAdExchange", "1", "big-1"));
+		assertNull(table.get("BigAdExchange", "1"));
+		assertEquals(0, table.size());
+	}
+
+	@Test
+	public void capacityTest() {
+		TransactionTable<String> table = new TransactionTable<String>(2);
+		assertTrue(table.put("BigAdExchange", "1", "big-1"));
+		assertTrue(table.put("BigAdExchange", "2", "big-2"));
+		assertFalse("Table is full", table.put("BigAdExchange", "3", "big-3"));
+		assertEquals(1, table.getRejected());
+		assertEquals(2, table.size());
+		table.remove("BigAdExchange", "1", "big-1");
+		assertTrue(table.put("BigAdExchange", "3", "big-3"));
+		assertEquals(2, table.size());
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control in front of the {@link DemandSideServer}, so that the DSP
+ * sheds the requests it cannot answer in time instead of slowing down all of
+ * them past the exchanges' <tt>tmax</tt>.
+ * 
+ * Requests go through two checks, both made before the request is decoded:
+ * <ul>
+ * <li>{@link #tryAcquire()} as the request arrives, which caps the number of
+ * requests in flight (queued or being processed) at <tt>maxInFlight</tt>;</li>
+ * <li>{@link #admit(long)} as a queued request is picked up, which follows the
+ * CoDel algorithm on the time the request waited (its sojourn time): once
+ * every request of an <tt>interval</tt> waited longer than <tt>target</tt>,
+ * requests are shed at an increasing rate until the waits fall back below the
+ * target.</li>
+ * </ul>
+ * Rejected requests are answered with a no bid. Every successful
+ * {@link #tryAcquire()} must be matched by a {@link #release()}. The second
+ * check needs the time the request was queued, and is only made by callers
+ * that queue the requests themselves, i.e. the asynchronous mode of the
+ * servlet.
+ */
+public class AdmissionController {
+	public static final long DEFAULT_TARGET_MS = 5L;
+	public static final long DEFAULT_INTERVAL_MS = 100L;
+
+	private final int maxInFlight;
+	private final long targetNanos;
+	private final long intervalNanos;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong admitted = new AtomicLong();
+	private final AtomicLong shedInFlight = new AtomicLong();
+	private final AtomicLong shedQueued = new AtomicLong();
+
+	// CoDel state, read without locking on the fast path (short waits while
+	// not shedding), updated under the lock of the controller otherwise
+	private volatile long firstAboveNanos;
+	private volatile boolean dropping;
+	private long dropNextNanos;
+	private int dropCount;
+
+	/**
+	 * A controller with the default CoDel target and interval.
+	 */
+	public AdmissionController(int maxInFlight) {
+		this(maxInFlight, DEFAULT_TARGET_MS, DEFAULT_INTERVAL_MS);
+	}
+
+	/**
+	 * @param maxInFlight
+	 *            most requests in flight, 0 for no limit
+	 * @param targetMs
+	 *            acceptable wait of a request before it is processed
+	 * @param intervalMs
+	 *            time the waits may stay above the target before requests are
+	 *            shed, in the order of a request's round trip
+	 */
+	public AdmissionController(int maxInFlight, long targetMs, long intervalMs) {
+		if ((maxInFlight < 0) || (targetMs <= 0) || (intervalMs <= 0)) {
+			throw new IllegalArgumentException(
+					"targetMs and intervalMs must be positive, maxInFlight not negative");
+		}
+		this.maxInFlight = (maxInFlight == 0) ? Integer.MAX_VALUE : maxInFlight;
+		this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMs);
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+	}
+
+	/**
+	 * Lets a request in, unless <tt>maxInFlight</tt> requests are in flight
+	 * already.
+	 * 
+	 * @return false if the request must be answered with no bid.
+	 */
+	public boolean tryAcquire() {
+		while (true) {
+			int current = inFlight.get();
+			if (current >= maxInFlight) {
+				shedInFlight.incrementAndGet();
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Ends a request let in by {@link #tryAcquire()}.
+	 */
+	public void release() {
+		inFlight.decrementAndGet();
+	}
+
+	/**
+	 * Decides whether a request picked up after waiting for
+	 * <tt>sojournNanos</tt> is processed.
+	 * 
+	 * @return false if the request must be answered with no bid.
+	 */
+	public boolean admit(long sojournNanos) {
+		return admit(sojournNanos, System.nanoTime());
+	}
+
+	boolean admit(long sojournNanos, long now) {
+		if ((sojournNanos < targetNanos) && !dropping
+				&& (firstAboveNanos == 0L)) {
+			admitted.incrementAndGet();
+			return true;
+		}
+		boolean admit = codel(sojournNanos, now);
+		if (admit) {
+			admitted.incrementAndGet();
+		} else {
+			shedQueued.incrementAndGet();
+		}
+		return admit;
+	}
+
+	// RFC 8289, with the queue's dequeue replaced by the pick up of a request
+	private synchronized boolean codel(long sojournNanos, long now) {
+		boolean okToDrop = false;
+		if (sojournNanos < targetNanos) {
+			firstAboveNanos = 0L;
+		} else if (firstAboveNanos == 0L) {
+			// 0 is reserved for "below target"
+			firstAboveNanos = (now + intervalNanos == 0L) ? 1L : now
+					+ intervalNanos;
+		} else if (now - firstAboveNanos >= 0) {
+			okToDrop = true;
+		}
+		if (dropping) {
+			if (!okToDrop) {
+				dropping = false;
+				return true;
+			}
+			if (now - dropNextNanos >= 0) {
+				dropCount++;
+				dropNextNanos = controlLaw(dropNextNanos, dropCount);
+				return false;
+			}
+			return true;
+		}
+		if (okToDrop) {
+			dropping = true;
+			// resume at about the previous rate if shedding stopped shortly ago
+			boolean recent = now - dropNextNanos < 16 * intervalNanos;
+			dropCount = ((dropCount > 2) && recent) ? dropCount - 2 : 1;
+			dropNextNanos = controlLaw(now, dropCount);
+			return false;
+		}
+		return true;
+	}
+
+	private long controlLaw(long t, int count) {
+		return t + (long) (intervalNanos / Math.sqrt(count));
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public int getMaxInFlight() {
+		return (maxInFlight == Integer.MAX_VALUE) ? 0 : maxInFlight;
+	}
+
+	public boolean isShedding() {
+		return dropping;
+	}
+
+	public long getAdmitted() {
+		return admitted.get();
+	}
+
+	/**
+	 * @return the number of requests rejected as too many were in flight.
+	 */
+	public long getShedInFlight() {
+		return shedInFlight.get();
+	}
+
+	/**
+	 * @return the number of requests rejected as they waited too long.
+	 */
+	public long getShedQueued() {
+		return shedQueued.get();
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.openrtb.common.api.BidRequest;
+import org.openrtb.common.api.BidResponse;
+
+/**
+ * Translates {@link BidRequest}s and {@link BidResponse}s to and from the wire
+ * format of a single content type. Implementations are built once per content
+ * type (see {@link BidCodecRegistry}) and shared by all request threads, hence
+ * they must be thread safe.
+ */
+public interface BidCodec {
+
+	/**
+	 * @return the content type (i.e. <tt>avro/binary</tt>) handled by this
+	 *         codec.
+	 */
+	public String getContentType();
+
+	/**
+	 * Decodes a single {@link BidRequest} from the supplied stream.
+	 * Implementations are free to recycle the returned record for the next
+	 * request decoded on the same thread, callers must not hold on to it once
+	 * the request has been answered.
+	 */
+	public BidRequest decode(InputStream in) throws IOException;
+
+	/**
+	 * Encodes the {@link BidResponse} into the supplied stream and flushes any
+	 * buffered output. The stream itself is not closed.
+	 */
+	public void encode(BidResponse response, OutputStream out)
+			throws IOException;
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.core;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.openrtb.dsp.intf.model.DSPException;
+
+/**
+ * Lookup table of the {@link BidCodec}s available to the
+ * {@link DemandSideServer}, keyed by content type.
+ *
+ * A registry is populated once, when the exchange configuration is loaded, and
+ * is read-only afterwards: lookups on the request path never create codecs.
+ * Content types whose codec could not be built are remembered together with
+ * the reason, so that requests using them fail with a meaningful message.
+ */
+public class BidCodecRegistry {
+	private final Map<String, BidCodec> codecs = new HashMap<String, BidCodec>();
+	private final Map<String, String> unsupported = new HashMap<String, String>();
+	// version of the configuration the registry was built from
+	private final long configVersion;
+
+	public BidCodecRegistry(long configVersion) {
+		this.configVersion = configVersion;
+	}
+
+	public long getConfigVersion() {
+		return configVersion;
+	}
+
+	public void register(BidCodec codec) {
+		codecs.put(codec.getContentType(), codec);
+		unsupported.remove(codec.getContentType());
+	}
+
+	public void markUnsupported(String contentType, String reason) {
+		codecs.remove(contentType);
+		unsupported.put(contentType, reason);
+	}
+
+	public boolean supports(String contentType) {
+		return codecs.containsKey(contentType);
+	}
+
+	public Set<String> getContentTypes() {
+		return Collections.unmodifiableSet(codecs.keySet());
+	}
+
+	public BidCodec get(String contentType) throws DSPException {
+		BidCodec codec = codecs.get(contentType);
+		if (codec == null) {
+			String reason = unsupported.get(contentType);
+			if (reason == null) {
+				reason = "No codec registered for content type " + contentType;
+			}
+			throw new DSPException(reason);
+		}
+		return codec;
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.openrtb.common.api.BidRequest;
+import org.openrtb.common.api.BidResponse;
+
+/**
+ * {@link BidCodec} for the avro binary encodings (avro, protobuf and thrift).
+ *
+ * The datum reader and writer are created once and shared. Each thread keeps
+ * its own {@link BinaryDecoder}, {@link BinaryEncoder} and a {@link BidRequest}
+ * record that is handed back to the reader on every call, so that decoding a
+ * request re-populates the previous record (and its nested records, lists and
+ * strings) instead of allocating a new object graph.
+ */
+public class BinaryBidCodec implements BidCodec {
+	private static final DecoderFactory DECODER_FACTORY = DecoderFactory.get();
+	private static final EncoderFactory ENCODER_FACTORY = EncoderFactory.get();
+
+	private final String contentType;
+	private final DatumReader<BidRequest> reader;
+	private final DatumWriter<BidResponse> writer;
+
+	// per thread codec state, never shared between request threads
+	private static class State {
+		BinaryDecoder decoder;
+		BinaryEncoder encoder;
+		BidRequest request;
+	}
+
+	private final ThreadLocal<State> state = new ThreadLocal<State>() {
+		@Override
+		protected State initialValue() {
+			return new State();
+		}
+	};
+
+	public BinaryBidCodec(String contentType, DatumReader<BidRequest> reader,
+			DatumWriter<BidResponse> writer) {
+		this.contentType = contentType;
+		this.reader = reader;
+		this.writer = writer;
+	}
+
+	@Override
+	public String getContentType() {
+		return contentType;
+	}
+
+	@Override
+	public BidRequest decode(InputStream in) throws IOException {
+		State s = state.get();
+		s.decoder = DECODER_FACTORY.binaryDecoder(in, s.decoder);
+		s.request = reader.read(s.request, s.decoder);
+		return s.request;
+	}
+
+	@Override
+	public void encode(BidResponse response, OutputStream out)
+			throws IOException {
+		State s = state.get();
+		s.encoder = ENCODER_FACTORY.binaryEncoder(out, s.encoder);
+		writer.write(response, s.encoder);
+		s.encoder.flush();
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.openrtb.common.util.LatencyHistogram;
+import org.openrtb.dsp.core.RequestMetrics.Outcome;
+import org.openrtb.dsp.core.RequestMetrics.Stage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the {@link RequestMetrics} of the {@link DemandSideServer},
+ * keyed by the <tt>orgName</tt> and the <tt>rtbContentType</tt> of the
+ * exchange the requests came from. Requests that cannot be attributed to a
+ * configured exchange are all counted under {@link #UNKNOWN}, so that the
+ * number of entries is bounded by the configuration.
+ * 
+ * Looking up the metrics of a request is two concurrent map reads, entries are
+ * only created the first time an exchange is seen. The metrics are published
+ * over JMX once {@link #registerMBeans(MBeanServer, String)} is called, as
+ * <tt>domain:type=RequestMetrics,exchange=..,contentType=..</tt>, and as text
+ * by {@link #writeText(Writer)}.
+ */
+public class DemandSideMetrics {
+	private static final Logger logger = LoggerFactory
+			.getLogger(DemandSideMetrics.class);
+
+	public static final String UNKNOWN = "unknown";
+	public static final String DEFAULT_DOMAIN = "org.openrtb.dsp";
+
+	// percentiles published as text, with their quantile label
+	private static final double[] PERCENTILES = { 50.0, 90.0, 99.0, 99.9 };
+	private static final String[] QUANTILES = { "0.5", "0.9", "0.99", "0.999" };
+
+	private final ConcurrentMap<String, ConcurrentMap<String, RequestMetrics>> metrics = new ConcurrentHashMap<String, ConcurrentMap<String, RequestMetrics>>();
+
+	// set while the metrics are published over JMX
+	private MBeanServer mbeanServer;
+	private String domain;
+
+	/**
+	 * @return the metrics of the exchange and content type, created on first
+	 *         use. A null exchange or content type stands for
+	 *         {@link #UNKNOWN}.
+	 */
+	public RequestMetrics get(String exchange, String contentType) {
+		if (exchange == null) {
+			exchange = UNKNOWN;
+		}
+		if (contentType == null) {
+			contentType = UNKNOWN;
+		}
+		ConcurrentMap<String, RequestMetrics> byContentType = metrics
+				.get(exchange);
+		if (byContentType == null) {
+			ConcurrentMap<String, RequestMetrics> created = new ConcurrentHashMap<String, RequestMetrics>(
+					4);
+			byContentType = metrics.putIfAbsent(exchange, created);
+			if (byContentType == null) {
+				byContentType = created;
+			}
+		}
+		RequestMetrics requestMetrics = byContentType.get(contentType);
+		if (requestMetrics == null) {
+			RequestMetrics created = new RequestMetrics(exchange, contentType);
+			requestMetrics = byContentType.putIfAbsent(contentType, created);
+			if (requestMetrics == null) {
+				requestMetrics = created;
+				register(created);
+			}
+		}
+		return requestMetrics;
+	}
+
+	/**
+	 * @return all metrics, ordered by exchange and content type
+	 */
+	public List<RequestMetrics> getAll() {
+		Map<String, RequestMetrics> sorted = new TreeMap<String, RequestMetrics>();
+		for (ConcurrentMap<String, RequestMetrics> byContentType : metrics
+				.values()) {
+			for (RequestMetrics m : byContentType.values()) {
+				sorted.put(m.getExchange() + '\n' + m.getContentType(), m);
+			}
+		}
+		return new ArrayList<RequestMetrics>(sorted.values());
+	}
+
+	public void reset() {
+		for (RequestMetrics m : getAll()) {
+			m.reset();
+		}
+	}
+
+	/**
+	 * Publishes the metrics, those created later included, in the MBean
+	 * server under the given domain.
+	 */
+	public synchronized void registerMBeans(MBeanServer server, String domain) {
+		unregisterMBeans();
+		this.mbeanServer = server;
+		this.domain = domain;
+		for (RequestMetrics m : getAll()) {
+			register(m);
+		}
+	}
+
+	public synchronized void unregisterMBeans() {
+		if (mbeanServer == null) {
+			return;
+		}
+		for (RequestMetrics m : getAll()) {
+			try {
+				ObjectName name = getObjectName(domain, m);
+				if (mbeanServer.isRegistered(name)) {
+					mbeanServer.unregisterMBean(name);
+				}
+			} catch (JMException e) {
+				logger.warn("Unable to unregister the metrics of "
+						+ m.getExchange() + ": " + e.getMessage());
+			}
+		}
+		mbeanServer = null;
+		domain = null;
+	}
+
+	private synchronized void register(RequestMetrics m) {
+		if (mbeanServer == null) {
+			return;
+		}
+		try {
+			ObjectName name = getObjectName(domain, m);
+			if (!mbeanServer.isRegistered(name)) {
+				mbeanServer.registerMBean(new RequestMetricsMBean(m), name);
+			}
+		} catch (JMException e) {
+			logger.warn("Unable to register the metrics of " + m.getExchange()
+					+ ": " + e.getMessage());
+		}
+	}
+
+	public static ObjectName getObjectName(String domain, RequestMetrics m)
+			throws JMException {
+		return new ObjectName(domain + ":type=RequestMetrics,exchange="
+				+ ObjectName.quote(m.getExchange()) + ",contentType="
+				+ ObjectName.quote(m.getContentType()));
+	}
+
+	/**
+	 * Writes the metrics in the Prometheus text format: a
+	 * <tt>dsp_requests_total</tt> counter per outcome and a
+	 * <tt>dsp_latency_microseconds</tt> summary per stage, labelled with the
+	 * exchange and the content type.
+	 */
+	public void writeText(Writer out) throws IOException {
+		List<RequestMetrics> all = getAll();
+		out.write("# HELP dsp_requests_total Bid requests answered, by outcome.\n");
+		out.write("# TYPE dsp_requests_total counter\n");
+		for (RequestMetrics m : all) {
+			String labels = labels(m);
+			for (Outcome outcome : Outcome.values()) {
+				out.write("dsp_requests_total{" + labels + ",outcome=\""
+						+ outcome.name().toLowerCase() + "\",status=\""
+						+ outcome.getStatus() + "\"} " + m.getCount(outcome)
+						+ "\n");
+			}
+		}
+		out.write("# HELP dsp_latency_microseconds Latency of the bid pipeline, by stage.\n");
+		out.write("# TYPE dsp_latency_microseconds summary\n");
+		for (RequestMetrics m : all) {
+			for (Stage stage : Stage.values()) {
+				LatencyHistogram latency = m.getLatency(stage);
+				String labels = labels(m) + ",stage=\""
+						+ stage.name().toLowerCase() + "\"";
+				for (int i = 0; i < PERCENTILES.length; i++) {
+					out.write("dsp_latency_microseconds{" + labels
+							+ ",quantile=\"" + QUANTILES[i] + "\"} "
+							+ latency.getPercentile(PERCENTILES[i]) / 1000L
+							+ "\n");
+				}
+				out.write("dsp_latency_microseconds{" + labels
+						+ ",quantile=\"1\"} " + latency.getMax() / 1000L
+						+ "\n");
+				out.write("dsp_latency_microseconds_sum{" + labels + "} "
+						+ latency.getSum() / 1000L + "\n");
+				out.write("dsp_latency_microseconds_count{" + labels + "} "
+						+ latency.getCount() + "\n");
+			}
+		}
+		out.flush();
+	}
+
+	private static String labels(RequestMetrics m) {
+		return "exchange=\"" + escape(m.getExchange())
+				+ "\",content_type=\"" + escape(m.getContentType()) + "\"";
+	}
+
+	// label values escape backslashes, double quotes and line feeds
+	static String escape(String value) {
+		StringBuilder sb = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if ((c == '\\') || (c == '"')) {
+				sb.append('\\').append(c);
+			} else if (c == '\n') {
+				sb.append("\\n");
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -31,38 +31,40 @@
  */
 package org.openrtb.dsp.core;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.avro.io.DatumReader;
 import org.apache.avro.io.DatumWriter;
-import org.apache.avro.io.Decoder;
-import org.apache.avro.io.DecoderFactory;
-import org.apache.avro.io.Encoder;
-import org.apache.avro.io.EncoderFactory;
 import org.apache.avro.protobuf.ProtobufDatumReader;
 import org.apache.avro.protobuf.ProtobufDatumWriter;
 import org.apache.avro.specific.SpecificDatumReader;
 import org.apache.avro.specific.SpecificDatumWriter;
 import org.apache.avro.thrift.ThriftDatumReader;
 import org.apache.avro.thrift.ThriftDatumWriter;
-import org.codehaus.jackson.map.ObjectMapper;
 import org.openrtb.common.api.BidRequest;
 import org.openrtb.common.api.BidResponse;
 import org.openrtb.common.api.OpenRTBAPI;
 import org.openrtb.common.util.StringUtils;
+import org.openrtb.dsp.core.RequestMetrics.Stage;
 import org.openrtb.dsp.intf.model.DSPException;
+import org.openrtb.dsp.intf.model.Deadline;
+import org.openrtb.dsp.intf.model.DemandSideConfig;
+import org.openrtb.dsp.intf.model.DemandSideConfig.ExchangeConfig;
 import org.openrtb.dsp.intf.model.DemandSideDAO;
+import org.openrtb.dsp.intf.model.RTBExchange;
 import org.openrtb.dsp.intf.model.RTBRequestWrapper;
+import org.openrtb.dsp.intf.service.DroppedResponseListener;
+import org.openrtb.dsp.intf.service.ResponseRecycler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.Gson;
-
 public class DemandSideServer {
 	public DemandSideServer() {
 		super();
@@ -80,37 +82,135 @@ public class DemandSideServer {
 
 	// TODO: private BlocklistAPI blocklistRequester = null;
 
+	// codecs for all supported content types, rebuilt whenever the DAO
+	// publishes a new version of the configuration
+	private volatile BidCodecRegistry codecs;
+
+	// time in milliseconds kept out of the deadline of every request for
+	// encoding and sending its response
+	public static final long DEFAULT_RESPONSE_RESERVE = 5L;
+	private volatile long responseReserveMs = DEFAULT_RESPONSE_RESERVE;
+
+	// samples the requests and responses for replay, null if disabled
+	private volatile TrafficCapture capture;
+
+	// latencies and outcomes by exchange, always on
+	private volatile DemandSideMetrics metrics = new DemandSideMetrics();
+
+	// the requests slower than a threshold with their stage timings, null if
+	// disabled
+	private volatile SlowRequestRecorder slowRequests;
+
 	public DemandSideServer(OpenRTBAPI bidder, DemandSideDAO dao) {
 		this.bidder = bidder;
 		this.dspDAO = dao;
+		this.codecs = buildCodecRegistry();
 	}
 
 	public void init(String dbLocation) throws DSPException {
 		dspDAO.loadData(dbLocation);
+		this.codecs = buildCodecRegistry();
 	}
 
-	// DemandSideDAO requires ConcurrentMap implementation for storing Exchanges
-	// hence, get() access to this is threadsafe
+	// the configuration snapshot published by the DAO is immutable, hence
+	// the lookups below are thread safe without locking
 	public boolean authorizeRemoteService(String sspOrgName) {
-		if (dspDAO.getExchanges().get(sspOrgName) != null) {
+		if (dspDAO.getSnapshot().getExchange(sspOrgName) != null) {
 			return true;
 		}
 		return false;
 	}
 
-	// Though access to ConcurrentMap.get() is thread-safe, accessing underlying
-	// object's methods
-	// is not guaranteed to be thread safe, hence synchronized access to this
-	// method
-	public synchronized boolean verifyContentType(String sspName,
+	public boolean verifyContentType(String sspName,
 			String contentType) throws DSPException {
-		if (authorizeRemoteService(sspName)) {
-			if (dspDAO.getExchanges().get(sspName).getRtbContentType()
-					.equals(contentType)) {
-				return true;
-			}
+		ExchangeConfig exchange = dspDAO.getSnapshot().getExchangeConfig(sspName);
+		return (exchange != null) && exchange.acceptsContentType(contentType);
+	}
+
+	// per thread response buffers, recycled for every response encoded on
+	// the thread so that steady state responses are encoded without
+	// allocating or growing a buffer
+	private static final ThreadLocal<ResponseBuffer> responseBuffers = new ThreadLocal<ResponseBuffer>() {
+		@Override
+		protected ResponseBuffer initialValue() {
+			return new ResponseBuffer();
 		}
-		return false;
+	};
+
+	// per thread stage timings, reset for every request answered by
+	// respond() or respondBuffered()
+	private static final ThreadLocal<RequestTimings> requestTimings = new ThreadLocal<RequestTimings>() {
+		@Override
+		protected RequestTimings initialValue() {
+			return new RequestTimings();
+		}
+	};
+
+	public void setResponseReserve(long reserveMs) {
+		this.responseReserveMs = reserveMs;
+	}
+
+	public long getResponseReserve() {
+		return responseReserveMs;
+	}
+
+	public void setTrafficCapture(TrafficCapture capture) {
+		this.capture = capture;
+	}
+
+	public TrafficCapture getTrafficCapture() {
+		return capture;
+	}
+
+	public void setMetrics(DemandSideMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public DemandSideMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Records the requests answered by {@link #respond} or
+	 * {@link #respondBuffered} that are slower than the threshold of the
+	 * recorder, whether they failed or not; null disables the recording. The raw requests are only
+	 * buffered while a recorder is set.
+	 */
+	public void setSlowRequestRecorder(SlowRequestRecorder recorder) {
+		this.slowRequests = recorder;
+	}
+
+	public SlowRequestRecorder getSlowRequestRecorder() {
+		return slowRequests;
+	}
+
+	/**
+	 * @return the metrics of the requests received from the exchange, keyed
+	 *         by its configured content type, or the metrics of the unknown
+	 *         senders if the exchange is not configured.
+	 */
+	public RequestMetrics getRequestMetrics(String sspName) {
+		return getRequestMetrics(dspDAO.getSnapshot(), sspName);
+	}
+
+	private RequestMetrics getRequestMetrics(DemandSideConfig config,
+			String sspName) {
+		RTBExchange exchange = (sspName == null) ? null : config
+				.getExchange(sspName);
+		if (exchange == null) {
+			return metrics.get(null, null);
+		}
+		return metrics.get(exchange.getOrgName(), exchange.getRtbContentType());
+	}
+
+	/**
+	 * @return a deadline anchored to the current time, to be created as the
+	 *         request arrives and passed through the calls below.
+	 */
+	public Deadline newDeadline() {
+		Deadline deadline = new Deadline();
+		deadline.setReserve(responseReserveMs);
+		return deadline;
 	}
 
 	// we dont use avro / ipc - just use basic avro.io classes to translate
@@ -118,48 +218,400 @@ public class DemandSideServer {
 	// 'process' method
 	public byte[] respond(String sspName, InputStream inStream,
 			String requestContentType) throws DSPException {
-		try {			
-			// create a new BidRequest object by decoding the input stream
-			BidRequest bidRequest = readRequest(inStream, requestContentType);
-			// wrap this request object with additional info from the DAO
+		// the only copy of the response, as the caller keeps the array
+		return respondBuffered(sspName, inStream, requestContentType,
+				newDeadline()).toByteArray();
+	}
+
+	/**
+	 * Processes the request and encodes the response into the calling
+	 * thread's {@link ResponseBuffer}, so that the caller can announce the
+	 * content length before writing the buffer to its output stream. An empty
+	 * buffer means no bid. The buffer is only valid until the next call on
+	 * the same thread.
+	 */
+	public ResponseBuffer respondBuffered(String sspName, InputStream inStream,
+			String requestContentType) throws DSPException {
+		return respondBuffered(sspName, inStream, requestContentType,
+				newDeadline());
+	}
+
+	/**
+	 * As {@link #respondBuffered(String, InputStream, String)}, answering
+	 * with no bid once the deadline of the request is past.
+	 */
+	public ResponseBuffer respondBuffered(String sspName, InputStream inStream,
+			String requestContentType, Deadline deadline) throws DSPException {
+		RequestTimings timings = startTimings(sspName, requestContentType);
+		try {
+			BidResponse bidResponse = process(sspName, inStream,
+					requestContentType, deadline, timings);
+			return encodeResponse(sspName, bidResponse, requestContentType,
+					timings);
+		} finally {
+			stopTimings(timings, deadline);
+		}
+	}
+
+	/**
+	 * As {@link #respondBuffered(String, InputStream, String, Deadline)}, for
+	 * a request whose body was read by another thread, and that may be
+	 * answered by the caller meanwhile. The gate is told once the request is
+	 * decoded, and the response is only encoded once the gate is claimed, it
+	 * is dropped otherwise (see {@link #dropResponse(BidResponse)}).
+	 * 
+	 * @return null if the response was dropped.
+	 */
+	public ResponseBuffer respondBuffered(String sspName, byte[] body,
+			String requestContentType, Deadline deadline, ResponseGate gate)
+			throws DSPException {
+		RequestTimings timings = startTimings(sspName, requestContentType);
+		try {
+			BidRequest bidRequest = readRequest(sspName,
+					new ByteArrayInputStream(body), requestContentType,
+					timings);
+			gate.decoded(bidRequest, deadline);
+			BidResponse bidResponse = process(sspName, bidRequest, deadline,
+					timings);
+			if (!gate.claim()) {
+				dropResponse(bidResponse);
+				return null;
+			}
+			return encodeResponse(sspName, bidResponse, requestContentType,
+					timings);
+		} finally {
+			stopTimings(timings, deadline);
+		}
+	}
+
+	/**
+	 * Processes the request and encodes the response straight into the
+	 * supplied stream, for callers that do not need the content length up
+	 * front.
+	 * 
+	 * @return false if the bidder did not bid, in which case nothing has been
+	 *         written.
+	 */
+	public boolean respond(String sspName, InputStream inStream,
+			String requestContentType, OutputStream outStream)
+			throws DSPException {
+		return respond(sspName, inStream, requestContentType, outStream,
+				newDeadline());
+	}
+
+	/**
+	 * As {@link #respond(String, InputStream, String, OutputStream)},
+	 * answering with no bid once the deadline of the request is past.
+	 */
+	public boolean respond(String sspName, InputStream inStream,
+			String requestContentType, OutputStream outStream,
+			Deadline deadline) throws DSPException {
+		RequestTimings timings = startTimings(sspName, requestContentType);
+		try {
+			BidResponse bidResponse = process(sspName, inStream,
+					requestContentType, deadline, timings);
+			if (bidResponse != null) {
+				long start = System.nanoTime();
+				try {
+					writeResponse(bidResponse, requestContentType, outStream);
+				} finally {
+					release(bidResponse);
+				}
+				record(getRequestMetrics(sspName), timings, Stage.ENCODE,
+						System.nanoTime() - start);
+			}
+			return bidResponse != null;
+		} finally {
+			stopTimings(timings, deadline);
+		}
+	}
+
+	protected BidResponse process(String sspName, InputStream inStream,
+			String requestContentType, Deadline deadline) throws DSPException {
+		return process(sspName, inStream, requestContentType, deadline, null);
+	}
+
+	private BidResponse process(String sspName, InputStream inStream,
+			String requestContentType, Deadline deadline,
+			RequestTimings timings) throws DSPException {
+		BidRequest bidRequest = readRequest(sspName, inStream,
+				requestContentType, timings);
+		return process(sspName, bidRequest, deadline, timings);
+	}
+
+	private BidRequest readRequest(String sspName, InputStream inStream,
+			String requestContentType, RequestTimings timings)
+			throws DSPException {
+		// create a new BidRequest object by decoding the input stream, kept
+		// in the timings in case the request turns out to be slow
+		long start = System.nanoTime();
+		if ((timings != null) && (slowRequests != null)) {
+			try {
+				inStream = timings.keepRequest(inStream);
+			} catch (IOException e) {
+				logger.error("Error in reading request "
+						+ StringUtils.stackTraceToString(e));
+				throw new DSPException(e);
+			}
+		}
+		BidRequest bidRequest = readRequest(inStream, requestContentType);
+		record(getRequestMetrics(sspName), timings, Stage.DECODE,
+				System.nanoTime() - start);
+		return bidRequest;
+	}
+
+	/**
+	 * Runs an already decoded request through the bidder.
+	 * 
+	 * @return the bidder's response, or null if it did not bid.
+	 */
+	public BidResponse process(String sspName, BidRequest bidRequest)
+			throws DSPException {
+		return process(sspName, bidRequest, newDeadline());
+	}
+
+	/**
+	 * Runs an already decoded request through the bidder, within the
+	 * deadline of the request. The deadline is bounded here by the
+	 * <tt>tmax</tt> of the request (or the configured
+	 * <tt>request_timeout</tt>); the request is not handed to the bidder once
+	 * it is past, and a response completed after it is dropped, as the
+	 * exchange would ignore it (see {@link #dropResponse(BidResponse)}).
+	 * 
+	 * @return the bidder's response, or null if it did not bid in time.
+	 */
+	public BidResponse process(String sspName, BidRequest bidRequest,
+			Deadline deadline) throws DSPException {
+		return process(sspName, bidRequest, deadline, null);
+	}
+
+	private BidResponse process(String sspName, BidRequest bidRequest,
+			Deadline deadline, RequestTimings timings) throws DSPException {
+		try {
+			// wrap this request object with additional info from the DAO,
+			// read from a single snapshot so that a concurrent reload cannot
+			// mix two versions of the configuration into one request
 			RTBRequestWrapper wReq = new RTBRequestWrapper(bidRequest);
-			long reqTimeout = dspDAO.getDefaultTimeout("request_timeout");
-			long offerTimeout = dspDAO.getDefaultTimeout("offer_timeout");
-
-			// copy the context into the newly created wrapped request,
-			// the bidder always reads from this local copy of the context
-			wReq.setContext(dspDAO.getExchanges().get(sspName),
-					dspDAO.getAdvertisers(), reqTimeout, offerTimeout);
-
-			// process the request in the bidder implementation instance
-			BidResponse bidResponse = bidder.process(wReq);			
-			// encode the resulting BidResponse object in the expected encoding
-			// format
-			
-			return writeResponse(bidResponse, requestContentType);
+			DemandSideConfig config = dspDAO.getSnapshot();
+			RequestMetrics requestMetrics = getRequestMetrics(config, sspName);
+
+			// the wrapper references the snapshot instead of copying it
+			long start = System.nanoTime();
+			wReq.setDeadline(deadline);
+			wReq.setContext(config, sspName);
+			record(requestMetrics, timings, Stage.CONTEXT, System.nanoTime()
+					- start);
+			BidResponse bidResponse = null;
+			if (deadline.isExpired()) {
+				logger.info("No bid: deadline of request " + wReq.getId()
+						+ " passed before bidding, " + deadline);
+			} else {
+				// process the request in the bidder implementation instance
+				start = System.nanoTime();
+				bidResponse = bidder.process(wReq);
+				record(requestMetrics, timings, Stage.BID, System.nanoTime()
+						- start);
+				if ((bidResponse != null) && deadline.isExpired()) {
+					logger.info("No bid: dropped late response to request "
+							+ wReq.getId() + ", " + deadline);
+					dropResponse(bidResponse);
+					bidResponse = null;
+				}
+			}
+			capture(sspName, bidRequest, deadline, bidResponse);
+			return bidResponse;
 		} catch (Exception e) {
 			logger.error(StringUtils.stackTraceToString(e));
 			throw new DSPException(e);
 		}
 	}
 
-	protected static DecoderFactory DECODER_FACTORY = DecoderFactory.get();
-	protected static EncoderFactory ENCODER_FACTORY = EncoderFactory.get();
-	protected static final String JSON_CONTENT_TYPE = "application/json";
+	/**
+	 * Encodes the response into the calling thread's {@link ResponseBuffer}.
+	 * A null response (no bid) leaves the buffer empty. The buffer is only
+	 * valid until the next call on the same thread. The response is handed
+	 * back to the bidder once encoded, and must not be used afterwards.
+	 */
+	public ResponseBuffer encodeResponse(BidResponse bidResponse,
+			String contentType) throws DSPException {
+		return encodeResponse(null, bidResponse, contentType);
+	}
+
+	/**
+	 * As {@link #encodeResponse(BidResponse, String)}, the time spent
+	 * encoding is recorded in the metrics of the exchange.
+	 */
+	public ResponseBuffer encodeResponse(String sspName,
+			BidResponse bidResponse, String contentType) throws DSPException {
+		return encodeResponse(sspName, bidResponse, contentType, null);
+	}
+
+	private ResponseBuffer encodeResponse(String sspName,
+			BidResponse bidResponse, String contentType, RequestTimings timings)
+			throws DSPException {
+		ResponseBuffer buffer = responseBuffers.get();
+		buffer.recycle();
+		if (bidResponse != null) {
+			long start = System.nanoTime();
+			try {
+				writeResponse(bidResponse, contentType, buffer);
+			} finally {
+				release(bidResponse);
+			}
+			if (sspName != null) {
+				record(getRequestMetrics(sspName), timings, Stage.ENCODE,
+						System.nanoTime() - start);
+			}
+		}
+		return buffer;
+	}
+
+	// records the time spent in a stage in the metrics of the exchange, and
+	// in the timings of the request when it is timed
+	private static void record(RequestMetrics requestMetrics,
+			RequestTimings timings, Stage stage, long nanos) {
+		requestMetrics.record(stage, nanos);
+		if (timings != null) {
+			timings.record(stage, nanos);
+		}
+	}
+
+	private static RequestTimings startTimings(String sspName,
+			String contentType) {
+		RequestTimings timings = requestTimings.get();
+		timings.reset(sspName, contentType);
+		return timings;
+	}
+
+	// the total is counted from the arrival of the request, the request is
+	// recorded if it took longer than the threshold of the recorder
+	private void stopTimings(RequestTimings timings, Deadline deadline) {
+		timings.record(Stage.TOTAL, deadline.elapsedNanos());
+		SlowRequestRecorder recorder = slowRequests;
+		if ((recorder != null) && recorder.record(timings)
+				&& logger.isDebugEnabled()) {
+			logger.debug("Slow request from " + timings.getExchange() + ": "
+					+ TimeUnit.NANOSECONDS.toMillis(timings
+							.getNanos(Stage.TOTAL)) + "ms");
+		}
+	}
+
+	// copies a sample of the requests and the responses sent, before the
+	// records are recycled
+	private void capture(String sspName, BidRequest bidRequest,
+			Deadline deadline, BidResponse bidResponse) {
+		TrafficCapture c = capture;
+		if ((c != null) && c.isSampled()) {
+			c.capture(sspName, System.currentTimeMillis()
+					- deadline.elapsedMillis(), bidRequest, bidResponse);
+		}
+	}
+
+	/**
+	 * Hands a response returned by {@link #process} back to the bidder
+	 * instead of sending it, i.e. because its request expired meanwhile. To
+	 * be called on the thread that processed the request, the response must
+	 * not be used afterwards.
+	 */
+	public void dropResponse(BidResponse bidResponse) {
+		if (bidResponse == null) {
+			return;
+		}
+		try {
+			if (bidder instanceof DroppedResponseListener) {
+				((DroppedResponseListener) bidder).responseDropped(bidResponse);
+			}
+		} finally {
+			release(bidResponse);
+		}
+	}
+
+	// hands an encoded response back to bidders that recycle their records
+	private void release(BidResponse bidResponse) {
+		if (bidder instanceof ResponseRecycler) {
+			((ResponseRecycler) bidder).recycle(bidResponse);
+		}
+	}
+
+	/**
+	 * @return the time in milliseconds the exchange waits for a response to
+	 *         the request: its <tt>tmax</tt> if present, the configured
+	 *         <tt>request_timeout</tt> otherwise.
+	 */
+	public long getRequestTimeout(BidRequest bidRequest) {
+		if ((bidRequest != null) && (bidRequest.getTmax() != null)
+				&& (bidRequest.getTmax() > 0)) {
+			return bidRequest.getTmax();
+		}
+		return getRequestTimeout();
+	}
+
+	/**
+	 * @return the configured <tt>request_timeout</tt> in milliseconds.
+	 */
+	public long getRequestTimeout() {
+		return dspDAO.getSnapshot().getRequestTimeout();
+	}
+
+	protected static final String JSON_CONTENT_TYPE = JsonBidCodec.CONTENT_TYPE;
 	protected static final String THRIFT_CONTENT_TYPE = "application/x-thrift";
 	protected static final String PROTOBUF_CONTENT_TYPE = "application/x-protobuf";
 	protected static final String AVRO_BINARY_CONTENT_TYPE = "avro/binary";
 
-	protected Decoder getBidRequestDecoder(InputStream is, String contentType)
-			throws IOException {
-		Decoder decoder = null;		
-		return decoder = DECODER_FACTORY.binaryDecoder(is, null);		
+	// builds one codec per content type, covering json, the well known
+	// binary encodings as well as any content type configured for an exchange.
+	// Encodings that cannot be supported for the generated api classes are
+	// recorded as such, and rejected when a request arrives in that format.
+	protected BidCodecRegistry buildCodecRegistry() {
+		Set<String> contentTypes = new LinkedHashSet<String>();
+		contentTypes.add(AVRO_BINARY_CONTENT_TYPE);
+		contentTypes.add(PROTOBUF_CONTENT_TYPE);
+		contentTypes.add(THRIFT_CONTENT_TYPE);
+		long configVersion = -1L;
+		if (dspDAO != null) {
+			DemandSideConfig config = dspDAO.getSnapshot();
+			configVersion = config.getVersion();
+			for (RTBExchange exchange : config.getExchanges().values()) {
+				if (exchange.getRtbContentType() != null) {
+					contentTypes.add(exchange.getRtbContentType());
+				}
+			}
+		}
+		BidCodecRegistry registry = new BidCodecRegistry(configVersion);
+		registry.register(new JsonBidCodec());
+		for (String contentType : contentTypes) {
+			if (registry.supports(contentType)) {
+				continue;
+			}
+			try {
+				DatumReader<BidRequest> reader = getDatumReader(contentType);
+				DatumWriter<BidResponse> writer = getDatumWriter(contentType);
+				if ((reader == null) || (writer == null)) {
+					registry.markUnsupported(contentType,
+							"Unsupported content type: " + contentType);
+				} else {
+					registry.register(new BinaryBidCodec(contentType, reader,
+							writer));
+				}
+			} catch (RuntimeException e) {
+				logger.warn("Unable to build codec for content type "
+						+ contentType + ": " + e.getMessage());
+				registry.markUnsupported(contentType, e.getMessage());
+			}
+		}
+		return registry;
 	}
 
-	protected Encoder getBidResponseEncoder(OutputStream out, String contentType)
-			throws IOException {
-		Encoder encoder = null;		
-		return	encoder = ENCODER_FACTORY.binaryEncoder(out, null);	
+	// the registry matching the current configuration, a reload of the DAO
+	// is picked up by the first request that follows it
+	private BidCodecRegistry getCodecs() {
+		BidCodecRegistry registry = codecs;
+		if ((dspDAO != null) && (registry.getConfigVersion() != dspDAO
+				.getSnapshot().getVersion())) {
+			registry = buildCodecRegistry();
+			codecs = registry;
+		}
+		return registry;
 	}
 
 	protected DatumReader<BidRequest> getDatumReader(String contentType) {
@@ -186,70 +638,50 @@ public class DemandSideServer {
 		return writer;
 	}
 
+	/**
+	 * As {@link #readRequest(InputStream, String)}, the time spent decoding
+	 * is recorded in the metrics of the exchange.
+	 */
+	public BidRequest readRequest(String sspName, InputStream is,
+			String contentType) throws DSPException {
+		long start = System.nanoTime();
+		BidRequest bidRequest = readRequest(is, contentType);
+		getRequestMetrics(sspName).record(Stage.DECODE,
+				System.nanoTime() - start);
+		return bidRequest;
+	}
+
 	public BidRequest readRequest(InputStream is, String contentType)
 			throws DSPException {
 		BidRequest bidRequest = null;
-		if(contentType.equals(JSON_CONTENT_TYPE))			
-		{
-			try{			
-				bidRequest = (BidRequest)new ObjectMapper().readValue(is,BidRequest.class);			
-			}catch(Exception ex)
-			{
-				logger.error("Json Mapping Exception : " + StringUtils.stackTraceToString(ex));
-				throw new DSPException(ex);
-			}
-		}
-		else {	
-			try {
-				Decoder in = getBidRequestDecoder(is, contentType);
-				DatumReader<BidRequest> reader = getDatumReader(contentType);
-				// Should only be 1 request reader.read(arg0, arg1)
-				bidRequest = reader.read(null, in);
-				logger.info("Read Request: " + bidRequest);
-			} catch (EOFException eof) {
-				logger.error("End of file: " +StringUtils.stackTraceToString(eof));
-				throw new DSPException(eof);
-			} catch (Exception ex) {
-				logger.error("Error in processing request " + StringUtils.stackTraceToString(ex));
-				throw new DSPException(ex);
+		try {
+			// Should only be 1 request, binary codecs recycle the record
+			// decoded previously on this thread
+			bidRequest = getCodecs().get(contentType).decode(is);
+			// the text form of a request is expensive, and cannot be
+			// replayed, see TrafficCapture instead
+			if (logger.isDebugEnabled()) {
+				logger.debug("Read Request: " + bidRequest);
 			}
+		} catch (EOFException eof) {
+			logger.error("End of file: " +StringUtils.stackTraceToString(eof));
+			throw new DSPException(eof);
+		} catch (Exception ex) {
+			logger.error("Error in processing request " + StringUtils.stackTraceToString(ex));
+			throw new DSPException(ex);
 		}
 		return bidRequest;
 	}
-	protected byte[] writeResponse(BidResponse bidResponse, String contentType)
-			throws DSPException {
-		ByteArrayOutputStream os = new ByteArrayOutputStream();
-		if(contentType.equals(JSON_CONTENT_TYPE))
-		{		
-	        try {	        		        				
-				Gson gson = new Gson();
-				String jsonResponse = gson.toJson(bidResponse);				
-				os.write(jsonResponse.getBytes());						       
-		        return os.toByteArray();
-	        } catch (Exception ex) {
-				logger.error("Error in writing Json response : " + StringUtils.stackTraceToString(ex));	
-				throw new DSPException(ex);
-			}			
-		}	
-		else{
-			try {			
-				Encoder out = getBidResponseEncoder(os, contentType);
-				DatumWriter<BidResponse> writer = getDatumWriter(contentType);
-				writer.write(bidResponse, out);
-				out.flush();		
-			 // for all binary output, the data needs to be serialized
-				ByteBuffer serialized = ByteBuffer
-						.allocate(os.toByteArray().length);
-				serialized.put(os.toByteArray());
-				return serialized.array();
-			} catch (Exception ex) {
-				logger.error("Error in writing response buffer: " +StringUtils.stackTraceToString(ex));
-				throw new DSPException(ex);
-			}
+
+	// encodes the response in the expected encoding format directly into
+	// the supplied stream
+	protected void writeResponse(BidResponse bidResponse, String contentType,
+			OutputStream os) throws DSPException {
+		try {
+			getCodecs().get(contentType).encode(bidResponse, os);
+		} catch (Exception ex) {
+			logger.error("Error in writing response buffer: " +StringUtils.stackTraceToString(ex));
+			throw new DSPException(ex);
 		}
 	}
-	
-	
-	
-
 }
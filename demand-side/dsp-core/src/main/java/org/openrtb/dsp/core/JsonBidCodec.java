@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.avro.util.Utf8;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.Version;
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.map.ObjectWriter;
+import org.codehaus.jackson.map.SerializerProvider;
+import org.codehaus.jackson.map.annotate.JsonSerialize.Inclusion;
+import org.codehaus.jackson.map.module.SimpleModule;
+import org.codehaus.jackson.map.ser.std.SerializerBase;
+import org.codehaus.jackson.map.ser.std.ToStringSerializer;
+import org.openrtb.common.api.BidRequest;
+import org.openrtb.common.api.BidResponse;
+
+/**
+ * {@link BidCodec} for <tt>application/json</tt> using a single, pre-configured
+ * Jackson {@link ObjectMapper} for both directions.
+ *
+ * Requests are parsed straight from the request stream and responses are
+ * generated as UTF-8 bytes straight into the response stream, without going
+ * through an intermediate {@link String}. The mapper is configured for the
+ * avro generated <tt>org.openrtb.common.api</tt> classes:
+ * <ul>
+ * <li>the avro {@link SpecificRecordBase#getSchema()} property is never
+ * written,</li>
+ * <li>{@link CharSequence} values are written as plain JSON strings, avro's
+ * own {@link Utf8} straight from its UTF-8 bytes,</li>
+ * <li>absent (<tt>null</tt>) fields are omitted, and</li>
+ * <li>unknown fields in a request are ignored, as required by the OpenRTB
+ * specification.</li>
+ * </ul>
+ * {@link ObjectReader} and {@link ObjectWriter} are immutable, so one codec
+ * instance is shared by all request threads.
+ */
+public class JsonBidCodec implements BidCodec {
+	public static final String CONTENT_TYPE = "application/json";
+
+	// hides the avro schema from the serializer
+	@JsonIgnoreProperties({ "schema" })
+	private static abstract class AvroRecordMixIn {
+	}
+
+	// writes the bytes of the Utf8 without decoding them to a String first
+	private static class Utf8Serializer extends SerializerBase<Utf8> {
+		Utf8Serializer() {
+			super(Utf8.class);
+		}
+
+		@Override
+		public void serialize(Utf8 value, JsonGenerator jgen,
+				SerializerProvider provider) throws IOException {
+			jgen.writeUTF8String(value.getBytes(), 0, value.getByteLength());
+		}
+	}
+
+	private final ObjectReader reader;
+	private final ObjectWriter writer;
+
+	public JsonBidCodec() {
+		ObjectMapper mapper = newObjectMapper();
+		this.reader = mapper.reader(BidRequest.class);
+		this.writer = mapper.writerWithType(BidResponse.class);
+	}
+
+	/**
+	 * @return a new mapper configured as the codec's, for tools that need to
+	 *         go the other way, i.e. write requests.
+	 */
+	public static ObjectMapper newObjectMapper() {
+		ObjectMapper mapper = new ObjectMapper();
+		SimpleModule module = new SimpleModule("openrtb-api", new Version(2,
+				0, 0, null));
+		module.addSerializer(CharSequence.class, ToStringSerializer.instance);
+		module.addSerializer(Utf8.class, new Utf8Serializer());
+		mapper.registerModule(module);
+		mapper.getSerializationConfig().addMixInAnnotations(
+				SpecificRecordBase.class, AvroRecordMixIn.class);
+		mapper.setSerializationInclusion(Inclusion.NON_NULL);
+		mapper.configure(
+				DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+		// the streams belong to the caller (i.e. the servlet container)
+		mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+		mapper.configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+		return mapper;
+	}
+
+	@Override
+	public String getContentType() {
+		return CONTENT_TYPE;
+	}
+
+	@Override
+	public BidRequest decode(InputStream in) throws IOException {
+		return reader.readValue(in);
+	}
+
+	@Override
+	public void encode(BidResponse response, OutputStream out)
+			throws IOException {
+		writer.writeValue(out, response);
+		out.flush();
+	}
+}
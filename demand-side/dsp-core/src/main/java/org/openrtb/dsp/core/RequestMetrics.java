@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.openrtb.common.util.LatencyHistogram;
+
+/**
+ * Latencies and outcomes of the bid requests received from one exchange in
+ * one content type, see {@link DemandSideMetrics}.
+ * 
+ * The latency of each {@link Stage} is kept in nanoseconds in a lock-free
+ * {@link LatencyHistogram}, the outcomes are plain atomic counters: recording
+ * a request costs a handful of atomic increments and never allocates.
+ */
+public class RequestMetrics {
+
+	/** The stages of the bid pipeline that are timed. */
+	public enum Stage {
+		// decoding of the request
+		DECODE,
+		// wrapping the request with the configuration of the exchange
+		CONTEXT,
+		// the bidder
+		BID,
+		// encoding of a response, no bids are not counted
+		ENCODE,
+		// from the arrival of the request until it was answered
+		TOTAL
+	}
+
+	/** How a request was answered, with the HTTP status sent. */
+	public enum Outcome {
+		BID(200), NO_BID(204), SHED(204), BAD_REQUEST(400), UNAUTHORIZED(401), REQUEST_TOO_LARGE(
+				413), UNSUPPORTED_MEDIA_TYPE(415);
+
+		private final int status;
+
+		private Outcome(int status) {
+			this.status = status;
+		}
+
+		public int getStatus() {
+			return status;
+		}
+	}
+
+	private static final Stage[] STAGES = Stage.values();
+	private static final Outcome[] OUTCOMES = Outcome.values();
+
+	private final String exchange;
+	private final String contentType;
+	private final LatencyHistogram[] latencies = new LatencyHistogram[STAGES.length];
+	private final AtomicLongArray outcomes = new AtomicLongArray(OUTCOMES.length);
+
+	public RequestMetrics(String exchange, String contentType) {
+		this.exchange = exchange;
+		this.contentType = contentType;
+		for (int i = 0; i < latencies.length; i++) {
+			latencies[i] = new LatencyHistogram();
+		}
+	}
+
+	public String getExchange() {
+		return exchange;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public void record(Stage stage, long nanos) {
+		latencies[stage.ordinal()].record(nanos);
+	}
+
+	/**
+	 * Counts a request answered, and the time it took since its arrival.
+	 */
+	public void record(Outcome outcome, long totalNanos) {
+		outcomes.incrementAndGet(outcome.ordinal());
+		latencies[Stage.TOTAL.ordinal()].record(totalNanos);
+	}
+
+	/** @return the latencies of the stage, in nanoseconds */
+	public LatencyHistogram getLatency(Stage stage) {
+		return latencies[stage.ordinal()];
+	}
+
+	public long getCount(Outcome outcome) {
+		return outcomes.get(outcome.ordinal());
+	}
+
+	/** @return the number of requests answered, whatever the outcome */
+	public long getRequests() {
+		long requests = 0;
+		for (int i = 0; i < OUTCOMES.length; i++) {
+			requests += outcomes.get(i);
+		}
+		return requests;
+	}
+
+	/** @return the share of the requests answered with a bid */
+	public double getBidRate() {
+		long requests = getRequests();
+		return (requests == 0) ? 0.0 : (double) getCount(Outcome.BID)
+				/ requests;
+	}
+
+	public void reset() {
+		for (LatencyHistogram latency : latencies) {
+			latency.reset();
+		}
+		for (int i = 0; i < OUTCOMES.length; i++) {
+			outcomes.set(i, 0);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "RequestMetrics [exchange=" + exchange + ", contentType="
+				+ contentType + ", requests=" + getRequests() + ", bids="
+				+ getCount(Outcome.BID) + "]";
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+import org.openrtb.common.util.LatencyHistogram;
+import org.openrtb.dsp.core.RequestMetrics.Outcome;
+import org.openrtb.dsp.core.RequestMetrics.Stage;
+
+/**
+ * Read only JMX view of a {@link RequestMetrics}: the count of every outcome
+ * (i.e. <tt>NoBidCount</tt>), the bid rate and, for every stage, the count and
+ * the p50, p99, p99.9 and max latencies in microseconds (i.e.
+ * <tt>DecodeP99Micros</tt>). The <tt>reset</tt> operation clears them all.
+ */
+class RequestMetricsMBean implements DynamicMBean {
+	private final RequestMetrics metrics;
+	private final Map<String, Getter> getters = new LinkedHashMap<String, Getter>();
+	private final MBeanInfo info;
+
+	private abstract static class Getter {
+		final String type;
+		final String description;
+
+		Getter(String type, String description) {
+			this.type = type;
+			this.description = description;
+		}
+
+		abstract Object get();
+	}
+
+	RequestMetricsMBean(RequestMetrics requestMetrics) {
+		this.metrics = requestMetrics;
+		getters.put("Exchange", new Getter(String.class.getName(), "Exchange") {
+			@Override
+			Object get() {
+				return metrics.getExchange();
+			}
+		});
+		getters.put("ContentType", new Getter(String.class.getName(),
+				"Content type") {
+			@Override
+			Object get() {
+				return metrics.getContentType();
+			}
+		});
+		getters.put("Requests", new Getter("long", "Requests answered") {
+			@Override
+			Object get() {
+				return metrics.getRequests();
+			}
+		});
+		getters.put("BidRate", new Getter("double",
+				"Share of the requests answered with a bid") {
+			@Override
+			Object get() {
+				return metrics.getBidRate();
+			}
+		});
+		for (final Outcome outcome : Outcome.values()) {
+			getters.put(camelCase(outcome.name()) + "Count", new Getter("long",
+					"Requests answered with " + outcome + " ("
+							+ outcome.getStatus() + ")") {
+				@Override
+				Object get() {
+					return metrics.getCount(outcome);
+				}
+			});
+		}
+		for (Stage stage : Stage.values()) {
+			final LatencyHistogram latency = metrics.getLatency(stage);
+			String name = camelCase(stage.name());
+			getters.put(name + "Count", new Getter("long", stage
+					+ " latencies recorded") {
+				@Override
+				Object get() {
+					return latency.getCount();
+				}
+			});
+			addPercentile(name + "P50Micros", stage, latency, 50.0);
+			addPercentile(name + "P99Micros", stage, latency, 99.0);
+			addPercentile(name + "P999Micros", stage, latency, 99.9);
+			getters.put(name + "MaxMicros", new Getter("long", "Max " + stage
+					+ " latency in microseconds") {
+				@Override
+				Object get() {
+					return latency.getMax() / 1000L;
+				}
+			});
+		}
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (Map.Entry<String, Getter> e : getters.entrySet()) {
+			attributes.add(new MBeanAttributeInfo(e.getKey(),
+					e.getValue().type, e.getValue().description, true, false,
+					false));
+		}
+		MBeanOperationInfo reset = new MBeanOperationInfo("reset",
+				"Clears the latencies and the counts", null, "void",
+				MBeanOperationInfo.ACTION);
+		this.info = new MBeanInfo(RequestMetrics.class.getName(),
+				"Bid request latencies and outcomes of "
+						+ metrics.getExchange() + " in "
+						+ metrics.getContentType(),
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+				null, new MBeanOperationInfo[] { reset }, null);
+	}
+
+	private void addPercentile(String name, Stage stage,
+			final LatencyHistogram latency, final double percentile) {
+		getters.put(name, new Getter("long", "p" + percentile + " " + stage
+				+ " latency in microseconds") {
+			@Override
+			Object get() {
+				return latency.getPercentile(percentile) / 1000L;
+			}
+		});
+	}
+
+	// NO_BID -> NoBid
+	static String camelCase(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		boolean upper = true;
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c == '_') {
+				upper = true;
+			} else {
+				sb.append(upper ? c : Character.toLowerCase(c));
+				upper = false;
+			}
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public Object getAttribute(String attribute)
+			throws AttributeNotFoundException {
+		Getter getter = getters.get(attribute);
+		if (getter == null) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		return getter.get();
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			Getter getter = getters.get(attribute);
+			if (getter != null) {
+				list.add(new Attribute(attribute, getter.get()));
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute)
+			throws AttributeNotFoundException {
+		throw new AttributeNotFoundException(attribute.getName()
+				+ " is read only");
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature)
+			throws ReflectionException {
+		if ("reset".equals(actionName)) {
+			metrics.reset();
+			return null;
+		}
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		return info;
+	}
+}
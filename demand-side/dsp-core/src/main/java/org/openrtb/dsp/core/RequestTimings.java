@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.openrtb.dsp.core.RequestMetrics.Stage;
+
+/**
+ * Stage timings of the bid request being answered by the calling thread, see
+ * {@link SlowRequestRecorder}.
+ * 
+ * One instance is kept per request thread and reset for every request, so
+ * that timing a request never allocates. The raw request is only kept while a
+ * recorder is set, in a {@link ResponseBuffer} recycled the same way as the
+ * response buffers.
+ */
+public class RequestTimings {
+	private static final Stage[] STAGES = Stage.values();
+
+	private final long[] nanos = new long[STAGES.length];
+	private final ResponseBuffer request = new ResponseBuffer();
+	private boolean requestKept;
+	private String exchange;
+	private String contentType;
+
+	/**
+	 * Clears the timings of the previous request on the thread.
+	 */
+	public void reset(String exchange, String contentType) {
+		this.exchange = exchange;
+		this.contentType = contentType;
+		Arrays.fill(nanos, 0L);
+		request.recycle();
+		requestKept = false;
+	}
+
+	public String getExchange() {
+		return exchange;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public void record(Stage stage, long nanos) {
+		this.nanos[stage.ordinal()] = nanos;
+	}
+
+	/** @return the time spent in the stage, in nanoseconds */
+	public long getNanos(Stage stage) {
+		return nanos[stage.ordinal()];
+	}
+
+	/**
+	 * Reads the request to its end into the buffer of the timings.
+	 * 
+	 * @return a stream to decode the request from.
+	 */
+	public InputStream keepRequest(InputStream in) throws IOException {
+		request.readFrom(in);
+		requestKept = true;
+		return request.toInputStream();
+	}
+
+	/**
+	 * @return a copy of the raw request, or null if it was not kept.
+	 */
+	public byte[] getRequest() {
+		return requestKept ? request.toByteArray() : null;
+	}
+}
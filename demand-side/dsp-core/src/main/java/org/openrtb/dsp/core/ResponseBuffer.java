@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Growable byte buffer that a {@link BidCodec} encodes a response into, so that
+ * the exact response length is known before the first byte is sent to the
+ * exchange.
+ *
+ * A buffer is owned by a single request thread and recycled for the next
+ * response on that thread. The backing array is pre-sized from a running
+ * average of the previous response sizes, which avoids the grow-and-copy steps
+ * of a fresh {@link ByteArrayOutputStream}. Arrays grown beyond
+ * {@link #MAX_RETAINED_SIZE} by an unusually large response are dropped on
+ * {@link #recycle()} rather than kept for the lifetime of the thread.
+ *
+ * The same buffer keeps the raw bytes of a request for the
+ * {@link SlowRequestRecorder}, see {@link #readFrom(InputStream)}.
+ */
+public class ResponseBuffer extends OutputStream {
+	public static final int DEFAULT_SIZE = 1024;
+	public static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+	private byte[] buf;
+	private int count;
+	// running average of the encoded response sizes, in bytes
+	private int predictedSize;
+
+	public ResponseBuffer() {
+		this(DEFAULT_SIZE);
+	}
+
+	public ResponseBuffer(int initialSize) {
+		this.predictedSize = Math.max(initialSize, 16);
+		this.buf = new byte[predictedSize];
+	}
+
+	@Override
+	public void write(int b) {
+		ensureCapacity(count + 1);
+		buf[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		if ((off < 0) || (len < 0) || (off + len > b.length)) {
+			throw new IndexOutOfBoundsException();
+		}
+		ensureCapacity(count + len);
+		System.arraycopy(b, off, buf, count, len);
+		count += len;
+	}
+
+	/**
+	 * @return number of bytes written since the last {@link #recycle()}
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return the size the next response is expected to have
+	 */
+	public int getPredictedSize() {
+		return predictedSize;
+	}
+
+	/**
+	 * Writes the buffered bytes to the supplied stream, straight out of the
+	 * backing array.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(buf, 0, count);
+	}
+
+	/**
+	 * Appends what is left in the supplied stream, which is read to its end
+	 * but not closed.
+	 */
+	public void readFrom(InputStream in) throws IOException {
+		for (;;) {
+			ensureCapacity(count + 1);
+			int n = in.read(buf, count, buf.length - count);
+			if (n < 0) {
+				return;
+			}
+			count += n;
+		}
+	}
+
+	/**
+	 * As {@link #readFrom(InputStream)}, giving up once more than
+	 * <tt>maxBytes</tt> were appended, so that a client cannot make the
+	 * buffer grow without bounds.
+	 * 
+	 * @return false if the stream holds more than <tt>maxBytes</tt>, in which
+	 *         case it is not read to its end.
+	 */
+	public boolean readFrom(InputStream in, int maxBytes) throws IOException {
+		long limit = (long) count + maxBytes;
+		for (;;) {
+			ensureCapacity(count + 1);
+			// up to one byte past the limit, which tells a stream of exactly
+			// maxBytes from a longer one
+			int n = in.read(buf, count,
+					(int) Math.min(buf.length - count, limit + 1 - count));
+			if (n < 0) {
+				return true;
+			}
+			count += n;
+			if (count > limit) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * @return a stream over the buffered bytes, straight out of the backing
+	 *         array, valid until the buffer is written to or recycled.
+	 */
+	public InputStream toInputStream() {
+		return new ByteArrayInputStream(buf, 0, count);
+	}
+
+	/**
+	 * @return a copy of the buffered bytes, for callers that need to hold on
+	 *         to the response after the buffer is recycled.
+	 */
+	public byte[] toByteArray() {
+		byte[] copy = new byte[count];
+		System.arraycopy(buf, 0, copy, 0, count);
+		return copy;
+	}
+
+	/**
+	 * Empties the buffer for the next response and folds the size of the
+	 * current one into the prediction.
+	 */
+	public void recycle() {
+		if (count > 0) {
+			predictedSize = Math.max(16, predictedSize - (predictedSize >> 3)
+					+ (count >> 3));
+		}
+		if (buf.length > MAX_RETAINED_SIZE) {
+			buf = new byte[Math.min(predictedSize, MAX_RETAINED_SIZE)];
+		} else if (buf.length < predictedSize) {
+			buf = new byte[predictedSize];
+		}
+		count = 0;
+	}
+
+	private void ensureCapacity(int minCapacity) {
+		if (minCapacity > buf.length) {
+			int newCapacity = Math.max(buf.length << 1, minCapacity);
+			byte[] grown = new byte[newCapacity];
+			System.arraycopy(buf, 0, grown, 0, count);
+			buf = grown;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.core;
+
+import org.openrtb.common.api.BidRequest;
+import org.openrtb.dsp.intf.model.Deadline;
+
+/**
+ * Hooks of a caller that answers a request on another thread than the one it
+ * arrived on, and may have answered it meanwhile (i.e. with no bid once its
+ * tmax expired), see
+ * {@link DemandSideServer#respondBuffered(String, byte[], String, Deadline, ResponseGate)}.
+ * Both are called on the thread answering the request.
+ */
+public interface ResponseGate {
+
+	/**
+	 * Called once the request is decoded, before it is handed to the bidder,
+	 * i.e. to bound the wait for the response by the <tt>tmax</tt> of the
+	 * request.
+	 */
+	public void decoded(BidRequest bidRequest, Deadline deadline);
+
+	/**
+	 * Called before the response is encoded.
+	 * 
+	 * @return false if the request has been answered already, in which case
+	 *         the response is dropped.
+	 */
+	public boolean claim();
+}
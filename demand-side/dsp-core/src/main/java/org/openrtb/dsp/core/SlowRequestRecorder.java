@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.commons.codec.binary.Base64;
+import org.openrtb.dsp.core.RequestMetrics.Stage;
+
+/**
+ * Keeps the latest bid requests that took longer than a threshold to answer,
+ * with their {@link RequestTimings} and raw bytes, so that the outliers
+ * behind the tail of the {@link RequestMetrics} latencies can be looked at
+ * and replayed.
+ * 
+ * The requests are kept in a ring of a fixed capacity, the oldest being
+ * overwritten. Requests under the threshold cost a comparison; a slow request
+ * is copied into an immutable {@link SlowRequest} and published with a single
+ * atomic increment, without locking.
+ */
+public class SlowRequestRecorder {
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private static final Stage[] STAGES = Stage.values();
+
+	private final long thresholdNanos;
+	private final AtomicReferenceArray<SlowRequest> ring;
+	// number of slow requests recorded, the next one goes in its slot
+	private final AtomicLong recorded = new AtomicLong();
+
+	/**
+	 * @param thresholdMs
+	 *            requests answered in at least this many milliseconds are
+	 *            recorded.
+	 * @param capacity
+	 *            number of slow requests kept.
+	 */
+	public SlowRequestRecorder(long thresholdMs, int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive: "
+					+ capacity);
+		}
+		this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMs);
+		this.ring = new AtomicReferenceArray<SlowRequest>(capacity);
+	}
+
+	public long getThresholdMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+	}
+
+	public int getCapacity() {
+		return ring.length();
+	}
+
+	/** @return the number of slow requests recorded since the last clear */
+	public long getRecorded() {
+		return recorded.get();
+	}
+
+	/**
+	 * Records the request if its {@link Stage#TOTAL} time is over the
+	 * threshold.
+	 * 
+	 * @return true if the request was recorded.
+	 */
+	public boolean record(RequestTimings timings) {
+		if (timings.getNanos(Stage.TOTAL) < thresholdNanos) {
+			return false;
+		}
+		SlowRequest slow = new SlowRequest(timings);
+		ring.set((int) (recorded.getAndIncrement() % ring.length()), slow);
+		return true;
+	}
+
+	/**
+	 * @return the slow requests kept, the latest first.
+	 */
+	public List<SlowRequest> getSlowRequests() {
+		long last = recorded.get();
+		int n = (int) Math.min(last, ring.length());
+		List<SlowRequest> slow = new ArrayList<SlowRequest>(n);
+		for (long i = last - 1; i >= last - n; i--) {
+			SlowRequest s = ring.get((int) (i % ring.length()));
+			if (s != null) {
+				slow.add(s);
+			}
+		}
+		return slow;
+	}
+
+	public void clear() {
+		for (int i = 0; i < ring.length(); i++) {
+			ring.set(i, null);
+		}
+		recorded.set(0L);
+	}
+
+	/**
+	 * Dumps the slow requests kept, the latest first: one line of timings in
+	 * microseconds per request followed by the request itself, as text for
+	 * json and base64 encoded for the binary content types.
+	 */
+	public void writeText(Writer out) throws IOException {
+		List<SlowRequest> slow = getSlowRequests();
+		SimpleDateFormat format = new SimpleDateFormat(
+				"yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		out.write("# " + slow.size() + " of " + recorded.get()
+				+ " requests answered in " + getThresholdMillis()
+				+ "ms or more, latest first\n");
+		for (SlowRequest s : slow) {
+			out.write("\n" + format.format(new Date(s.getTimestamp())) + " "
+					+ s.getExchange() + " " + s.getContentType());
+			for (Stage stage : STAGES) {
+				out.write(" " + stage.name().toLowerCase() + "="
+						+ TimeUnit.NANOSECONDS.toMicros(s.getNanos(stage))
+						+ "us");
+			}
+			out.write("\n");
+			byte[] request = s.getRequest();
+			if (request == null) {
+				out.write("(request not kept)\n");
+			} else if (JsonBidCodec.CONTENT_TYPE.equals(s.getContentType())) {
+				out.write(new String(request, "UTF-8"));
+				out.write("\n");
+			} else {
+				out.write(Base64.encodeBase64String(request).trim());
+				out.write("\n");
+			}
+		}
+	}
+
+	/**
+	 * Immutable copy of the timings and the raw bytes of a slow request.
+	 */
+	public static class SlowRequest {
+		private final long timestamp;
+		private final String exchange;
+		private final String contentType;
+		private final long[] nanos = new long[STAGES.length];
+		private final byte[] request;
+
+		SlowRequest(RequestTimings timings) {
+			for (Stage stage : STAGES) {
+				nanos[stage.ordinal()] = timings.getNanos(stage);
+			}
+			// the time the request arrived
+			this.timestamp = System.currentTimeMillis()
+					- TimeUnit.NANOSECONDS.toMillis(nanos[Stage.TOTAL.ordinal()]);
+			this.exchange = timings.getExchange();
+			this.contentType = timings.getContentType();
+			this.request = timings.getRequest();
+		}
+
+		/** @return the time the request arrived, in milliseconds */
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		public String getExchange() {
+			return exchange;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		public long getNanos(Stage stage) {
+			return nanos[stage.ordinal()];
+		}
+
+		/** @return the raw request, null if it was not kept */
+		public byte[] getRequest() {
+			return (request == null) ? null : request.clone();
+		}
+	}
+}
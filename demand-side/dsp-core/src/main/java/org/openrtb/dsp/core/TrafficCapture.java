@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.core;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.openrtb.common.api.BidCapture;
+import org.openrtb.common.api.BidRequest;
+import org.openrtb.common.api.BidResponse;
+import org.openrtb.common.util.BoundedMpscQueue;
+import org.openrtb.common.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Captures a sample of the decoded requests, together with the exchange they
+ * came from, their arrival time and the response of the DSP, as
+ * {@link BidCapture} records into rolling avro data files, so that the
+ * traffic can be replayed.
+ * 
+ * The request threads only copy the sampled records (the codecs and bidders
+ * recycle theirs) and hand them over through a {@link BoundedMpscQueue}, they
+ * never block: when the writer falls behind the queue fills up and further
+ * captures are dropped. A single writer thread appends the records to
+ * <tt>capture-&lt;time&gt;-&lt;n&gt;.avro</tt> files in the capture directory,
+ * starting a new file once the current one holds <tt>maxFileBytes</tt>.
+ */
+public class TrafficCapture {
+	private static final Logger logger = LoggerFactory
+			.getLogger(TrafficCapture.class);
+
+	public static final String FILE_PREFIX = "capture-";
+	public static final String FILE_SUFFIX = ".avro";
+	// the writer sleeps this long when there is nothing to write
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+	private final File directory;
+	private final double sampleRate;
+	private final long maxFileBytes;
+	private final BoundedMpscQueue<BidCapture> queue;
+	private final Thread writer;
+	private volatile boolean running = true;
+
+	private final AtomicLong captured = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong files = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+
+	private final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+		@Override
+		protected Random initialValue() {
+			return new Random();
+		}
+	};
+
+	/**
+	 * @param directory
+	 *            where the capture files are written, created if missing
+	 * @param sampleRate
+	 *            share of the requests captured, between 0 and 1
+	 * @param queueSize
+	 *            most captures waiting for the writer
+	 * @param maxFileBytes
+	 *            size at which a new capture file is started
+	 */
+	public TrafficCapture(File directory, double sampleRate, int queueSize,
+			long maxFileBytes) throws IOException {
+		if ((sampleRate < 0) || (sampleRate > 1) || (maxFileBytes <= 0)) {
+			throw new IllegalArgumentException(
+					"sampleRate must be within [0, 1], maxFileBytes positive");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create capture directory "
+					+ directory);
+		}
+		this.directory = directory;
+		this.sampleRate = sampleRate;
+		this.maxFileBytes = maxFileBytes;
+		this.queue = new BoundedMpscQueue<BidCapture>(queueSize);
+		this.writer = new Thread(new Writer(), "dsp-traffic-capture");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * @return true if the request at hand is part of the sample.
+	 */
+	public boolean isSampled() {
+		if (sampleRate >= 1.0) {
+			return true;
+		}
+		return (sampleRate > 0.0) && (random.get().nextDouble() < sampleRate);
+	}
+
+	/**
+	 * Queues a copy of the request and response for the writer.
+	 * 
+	 * @param timestamp
+	 *            arrival time of the request, in milliseconds since the epoch
+	 * @param response
+	 *            null for a no bid
+	 * @return false if the capture was dropped because the queue is full.
+	 */
+	public boolean capture(String exchange, long timestamp,
+			BidRequest request, BidResponse response) {
+		if (!running) {
+			dropped.incrementAndGet();
+			return false;
+		}
+		BidCapture record = new BidCapture();
+		try {
+			record.exchange = exchange;
+			record.timestamp = timestamp;
+			record.request = SpecificData.get().deepCopy(BidRequest.SCHEMA$,
+					request);
+			record.response = (response == null) ? null : SpecificData.get()
+					.deepCopy(BidResponse.SCHEMA$, response);
+		} catch (RuntimeException e) {
+			errors.incrementAndGet();
+			return false;
+		}
+		if (!queue.offer(record)) {
+			dropped.incrementAndGet();
+			return false;
+		}
+		captured.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Stops the writer once it has written the captures already queued, and
+	 * closes the current file.
+	 */
+	public void close() {
+		running = false;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(10));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public double getSampleRate() {
+		return sampleRate;
+	}
+
+	/** @return captures queued for the writer */
+	public long getCaptured() {
+		return captured.get();
+	}
+
+	/** @return captures refused because the queue was full */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/** @return captures written to a file */
+	public long getWritten() {
+		return written.get();
+	}
+
+	/** @return capture files started */
+	public long getFiles() {
+		return files.get();
+	}
+
+	/** @return captures that could not be copied or written */
+	public long getErrors() {
+		return errors.get();
+	}
+
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	// counts the bytes reaching the file, the data file writer buffers
+	// whole blocks
+	private static final class CountingOutputStream extends FilterOutputStream {
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	private final class Writer implements Runnable {
+		private final SimpleDateFormat format = new SimpleDateFormat(
+				"yyyyMMdd-HHmmss");
+		private DataFileWriter<BidCapture> file;
+		private CountingOutputStream out;
+		private boolean dirty;
+
+		@Override
+		public void run() {
+			while (running || !queue.isEmpty()) {
+				BidCapture record = queue.poll();
+				if (record == null) {
+					// makes what was written so far readable while idle
+					flush();
+					LockSupport.parkNanos(IDLE_NANOS);
+					continue;
+				}
+				write(record);
+			}
+			closeFile();
+		}
+
+		private void write(BidCapture record) {
+			try {
+				if (file == null) {
+					openFile();
+				}
+				file.append(record);
+				written.incrementAndGet();
+				dirty = true;
+				if (out.count >= maxFileBytes) {
+					closeFile();
+				}
+			} catch (Exception e) {
+				errors.incrementAndGet();
+				logger.error("Failed to write capture: "
+						+ StringUtils.stackTraceToString(e));
+				if (e instanceof IOException) {
+					// the file is unusable, start a new one
+					closeFile();
+				}
+			}
+		}
+
+		private void openFile() throws IOException {
+			File f = new File(directory, FILE_PREFIX
+					+ format.format(new Date()) + "-" + files.incrementAndGet()
+					+ FILE_SUFFIX);
+			out = new CountingOutputStream(new BufferedOutputStream(
+					new FileOutputStream(f)));
+			DataFileWriter<BidCapture> w = new DataFileWriter<BidCapture>(
+					new SpecificDatumWriter<BidCapture>(BidCapture.SCHEMA$));
+			w.setCodec(CodecFactory.deflateCodec(1));
+			file = w.create(BidCapture.SCHEMA$, out);
+			logger.info("Capturing traffic into " + f);
+		}
+
+		private void flush() {
+			if ((file != null) && dirty) {
+				try {
+					file.flush();
+					dirty = false;
+				} catch (IOException e) {
+					errors.incrementAndGet();
+					logger.error("Failed to flush capture file: "
+							+ e.getMessage());
+					closeFile();
+				}
+			}
+		}
+
+		private void closeFile() {
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException e) {
+					logger.error("Failed to close capture file: "
+							+ e.getMessage());
+				}
+				file = null;
+				out = null;
+				dirty = false;
+			}
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openrtb.common.util.StringUtils;
+import org.openrtb.dsp.intf.model.WinNotice;
+import org.openrtb.dsp.intf.service.WinNoticeListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands the win notices received by the DSP over to the bidder.
+ * 
+ * The request threads only append the notice to a bounded queue and return,
+ * a single dispatcher thread drains the queue in batches of up to
+ * <tt>batchSize</tt> notices and delivers them to the
+ * {@link WinNoticeListener}. When the bidder falls behind the queue fills up
+ * and further notices are refused, rather than piling up in memory.
+ */
+public class WinNoticeProcessor {
+	private static final Logger logger = LoggerFactory
+			.getLogger(WinNoticeProcessor.class);
+
+	private final WinNoticeListener listener;
+	private final BlockingQueue<WinNotice> queue;
+	private final int batchSize;
+	private final Thread dispatcher;
+	private volatile boolean running = true;
+
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong matched = new AtomicLong();
+	private final AtomicLong unmatched = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+
+	public WinNoticeProcessor(WinNoticeListener listener, int queueSize,
+			int batchSize) {
+		if ((queueSize <= 0) || (batchSize <= 0)) {
+			throw new IllegalArgumentException(
+					"queueSize and batchSize must be positive");
+		}
+		this.listener = listener;
+		this.queue = new ArrayBlockingQueue<WinNotice>(queueSize);
+		this.batchSize = batchSize;
+		this.dispatcher = new Thread(new Dispatcher(), "dsp-win-notices");
+		this.dispatcher.setDaemon(true);
+		this.dispatcher.start();
+	}
+
+	/**
+	 * Queues the notice for delivery to the bidder.
+	 * 
+	 * @return false if the notice was dropped because the queue is full
+	 */
+	public boolean submit(WinNotice notice) {
+		if (!running || !queue.offer(notice)) {
+			dropped.incrementAndGet();
+			return false;
+		}
+		received.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Stops the dispatcher, notices still queued are not delivered.
+	 */
+	public void stop() {
+		running = false;
+		dispatcher.interrupt();
+	}
+
+	/** @return notices accepted by {@link #submit(WinNotice)} */
+	public long getReceived() {
+		return received.get();
+	}
+
+	/** @return notices refused because the queue was full */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/** @return notices that settled an open offer */
+	public long getMatched() {
+		return matched.get();
+	}
+
+	/** @return notices for offers that were unknown or already settled */
+	public long getUnmatched() {
+		return unmatched.get();
+	}
+
+	/** @return number of batches delivered to the bidder */
+	public long getBatches() {
+		return batches.get();
+	}
+
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	private final class Dispatcher implements Runnable {
+		private final List<WinNotice> batch = new ArrayList<WinNotice>(batchSize);
+
+		@Override
+		public void run() {
+			while (running) {
+				try {
+					// block for the first notice, take whatever else is
+					// already queued without waiting
+					batch.add(queue.take());
+				} catch (InterruptedException e) {
+					continue;
+				}
+				queue.drainTo(batch, batchSize - 1);
+				batches.incrementAndGet();
+				for (int i = 0; i < batch.size(); i++) {
+					deliver(batch.get(i));
+				}
+				batch.clear();
+			}
+		}
+
+		private void deliver(WinNotice notice) {
+			try {
+				if (listener.notifyWin(notice)) {
+					matched.incrementAndGet();
+				} else {
+					unmatched.incrementAndGet();
+				}
+			} catch (Exception e) {
+				unmatched.incrementAndGet();
+				logger.error("Failed to deliver " + notice + ": "
+						+ StringUtils.stackTraceToString(e));
+			}
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package org.openrtb.dsp.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * This class is used to test the functionality of the AdmissionController
+ * class
+ */
+public class AdmissionControllerTest {
+	private static final long MS = 1000000L;
+
+	/**
+	 * This method test that no more than maxInFlight requests are let in
+	 */
+	@Test
+	public void inFlightTest() {
+		AdmissionController admission = new AdmissionController(2);
+		assertTrue(admission.tryAcquire());
+		assertTrue(admission.tryAcquire());
+		assertFalse(admission.tryAcquire());
+		assertEquals(2, admission.getInFlight());
+		assertEquals(1L, admission.getShedInFlight());
+
+		admission.release();
+		assertTrue(admission.tryAcquire());
+
+		AdmissionController unlimited = new AdmissionController(0);
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(unlimited.tryAcquire());
+		}
+		assertEquals(0, unlimited.getMaxInFlight());
+	}
+
+	/**
+	 * This method test that requests are shed once they keep waiting longer
+	 * than the target for an interval, at an increasing rate, and no longer
+	 * once the waits are short again
+	 */
+	@Test
+	public void codelTest() {
+		AdmissionController admission = new AdmissionController(0, 5L, 100L);
+		long t0 = 1000 * MS;
+		assertTrue(admission.admit(1 * MS, t0));
+		// above the target, but not for an interval yet
+		assertTrue(admission.admit(10 * MS, t0));
+		assertTrue(admission.admit(10 * MS, t0 + 50 * MS));
+		assertFalse(admission.isShedding());
+
+		assertFalse(admission.admit(10 * MS, t0 + 100 * MS));
+		assertTrue(admission.isShedding());
+		// the next one is shed an interval later
+		assertTrue(admission.admit(10 * MS, t0 + 110 * MS));
+		assertFalse(admission.admit(10 * MS, t0 + 200 * MS));
+		// then after interval / sqrt(2)
+		assertTrue(admission.admit(10 * MS, t0 + 260 * MS));
+		assertFalse(admission.admit(10 * MS, t0 + 271 * MS));
+		assertEquals(3L, admission.getShedQueued());
+
+		// the queue drained
+		assertTrue(admission.admit(1 * MS, t0 + 280 * MS));
+		assertFalse(admission.isShedding());
+		assertTrue(admission.admit(10 * MS, t0 + 290 * MS));
+		assertEquals(7L, admission.getAdmitted());
+	}
+}
@@ -42,6 +42,7 @@ import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.map.annotate.JsonSerialize;
 import org.codehaus.jackson.map.annotate.JsonSerialize.Inclusion;
 import org.openrtb.dsp.intf.model.DSPException;
+import org.openrtb.dsp.intf.model.DemandSideConfig;
 import org.openrtb.dsp.intf.model.DemandSideDAO;
 import org.openrtb.dsp.intf.model.RTBAdvertiser;
 import org.openrtb.dsp.intf.model.RTBExchange;
@@ -61,10 +62,9 @@ public class DemandSideDAODummyTest implements DemandSideDAO {
 	
 	private final ObjectMapper mapper = new ObjectMapper();
 	
-	// data
-	private final ConcurrentMap<String, Integer> properties = new ConcurrentHashMap<String, Integer>();	
-	private final ConcurrentMap<String, RTBExchange> exchanges = new ConcurrentHashMap<String, RTBExchange>();
-	private final ConcurrentMap<String, RTBAdvertiser> advertisers = new ConcurrentHashMap<String, RTBAdvertiser>();
+	// data, an immutable snapshot replaced as a whole on every load, so that
+	// readers never lock
+	private volatile DemandSideConfig snapshot = DemandSideConfig.EMPTY;
 	
 	// encapsulate all the config properties in the Json file backed data store in a temporary class
 	// this is used by a Jackson object mapper to load data from a JSON file.
@@ -139,19 +139,24 @@ public class DemandSideDAODummyTest implements DemandSideDAO {
 		this.loadData(dbLocation);
 	}
 	
-	// the get method of ConcurrentMap is not blocking, hence make this synchronized
-	
-	public synchronized long getServerPort() {
-		return properties.get("server_port");
+	@Override
+	public DemandSideConfig getSnapshot() {
+		return snapshot;
+	}
+
+	public long getServerPort() {
+		return snapshot.getServerPort();
 	}
 
 	
 	public ConcurrentMap<String, RTBExchange> getExchanges() {
-		return exchanges;
+		return new ConcurrentHashMap<String, RTBExchange>(
+				snapshot.getExchanges());
 	}
 
 	public ConcurrentMap<String, RTBAdvertiser> getAdvertisers() {
-		return advertisers;
+		return new ConcurrentHashMap<String, RTBAdvertiser>(
+				snapshot.getAdvertisers());
 	}
 
 	public synchronized void loadData(String dbLocation) throws DSPException {
@@ -165,15 +170,11 @@ public class DemandSideDAODummyTest implements DemandSideDAO {
 			// read the properties as an object using ObjectMapper
 			DSPProps props = mapper.readValue(new File(this.dbLocation), DSPProps.class);
 			
-			this.properties.put("server_port", props.dspServerPort);
-			this.properties.put("request_timeout", props.defaultReqTimeout);
-			this.properties.put("offer_timeout", props.defaultOfferTimeout);			
-			for (RTBExchange ex : props.exchanges) {
-				this.exchanges.put(ex.getOrgName(), ex);
-			}
-			for (RTBAdvertiser adv : props.advertisers) {
-				this.advertisers.put(adv.getLandingPage(), adv);
-			}
+			// build the next snapshot aside and publish it in one step,
+			// loaded entries are added to the ones already configured
+			this.snapshot = snapshot.update(props.dspServerPort,
+					props.defaultReqTimeout, props.defaultOfferTimeout,
+					props.exchanges, props.advertisers);
 			
 		} catch (Exception e) {
 			throw new DSPException(e.getMessage());
@@ -181,8 +182,8 @@ public class DemandSideDAODummyTest implements DemandSideDAO {
 	}
 
 	
-	public synchronized long getDefaultTimeout(String string) {
-		return properties.get(string);
+	public long getDefaultTimeout(String string) {
+		return snapshot.getProperty(string);
 	}	
 	
 }
@@ -0,0 +1,123 @@
+package org.openrtb.dsp.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import org.openrtb.dsp.core.RequestMetrics.Outcome;
+import org.openrtb.dsp.core.RequestMetrics.Stage;
+
+/**
+ * This class is used to test the functionality of the DemandSideMetrics class
+ */
+public class DemandSideMetricsTest {
+	private static final long US = 1000L;
+
+	/**
+	 * This method test that requests are counted once per exchange and
+	 * content type
+	 */
+	@Test
+	public void registryTest() {
+		DemandSideMetrics metrics = new DemandSideMetrics();
+		RequestMetrics big = metrics.get("BigAdExchange", "application/json");
+		assertSame(big, metrics.get("BigAdExchange", "application/json"));
+		assertNotSame(big, metrics.get("BigAdExchange", "avro/binary"));
+		RequestMetrics unknown = metrics.get(null, null);
+		assertEquals(DemandSideMetrics.UNKNOWN, unknown.getExchange());
+		assertEquals(DemandSideMetrics.UNKNOWN, unknown.getContentType());
+
+		big.record(Outcome.BID, 100 * US);
+		big.record(Outcome.BID, 300 * US);
+		big.record(Outcome.NO_BID, 200 * US);
+		big.record(Outcome.SHED, 10 * US);
+		assertEquals(4L, big.getRequests());
+		assertEquals(2L, big.getCount(Outcome.BID));
+		assertEquals(0.5, big.getBidRate(), 0.0);
+		assertEquals(4L, big.getLatency(Stage.TOTAL).getCount());
+		assertEquals(300 * US, big.getLatency(Stage.TOTAL).getMax());
+
+		List<RequestMetrics> all = metrics.getAll();
+		assertEquals(3, all.size());
+		assertSame(big, all.get(0));
+		assertSame(unknown, all.get(2));
+
+		metrics.reset();
+		assertEquals(0L, big.getRequests());
+		assertEquals(0L, big.getLatency(Stage.TOTAL).getCount());
+	}
+
+	/**
+	 * This method test the text format of the metrics
+	 */
+	@Test
+	public void textTest() throws IOException {
+		DemandSideMetrics metrics = new DemandSideMetrics();
+		RequestMetrics big = metrics.get("BigAdExchange", "application/json");
+		big.record(Outcome.UNSUPPORTED_MEDIA_TYPE, 5 * US);
+		big.record(Stage.DECODE, 40 * US);
+		metrics.get("Say \"hi\"", "avro/binary");
+
+		StringWriter out = new StringWriter();
+		metrics.writeText(out);
+		String text = out.toString();
+		assertTrue(text.contains("# TYPE dsp_requests_total counter\n"));
+		assertTrue(text.contains("dsp_requests_total{exchange=\"BigAdExchange\","
+				+ "content_type=\"application/json\",outcome=\"unsupported_media_type\","
+				+ "status=\"415\"} 1\n"));
+		assertTrue(text.contains("dsp_requests_total{exchange=\"BigAdExchange\","
+				+ "content_type=\"application/json\",outcome=\"bid\",status=\"200\"} 0\n"));
+		assertTrue(text.contains("dsp_latency_microseconds{exchange=\"BigAdExchange\","
+				+ "content_type=\"application/json\",stage=\"decode\",quantile=\"1\"} 40\n"));
+		assertTrue(text.contains("dsp_latency_microseconds_count{exchange=\"BigAdExchange\","
+				+ "content_type=\"application/json\",stage=\"decode\"} 1\n"));
+		assertTrue(text.contains("exchange=\"Say \\\"hi\\\"\""));
+	}
+
+	/**
+	 * This method test that the metrics are published over JMX, including
+	 * those of exchanges seen after the registration
+	 */
+	@Test
+	public void jmxTest() throws Exception {
+		MBeanServer server = MBeanServerFactory.newMBeanServer();
+		DemandSideMetrics metrics = new DemandSideMetrics();
+		RequestMetrics big = metrics.get("BigAdExchange", "application/json");
+		metrics.registerMBeans(server, "test");
+		RequestMetrics small = metrics.get("SmallAdExchange", "avro/binary");
+
+		ObjectName bigName = DemandSideMetrics.getObjectName("test", big);
+		ObjectName smallName = DemandSideMetrics.getObjectName("test", small);
+		assertTrue(server.isRegistered(bigName));
+		assertTrue(server.isRegistered(smallName));
+
+		big.record(Outcome.BID, 2000 * US);
+		big.record(Outcome.NO_BID, 10 * US);
+		big.record(Stage.BID, 1500 * US);
+		assertEquals("BigAdExchange", server.getAttribute(bigName, "Exchange"));
+		assertEquals(2L, server.getAttribute(bigName, "Requests"));
+		assertEquals(1L, server.getAttribute(bigName, "NoBidCount"));
+		assertEquals(0.5, server.getAttribute(bigName, "BidRate"));
+		assertEquals(1500L, server.getAttribute(bigName, "BidMaxMicros"));
+		assertEquals(2000L, server.getAttribute(bigName, "TotalP99Micros"));
+		assertEquals(0L, server.getAttribute(smallName, "Requests"));
+
+		server.invoke(bigName, "reset", null, null);
+		assertEquals(0L, server.getAttribute(bigName, "Requests"));
+
+		metrics.unregisterMBeans();
+		assertFalse(server.isRegistered(bigName));
+		assertFalse(server.isRegistered(smallName));
+	}
+}
@@ -1,16 +1,22 @@
 package org.openrtb.dsp.core;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.avro.io.DatumWriter;
 import org.apache.avro.io.Encoder;
@@ -23,6 +29,7 @@ import org.junit.Test;
 import org.openrtb.common.api.App;
 import org.openrtb.common.api.Banner;
 import org.openrtb.common.api.BidRequest;
+import org.openrtb.common.api.BidResponse;
 import org.openrtb.common.api.Data;
 import org.openrtb.common.api.Device;
 import org.openrtb.common.api.Geo;
@@ -30,7 +37,12 @@ import org.openrtb.common.api.Impression;
 import org.openrtb.common.api.Site;
 import org.openrtb.common.api.User;
 import org.openrtb.common.api.Video;
+import org.openrtb.dsp.core.RequestMetrics.Stage;
 import org.openrtb.dsp.intf.model.DSPException;
+import org.openrtb.dsp.intf.model.Deadline;
+import org.openrtb.dsp.intf.model.RTBRequestWrapper;
+import org.openrtb.dsp.intf.service.DroppedResponseListener;
+import org.openrtb.dsp.intf.service.ResponseRecycler;
 
 /*
  *This class is used to Test the functionality of a DemandSideServer class .
@@ -235,6 +247,288 @@ public class DemandSideServerTest {
 		byte b[] = server.respond("BigAdExchange", in, JSON_CONTENT_TYPE);	
 		assertNotNull("Response should not be null ",b);
 	}
+	/**
+	 * This method is used to test that the tmax of a request takes precedence
+	 * over the configured request timeout
+	 */
+	@Test
+	public void requestTimeoutTest() throws DSPException {
+		OpenRTBAPIDummyTest bidder = new OpenRTBAPIDummyTest();
+		DemandSideDAODummyTest dao = new DemandSideDAODummyTest();
+		URL url = this.getClass().getResource("/properties.json");
+		dao.loadData(url.getPath());
+		DemandSideServer server = new DemandSideServer(bidder, dao);
+		assertEquals(4500L, server.getRequestTimeout());
+		request.setTmax(null);
+		assertEquals(4500L, server.getRequestTimeout(request));
+		request.setTmax(120);
+		assertEquals(120L, server.getRequestTimeout(request));
+	}
+
+	/**
+	 * This method is used to test that streaming the response into the
+	 * caller's stream and buffering it produce the same bytes
+	 */
+	@Test
+	public void jsonRespondToStreamTest() throws DSPException, IOException {
+		OpenRTBAPIDummyTest bidder = new OpenRTBAPIDummyTest();
+		DemandSideDAODummyTest dao = new DemandSideDAODummyTest();
+		URL url = this.getClass().getResource("/properties.json");
+		dao.loadData(url.getPath());
+		DemandSideServer server = new DemandSideServer(bidder, dao);
+		ResponseBuffer buffer = server.respondBuffered("BigAdExchange",
+				new ByteArrayInputStream(jsonContent.getBytes()), JSON_CONTENT_TYPE);
+		byte[] buffered = buffer.toByteArray();
+		assertTrue("Response should not be empty", buffered.length > 0);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertTrue(server.respond("BigAdExchange", new ByteArrayInputStream(
+				jsonContent.getBytes()), JSON_CONTENT_TYPE, out));
+		assertEquals(new String(buffered, "UTF-8").replaceAll("SimpleBid#\\d+", ""),
+				out.toString("UTF-8").replaceAll("SimpleBid#\\d+", ""));
+	}
+	/**
+	 * This method is used to test that bidders recycling their records get
+	 * every response back once it has been encoded
+	 */
+	@Test
+	public void recycleAfterEncodingTest() throws DSPException, IOException {
+		final List<BidResponse> recycled = new ArrayList<BidResponse>();
+		class RecyclingBidder extends OpenRTBAPIDummyTest implements
+				ResponseRecycler {
+			@Override
+			public void recycle(BidResponse response) {
+				recycled.add(response);
+			}
+		}
+		DemandSideDAODummyTest dao = new DemandSideDAODummyTest();
+		URL url = this.getClass().getResource("/properties.json");
+		dao.loadData(url.getPath());
+		DemandSideServer server = new DemandSideServer(new RecyclingBidder(),
+				dao);
+		ResponseBuffer buffer = server.respondBuffered("BigAdExchange",
+				new ByteArrayInputStream(jsonContent.getBytes()), JSON_CONTENT_TYPE);
+		assertTrue("Response should not be empty", buffer.size() > 0);
+		assertEquals(1, recycled.size());
+		assertTrue(server.respond("BigAdExchange", new ByteArrayInputStream(
+				jsonContent.getBytes()), JSON_CONTENT_TYPE,
+				new ByteArrayOutputStream()));
+		assertEquals(2, recycled.size());
+	}
+
+	/**
+	 * This method is used to test that a request past its deadline is not
+	 * handed to the bidder, and that a late response is dropped
+	 */
+	@Test
+	public void deadlineTest() throws DSPException {
+		final List<RTBRequestWrapper> processed = new ArrayList<RTBRequestWrapper>();
+		final List<BidResponse> recycled = new ArrayList<BidResponse>();
+		final List<BidResponse> dropped = new ArrayList<BidResponse>();
+		class SlowBidder extends OpenRTBAPIDummyTest implements
+				ResponseRecycler, DroppedResponseListener {
+			@Override
+			public BidResponse process(BidRequest request)
+					throws org.apache.avro.AvroRemoteException {
+				processed.add((RTBRequestWrapper) request);
+				try {
+					Thread.sleep(60);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.process(request);
+			}
+
+			@Override
+			public void recycle(BidResponse response) {
+				assertTrue("handed back before it is recycled",
+						recycled.size() < dropped.size());
+				recycled.add(response);
+			}
+
+			@Override
+			public void responseDropped(BidResponse response) {
+				dropped.add(response);
+			}
+		}
+		DemandSideDAODummyTest dao = new DemandSideDAODummyTest();
+		URL url = this.getClass().getResource("/properties.json");
+		dao.loadData(url.getPath());
+		DemandSideServer server = new DemandSideServer(new SlowBidder(), dao);
+		server.setResponseReserve(0L);
+
+		// arrived a second ago, tmax is long gone
+		request.setTmax(50);
+		Deadline deadline = new Deadline(System.nanoTime()
+				- TimeUnit.SECONDS.toNanos(1));
+		assertNull(server.process("BigAdExchange", request, deadline));
+		assertTrue("the bidder should not be called", processed.isEmpty());
+
+		// the bidder takes longer than tmax
+		deadline = server.newDeadline();
+		assertNull(server.process("BigAdExchange", request, deadline));
+		assertEquals(1, processed.size());
+		assertSame("the bidder sees the deadline", deadline, processed.get(0)
+				.getDeadline());
+		assertEquals("the late response is handed back", 1, dropped.size());
+		assertEquals("the late response is recycled", 1, recycled.size());
+		assertSame(dropped.get(0), recycled.get(0));
+
+		// in time
+		request.setTmax(5000);
+		assertNotNull(server.process("BigAdExchange", request,
+				server.newDeadline()));
+	}
+
+	/**
+	 * This method is used to test that the requests are captured with the
+	 * responses sent
+	 */
+	@Test
+	public void captureTest() throws DSPException, IOException {
+		OpenRTBAPIDummyTest bidder = new OpenRTBAPIDummyTest();
+		DemandSideDAODummyTest dao = new DemandSideDAODummyTest();
+		URL url = this.getClass().getResource("/properties.json");
+		dao.loadData(url.getPath());
+		DemandSideServer server = new DemandSideServer(bidder, dao);
+		File dir = File.createTempFile("capture", "");
+		dir.delete();
+		TrafficCapture capture = new TrafficCapture(dir, 1.0, 16, 1024 * 1024);
+		try {
+			server.setTrafficCapture(capture);
+			request.setTmax(5000);
+			assertNotNull(server.process("BigAdExchange", request));
+			capture.close();
+			assertEquals(1L, capture.getWritten());
+		} finally {
+			capture.close();
+			for (File f : dir.listFiles()) {
+				f.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	/**
+	 * This method is used to test that the stages of a request are timed
+	 * under its exchange and content type
+	 */
+	@Test
+	public void metricsTest() throws DSPException, IOException {
+		OpenRTBAPIDummyTest bidder = new OpenRTBAPIDummyTest();
+		DemandSideDAODummyTest dao = new DemandSideDAODummyTest();
+		URL url = this.getClass().getResource("/properties.json");
+		dao.loadData(url.getPath());
+		DemandSideServer server = new DemandSideServer(bidder, dao);
+		InputStream in = new ByteArrayInputStream(jsonContent.getBytes());
+		assertTrue(server.respondBuffered("BigAdExchange", in,
+				JSON_CONTENT_TYPE).size() > 0);
+
+		RequestMetrics metrics = server.getRequestMetrics("BigAdExchange");
+		assertSame(metrics, server.getMetrics().get("BigAdExchange",
+				JSON_CONTENT_TYPE));
+		assertEquals(1L, metrics.getLatency(Stage.DECODE).getCount());
+		assertEquals(1L, metrics.getLatency(Stage.BID).getCount());
+		assertEquals(1L, metrics.getLatency(Stage.ENCODE).getCount());
+		// outcomes are left to the caller sending the response
+		assertEquals(0L, metrics.getRequests());
+		assertSame(server.getMetrics().get(null, null), server
+				.getRequestMetrics("UnknownExchange"));
+	}
+
+	/**
+	 * This method is used to test that the requests slower than the
+	 * threshold are recorded with their stage timings and raw bytes
+	 */
+	@Test
+	public void slowRequestTest() throws DSPException, IOException {
+		OpenRTBAPIDummyTest bidder = new OpenRTBAPIDummyTest();
+		DemandSideDAODummyTest dao = new DemandSideDAODummyTest();
+		URL url = this.getClass().getResource("/properties.json");
+		dao.loadData(url.getPath());
+		DemandSideServer server = new DemandSideServer(bidder, dao);
+		SlowRequestRecorder recorder = new SlowRequestRecorder(0L, 4);
+		server.setSlowRequestRecorder(recorder);
+		InputStream in = new ByteArrayInputStream(jsonContent.getBytes());
+		assertTrue(server.respondBuffered("BigAdExchange", in,
+				JSON_CONTENT_TYPE).size() > 0);
+
+		assertEquals(1, recorder.getSlowRequests().size());
+		SlowRequestRecorder.SlowRequest slow = recorder.getSlowRequests()
+				.get(0);
+		assertEquals("BigAdExchange", slow.getExchange());
+		assertEquals(JSON_CONTENT_TYPE, slow.getContentType());
+		assertEquals(jsonContent, new String(slow.getRequest()));
+		assertTrue(slow.getNanos(Stage.DECODE) > 0);
+		assertTrue(slow.getNanos(Stage.CONTEXT) > 0);
+		assertTrue(slow.getNanos(Stage.BID) > 0);
+		assertTrue(slow.getNanos(Stage.ENCODE) > 0);
+		assertTrue(slow.getNanos(Stage.TOTAL) >= slow.getNanos(Stage.BID));
+
+		// requests under the threshold are not recorded
+		server.setSlowRequestRecorder(new SlowRequestRecorder(60000L, 4));
+		in = new ByteArrayInputStream(jsonContent.getBytes());
+		assertTrue(server.respondBuffered("BigAdExchange", in,
+				JSON_CONTENT_TYPE).size() > 0);
+		assertEquals(0, server.getSlowRequestRecorder().getSlowRequests()
+				.size());
+	}
+
+	/**
+	 * This method is used to test that the requests answered from a body read
+	 * by another thread are timed, that a failed request is recorded too, and
+	 * that the response is dropped unless the gate is claimed
+	 */
+	@Test
+	public void gatedRespondTest() throws DSPException {
+		OpenRTBAPIDummyTest bidder = new OpenRTBAPIDummyTest();
+		DemandSideDAODummyTest dao = new DemandSideDAODummyTest();
+		URL url = this.getClass().getResource("/properties.json");
+		dao.loadData(url.getPath());
+		DemandSideServer server = new DemandSideServer(bidder, dao);
+		SlowRequestRecorder recorder = new SlowRequestRecorder(0L, 4);
+		server.setSlowRequestRecorder(recorder);
+		final List<BidRequest> decoded = new ArrayList<BidRequest>();
+		final boolean[] open = { true };
+		ResponseGate gate = new ResponseGate() {
+			public void decoded(BidRequest bidRequest, Deadline deadline) {
+				decoded.add(bidRequest);
+			}
+
+			public boolean claim() {
+				return open[0];
+			}
+		};
+
+		ResponseBuffer buffer = server.respondBuffered("BigAdExchange",
+				jsonContent.getBytes(), JSON_CONTENT_TYPE,
+				server.newDeadline(), gate);
+		assertTrue(buffer.size() > 0);
+		assertEquals(1, decoded.size());
+		assertEquals(1, recorder.getRecorded());
+		SlowRequestRecorder.SlowRequest slow = recorder.getSlowRequests()
+				.get(0);
+		assertEquals("BigAdExchange", slow.getExchange());
+		assertEquals(jsonContent, new String(slow.getRequest()));
+		assertTrue(slow.getNanos(Stage.DECODE) > 0);
+		assertTrue(slow.getNanos(Stage.ENCODE) > 0);
+
+		// answered meanwhile
+		open[0] = false;
+		assertNull(server.respondBuffered("BigAdExchange",
+				jsonContent.getBytes(), JSON_CONTENT_TYPE,
+				server.newDeadline(), gate));
+		assertEquals(2, recorder.getRecorded());
+
+		// failed requests are recorded as well
+		try {
+			server.respondBuffered("BigAdExchange", "{ not json".getBytes(),
+					JSON_CONTENT_TYPE, server.newDeadline(), gate);
+			fail("the request cannot be decoded");
+		} catch (DSPException e) {
+			assertEquals(3, recorder.getRecorded());
+		}
+	}
+
 	/**
 	 * This method is used to test the respond method with avro content type 
 	 */
@@ -250,6 +544,27 @@ public class DemandSideServerTest {
 		server.respond("BigAdExchange", in, AVRO_CONTENT_TYPE);
 	}
 	
+	/**
+	 * This method is used to test that the avro codec re-populates the record
+	 * decoded previously on the same thread instead of allocating a new one
+	 */
+	@Test
+	public void avroReadRequestReusesRecordTest() throws DSPException {
+		OpenRTBAPIDummyTest bidder = new OpenRTBAPIDummyTest();
+		DemandSideDAODummyTest dao = new DemandSideDAODummyTest();
+		URL url = this.getClass().getResource("/properties.json");
+		dao.loadData(url.getPath());
+		DemandSideServer server = new DemandSideServer(bidder, dao);
+		BidRequest first = server.readRequest(new ByteArrayInputStream(
+				writeBidRequest(request, AVRO_CONTENT_TYPE)), AVRO_CONTENT_TYPE);
+		assertEquals("sdafsd252222", first.getId().toString());
+		BidRequest second = server.readRequest(new ByteArrayInputStream(
+				writeBidRequest(bidRequest, AVRO_CONTENT_TYPE)), AVRO_CONTENT_TYPE);
+		assertSame("Decoded record should be recycled", first, second);
+		assertEquals("102335assd55d", second.getId().toString());
+		assertNull("Stale fields should be overwritten", second.getBadv());
+	}
+
 	/**
 	 * This method is used to test the required parameters in  json BidRequest 
 	 */
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.avro.util.Utf8;
+import org.junit.Test;
+import org.openrtb.common.api.Bid;
+import org.openrtb.common.api.BidRequest;
+import org.openrtb.common.api.BidResponse;
+import org.openrtb.common.api.SeatBid;
+
+/**
+ * This class tests the json encoding of the avro generated api classes.
+ */
+public class JsonBidCodecTest {
+	private final JsonBidCodec codec = new JsonBidCodec();
+
+	/**
+	 * This method tests that requests are read directly from the stream and
+	 * unknown OpenRTB fields are ignored
+	 */
+	@Test
+	public void decodeIgnoresUnknownFieldsTest() throws IOException {
+		String json = "{\"id\":\"req-1\",\"tmax\":120,\"regs\":{\"coppa\":0},"
+				+ "\"imp\":[{\"id\":\"1\",\"bidfloor\":1.5,\"banner\":{\"w\":300,\"h\":250}}]}";
+		BidRequest request = codec.decode(new ByteArrayInputStream(json
+				.getBytes("UTF-8")));
+		assertEquals("req-1", request.getId().toString());
+		assertEquals(Integer.valueOf(120), request.getTmax());
+		assertEquals(1, request.getImp().size());
+		assertEquals(Integer.valueOf(300), request.getImp().get(0)
+				.getBanner().getW());
+	}
+
+	/**
+	 * This method tests that responses are written as UTF-8 json, with avro
+	 * strings as json strings, without the avro schema and without null fields
+	 */
+	@Test
+	public void encodeWritesPlainJsonTest() throws IOException {
+		Bid bid = new Bid();
+		bid.id = new Utf8("bid-1");
+		bid.impid = "1";
+		bid.price = 1.25f;
+		// written from its bytes, still escaped
+		bid.adid = new Utf8("ad \"1\" é");
+		List<Bid> bids = new ArrayList<Bid>();
+		bids.add(bid);
+		SeatBid seatBid = new SeatBid();
+		seatBid.seat = "seat-é";
+		seatBid.bid = bids;
+		List<SeatBid> seatBids = new ArrayList<SeatBid>();
+		seatBids.add(seatBid);
+		BidResponse response = new BidResponse();
+		response.id = new Utf8("req-1");
+		response.seatbid = seatBids;
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		codec.encode(response, out);
+		String json = out.toString("UTF-8");
+		assertTrue(json, json.contains("\"id\":\"req-1\""));
+		assertTrue(json, json.contains("\"id\":\"bid-1\""));
+		assertTrue(json, json.contains("\"seat\":\"seat-é\""));
+		assertTrue(json, json.contains("\"adid\":\"ad \\\"1\\\" é\""));
+		assertFalse(json, json.contains("schema"));
+		assertFalse(json, json.contains("null"));
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/*
+ * This class is used to test the recycling and size prediction of a
+ * ResponseBuffer.
+ */
+public class ResponseBufferTest {
+
+	@Test
+	public void writeToTest() throws IOException {
+		ResponseBuffer buffer = new ResponseBuffer(4);
+		byte[] payload = "a response larger than the buffer".getBytes("UTF-8");
+		buffer.write(payload, 0, payload.length);
+		assertEquals(payload.length, buffer.size());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		buffer.writeTo(out);
+		assertArrayEquals(payload, out.toByteArray());
+		assertArrayEquals(payload, buffer.toByteArray());
+	}
+
+	@Test
+	public void recycleTest() {
+		ResponseBuffer buffer = new ResponseBuffer(64);
+		for (int i = 0; i < 50; i++) {
+			buffer.write(new byte[4096], 0, 4096);
+			buffer.recycle();
+			assertEquals(0, buffer.size());
+		}
+		assertTrue("Prediction should follow the response sizes",
+				buffer.getPredictedSize() > 3500);
+		assertTrue(buffer.getPredictedSize() <= 4096);
+	}
+
+	@Test
+	public void oversizedBufferIsDroppedTest() {
+		ResponseBuffer buffer = new ResponseBuffer(64);
+		byte[] big = new byte[ResponseBuffer.MAX_RETAINED_SIZE * 2];
+		buffer.write(big, 0, big.length);
+		buffer.recycle();
+		assertTrue(buffer.getPredictedSize() <= ResponseBuffer.MAX_RETAINED_SIZE);
+		assertEquals(0, buffer.size());
+	}
+
+	@Test
+	public void boundedReadTest() throws IOException {
+		byte[] payload = new byte[1000];
+		ResponseBuffer buffer = new ResponseBuffer(16);
+		assertTrue(buffer.readFrom(new ByteArrayInputStream(payload), 1000));
+		assertEquals(1000, buffer.size());
+		buffer.recycle();
+		assertFalse(buffer.readFrom(new ByteArrayInputStream(payload), 999));
+		assertTrue("Should stop right past the limit", buffer.size() <= 1000);
+	}
+}
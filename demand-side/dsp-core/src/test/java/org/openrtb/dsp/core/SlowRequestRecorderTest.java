@@ -0,0 +1,86 @@
+package org.openrtb.dsp.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import org.junit.Test;
+import org.openrtb.dsp.core.RequestMetrics.Stage;
+import org.openrtb.dsp.core.SlowRequestRecorder.SlowRequest;
+
+public class SlowRequestRecorderTest {
+	private static final long MS = 1000000L;
+
+	private static RequestTimings timings(String exchange, long totalMs) {
+		RequestTimings timings = new RequestTimings();
+		timings.reset(exchange, "application/json");
+		timings.record(Stage.BID, totalMs * MS / 2);
+		timings.record(Stage.TOTAL, totalMs * MS);
+		return timings;
+	}
+
+	@Test
+	public void thresholdTest() {
+		SlowRequestRecorder recorder = new SlowRequestRecorder(100L, 4);
+		assertFalse(recorder.record(timings("fast", 99L)));
+		assertTrue(recorder.record(timings("slow", 100L)));
+		assertEquals(1L, recorder.getRecorded());
+		List<SlowRequest> slow = recorder.getSlowRequests();
+		assertEquals(1, slow.size());
+		assertEquals("slow", slow.get(0).getExchange());
+		assertEquals(50L * MS, slow.get(0).getNanos(Stage.BID));
+		// the request is only there if it was kept
+		assertNull(slow.get(0).getRequest());
+	}
+
+	@Test
+	public void ringTest() {
+		SlowRequestRecorder recorder = new SlowRequestRecorder(0L, 3);
+		for (int i = 0; i < 5; i++) {
+			recorder.record(timings("exchange" + i, i));
+		}
+		assertEquals(5L, recorder.getRecorded());
+		List<SlowRequest> slow = recorder.getSlowRequests();
+		// the oldest are overwritten, the latest come first
+		assertEquals(3, slow.size());
+		assertEquals("exchange4", slow.get(0).getExchange());
+		assertEquals("exchange3", slow.get(1).getExchange());
+		assertEquals("exchange2", slow.get(2).getExchange());
+
+		recorder.clear();
+		assertEquals(0, recorder.getSlowRequests().size());
+	}
+
+	@Test
+	public void textTest() throws IOException {
+		SlowRequestRecorder recorder = new SlowRequestRecorder(10L, 4);
+		RequestTimings timings = new RequestTimings();
+		timings.reset("BigAdExchange", "application/json");
+		timings.keepRequest(new ByteArrayInputStream("{\"id\":\"1\"}"
+				.getBytes()));
+		timings.record(Stage.TOTAL, 25 * MS);
+		recorder.record(timings);
+		timings.reset("SmallAdExchange", "avro/binary");
+		timings.keepRequest(new ByteArrayInputStream(new byte[] { 0, 1, 2 }));
+		timings.record(Stage.TOTAL, 12 * MS);
+		recorder.record(timings);
+
+		StringWriter out = new StringWriter();
+		recorder.writeText(out);
+		String text = out.toString();
+		assertTrue(text, text.startsWith("# 2 of 2 requests answered in 10ms"));
+		assertTrue(text, text.contains(" BigAdExchange application/json "
+				+ "decode=0us context=0us bid=0us encode=0us total=25000us\n"
+				+ "{\"id\":\"1\"}\n"));
+		assertTrue(text, text.contains(" SmallAdExchange avro/binary "));
+		assertTrue(text, text.contains("\nAAEC\n"));
+		assertTrue(text.indexOf("SmallAdExchange") < text
+				.indexOf("BigAdExchange"));
+	}
+}
@@ -0,0 +1,153 @@
+package org.openrtb.dsp.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.util.Utf8;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openrtb.common.api.Bid;
+import org.openrtb.common.api.BidCapture;
+import org.openrtb.common.api.BidRequest;
+import org.openrtb.common.api.BidResponse;
+import org.openrtb.common.api.Impression;
+import org.openrtb.common.api.SeatBid;
+
+/**
+ * This class is used to test the functionality of the TrafficCapture class
+ */
+public class TrafficCaptureTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * This method test that the captured requests and responses are read back
+	 * from the capture file, as they were when captured
+	 */
+	@Test
+	public void captureTest() throws IOException {
+		TrafficCapture capture = new TrafficCapture(folder.getRoot(), 1.0, 16,
+				1024 * 1024);
+		BidRequest request = request("req-1");
+		BidResponse response = response("req-1");
+		assertTrue(capture.isSampled());
+		assertTrue(capture.capture("BigAdExchange", 1234L, request, response));
+		// the records are recycled once answered
+		request.setId(new Utf8("recycled"));
+		response.getSeatbid().clear();
+		assertTrue(capture.capture("BigAdExchange", 1235L, request("req-2"),
+				null));
+		capture.close();
+		assertEquals(2L, capture.getWritten());
+
+		List<BidCapture> records = read(files());
+		assertEquals(2, records.size());
+		BidCapture first = records.get(0);
+		assertEquals("BigAdExchange", first.getExchange().toString());
+		assertEquals(1234L, first.getTimestamp().longValue());
+		assertEquals("req-1", first.getRequest().getId().toString());
+		assertEquals(1, first.getResponse().getSeatbid().size());
+		assertNull(records.get(1).getResponse());
+	}
+
+	/**
+	 * This method test that a new file is started once the current one is
+	 * full
+	 */
+	@Test
+	public void rollTest() throws IOException {
+		TrafficCapture capture = new TrafficCapture(folder.getRoot(), 1.0, 16, 1);
+		for (int i = 0; i < 3; i++) {
+			assertTrue(capture.capture("BigAdExchange", i, request("req-" + i),
+					null));
+		}
+		capture.close();
+		File[] files = files();
+		assertEquals(3, files.length);
+		assertEquals(3L, capture.getFiles());
+		assertEquals(3, read(files).size());
+	}
+
+	/**
+	 * This method test the sample rate, and that captures are refused once
+	 * the capture is closed
+	 */
+	@Test
+	public void sampleTest() throws IOException {
+		TrafficCapture capture = new TrafficCapture(folder.getRoot(), 0.0, 16,
+				1024);
+		for (int i = 0; i < 100; i++) {
+			assertFalse(capture.isSampled());
+		}
+		capture.close();
+		assertFalse(capture.capture("BigAdExchange", 0L, request("req"), null));
+		assertEquals(1L, capture.getDropped());
+		assertEquals(0, files().length);
+	}
+
+	private BidRequest request(String id) {
+		BidRequest request = new BidRequest();
+		request.setId(id);
+		Impression imp = new Impression();
+		imp.setId("1");
+		imp.setBidfloor(1.5f);
+		request.setImp(Collections.singletonList(imp));
+		return request;
+	}
+
+	private BidResponse response(String id) {
+		Bid bid = new Bid();
+		bid.setId("bid-1");
+		bid.setImpid("1");
+		bid.setPrice(1.6f);
+		SeatBid seatBid = new SeatBid();
+		seatBid.setSeat("1001");
+		seatBid.setBid(new ArrayList<Bid>(Collections.singletonList(bid)));
+		BidResponse response = new BidResponse();
+		response.setId(id);
+		response.setSeatbid(new ArrayList<SeatBid>(Collections
+				.singletonList(seatBid)));
+		return response;
+	}
+
+	private File[] files() {
+		File[] files = folder.getRoot().listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(TrafficCapture.FILE_PREFIX)
+						&& name.endsWith(TrafficCapture.FILE_SUFFIX);
+			}
+		});
+		Arrays.sort(files);
+		return files;
+	}
+
+	private List<BidCapture> read(File[] files) throws IOException {
+		List<BidCapture> records = new ArrayList<BidCapture>();
+		for (File f : files) {
+			DataFileReader<BidCapture> reader = new DataFileReader<BidCapture>(
+					f, new SpecificDatumReader<BidCapture>(BidCapture.class));
+			try {
+				while (reader.hasNext()) {
+					records.add(reader.next());
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		return records;
+	}
+}
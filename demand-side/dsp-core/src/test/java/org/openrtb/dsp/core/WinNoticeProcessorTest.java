@@ -0,0 +1,93 @@
+package org.openrtb.dsp.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.openrtb.dsp.intf.model.WinNotice;
+import org.openrtb.dsp.intf.service.WinNoticeListener;
+
+public class WinNoticeProcessorTest {
+
+	@Test
+	public void deliversInBatchesTest() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch delivered = new CountDownLatch(10);
+		WinNoticeProcessor processor = new WinNoticeProcessor(
+				new WinNoticeListener() {
+					public boolean notifyWin(WinNotice notice) {
+						try {
+							// hold the dispatcher on the first notice, so
+							// that the others queue up behind it
+							release.await();
+						} catch (InterruptedException e) {
+							return false;
+						}
+						delivered.countDown();
+						// odd request ids have no open offer
+						return Integer.parseInt(notice.getRequestId()) % 2 == 0;
+					}
+				}, 64, 16);
+		try {
+			for (int i = 0; i < 10; i++) {
+				assertTrue(processor.submit(new WinNotice("BigAdExchange",
+						String.valueOf(i), "1", "bid-" + i, 1.25f)));
+			}
+			release.countDown();
+			assertTrue(delivered.await(2, TimeUnit.SECONDS));
+			waitForBatches(processor);
+			assertEquals(10, processor.getReceived());
+			assertEquals(5, processor.getMatched());
+			assertEquals(5, processor.getUnmatched());
+			assertTrue("Queued notices are delivered together",
+					processor.getBatches() <= 2);
+		} finally {
+			processor.stop();
+		}
+	}
+
+	@Test
+	public void fullQueueDropsTest() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		WinNoticeProcessor processor = new WinNoticeProcessor(
+				new WinNoticeListener() {
+					public boolean notifyWin(WinNotice notice) {
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							return false;
+						}
+						return true;
+					}
+				}, 2, 1);
+		try {
+			int accepted = 0;
+			for (int i = 0; i < 5; i++) {
+				if (processor.submit(new WinNotice("BigAdExchange", String
+						.valueOf(i), null, null, null))) {
+					accepted++;
+				}
+			}
+			// the dispatcher holds at most one notice, the queue two more
+			assertTrue(accepted <= 3);
+			assertEquals(5 - accepted, processor.getDropped());
+			assertTrue(processor.getDropped() >= 2);
+		} finally {
+			release.countDown();
+			processor.stop();
+		}
+	}
+
+	// the counters are updated once the listener returns
+	private static void waitForBatches(WinNoticeProcessor processor)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 2000;
+		while (processor.getMatched() + processor.getUnmatched() < processor
+				.getReceived() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.intf.model;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time by which the response to a bid request must be sent,
+ * anchored to the arrival of the request so that the time spent in queues and
+ * decoding counts against it.
+ *
+ * The deadline is unbounded until the timeout of the request is known, i.e.
+ * until its <tt>tmax</tt> has been decoded (see
+ * {@link RTBRequestWrapper#setContext(RTBExchange, java.util.Map, long, long)}).
+ * A reserve can be kept for encoding and sending the response: the deadline
+ * expires that much before the exchange gives up, so that every stage of the
+ * bid pipeline can tell from {@link #isExpired()} whether going on can still
+ * produce a timely response, and answer with no bid otherwise.
+ */
+public final class Deadline {
+	private final long arrivalNanos;
+	// arrival + timeout - reserve, Long.MAX_VALUE while unbounded
+	private volatile long expiryNanos = Long.MAX_VALUE;
+	private volatile long reserveNanos;
+
+	/**
+	 * A deadline anchored to the current time.
+	 */
+	public Deadline() {
+		this(System.nanoTime());
+	}
+
+	/**
+	 * @param arrivalNanos
+	 *            {@link System#nanoTime()} at the arrival of the request
+	 */
+	public Deadline(long arrivalNanos) {
+		this.arrivalNanos = arrivalNanos;
+	}
+
+	/**
+	 * Bounds the deadline to the timeout of the request, counted from its
+	 * arrival.
+	 */
+	public void setTimeout(long timeoutMs) {
+		this.expiryNanos = arrivalNanos
+				+ TimeUnit.MILLISECONDS.toNanos(timeoutMs) - reserveNanos;
+	}
+
+	/**
+	 * Keeps the time needed to encode and send the response out of the
+	 * deadline. Must be set before {@link #setTimeout(long)}.
+	 */
+	public void setReserve(long reserveMs) {
+		this.reserveNanos = TimeUnit.MILLISECONDS.toNanos(reserveMs);
+	}
+
+	public long getArrivalNanos() {
+		return arrivalNanos;
+	}
+
+	public boolean isBounded() {
+		return expiryNanos != Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return the time in nanoseconds since the arrival of the request.
+	 */
+	public long elapsedNanos() {
+		return System.nanoTime() - arrivalNanos;
+	}
+
+	/**
+	 * @return the time in milliseconds since the arrival of the request.
+	 */
+	public long elapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(elapsedNanos());
+	}
+
+	/**
+	 * @return the time left in milliseconds, 0 or less once expired and
+	 *         Long.MAX_VALUE while unbounded.
+	 */
+	public long remainingMillis() {
+		long expiry = expiryNanos;
+		if (expiry == Long.MAX_VALUE) {
+			return Long.MAX_VALUE;
+		}
+		return TimeUnit.NANOSECONDS.toMillis(expiry - System.nanoTime());
+	}
+
+	public boolean isExpired() {
+		long expiry = expiryNanos;
+		// nano times are compared by difference, they may overflow
+		return (expiry != Long.MAX_VALUE) && (System.nanoTime() - expiry >= 0);
+	}
+
+	@Override
+	public String toString() {
+		return "Deadline [elapsed=" + elapsedMillis() + "ms, remaining="
+				+ (isBounded() ? remainingMillis() + "ms" : "unbounded") + "]";
+	}
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.intf.model;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, versioned snapshot of the DSP configuration: server properties,
+ * exchanges, advertisers and the lookup structures derived from them.
+ *
+ * A {@link DemandSideDAO} publishes a new snapshot on every (re)load and never
+ * modifies a published one, so request threads can read a snapshot without
+ * locking, and see a consistent view of the configuration for the whole
+ * request by reading the DAO's snapshot reference once.
+ */
+public final class DemandSideConfig {
+	public static final String SERVER_PORT = "server_port";
+	public static final String REQUEST_TIMEOUT = "request_timeout";
+	public static final String OFFER_TIMEOUT = "offer_timeout";
+
+	/** The configuration seen before anything has been loaded. */
+	public static final DemandSideConfig EMPTY = new DemandSideConfig(0L, 0L,
+			0L, 0L, Collections.<RTBExchange> emptyList(),
+			Collections.<RTBAdvertiser> emptyList());
+
+	private final long version;
+	private final Map<String, Long> properties;
+	private final long requestTimeoutMs;
+	private final long offerTimeoutMs;
+	// url of the DSP's win notice endpoint, null to leave the advertisers'
+	// nurl in the bids
+	private final String winNoticeUrl;
+
+	// read only views, the lookup structures below are derived from them
+	private final Map<String, RTBExchange> exchanges;
+	private final Map<String, RTBAdvertiser> advertisers;
+
+	// advertisers in load order, the index of an advertiser is its ordinal
+	private final RTBAdvertiser[] advertiserTable;
+	private final Map<String, Integer> advertiserOrdinals;
+	private final Map<String, ExchangeConfig> exchangeConfigs;
+	// targeting does not depend on the exchange, one index serves them all
+	private final TargetingIndex targetingIndex;
+
+	/**
+	 * Per exchange lookup structures, precomputed when the snapshot is built.
+	 */
+	public static final class ExchangeConfig {
+		private final RTBExchange exchange;
+		private final Map<String, RTBAdvertiser> advertisersBySeat;
+		private final EligibilityIndex eligibilityIndex;
+		// nurl of the bids on this exchange up to the bid id, null if none
+		private final String winNoticePrefix;
+
+		ExchangeConfig(RTBExchange exchange, RTBAdvertiser[] advertiserTable,
+				String winNoticeUrl) {
+			this.exchange = exchange;
+			this.winNoticePrefix = (winNoticeUrl == null) ? null
+					: winNoticeUrl + (winNoticeUrl.indexOf('?') < 0 ? "?" : "&")
+							+ "ssp_name=" + encode(exchange.getOrgName())
+							+ "&id=${AUCTION_ID}&impid=${AUCTION_IMP_ID}&bidid=";
+			this.eligibilityIndex = new EligibilityIndex(exchange.getOrgName(),
+					advertiserTable);
+			Map<String, RTBAdvertiser> bySeat = new HashMap<String, RTBAdvertiser>();
+			for (RTBAdvertiser a : advertiserTable) {
+				String seat = a.getSeat(exchange.getOrgName());
+				if (seat != null) {
+					bySeat.put(seat, a);
+				}
+			}
+			this.advertisersBySeat = Collections.unmodifiableMap(bySeat);
+		}
+
+		public RTBExchange getExchange() {
+			return exchange;
+		}
+
+		public boolean acceptsContentType(String contentType) {
+			String rtbContentType = exchange.getRtbContentType();
+			return (rtbContentType != null) && rtbContentType.equals(contentType);
+		}
+
+		/**
+		 * @return the advertisers holding a seat on this exchange, keyed by
+		 *         seat ID.
+		 */
+		public Map<String, RTBAdvertiser> getAdvertisersBySeat() {
+			return advertisersBySeat;
+		}
+
+		/**
+		 * @return the index of the advertisers eligible to bid on this
+		 *         exchange, by advertiser ordinal.
+		 */
+		public EligibilityIndex getEligibilityIndex() {
+			return eligibilityIndex;
+		}
+
+		/**
+		 * @return the nurl of a bid on this exchange, pointing to the win
+		 *         notice endpoint of the DSP, or null if none is configured.
+		 *         The exchange fills in the request, impression and price
+		 *         macros. The bid id is written as is, as
+		 *         <tt>${AUCTION_BID_ID}</tt> stands for the id of the response
+		 *         and does not tell its bids apart.
+		 */
+		public String getWinNoticeUrl(CharSequence bidId) {
+			if (winNoticePrefix == null) {
+				return null;
+			}
+			return winNoticePrefix + encode(bidId.toString())
+					+ "&price=${AUCTION_PRICE}";
+		}
+	}
+
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public DemandSideConfig(long version, long serverPort,
+			long requestTimeoutMs, long offerTimeoutMs,
+			Collection<RTBExchange> exchanges,
+			Collection<RTBAdvertiser> advertisers) {
+		this(version, serverPort, requestTimeoutMs, offerTimeoutMs, null,
+				exchanges, advertisers);
+	}
+
+	/**
+	 * @param winNoticeUrl
+	 *            url of the DSP's win notice endpoint, i.e.
+	 *            <tt>http://dsp.example.com/dsp/win</tt>, that the nurl of
+	 *            the bids point to; null to keep the nurl of the advertisers.
+	 */
+	public DemandSideConfig(long version, long serverPort,
+			long requestTimeoutMs, long offerTimeoutMs, String winNoticeUrl,
+			Collection<RTBExchange> exchanges,
+			Collection<RTBAdvertiser> advertisers) {
+		this.version = version;
+		this.requestTimeoutMs = requestTimeoutMs;
+		this.offerTimeoutMs = offerTimeoutMs;
+		this.winNoticeUrl = ((winNoticeUrl == null) || (winNoticeUrl.trim()
+				.length() == 0)) ? null : winNoticeUrl.trim();
+		Map<String, Long> props = new HashMap<String, Long>();
+		props.put(SERVER_PORT, serverPort);
+		props.put(REQUEST_TIMEOUT, requestTimeoutMs);
+		props.put(OFFER_TIMEOUT, offerTimeoutMs);
+		this.properties = Collections.unmodifiableMap(props);
+
+		Map<String, RTBExchange> byOrgName = new HashMap<String, RTBExchange>();
+		for (RTBExchange ex : exchanges) {
+			byOrgName.put(ex.getOrgName(), ex);
+		}
+		this.exchanges = Collections.unmodifiableMap(byOrgName);
+		// later entries replace earlier ones with the same landing page
+		Map<String, RTBAdvertiser> ordered = new LinkedHashMap<String, RTBAdvertiser>();
+		for (RTBAdvertiser adv : advertisers) {
+			ordered.put(adv.getLandingPage(), adv);
+		}
+		this.advertisers = Collections.unmodifiableMap(
+				new HashMap<String, RTBAdvertiser>(ordered));
+		this.advertiserTable = ordered.values().toArray(
+				new RTBAdvertiser[ordered.size()]);
+		Map<String, Integer> ordinals = new HashMap<String, Integer>();
+		for (int i = 0; i < advertiserTable.length; i++) {
+			ordinals.put(advertiserTable[i].getLandingPage(), i);
+		}
+		this.advertiserOrdinals = Collections.unmodifiableMap(ordinals);
+
+		Map<String, ExchangeConfig> configs = new HashMap<String, ExchangeConfig>();
+		for (RTBExchange ex : this.exchanges.values()) {
+			configs.put(ex.getOrgName(), new ExchangeConfig(ex, advertiserTable,
+					this.winNoticeUrl));
+		}
+		this.exchangeConfigs = Collections.unmodifiableMap(configs);
+		this.targetingIndex = new TargetingIndex(advertiserTable);
+	}
+
+	/**
+	 * Builds the next version of this snapshot, where the supplied exchanges
+	 * and advertisers are added to, or replace, the ones already configured.
+	 */
+	public DemandSideConfig update(long serverPort, long requestTimeoutMs,
+			long offerTimeoutMs, Collection<RTBExchange> exchanges,
+			Collection<RTBAdvertiser> advertisers) {
+		return update(serverPort, requestTimeoutMs, offerTimeoutMs,
+				winNoticeUrl, exchanges, advertisers);
+	}
+
+	/**
+	 * As {@link #update(long, long, long, Collection, Collection)}, with the
+	 * url of the DSP's win notice endpoint.
+	 */
+	public DemandSideConfig update(long serverPort, long requestTimeoutMs,
+			long offerTimeoutMs, String winNoticeUrl,
+			Collection<RTBExchange> exchanges,
+			Collection<RTBAdvertiser> advertisers) {
+		List<RTBExchange> allExchanges = new ArrayList<RTBExchange>(
+				this.exchanges.values());
+		if (exchanges != null) {
+			allExchanges.addAll(exchanges);
+		}
+		List<RTBAdvertiser> allAdvertisers = new ArrayList<RTBAdvertiser>();
+		Collections.addAll(allAdvertisers, advertiserTable);
+		if (advertisers != null) {
+			allAdvertisers.addAll(advertisers);
+		}
+		return new DemandSideConfig(version + 1, serverPort, requestTimeoutMs,
+				offerTimeoutMs, winNoticeUrl, allExchanges, allAdvertisers);
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public long getServerPort() {
+		return properties.get(SERVER_PORT);
+	}
+
+	public long getRequestTimeout() {
+		return requestTimeoutMs;
+	}
+
+	public long getOfferTimeout() {
+		return offerTimeoutMs;
+	}
+
+	/**
+	 * @return the url of the DSP's win notice endpoint, null if the bids
+	 *         keep the nurl of their advertiser.
+	 */
+	public String getWinNoticeUrl() {
+		return winNoticeUrl;
+	}
+
+	/**
+	 * @param name
+	 *            one of {@link #SERVER_PORT}, {@link #REQUEST_TIMEOUT} or
+	 *            {@link #OFFER_TIMEOUT}
+	 */
+	public long getProperty(String name) {
+		Long value = properties.get(name);
+		if (value == null) {
+			throw new IllegalArgumentException("Unknown property: " + name);
+		}
+		return value;
+	}
+
+	/**
+	 * @return the exchanges keyed by organization name, read only.
+	 */
+	public Map<String, RTBExchange> getExchanges() {
+		return exchanges;
+	}
+
+	/**
+	 * @return the advertisers keyed by landing page, read only.
+	 */
+	public Map<String, RTBAdvertiser> getAdvertisers() {
+		return advertisers;
+	}
+
+	public RTBExchange getExchange(String orgName) {
+		return (orgName == null) ? null : exchanges.get(orgName);
+	}
+
+	public ExchangeConfig getExchangeConfig(String orgName) {
+		return (orgName == null) ? null : exchangeConfigs.get(orgName);
+	}
+
+	/**
+	 * @return the index of the advertisers' targeting rules, by advertiser
+	 *         ordinal.
+	 */
+	public TargetingIndex getTargetingIndex() {
+		return targetingIndex;
+	}
+
+	public int getAdvertiserCount() {
+		return advertiserTable.length;
+	}
+
+	/**
+	 * @return the advertiser with the given ordinal, ordinals are stable for
+	 *         the lifetime of this snapshot only.
+	 */
+	public RTBAdvertiser getAdvertiser(int ordinal) {
+		return advertiserTable[ordinal];
+	}
+
+	/**
+	 * @return the ordinal of the advertiser with the given landing page, or -1
+	 */
+	public int getAdvertiserOrdinal(String landingPage) {
+		Integer ordinal = advertiserOrdinals.get(landingPage);
+		return (ordinal == null) ? -1 : ordinal.intValue();
+	}
+}
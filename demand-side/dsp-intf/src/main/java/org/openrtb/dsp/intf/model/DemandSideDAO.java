@@ -35,9 +35,16 @@ import java.util.concurrent.ConcurrentMap;
 
 
 /**
- *
+ * Access to the DSP configuration. Implementations publish the configuration
+ * as an immutable {@link DemandSideConfig} snapshot, which request threads
+ * read without locking; the remaining getters are shortcuts to the current
+ * snapshot.
  */
 public interface DemandSideDAO {
+	/**
+	 * @return the current configuration snapshot, never null.
+	 */
+	public DemandSideConfig getSnapshot();
 	public long getServerPort();
 	public long getDefaultTimeout(String string);
 	public ConcurrentMap<String, RTBExchange> getExchanges();
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.intf.model;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Inverted index deciding which advertisers may bid on a request from a given
+ * exchange.
+ *
+ * Advertisers are numbered by their position in the table the index is built
+ * from. For every blockable key (category, parent category, advertiser domain
+ * and seat) the index keeps the set of advertisers it applies to, so that the
+ * eligible advertisers of a request are obtained with one bit set operation
+ * per <tt>wseat</tt>, <tt>bcat</tt> and <tt>badv</tt> entry, instead of
+ * walking every advertiser.
+ *
+ * Category blocking follows the IAB taxonomy: blocking a tier-1 category such
+ * as <tt>IAB1</tt> also blocks its sub-categories (<tt>IAB1-2</tt>), while
+ * blocking a sub-category leaves its parent and siblings eligible.
+ *
+ * An index is immutable once built and safe to share between request threads.
+ */
+public final class EligibilityIndex {
+	private final RTBAdvertiser[] advertisers;
+	// seat ID of each advertiser on this exchange, null if it has none
+	private final String[] seats;
+	// advertisers holding a seat on this exchange
+	private final BitSet seated;
+	private final Map<String, BitSet> byCategory = new HashMap<String, BitSet>();
+	private final Map<String, BitSet> byDomain = new HashMap<String, BitSet>();
+	private final Map<String, BitSet> bySeat = new HashMap<String, BitSet>();
+
+	public EligibilityIndex(String exchangeName, RTBAdvertiser[] advertisers) {
+		this.advertisers = advertisers;
+		this.seats = new String[advertisers.length];
+		this.seated = new BitSet(advertisers.length);
+		for (int i = 0; i < advertisers.length; i++) {
+			RTBAdvertiser a = advertisers[i];
+			String seat = (exchangeName == null) ? null : a.getSeat(exchangeName);
+			if (seat == null) {
+				continue;
+			}
+			seats[i] = seat;
+			seated.set(i);
+			index(bySeat, seat, i);
+			if (a.getCategories() != null) {
+				for (String category : a.getCategories()) {
+					String key = normalizeCategory(category);
+					if (key != null) {
+						index(byCategory, key, i);
+						String parent = parentCategory(key);
+						if (parent != null) {
+							index(byCategory, parent, i);
+						}
+					}
+				}
+			}
+			// badv holds advertiser domains, the landing page is matched both
+			// as configured and by its host name
+			String landingPage = normalizeDomain(a.getLandingPage());
+			if (landingPage != null) {
+				index(byDomain, landingPage, i);
+				String host = hostOf(landingPage);
+				if ((host.length() > 0) && !host.equals(landingPage)) {
+					index(byDomain, host, i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the advertisers that are not excluded by the request's
+	 *         <tt>wseat</tt>, <tt>bcat</tt> and <tt>badv</tt> lists, as
+	 *         ordinals into the advertiser table of this index.
+	 */
+	public BitSet eligible(List<CharSequence> wseat, List<CharSequence> bcat,
+			List<CharSequence> badv) {
+		BitSet eligible = (BitSet) seated.clone();
+		if ((wseat != null) && !wseat.isEmpty()) {
+			// private deal, only the listed seats may bid
+			BitSet allowed = new BitSet(advertisers.length);
+			for (CharSequence seat : wseat) {
+				BitSet s = (seat == null) ? null : bySeat.get(seat.toString());
+				if (s != null) {
+					allowed.or(s);
+				}
+			}
+			eligible.and(allowed);
+		}
+		exclude(eligible, byCategory, bcat, true);
+		exclude(eligible, byDomain, badv, false);
+		return eligible;
+	}
+
+	/**
+	 * @return the eligible seats, mapped to the landing page of the advertiser
+	 *         holding them.
+	 */
+	public Map<String, String> eligibleSeats(List<CharSequence> wseat,
+			List<CharSequence> bcat, List<CharSequence> badv) {
+		BitSet eligible = eligible(wseat, bcat, badv);
+		if (eligible.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		for (int i = eligible.nextSetBit(0); i >= 0; i = eligible.nextSetBit(i + 1)) {
+			result.put(seats[i], advertisers[i].getLandingPage());
+		}
+		return result;
+	}
+
+	public RTBAdvertiser getAdvertiser(int ordinal) {
+		return advertisers[ordinal];
+	}
+
+	public String getSeat(int ordinal) {
+		return seats[ordinal];
+	}
+
+	private static void exclude(BitSet eligible, Map<String, BitSet> index,
+			List<CharSequence> blocked, boolean categories) {
+		if (blocked == null) {
+			return;
+		}
+		for (CharSequence b : blocked) {
+			if (eligible.isEmpty()) {
+				return;
+			}
+			if (b == null) {
+				continue;
+			}
+			String key = categories ? normalizeCategory(b) : normalizeDomain(b);
+			BitSet s = (key == null) ? null : index.get(key);
+			if (s != null) {
+				eligible.andNot(s);
+			}
+		}
+	}
+
+	private static void index(Map<String, BitSet> index, String key, int ordinal) {
+		BitSet s = index.get(key);
+		if (s == null) {
+			s = new BitSet();
+			index.put(key, s);
+		}
+		s.set(ordinal);
+	}
+
+	static String normalizeCategory(CharSequence category) {
+		if (category == null) {
+			return null;
+		}
+		String c = category.toString().trim().toUpperCase(Locale.ENGLISH);
+		return (c.length() == 0) ? null : c;
+	}
+
+	// IAB1-2 -> IAB1, null for a tier-1 category
+	static String parentCategory(String category) {
+		int dash = category.indexOf('-');
+		return (dash > 0) ? category.substring(0, dash) : null;
+	}
+
+	static String normalizeDomain(CharSequence domain) {
+		if (domain == null) {
+			return null;
+		}
+		String d = domain.toString().trim().toLowerCase(Locale.ENGLISH);
+		return (d.length() == 0) ? null : d;
+	}
+
+	// http://www.brand.com/landing -> brand.com
+	static String hostOf(String url) {
+		String host = url;
+		int scheme = host.indexOf("://");
+		if (scheme >= 0) {
+			host = host.substring(scheme + 3);
+		}
+		int end = host.length();
+		for (int i = 0; i < host.length(); i++) {
+			char c = host.charAt(i);
+			if ((c == '/') || (c == ':') || (c == '?') || (c == '#')) {
+				end = i;
+				break;
+			}
+		}
+		host = host.substring(0, end);
+		if (host.startsWith("www.")) {
+			host = host.substring(4);
+		}
+		return host;
+	}
+}
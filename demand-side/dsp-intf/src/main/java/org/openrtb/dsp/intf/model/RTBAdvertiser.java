@@ -47,7 +47,7 @@ import org.codehaus.jackson.map.annotate.JsonSerialize.Inclusion;
  * This class implements a prototype Advertiser engaged in the real time bidding framework.
  */
 @JsonSerialize(include=Inclusion.NON_DEFAULT)
-@JsonPropertyOrder({"landingPage", "name", "nurl", "categories", "seats"})
+@JsonPropertyOrder({"landingPage", "name", "nurl", "categories", "seats", "targeting", "budget", "frequencyCap", "frequencyCapWindow"})
 public class RTBAdvertiser {
 
     public RTBAdvertiser() {
@@ -70,6 +70,20 @@ public class RTBAdvertiser {
 	// Seat ID assigned by each Exchange (key: SSPs orgname, value: seat ID)
     @JsonProperty("seats")
 	private Map<String, String> seats = new HashMap<String, String> ();
+
+	// what the advertiser bids on, null to bid on every eligible request
+    @JsonProperty("targeting")
+	private Targeting targeting;
+
+	// total spend allowed, in the currency of the bids, null for no limit
+    @JsonProperty("budget")
+	private Double budget;
+
+	// most bids per user within the window (in seconds), null for no cap
+    @JsonProperty("frequencyCap")
+	private Integer frequencyCap;
+    @JsonProperty("frequencyCapWindow")
+	private Integer frequencyCapWindow;
 	
 
 	public void setSeats(Map<String, String> seats) {
@@ -128,6 +142,42 @@ public class RTBAdvertiser {
 
 
 	
+    @JsonProperty("targeting")
+	public Targeting getTargeting() {
+		return targeting;
+	}
+
+	public void setTargeting(Targeting targeting) {
+		this.targeting = targeting;
+	}
+
+    @JsonProperty("budget")
+	public Double getBudget() {
+		return budget;
+	}
+
+	public void setBudget(Double budget) {
+		this.budget = budget;
+	}
+
+    @JsonProperty("frequencyCap")
+	public Integer getFrequencyCap() {
+		return frequencyCap;
+	}
+
+	public void setFrequencyCap(Integer frequencyCap) {
+		this.frequencyCap = frequencyCap;
+	}
+
+    @JsonProperty("frequencyCapWindow")
+	public Integer getFrequencyCapWindow() {
+		return frequencyCapWindow;
+	}
+
+	public void setFrequencyCapWindow(Integer frequencyCapWindow) {
+		this.frequencyCapWindow = frequencyCapWindow;
+	}
+
 	// additional helper methods
 
 	public String getSeat(String exchangeName) {
@@ -32,11 +32,39 @@
 
 package org.openrtb.dsp.intf.model;
 
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.apache.avro.Schema;
+import org.openrtb.common.api.App;
 import org.openrtb.common.api.BidRequest;
+import org.openrtb.common.api.Device;
+import org.openrtb.common.api.Impression;
+import org.openrtb.common.api.Site;
+import org.openrtb.common.api.User;
+import org.openrtb.dsp.intf.model.DemandSideConfig.ExchangeConfig;
 
+/**
+ * Per request view handed to the {@link org.openrtb.common.api.OpenRTBAPI}
+ * bidders: the decoded {@link BidRequest} together with the exchange it came
+ * from, the advertisers and the timeouts that apply to it.
+ *
+ * Nothing is copied: the record accessors delegate to the decoded request and
+ * the context references the shared, immutable {@link DemandSideConfig}
+ * snapshot, so building a wrapper costs the same whatever the number of
+ * advertisers. The maps supplied to
+ * {@link #setContext(RTBExchange, Map, long, long)} instead are indexed for
+ * the request, as they may have changed since the previous one.
+ * The public fields inherited from {@link BidRequest} reference the fields of
+ * the decoded request, for bidders reading them directly; changes made
+ * through the setters are applied to both.
+ *
+ * The {@link Deadline} of the request is bounded by its timeout as the context
+ * is set, bidders should check it while bidding and give up once it expired.
+ */
 public class RTBRequestWrapper extends BidRequest {
 
 	public RTBRequestWrapper() {
@@ -44,87 +72,204 @@ public class RTBRequestWrapper extends BidRequest {
 	}
 
 	BidRequest request;
+	DemandSideConfig config;
 	RTBExchange exchange;
-	final Map<String, RTBAdvertiser> advertisers = new HashMap<String, RTBAdvertiser>();
+	Map<String, RTBAdvertiser> advertisers = new HashMap<String, RTBAdvertiser>();
 	long requestTimeoutMs;
 	long offerTimeoutMs;
+	private Deadline deadline;
 	private boolean isOfferTimerActive;
+	// indexes of the advertisers map when no configuration snapshot is
+	// available, built once per setContext
+	private LegacyIndexes legacyIndexes;
 
-	public RTBRequestWrapper(BidRequest request) {
+	/**
+	 * Indexes of an advertisers map supplied to
+	 * {@link RTBRequestWrapper#setContext(RTBExchange, Map, long, long)}, built
+	 * from a single table so that the ordinals of both indexes match.
+	 */
+	private static final class LegacyIndexes {
+		private final RTBAdvertiser[] table;
+		private final TargetingIndex targetingIndex;
+		// only used by the thread processing the request
+		private final Map<String, EligibilityIndex> eligibilityIndexes = new HashMap<String, EligibilityIndex>(4);
+
+		LegacyIndexes(Map<String, RTBAdvertiser> advertisers) {
+			this.table = advertisers.values().toArray(
+					new RTBAdvertiser[advertisers.size()]);
+			this.targetingIndex = new TargetingIndex(table);
+		}
 
-		super(request.getId(), request.getImp(), request.getSite(), request
-				.getApp(), request.getDevice(), request.getUser(), request
-				.getAt(), request.getTmax(), request.getWseat(), request
-				.getAllimps(), request.getCur(), request.getBcat(), request
-				.getBadv(), request.getExt());
+		EligibilityIndex getEligibilityIndex(String sspName) {
+			if (sspName == null) {
+				// no seat to look up, not worth keeping
+				return new EligibilityIndex(null, table);
+			}
+			EligibilityIndex index = eligibilityIndexes.get(sspName);
+			if (index == null) {
+				index = new EligibilityIndex(sspName, table);
+				eligibilityIndexes.put(sspName, index);
+			}
+			return index;
+		}
+	}
+
+	public RTBRequestWrapper(BidRequest request) {
+		super();
 		this.request = request;
+		copyFields();
+	}
+
+	// the public fields, by reference to the ones of the request
+	private void copyFields() {
+		this.id = request.getId();
+		this.imp = request.getImp();
+		this.site = request.getSite();
+		this.app = request.getApp();
+		this.device = request.getDevice();
+		this.user = request.getUser();
+		this.at = request.getAt();
+		this.tmax = request.getTmax();
+		this.wseat = request.getWseat();
+		this.allimps = request.getAllimps();
+		this.cur = request.getCur();
+		this.bcat = request.getBcat();
+		this.badv = request.getBadv();
+		this.ext = request.getExt();
+	}
+
+	/**
+	 * Attaches the configuration snapshot the request is processed with.
+	 */
+	public void setContext(DemandSideConfig config, String sspName) {
+		this.config = config;
+		setContext(config.getExchange(sspName), config.getAdvertisers(),
+				config.getRequestTimeout(), config.getOfferTimeout());
 	}
 
 	public void setContext(RTBExchange exchange, Map<String, RTBAdvertiser> advertisers,
 							long defaultRequestTO, long defaultOfferTO) {
-		this.exchange = new RTBExchange(exchange);
-		this.advertisers.clear();
-		this.advertisers.putAll(advertisers);
-		if (this.request.tmax == null) {
+		// both are shared and read only for the duration of the request
+		this.exchange = exchange;
+		this.advertisers = advertisers;
+		this.legacyIndexes = null;
+		// a tmax of 0 is as good as none
+		if ((this.request.tmax == null) || (this.request.tmax <= 0)) {
 			this.requestTimeoutMs = defaultRequestTO;
 		} else {
 			this.requestTimeoutMs = this.request.tmax.longValue();
 		}
 		this.offerTimeoutMs = defaultOfferTO;
 		this.isOfferTimerActive = false;
+		if (this.deadline == null) {
+			// no arrival time supplied, count from now
+			this.deadline = new Deadline();
+		}
+		this.deadline.setTimeout(this.requestTimeoutMs);
+	}
+
+	/**
+	 * Anchors the request to its arrival time, must be called before the
+	 * context is set.
+	 */
+	public void setDeadline(Deadline deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * @return the deadline of the request, null until the context is set or
+	 *         a deadline supplied.
+	 */
+	public Deadline getDeadline() {
+		return deadline;
 	}
 
 	public BidRequest getRequest() {
 		return request;
 	}
 
+	/**
+	 * @return the configuration snapshot the request is processed with, null
+	 *         if the context was set from individual maps.
+	 */
+	public DemandSideConfig getConfig() {
+		return config;
+	}
+
 	/**
 	 * Builds a list of advertiser seat Ids that are allowed to bid on this
-	 * request
+	 * request: seats listed in <tt>wseat</tt> (if any), held by advertisers
+	 * that are neither in a blocked category (<tt>bcat</tt>) nor blocked by
+	 * domain (<tt>badv</tt>).
 	 *
 	 * @param sspName
-	 * @return seats
+	 * @return seats, mapped to the landing page of the advertiser holding them
 	 */
 	public Map<String, String> getUnblockedSeats(String sspName) {
-		Map<String, String> seats = new HashMap<String, String>();
-		boolean checkWseat = ((this.request.getWseat() != null) && (!this.request
-				.getWseat().isEmpty()));
-		for (Map.Entry<String, RTBAdvertiser> a : this.advertisers.entrySet()) {
-			// check if this is a private deal (checkWseat == true)
-			CharSequence seatID = a.getValue().getSeat(sspName);
-			// this.request.wseat.contains(seatID));
-			/**
-			 * if (checkWseat && !request.getWseat().contains(seatID)) {
-			 *	 break;
-			 * // yes its a private deal, but this adv is not part of it }
-			 **/
-
-			if (this.request.getBadv() != null) {
-				// now check for blocked advertisers
-				for (CharSequence badv : this.request.getBadv()) {
-
-					if (badv.equals(a.getKey())) {
-						break; // this advertiser is blocked for this request
-					}
-				}
-			}
-			// now check for blocked categories
-			for (String acat : a.getValue().getCategories()) {
-				if (this.request.getBcat() != null) {
-					for (CharSequence bcat : this.request.getBcat()) {
-						if (!acat.equals(bcat.toString())) {
-							break; // this advertiser belongs to a category that
-									// is
-									// blocked for this request
-						}
-					}
-				}
+		EligibilityIndex index = getEligibilityIndex(sspName);
+		if (index == null) {
+			return Collections.emptyMap();
+		}
+		return index.eligibleSeats(this.request.getWseat(),
+				this.request.getBcat(), this.request.getBadv());
+	}
+
+	/**
+	 * Matches every impression of the request against the targeting of the
+	 * advertisers holding the seats returned by {@link #getUnblockedSeats}.
+	 *
+	 * @param sspName
+	 * @return one set per impression, in request order, of the advertisers
+	 *         that may bid on it, as ordinals into
+	 *         {@link #getEligibilityIndex(String)}. Null if the exchange is
+	 *         unknown.
+	 */
+	public BitSet[] getTargetedAdvertisers(String sspName) {
+		EligibilityIndex index = getEligibilityIndex(sspName);
+		if (index == null) {
+			return null;
+		}
+		List<Impression> imps = this.request.getImp();
+		BitSet[] targeted = new BitSet[(imps == null) ? 0 : imps.size()];
+		BitSet eligible = index.eligible(this.request.getWseat(),
+				this.request.getBcat(), this.request.getBadv());
+		if (!eligible.isEmpty()) {
+			getTargetingIndex().matchRequest(this.request, eligible);
+		}
+		for (int i = 0; i < targeted.length; i++) {
+			targeted[i] = (BitSet) eligible.clone();
+			if (!eligible.isEmpty()) {
+				getTargetingIndex().matchImpression(imps.get(i), targeted[i]);
 			}
+		}
+		return targeted;
+	}
 
-			// if all tests pass, add seat as an allowed seat to return
-			seats.put(seatID.toString(), a.getValue().getLandingPage());
+	/**
+	 * @return the index of the advertisers holding a seat on the exchange,
+	 *         null if the exchange is unknown.
+	 */
+	public EligibilityIndex getEligibilityIndex(String sspName) {
+		if (config != null) {
+			ExchangeConfig exchangeConfig = config.getExchangeConfig(sspName);
+			return (exchangeConfig == null) ? null : exchangeConfig
+					.getEligibilityIndex();
+		}
+		// context supplied as individual maps, reuse their indexes
+		return getLegacyIndexes().getEligibilityIndex(sspName);
+	}
+
+	private LegacyIndexes getLegacyIndexes() {
+		if (legacyIndexes == null) {
+			legacyIndexes = new LegacyIndexes(advertisers);
 		}
-		return seats;
+		return legacyIndexes;
+	}
+
+	// numbered as the eligibility index
+	private TargetingIndex getTargetingIndex() {
+		return (config != null) ? config.getTargetingIndex()
+				: getLegacyIndexes().targetingIndex;
 	}
 
 	public String getSSPName() {
@@ -134,12 +279,33 @@ public class RTBRequestWrapper extends BidRequest {
 		return null;
 	}
 
+	/**
+	 * @return the nurl of a bid of the advertiser: the win notice url of the
+	 *         DSP if the configuration has one, so that the wins reach the
+	 *         bidder, the nurl of the advertiser otherwise.
+	 */
+	public String getNurl(RTBAdvertiser advertiser, CharSequence bidId) {
+		if (config != null) {
+			ExchangeConfig exchangeConfig = config
+					.getExchangeConfig(getSSPName());
+			String nurl = (exchangeConfig == null) ? null : exchangeConfig
+					.getWinNoticeUrl(bidId);
+			if (nurl != null) {
+				return nurl;
+			}
+		}
+		return advertiser.getNurl();
+	}
+
 	public RTBAdvertiser getAdvertiser(String landingPage) {
 		return advertisers.get(landingPage);
 	}
 
 	public void setRequestTO(long requestTO) {
 		this.requestTimeoutMs = requestTO;
+		if (this.deadline != null) {
+			this.deadline.setTimeout(requestTO);
+		}
 	}
 
 	public long getRequestTO() {
@@ -157,4 +323,176 @@ public class RTBRequestWrapper extends BidRequest {
 	public boolean isOfferTimerActive() {
 		return isOfferTimerActive;
 	}
+
+	// record accessors, delegated to the decoded request
+
+	@Override
+	public Schema getSchema() {
+		return request.getSchema();
+	}
+
+	@Override
+	public Object get(int field) {
+		return request.get(field);
+	}
+
+	@Override
+	public void put(int field, Object value) {
+		request.put(field, value);
+		copyFields();
+	}
+
+	@Override
+	public CharSequence getId() {
+		return request.getId();
+	}
+
+	@Override
+	public void setId(CharSequence value) {
+		request.setId(value);
+		this.id = value;
+	}
+
+	@Override
+	public List<Impression> getImp() {
+		return request.getImp();
+	}
+
+	@Override
+	public void setImp(List<Impression> value) {
+		request.setImp(value);
+		this.imp = value;
+	}
+
+	@Override
+	public Site getSite() {
+		return request.getSite();
+	}
+
+	@Override
+	public void setSite(Site value) {
+		request.setSite(value);
+		this.site = value;
+	}
+
+	@Override
+	public App getApp() {
+		return request.getApp();
+	}
+
+	@Override
+	public void setApp(App value) {
+		request.setApp(value);
+		this.app = value;
+	}
+
+	@Override
+	public Device getDevice() {
+		return request.getDevice();
+	}
+
+	@Override
+	public void setDevice(Device value) {
+		request.setDevice(value);
+		this.device = value;
+	}
+
+	@Override
+	public User getUser() {
+		return request.getUser();
+	}
+
+	@Override
+	public void setUser(User value) {
+		request.setUser(value);
+		this.user = value;
+	}
+
+	@Override
+	public Integer getAt() {
+		return request.getAt();
+	}
+
+	@Override
+	public void setAt(Integer value) {
+		request.setAt(value);
+		this.at = value;
+	}
+
+	@Override
+	public Integer getTmax() {
+		return request.getTmax();
+	}
+
+	@Override
+	public void setTmax(Integer value) {
+		request.setTmax(value);
+		this.tmax = value;
+	}
+
+	@Override
+	public List<CharSequence> getWseat() {
+		return request.getWseat();
+	}
+
+	@Override
+	public void setWseat(List<CharSequence> value) {
+		request.setWseat(value);
+		this.wseat = value;
+	}
+
+	@Override
+	public Integer getAllimps() {
+		return request.getAllimps();
+	}
+
+	@Override
+	public void setAllimps(Integer value) {
+		request.setAllimps(value);
+		this.allimps = value;
+	}
+
+	@Override
+	public List<CharSequence> getCur() {
+		return request.getCur();
+	}
+
+	@Override
+	public void setCur(List<CharSequence> value) {
+		request.setCur(value);
+		this.cur = value;
+	}
+
+	@Override
+	public List<CharSequence> getBcat() {
+		return request.getBcat();
+	}
+
+	@Override
+	public void setBcat(List<CharSequence> value) {
+		request.setBcat(value);
+		this.bcat = value;
+	}
+
+	@Override
+	public List<CharSequence> getBadv() {
+		return request.getBadv();
+	}
+
+	@Override
+	public void setBadv(List<CharSequence> value) {
+		request.setBadv(value);
+		this.badv = value;
+	}
+
+	@Override
+	public CharSequence getExt() {
+		return request.getExt();
+	}
+
+	@Override
+	public void setExt(CharSequence value) {
+		request.setExt(value);
+		this.ext = value;
+	}
 }
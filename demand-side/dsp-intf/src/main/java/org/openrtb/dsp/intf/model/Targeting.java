@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.intf.model;
+
+import java.util.List;
+
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.codehaus.jackson.annotate.JsonPropertyOrder;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+import org.codehaus.jackson.map.annotate.JsonSerialize.Inclusion;
+
+/**
+ * Targeting rules of an {@link RTBAdvertiser}, compiled into a
+ * {@link TargetingIndex} when the configuration is loaded.
+ *
+ * Each dimension left empty matches every request. A dimension that is set
+ * only matches requests carrying one of the listed values, a request lacking
+ * the attribute altogether (i.e. without geo information) does not match.
+ * Dimensions are combined with AND, values within a dimension with OR.
+ */
+@JsonSerialize(include=Inclusion.NON_DEFAULT)
+@JsonPropertyOrder({"countries", "regions", "metros", "deviceTypes", "os",
+		"makes", "sizes", "videoMimes", "videoDuration", "categories"})
+public class Targeting {
+	// geo of the device, or of the user when the device has none
+	@JsonProperty("countries")
+	private List<String> countries;
+	@JsonProperty("regions")
+	private List<String> regions;
+	@JsonProperty("metros")
+	private List<String> metros;
+	@JsonProperty("deviceTypes")
+	private List<Integer> deviceTypes;
+	@JsonProperty("os")
+	private List<String> os;
+	@JsonProperty("makes")
+	private List<String> makes;
+	// banner sizes as "<w>x<h>", i.e. "300x250"
+	@JsonProperty("sizes")
+	private List<String> sizes;
+	@JsonProperty("videoMimes")
+	private List<String> videoMimes;
+	// length of the video creative in seconds, matched against the
+	// impression's minduration and maxduration
+	@JsonProperty("videoDuration")
+	private Integer videoDuration;
+	// site or app categories, a tier-1 category matches its sub-categories
+	@JsonProperty("categories")
+	private List<String> categories;
+
+	public Targeting() {
+	}
+
+	@JsonProperty("countries")
+	public List<String> getCountries() {
+		return countries;
+	}
+
+	public void setCountries(List<String> countries) {
+		this.countries = countries;
+	}
+
+	@JsonProperty("regions")
+	public List<String> getRegions() {
+		return regions;
+	}
+
+	public void setRegions(List<String> regions) {
+		this.regions = regions;
+	}
+
+	@JsonProperty("metros")
+	public List<String> getMetros() {
+		return metros;
+	}
+
+	public void setMetros(List<String> metros) {
+		this.metros = metros;
+	}
+
+	@JsonProperty("deviceTypes")
+	public List<Integer> getDeviceTypes() {
+		return deviceTypes;
+	}
+
+	public void setDeviceTypes(List<Integer> deviceTypes) {
+		this.deviceTypes = deviceTypes;
+	}
+
+	@JsonProperty("os")
+	public List<String> getOs() {
+		return os;
+	}
+
+	public void setOs(List<String> os) {
+		this.os = os;
+	}
+
+	@JsonProperty("makes")
+	public List<String> getMakes() {
+		return makes;
+	}
+
+	public void setMakes(List<String> makes) {
+		this.makes = makes;
+	}
+
+	@JsonProperty("sizes")
+	public List<String> getSizes() {
+		return sizes;
+	}
+
+	public void setSizes(List<String> sizes) {
+		this.sizes = sizes;
+	}
+
+	@JsonProperty("videoMimes")
+	public List<String> getVideoMimes() {
+		return videoMimes;
+	}
+
+	public void setVideoMimes(List<String> videoMimes) {
+		this.videoMimes = videoMimes;
+	}
+
+	@JsonProperty("videoDuration")
+	public Integer getVideoDuration() {
+		return videoDuration;
+	}
+
+	public void setVideoDuration(Integer videoDuration) {
+		this.videoDuration = videoDuration;
+	}
+
+	@JsonProperty("categories")
+	public List<String> getCategories() {
+		return categories;
+	}
+
+	public void setCategories(List<String> categories) {
+		this.categories = categories;
+	}
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.intf.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.openrtb.common.api.Banner;
+import org.openrtb.common.api.BidRequest;
+import org.openrtb.common.api.Device;
+import org.openrtb.common.api.Geo;
+import org.openrtb.common.api.Impression;
+import org.openrtb.common.api.User;
+import org.openrtb.common.api.Video;
+
+/**
+ * Inverted index of the {@link Targeting} rules of the advertisers, deciding
+ * which of them target a request and its impressions.
+ *
+ * Advertisers are numbered as in the {@link EligibilityIndex} built from the
+ * same table. For every targeting dimension the index keeps, per value, the
+ * set of advertisers listing that value, together with the set of
+ * advertisers that do not restrict the dimension. Matching narrows a set of
+ * candidates with one bit set intersection per dimension that at least one
+ * advertiser restricts, so the cost depends on the number of dimensions and
+ * request values rather than on the number of rules. Banner sizes are keyed
+ * by <tt>w &lt;&lt; 16 | h</tt>, so that matching an impression builds no
+ * string. Video durations are ranges rather than values: for every distinct
+ * creative duration the index keeps the set of advertisers with a shorter
+ * one, and the impression's bounds select the difference of two such sets.
+ *
+ * An index is immutable once built and safe to share between request threads.
+ */
+public final class TargetingIndex {
+	private final int size;
+	private final Dimension countries;
+	private final Dimension regions;
+	private final Dimension metros;
+	private final Dimension deviceTypes;
+	private final Dimension os;
+	private final Dimension makes;
+	private final SizeDimension sizes;
+	private final Dimension videoMimes;
+	private final Dimension categories;
+	// distinct video durations, sorted, and for each of them the advertisers
+	// with a shorter one; the last set holds all the advertisers with a
+	// duration
+	private final int[] durations;
+	private final BitSet[] shorter;
+	private final BitSet anyDuration;
+
+	// per thread work set, holding the advertisers a dimension allows
+	private static final ThreadLocal<BitSet> scratch = new ThreadLocal<BitSet>() {
+		@Override
+		protected BitSet initialValue() {
+			return new BitSet();
+		}
+	};
+
+	// postings of one targeting dimension
+	private static final class Dimension {
+		final Map<String, BitSet> postings = new HashMap<String, BitSet>();
+		// advertisers that do not restrict this dimension
+		final BitSet unrestricted;
+		final boolean restricted;
+
+		Dimension(int size, List<?>[] values, boolean categories) {
+			unrestricted = new BitSet(size);
+			for (int i = 0; i < size; i++) {
+				boolean any = true;
+				if (values[i] != null) {
+					for (Object v : values[i]) {
+						String key = (v == null) ? null : categories
+								? EligibilityIndex.normalizeCategory(v.toString())
+								: normalize(v.toString());
+						if (key != null) {
+							BitSet s = postings.get(key);
+							if (s == null) {
+								s = new BitSet();
+								postings.put(key, s);
+							}
+							s.set(i);
+							any = false;
+						}
+					}
+				}
+				if (any) {
+					unrestricted.set(i);
+				}
+			}
+			restricted = unrestricted.cardinality() < size;
+		}
+
+		// the advertisers allowed by a request carrying a single value
+		void match(CharSequence value, BitSet candidates) {
+			if (!restricted) {
+				return;
+			}
+			BitSet s = (value == null) ? null : postings.get(normalize(value));
+			allow(s, candidates);
+		}
+
+		// the advertisers allowed by a request carrying a list of values
+		void match(List<? extends CharSequence> values, BitSet candidates,
+				boolean categories) {
+			if (!restricted) {
+				return;
+			}
+			BitSet allowed = scratch.get();
+			allowed.clear();
+			allowed.or(unrestricted);
+			if (values != null) {
+				for (CharSequence v : values) {
+					if (v == null) {
+						continue;
+					}
+					String key = categories ? EligibilityIndex
+							.normalizeCategory(v) : normalize(v);
+					if (key == null) {
+						continue;
+					}
+					or(allowed, postings.get(key));
+					if (categories) {
+						String parent = EligibilityIndex.parentCategory(key);
+						if (parent != null) {
+							or(allowed, postings.get(parent));
+						}
+					}
+				}
+			}
+			candidates.and(allowed);
+		}
+
+		private void allow(BitSet posting, BitSet candidates) {
+			TargetingIndex.allow(unrestricted, posting, candidates);
+		}
+
+		private static void or(BitSet allowed, BitSet posting) {
+			if (posting != null) {
+				allowed.or(posting);
+			}
+		}
+	}
+
+	// postings of the banner sizes, sorted by key for a binary search
+	private static final class SizeDimension {
+		final int[] keys;
+		final BitSet[] postings;
+		final BitSet unrestricted;
+		final boolean restricted;
+
+		SizeDimension(int size, List<?>[] values) {
+			Map<Integer, BitSet> byKey = new TreeMap<Integer, BitSet>();
+			unrestricted = new BitSet(size);
+			for (int i = 0; i < size; i++) {
+				boolean any = true;
+				if (values[i] != null) {
+					for (Object v : values[i]) {
+						String value = (v == null) ? null : normalize(v
+								.toString());
+						if (value == null) {
+							continue;
+						}
+						// a malformed size restricts the advertiser, but
+						// matches no impression
+						any = false;
+						int key = parseSize(value);
+						if (key >= 0) {
+							BitSet s = byKey.get(key);
+							if (s == null) {
+								s = new BitSet();
+								byKey.put(key, s);
+							}
+							s.set(i);
+						}
+					}
+				}
+				if (any) {
+					unrestricted.set(i);
+				}
+			}
+			keys = new int[byKey.size()];
+			postings = new BitSet[byKey.size()];
+			int n = 0;
+			for (Map.Entry<Integer, BitSet> e : byKey.entrySet()) {
+				keys[n] = e.getKey().intValue();
+				postings[n++] = e.getValue();
+			}
+			restricted = unrestricted.cardinality() < size;
+		}
+
+		// the advertisers allowed by a banner of the given size, if any
+		void match(Integer w, Integer h, BitSet candidates) {
+			if (!restricted) {
+				return;
+			}
+			BitSet s = null;
+			if ((w != null) && (h != null)) {
+				int key = sizeKey(w.intValue(), h.intValue());
+				int i = (key < 0) ? -1 : Arrays.binarySearch(keys, key);
+				if (i >= 0) {
+					s = postings[i];
+				}
+			}
+			allow(unrestricted, s, candidates);
+		}
+	}
+
+	// keeps the candidates that are unrestricted or in the posting
+	private static void allow(BitSet unrestricted, BitSet posting,
+			BitSet candidates) {
+		if (posting == null) {
+			candidates.and(unrestricted);
+			return;
+		}
+		BitSet allowed = scratch.get();
+		allowed.clear();
+		allowed.or(unrestricted);
+		allowed.or(posting);
+		candidates.and(allowed);
+	}
+
+	public TargetingIndex(RTBAdvertiser[] advertisers) {
+		this.size = advertisers.length;
+		Targeting[] t = new Targeting[size];
+		for (int i = 0; i < size; i++) {
+			t[i] = advertisers[i].getTargeting();
+		}
+		List<?>[] values = new List<?>[size];
+		for (int i = 0; i < size; i++) {
+			values[i] = (t[i] == null) ? null : t[i].getCountries();
+		}
+		countries = new Dimension(size, values, false);
+		for (int i = 0; i < size; i++) {
+			values[i] = (t[i] == null) ? null : t[i].getRegions();
+		}
+		regions = new Dimension(size, values, false);
+		for (int i = 0; i < size; i++) {
+			values[i] = (t[i] == null) ? null : t[i].getMetros();
+		}
+		metros = new Dimension(size, values, false);
+		for (int i = 0; i < size; i++) {
+			values[i] = (t[i] == null) ? null : t[i].getDeviceTypes();
+		}
+		deviceTypes = new Dimension(size, values, false);
+		for (int i = 0; i < size; i++) {
+			values[i] = (t[i] == null) ? null : t[i].getOs();
+		}
+		os = new Dimension(size, values, false);
+		for (int i = 0; i < size; i++) {
+			values[i] = (t[i] == null) ? null : t[i].getMakes();
+		}
+		makes = new Dimension(size, values, false);
+		for (int i = 0; i < size; i++) {
+			values[i] = (t[i] == null) ? null : t[i].getSizes();
+		}
+		sizes = new SizeDimension(size, values);
+		for (int i = 0; i < size; i++) {
+			values[i] = (t[i] == null) ? null : t[i].getVideoMimes();
+		}
+		videoMimes = new Dimension(size, values, false);
+		for (int i = 0; i < size; i++) {
+			values[i] = (t[i] == null) ? null : t[i].getCategories();
+		}
+		categories = new Dimension(size, values, true);
+
+		// sort on duration << 32 | ordinal, so that equal durations keep
+		// the advertisers in table order
+		long[] sorted = new long[size];
+		int count = 0;
+		anyDuration = new BitSet(size);
+		for (int i = 0; i < size; i++) {
+			Integer d = (t[i] == null) ? null : t[i].getVideoDuration();
+			if (d == null) {
+				anyDuration.set(i);
+			} else {
+				sorted[count++] = ((long) Math.max(d.intValue(), 0) << 32) | i;
+			}
+		}
+		Arrays.sort(sorted, 0, count);
+		int distinct = 0;
+		for (int i = 0; i < count; i++) {
+			if ((i == 0) || ((sorted[i] >>> 32) != (sorted[i - 1] >>> 32))) {
+				distinct++;
+			}
+		}
+		durations = new int[distinct];
+		shorter = new BitSet[distinct + 1];
+		BitSet below = new BitSet(size);
+		distinct = 0;
+		for (int i = 0; i < count; i++) {
+			int d = (int) (sorted[i] >>> 32);
+			if ((i == 0) || (d != durations[distinct - 1])) {
+				durations[distinct] = d;
+				shorter[distinct++] = (BitSet) below.clone();
+			}
+			below.set((int) sorted[i]);
+		}
+		shorter[distinct] = below;
+	}
+
+	/**
+	 * @return the number of advertisers in the table the index was built from.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes from <tt>candidates</tt> the advertisers whose request level
+	 * rules (geo, device, site or app categories) do not match the request.
+	 */
+	public void matchRequest(BidRequest request, BitSet candidates) {
+		Device device = request.getDevice();
+		Geo geo = (device == null) ? null : device.getGeo();
+		if (geo == null) {
+			User user = request.getUser();
+			geo = (user == null) ? null : user.getGeo();
+		}
+		countries.match((geo == null) ? null : geo.getCountry(), candidates);
+		regions.match((geo == null) ? null : geo.getRegion(), candidates);
+		metros.match((geo == null) ? null : geo.getMetro(), candidates);
+		Integer deviceType = (device == null) ? null : device.getDeviceType();
+		deviceTypes.match((deviceType == null) ? null : deviceType.toString(),
+				candidates);
+		os.match((device == null) ? null : device.getOs(), candidates);
+		makes.match((device == null) ? null : device.getMake(), candidates);
+		List<CharSequence> cat = null;
+		if (request.getSite() != null) {
+			cat = request.getSite().getCat();
+		} else if (request.getApp() != null) {
+			cat = request.getApp().getCat();
+		}
+		categories.match(cat, candidates, true);
+	}
+
+	/**
+	 * Removes from <tt>candidates</tt> the advertisers whose impression level
+	 * rules (banner size, video mimes and duration) do not match the
+	 * impression.
+	 */
+	public void matchImpression(Impression imp, BitSet candidates) {
+		Banner banner = imp.getBanner();
+		sizes.match((banner == null) ? null : banner.getW(),
+				(banner == null) ? null : banner.getH(), candidates);
+		Video video = imp.getVideo();
+		videoMimes.match((video == null) ? null : video.getMimes(), candidates,
+				false);
+		if (durations.length > 0) {
+			BitSet allowed = scratch.get();
+			allowed.clear();
+			if (video != null) {
+				Integer min = video.getMinduration();
+				Integer max = video.getMaxduration();
+				int from = (min == null) ? 0 : lowerBound(min.intValue());
+				int to = (max == null) ? durations.length : lowerBound(max
+						.longValue() + 1);
+				// the advertisers shorter than the upper bound but not than
+				// the lower one
+				allowed.or(shorter[to]);
+				allowed.andNot(shorter[from]);
+			}
+			allowed.or(anyDuration);
+			candidates.and(allowed);
+		}
+	}
+
+	// first distinct duration >= d
+	private int lowerBound(long d) {
+		int lo = 0;
+		int hi = durations.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (durations[mid] < d) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	// w << 16 | h, -1 if a dimension does not fit in 16 bits
+	static int sizeKey(int w, int h) {
+		if (((w | h) & ~0xFFFF) != 0) {
+			return -1;
+		}
+		return (w << 16) | h;
+	}
+
+	// the key of a "<w>x<h>" size, -1 if malformed
+	static int parseSize(String size) {
+		int x = size.indexOf('x');
+		if (x < 0) {
+			return -1;
+		}
+		try {
+			return sizeKey(Integer.parseInt(size.substring(0, x).trim()),
+					Integer.parseInt(size.substring(x + 1).trim()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	static String normalize(CharSequence value) {
+		String v = value.toString().trim().toLowerCase(Locale.ENGLISH);
+		return (v.length() == 0) ? null : v;
+	}
+}
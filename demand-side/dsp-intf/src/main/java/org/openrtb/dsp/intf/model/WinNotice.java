@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.intf.model;
+
+/**
+ * Notification from an exchange that a bid has won its auction, as delivered
+ * to the <tt>nurl</tt> of the bid.
+ */
+public final class WinNotice {
+	private final String exchange;
+	private final String requestId;
+	private final String impId;
+	private final String bidId;
+	private final Float price;
+
+	/**
+	 * @param exchange
+	 *            name of the exchange that ran the auction
+	 * @param requestId
+	 *            id of the BidRequest the bid answered
+	 * @param impId
+	 *            id of the impression won, may be null
+	 * @param bidId
+	 *            id of the winning bid, may be null
+	 * @param price
+	 *            clearing price, null if the exchange did not report it
+	 */
+	public WinNotice(String exchange, String requestId, String impId,
+			String bidId, Float price) {
+		if ((exchange == null) || (requestId == null)) {
+			throw new IllegalArgumentException(
+					"exchange and requestId are required");
+		}
+		this.exchange = exchange;
+		this.requestId = requestId;
+		this.impId = impId;
+		this.bidId = bidId;
+		this.price = price;
+	}
+
+	public String getExchange() {
+		return exchange;
+	}
+
+	public String getRequestId() {
+		return requestId;
+	}
+
+	public String getImpId() {
+		return impId;
+	}
+
+	public String getBidId() {
+		return bidId;
+	}
+
+	public Float getPrice() {
+		return price;
+	}
+
+	@Override
+	public String toString() {
+		return "WinNotice[" + exchange + ", " + requestId + ", " + impId + ", "
+				+ bidId + ", " + price + "]";
+	}
+}
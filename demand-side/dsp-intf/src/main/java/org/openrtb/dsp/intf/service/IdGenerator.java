@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.intf.service;
+
+import org.apache.avro.util.Utf8;
+
+/**
+ * Source of the ids the bidders put in their responses, i.e.
+ * <tt>BidResponse.bidid</tt> and <tt>Bid.id</tt>. Ids must be unique across
+ * all the bidders of the DSP, not only within one process, and
+ * implementations are called concurrently by all request threads.
+ *
+ * @since 2.0
+ */
+public interface IdGenerator {
+
+    /**
+     * @return a new, unique, positive id.
+     */
+    public long nextId();
+
+    /**
+     * Formats a new id as an avro string, ready to be assigned to a record.
+     *
+     * @param reuse
+     *            string to overwrite with the id, a new one is allocated if
+     *            <tt>null</tt>. Callers recycling their records should pass
+     *            the previous id back.
+     * @return the formatted id, <tt>reuse</tt> unless it was <tt>null</tt>.
+     */
+    public Utf8 nextId(Utf8 reuse);
+}
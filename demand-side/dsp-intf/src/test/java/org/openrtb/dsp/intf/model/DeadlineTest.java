@@ -0,0 +1,65 @@
+package org.openrtb.dsp.intf.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * This class is used to test the functionality of the Deadline class
+ */
+public class DeadlineTest {
+
+	/**
+	 * This method test that a deadline never expires until its timeout is
+	 * known
+	 */
+	@Test
+	public void unboundedTest() {
+		Deadline deadline = new Deadline(System.nanoTime()
+				- TimeUnit.HOURS.toNanos(1));
+		assertFalse(deadline.isBounded());
+		assertFalse(deadline.isExpired());
+		assertEquals(Long.MAX_VALUE, deadline.remainingMillis());
+		assertTrue(deadline.elapsedMillis() >= TimeUnit.HOURS.toMillis(1));
+		assertTrue(deadline.elapsedNanos() >= TimeUnit.HOURS.toNanos(1));
+	}
+
+	/**
+	 * This method test that the timeout is counted from the arrival of the
+	 * request
+	 */
+	@Test
+	public void timeoutTest() {
+		long now = System.nanoTime();
+		Deadline arrived = new Deadline(now - TimeUnit.MILLISECONDS.toNanos(100));
+		arrived.setTimeout(50);
+		assertTrue(arrived.isBounded());
+		assertTrue(arrived.isExpired());
+		assertTrue(arrived.remainingMillis() <= -50);
+
+		Deadline fresh = new Deadline(now);
+		fresh.setTimeout(10000);
+		assertFalse(fresh.isExpired());
+		long remaining = fresh.remainingMillis();
+		assertTrue(remaining > 9000 && remaining <= 10000);
+	}
+
+	/**
+	 * This method test that the reserve is taken off the timeout
+	 */
+	@Test
+	public void reserveTest() {
+		Deadline deadline = new Deadline(System.nanoTime());
+		deadline.setReserve(10000);
+		deadline.setTimeout(10000);
+		assertTrue(deadline.isExpired());
+
+		deadline.setReserve(0);
+		deadline.setTimeout(10000);
+		assertFalse(deadline.isExpired());
+	}
+}
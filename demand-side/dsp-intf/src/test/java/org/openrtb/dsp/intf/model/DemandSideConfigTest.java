@@ -0,0 +1,105 @@
+package org.openrtb.dsp.intf.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This class is used to test the functionality of DemandSideConfig class
+ */
+public class DemandSideConfigTest {
+
+	DemandSideConfig config = null;
+
+	@Before
+	public void setUp() {
+		List<RTBExchange> exchanges = new ArrayList<RTBExchange>();
+		exchanges.add(new RTBExchange("BigAdExchange", "http://bigadex.com/rtb", "application/json"));
+		exchanges.add(new RTBExchange("SmallAdExchange", "http://smalladex.com/rtb", "avro/binary"));
+		List<RTBAdvertiser> advertisers = new ArrayList<RTBAdvertiser>();
+		Map<String, String> seats = new HashMap<String, String>();
+		seats.put("BigAdExchange", "SeatID001");
+		advertisers.add(new RTBAdvertiser("MyPage", "BigBrand", "http://bigbrand.com/nurl",
+				Arrays.asList("IAB1"), seats));
+		advertisers.add(new RTBAdvertiser("OtherPage", "OtherBrand", "http://other.com/nurl",
+				Arrays.asList("IAB2"), new HashMap<String, String>()));
+		config = DemandSideConfig.EMPTY.update(8080, 120, 200, exchanges, advertisers);
+	}
+
+	/**
+	 * This method is used to test the properties of the snapshot
+	 */
+	@Test
+	public void propertiesTest() {
+		assertEquals(1L, config.getVersion());
+		assertEquals(8080L, config.getServerPort());
+		assertEquals(120L, config.getProperty(DemandSideConfig.REQUEST_TIMEOUT));
+		assertEquals(200L, config.getOfferTimeout());
+	}
+
+	/**
+	 * This method is used to test the precomputed per exchange lookups
+	 */
+	@Test
+	public void exchangeConfigTest() {
+		DemandSideConfig.ExchangeConfig big = config.getExchangeConfig("BigAdExchange");
+		assertTrue(big.acceptsContentType("application/json"));
+		assertFalse(big.acceptsContentType("avro/binary"));
+		assertEquals("MyPage", big.getAdvertisersBySeat().get("SeatID001").getLandingPage());
+		assertTrue(config.getExchangeConfig("SmallAdExchange").getAdvertisersBySeat().isEmpty());
+		assertNull(config.getExchangeConfig("UnknownExchange"));
+		assertNull(config.getExchangeConfig(null));
+	}
+
+	/**
+	 * This method is used to test the advertiser ordinals
+	 */
+	@Test
+	public void advertiserOrdinalTest() {
+		assertEquals(2, config.getAdvertiserCount());
+		for (int i = 0; i < config.getAdvertiserCount(); i++) {
+			assertEquals(i, config.getAdvertiserOrdinal(config.getAdvertiser(i).getLandingPage()));
+		}
+		assertEquals(-1, config.getAdvertiserOrdinal("UnknownPage"));
+	}
+
+	/**
+	 * This method is used to test that an update builds a new version and
+	 * leaves the current snapshot untouched
+	 */
+	@Test
+	public void updateTest() {
+		List<RTBAdvertiser> advertisers = new ArrayList<RTBAdvertiser>();
+		advertisers.add(new RTBAdvertiser("MyPage", "BigBrand2", "http://bigbrand.com/nurl",
+				Arrays.asList("IAB1"), new HashMap<String, String>()));
+		DemandSideConfig next = config.update(8081, 150, 250, null, advertisers);
+		assertEquals(2L, next.getVersion());
+		assertEquals(150L, next.getRequestTimeout());
+		assertEquals(2, next.getAdvertiserCount());
+		assertEquals("BigBrand2", next.getAdvertisers().get("MyPage").getName());
+		assertTrue(next.getExchangeConfig("BigAdExchange").getAdvertisersBySeat().isEmpty());
+		assertSame(config.getExchange("BigAdExchange"), next.getExchange("BigAdExchange"));
+		assertEquals("BigBrand", config.getAdvertisers().get("MyPage").getName());
+		assertEquals(120L, config.getRequestTimeout());
+	}
+
+	/**
+	 * This method is used to test that the maps of a snapshot cannot be
+	 * modified
+	 */
+	@Test(expected = UnsupportedOperationException.class)
+	public void readOnlyTest() {
+		config.getAdvertisers().remove("MyPage");
+	}
+}
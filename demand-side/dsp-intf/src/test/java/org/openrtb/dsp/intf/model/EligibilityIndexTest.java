@@ -0,0 +1,101 @@
+package org.openrtb.dsp.intf.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This class is used to test the functionality of EligibilityIndex class
+ */
+public class EligibilityIndexTest {
+
+	EligibilityIndex index = null;
+
+	private static RTBAdvertiser advertiser(String landingPage, String seat, String... categories) {
+		Map<String, String> seats = new HashMap<String, String>();
+		if (seat != null) {
+			seats.put("BigAdExchange", seat);
+		}
+		return new RTBAdvertiser(landingPage, landingPage, "http://nurl", Arrays.asList(categories), seats);
+	}
+
+	private static List<CharSequence> list(CharSequence... values) {
+		return Arrays.asList(values);
+	}
+
+	@Before
+	public void setUp() {
+		index = new EligibilityIndex("BigAdExchange", new RTBAdvertiser[] {
+				advertiser("http://www.cars.com/deals", "S1", "IAB2-1"),
+				advertiser("http://travel.com", "S2", "IAB20"),
+				advertiser("sports.com", "S3", "IAB17-12", "IAB2-3"),
+				advertiser("noseat.com", null, "IAB1") });
+	}
+
+	/**
+	 * This method test that only advertisers with a seat on the exchange are eligible
+	 */
+	@Test
+	public void noRestrictionTest() {
+		Map<String, String> seats = index.eligibleSeats(null, null, null);
+		assertEquals(3, seats.size());
+		assertEquals("sports.com", seats.get("S3"));
+	}
+
+	/**
+	 * This method test that a tier-1 category blocks its sub categories
+	 */
+	@Test
+	public void parentCategoryBlockTest() {
+		Map<String, String> seats = index.eligibleSeats(null, list("IAB2"), null);
+		assertEquals(Collections.singleton("S2"), seats.keySet());
+	}
+
+	/**
+	 * This method test that a sub category only blocks itself
+	 */
+	@Test
+	public void subCategoryBlockTest() {
+		Map<String, String> seats = index.eligibleSeats(null, list("iab2-1", "IAB20-3"), null);
+		assertEquals(2, seats.size());
+		assertTrue(seats.containsKey("S2"));
+		assertTrue(seats.containsKey("S3"));
+	}
+
+	/**
+	 * This method test the blocking by advertiser domain
+	 */
+	@Test
+	public void badvTest() {
+		Map<String, String> seats = index.eligibleSeats(null, null, list("cars.com", "SPORTS.COM"));
+		assertEquals(Collections.singleton("S2"), seats.keySet());
+	}
+
+	/**
+	 * This method test that wseat restricts bidding to the listed seats
+	 */
+	@Test
+	public void wseatTest() {
+		Map<String, String> seats = index.eligibleSeats(list("S1", "S3", "unknown"), list("IAB17"), null);
+		assertEquals(Collections.singleton("S1"), seats.keySet());
+		assertTrue(index.eligibleSeats(list("unknown"), null, null).isEmpty());
+	}
+
+	/**
+	 * This method test that an unknown exchange has no eligible seats
+	 */
+	@Test
+	public void unknownExchangeTest() {
+		EligibilityIndex other = new EligibilityIndex("OtherExchange",
+				new RTBAdvertiser[] { advertiser("cars.com", "S1", "IAB2") });
+		assertTrue(other.eligibleSeats(null, null, null).isEmpty());
+	}
+}
@@ -1,7 +1,9 @@
 package org.openrtb.dsp.intf.model;
 
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -75,7 +77,7 @@ public class RTBRequestWrapperTest {
 				Collections.<Impression> singletonList(imp));
 		when(bidRequest.getApp()).thenReturn(app);
 		when(bidRequest.getWseat()).thenReturn(
-				Collections.<CharSequence> singletonList("012asfdfd25"));
+				Collections.<CharSequence> singletonList("SeatID001"));
 		
 	}
 	
@@ -94,6 +96,94 @@ public class RTBRequestWrapperTest {
 		assertTrue("request time not match",requestWrapper.requestTimeoutMs==2000);		
 	}
 	
+	/**
+	 * This method test that the deadline of the request is bounded by its
+	 * tmax, counted from the arrival of the request
+	 */
+	@Test
+	public void deadlineTest()
+	{
+		BidRequest request = new BidRequest();
+		request.setTmax(0);
+		RTBRequestWrapper requestWrapper = new RTBRequestWrapper(request);
+		Deadline deadline = new Deadline(System.nanoTime() - 1000000000L);
+		requestWrapper.setDeadline(deadline);
+		requestWrapper.setContext(exchanger, advertisers, requestTime, offerTime);
+		assertTrue("a tmax of 0 should fall back to the default", requestWrapper.getRequestTO() == requestTime);
+		assertSame(deadline, requestWrapper.getDeadline());
+		assertTrue("arrived a second ago", deadline.remainingMillis() <= 1000);
+		assertTrue(!deadline.isExpired());
+
+		request.setTmax(500);
+		requestWrapper.setContext(exchanger, advertisers, requestTime, offerTime);
+		assertTrue("tmax should be past", deadline.isExpired());
+
+		// without an arrival time, the deadline starts with the context
+		requestWrapper = new RTBRequestWrapper(request);
+		requestWrapper.setContext(exchanger, advertisers, requestTime, offerTime);
+		assertTrue(!requestWrapper.getDeadline().isExpired());
+	}
+
+	/**
+	 * This method test that the wrapper references the request and the
+	 * configuration snapshot instead of copying them
+	 */
+	@Test
+	public void setContextFromSnapshotTest()
+	{
+		RTBExchange big = new RTBExchange("BigAdExchange", "http://bigadex.com/rtb", "application/json");
+		DemandSideConfig config = DemandSideConfig.EMPTY.update(8080, 1500, 2500,
+				Collections.singletonList(big), Collections.singletonList(advertiser));
+		RTBRequestWrapper requestWrapper = new RTBRequestWrapper(bidRequest);
+		requestWrapper.setContext(config, "BigAdExchange");
+		assertSame("Snapshot should be shared", config, requestWrapper.getConfig());
+		assertSame("Exchange should be shared", big, requestWrapper.exchange);
+		assertSame("Advertisers should be shared", config.getAdvertisers(), requestWrapper.advertisers);
+		assertTrue("request time not match", requestWrapper.getRequestTO() == 1500);
+		assertTrue("offer time not match", requestWrapper.getOfferTO() == 2500);
+		assertSame("Getters should read the request", bidRequest.getImp(), requestWrapper.getImp());
+		assertTrue("Id not match", requestWrapper.getId().equals(bidRequest.getId()));
+	}
+
+	/**
+	 * This method is used to test that the public fields of the wrapper
+	 * reference the ones of the request, as bidders may read them directly
+	 */
+	@Test
+	public void publicFieldsTest()
+	{
+		RTBRequestWrapper requestWrapper = new RTBRequestWrapper(bidRequest);
+		assertSame("Id should be populated", bidRequest.getId(), requestWrapper.id);
+		assertSame("Impressions should be populated", bidRequest.getImp(), requestWrapper.imp);
+		assertSame("App should be populated", bidRequest.getApp(), requestWrapper.app);
+		assertSame("Seats should be populated", bidRequest.getWseat(), requestWrapper.wseat);
+		requestWrapper.setTmax(120);
+		assertTrue("Setters should update the fields", requestWrapper.tmax == 120);
+	}
+
+	/**
+	 * This method is used to test that an advertisers map supplied without a
+	 * snapshot is indexed once per request, so that the changes made to the
+	 * map in between are seen
+	 */
+	@Test
+	public void legacyIndexTest()
+	{
+		RTBRequestWrapper first = new RTBRequestWrapper(bidRequest);
+		first.setContext(exchanger, advertisers, requestTime, offerTime);
+		assertSame("Index should be reused by the request", first.getEligibilityIndex("BigAdExchange"),
+				first.getEligibilityIndex("BigAdExchange"));
+		assertEquals("index.htm", first.getUnblockedSeats("BigAdExchange").get("SeatID001"));
+		// replaced in place, the map keeps its size
+		Map<String, String> seat = new HashMap<String, String>();
+		seat.put("BigAdExchange", "SeatID001");
+		advertisers.put("My Advertiser", new RTBAdvertiser("other.htm", "addidas",
+				"http//addidas.com/nurl", new ArrayList<String>(), seat));
+		RTBRequestWrapper second = new RTBRequestWrapper(bidRequest);
+		second.setContext(exchanger, advertisers, requestTime, offerTime);
+		assertEquals("other.htm", second.getUnblockedSeats("BigAdExchange").get("SeatID001"));
+	}
+
 	/**
 	 * This method test the getUnblockedSeats property  of a RTBRequestWrapper class
 	 */
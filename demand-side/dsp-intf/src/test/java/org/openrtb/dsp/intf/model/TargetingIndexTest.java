@@ -0,0 +1,257 @@
+package org.openrtb.dsp.intf.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openrtb.common.api.Banner;
+import org.openrtb.common.api.BidRequest;
+import org.openrtb.common.api.Device;
+import org.openrtb.common.api.Geo;
+import org.openrtb.common.api.Impression;
+import org.openrtb.common.api.Site;
+import org.openrtb.common.api.User;
+import org.openrtb.common.api.Video;
+
+/**
+ * This class is used to test the functionality of TargetingIndex class
+ */
+public class TargetingIndexTest {
+
+	TargetingIndex index = null;
+
+	private static RTBAdvertiser advertiser(String landingPage, Targeting targeting) {
+		RTBAdvertiser a = new RTBAdvertiser(landingPage, landingPage, "http://nurl",
+				new ArrayList<String>(), new HashMap<String, String>());
+		a.setTargeting(targeting);
+		return a;
+	}
+
+	private static BitSet all(int size) {
+		BitSet s = new BitSet();
+		s.set(0, size);
+		return s;
+	}
+
+	private static BitSet of(int... ordinals) {
+		BitSet s = new BitSet();
+		for (int o : ordinals) {
+			s.set(o);
+		}
+		return s;
+	}
+
+	private static BidRequest request(String country, String os, String... cat) {
+		BidRequest request = new BidRequest();
+		Device device = new Device();
+		device.setOs(os);
+		if (country != null) {
+			Geo geo = new Geo();
+			geo.setCountry(country);
+			device.setGeo(geo);
+		}
+		request.setDevice(device);
+		Site site = new Site();
+		site.setCat(Arrays.<CharSequence> asList(cat));
+		request.setSite(site);
+		return request;
+	}
+
+	private static Impression banner(int w, int h) {
+		Impression imp = new Impression();
+		Banner banner = new Banner();
+		banner.setW(w);
+		banner.setH(h);
+		imp.setBanner(banner);
+		return imp;
+	}
+
+	private static Impression video(Integer min, Integer max, String... mimes) {
+		Impression imp = new Impression();
+		Video video = new Video();
+		video.setMinduration(min);
+		video.setMaxduration(max);
+		video.setMimes(Arrays.<CharSequence> asList(mimes));
+		imp.setVideo(video);
+		return imp;
+	}
+
+	@Before
+	public void setUp() {
+		Targeting usIos = new Targeting();
+		usIos.setCountries(Arrays.asList("USA"));
+		usIos.setOs(Arrays.asList("iOS"));
+		Targeting sports = new Targeting();
+		sports.setCategories(Arrays.asList("IAB17"));
+		sports.setSizes(Arrays.asList("300x250", "728x90"));
+		Targeting shortVideo = new Targeting();
+		shortVideo.setVideoMimes(Arrays.asList("video/mp4"));
+		shortVideo.setVideoDuration(15);
+		Targeting longVideo = new Targeting();
+		longVideo.setVideoDuration(60);
+		index = new TargetingIndex(new RTBAdvertiser[] {
+				advertiser("any.com", null),
+				advertiser("usios.com", usIos),
+				advertiser("sports.com", sports),
+				advertiser("short.com", shortVideo),
+				advertiser("long.com", longVideo) });
+	}
+
+	/**
+	 * This method test the geo and device rules, matched case insensitively
+	 */
+	@Test
+	public void requestRulesTest() {
+		BitSet candidates = all(5);
+		index.matchRequest(request("usa", "IOS"), candidates);
+		assertEquals(of(0, 1, 3, 4), candidates);
+
+		candidates = all(5);
+		index.matchRequest(request("GBR", "iOS"), candidates);
+		assertEquals(of(0, 3, 4), candidates);
+	}
+
+	/**
+	 * This method test that a rule never matches a request lacking the
+	 * attribute, and that the user geo is used when the device has none
+	 */
+	@Test
+	public void missingAttributeTest() {
+		BitSet candidates = all(5);
+		index.matchRequest(new BidRequest(), candidates);
+		assertEquals(of(0, 3, 4), candidates);
+
+		BidRequest request = request(null, "iOS");
+		User user = new User();
+		Geo geo = new Geo();
+		geo.setCountry("USA");
+		user.setGeo(geo);
+		request.setUser(user);
+		candidates = all(5);
+		index.matchRequest(request, candidates);
+		assertTrue(candidates.get(1));
+	}
+
+	/**
+	 * This method test that a tier-1 category rule matches its sub categories
+	 */
+	@Test
+	public void categoryTest() {
+		BitSet candidates = all(5);
+		index.matchRequest(request(null, null, "IAB1", "iab17-12"), candidates);
+		assertEquals(of(0, 2, 3, 4), candidates);
+	}
+
+	/**
+	 * This method test the banner size rules
+	 */
+	@Test
+	public void bannerTest() {
+		BitSet candidates = all(5);
+		index.matchImpression(banner(728, 90), candidates);
+		// video creatives do not match a banner only impression
+		assertEquals(of(0, 1, 2), candidates);
+
+		candidates = all(5);
+		index.matchImpression(banner(160, 600), candidates);
+		assertEquals(of(0, 1), candidates);
+	}
+
+	/**
+	 * This method test the video mime and duration rules
+	 */
+	@Test
+	public void videoTest() {
+		BitSet candidates = all(5);
+		index.matchImpression(video(5, 30, "video/mp4"), candidates);
+		assertEquals(of(0, 1, 3), candidates);
+
+		candidates = all(5);
+		index.matchImpression(video(30, null, "video/mp4"), candidates);
+		assertEquals(of(0, 1, 4), candidates);
+
+		candidates = all(5);
+		index.matchImpression(video(null, null, "video/x-flv"), candidates);
+		assertEquals(of(0, 1, 4), candidates);
+	}
+
+	/**
+	 * This method test the duration ranges over advertisers sharing
+	 * durations, and the sizes that cannot be parsed
+	 */
+	@Test
+	public void durationRangeTest() {
+		int[] durations = { 30, 15, 30, -1, 60, 15 };
+		RTBAdvertiser[] advertisers = new RTBAdvertiser[durations.length + 1];
+		for (int i = 0; i < durations.length; i++) {
+			Targeting t = new Targeting();
+			if (durations[i] >= 0) {
+				t.setVideoDuration(durations[i]);
+			}
+			advertisers[i] = advertiser("lp" + i, t);
+		}
+		Targeting bogus = new Targeting();
+		bogus.setSizes(Arrays.asList("300 x 250", "wide"));
+		advertisers[durations.length] = advertiser("bogus.com", bogus);
+		TargetingIndex durationIndex = new TargetingIndex(advertisers);
+
+		BitSet candidates = all(6);
+		durationIndex.matchImpression(video(15, 30), candidates);
+		assertEquals(of(0, 1, 2, 3, 5), candidates);
+
+		candidates = all(6);
+		durationIndex.matchImpression(video(16, 60), candidates);
+		assertEquals(of(0, 2, 3, 4), candidates);
+
+		candidates = all(6);
+		durationIndex.matchImpression(video(null, 14), candidates);
+		assertEquals(of(3), candidates);
+
+		candidates = all(7);
+		durationIndex.matchImpression(banner(300, 250), candidates);
+		assertEquals(of(3, 6), candidates);
+	}
+
+	/**
+	 * This method test that only the candidates passed in can match
+	 */
+	@Test
+	public void candidatesTest() {
+		BitSet candidates = of(1, 2);
+		index.matchRequest(request("USA", "iOS", "IAB17"), candidates);
+		assertEquals(of(1, 2), candidates);
+		index.matchImpression(banner(300, 250), candidates);
+		assertEquals(of(1, 2), candidates);
+		assertEquals(5, index.size());
+	}
+
+	/**
+	 * This method test the matching against a large number of advertisers
+	 */
+	@Test
+	public void largeIndexTest() {
+		String[] countries = { "USA", "GBR", "FRA", "DEU", "IND" };
+		RTBAdvertiser[] advertisers = new RTBAdvertiser[100000];
+		for (int i = 0; i < advertisers.length; i++) {
+			Targeting t = new Targeting();
+			t.setCountries(Collections.singletonList(countries[i % countries.length]));
+			t.setSizes(Collections.singletonList((i % 2 == 0) ? "300x250" : "728x90"));
+			advertisers[i] = advertiser("lp" + i, t);
+		}
+		TargetingIndex large = new TargetingIndex(advertisers);
+		BitSet candidates = all(advertisers.length);
+		large.matchRequest(request("IND", "android"), candidates);
+		large.matchImpression(banner(300, 250), candidates);
+		// i % 5 == 4 and i % 2 == 0
+		assertEquals(advertisers.length / 10, candidates.cardinality());
+		assertEquals(4, candidates.nextSetBit(0));
+	}
+}
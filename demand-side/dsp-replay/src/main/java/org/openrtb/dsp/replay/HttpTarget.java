@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openrtb.dsp.replay;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+
+/**
+ * Replays the requests to a <tt>DemandSideServlet</tt> over HTTP, i.e. on the
+ * loopback interface. Connections are kept alive and reused by the JDK as
+ * long as the responses are read to the end.
+ */
+public class HttpTarget implements ReplayTarget {
+	private final String url;
+	private final int timeoutMs;
+
+	/**
+	 * @param url
+	 *            of the servlet, i.e. <tt>http://localhost:8080/dsp/openrtb</tt>
+	 * @param timeoutMs
+	 *            connect and read timeout of every request
+	 */
+	public HttpTarget(String url, int timeoutMs) {
+		this.url = url;
+		this.timeoutMs = timeoutMs;
+	}
+
+	@Override
+	public boolean send(ReplayRequest request) throws Exception {
+		URL target = new URL(url + (url.indexOf('?') < 0 ? "?" : "&")
+				+ "ssp_name=" + URLEncoder.encode(request.getExchange(), "UTF-8"));
+		HttpURLConnection connection = (HttpURLConnection) target
+				.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setConnectTimeout(timeoutMs);
+		connection.setReadTimeout(timeoutMs);
+		connection.setRequestProperty("Content-Type", request.getContentType());
+		connection.setFixedLengthStreamingMode(request.getPayload().length);
+		OutputStream out = connection.getOutputStream();
+		try {
+			out.write(request.getPayload());
+		} finally {
+			out.close();
+		}
+		int status = connection.getResponseCode();
+		if (status == HttpURLConnection.HTTP_NO_CONTENT) {
+			return false;
+		}
+		if (status != HttpURLConnection.HTTP_OK) {
+			drain(connection.getErrorStream());
+			throw new IOException("HTTP " + status + " from " + url);
+		}
+		drain(connection.getInputStream());
+		return true;
+	}
+
+	// reads the body to the end, so that the connection can be reused
+	private static void drain(InputStream in) throws IOException {
+		if (in == null) {
+			return;
+		}
+		try {
+			byte[] buffer = new byte[4096];
+			while (in.read(buffer) >= 0) {
+				// discarded
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openrtb.dsp.replay;
+
+import java.io.ByteArrayInputStream;
+
+import org.openrtb.dsp.core.DemandSideServer;
+
+/**
+ * Replays the requests straight into a {@link DemandSideServer} running in the
+ * same process, as the servlet would hand them over.
+ */
+public class InProcessTarget implements ReplayTarget {
+	private final DemandSideServer dsp;
+
+	public InProcessTarget(DemandSideServer dsp) {
+		this.dsp = dsp;
+	}
+
+	@Override
+	public boolean send(ReplayRequest request) throws Exception {
+		if (!dsp.authorizeRemoteService(request.getExchange())) {
+			throw new IllegalArgumentException("Unknown exchange "
+					+ request.getExchange());
+		}
+		// the response is left in the thread's buffer, as it would be sent
+		return dsp.respondBuffered(request.getExchange(),
+				new ByteArrayInputStream(request.getPayload()),
+				request.getContentType()).size() > 0;
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openrtb.dsp.replay;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.openrtb.common.api.OpenRTBAPI;
+import org.openrtb.dsp.core.DemandSideServer;
+import org.openrtb.dsp.intf.model.DemandSideConfig;
+import org.openrtb.dsp.intf.model.DemandSideDAO;
+
+/**
+ * Command line entry point of the replay, i.e.
+ * 
+ * <pre>
+ * java org.openrtb.dsp.replay.Replay --config dsp.json --qps 2000 --count 100000 captures/
+ * </pre>
+ * 
+ * replays the requests found under <tt>captures/</tt> into a
+ * {@link DemandSideServer} built in process from the configuration, or, with
+ * <tt>--url</tt>, to a running <tt>DemandSideServlet</tt>, and prints the
+ * statistics by exchange and content type.
+ */
+public class Replay {
+	private static final String USAGE = "usage: Replay --config <dsp configuration> [options] <file or directory>...\n"
+			+ "  --url <url>        replay to the servlet at the url instead of in process\n"
+			+ "  --dao <class>      DemandSideDAO reading the configuration (JsonFileBackedDAO)\n"
+			+ "  --bidder <class>   OpenRTBAPI bidder replayed to in process (SimpleBidder)\n"
+			+ "  --exchange <name>  exchange of the requests that do not tell theirs (the first one)\n"
+			+ "  --qps <n>          requests per second (100)\n"
+			+ "  --count <n>        requests sent, going round the files (one round)\n"
+			+ "  --threads <n>      requests in flight at most (16)\n"
+			+ "  --timeout <ms>     http timeout (1000)";
+
+	public static void main(String[] args) throws Exception {
+		String configFile = null;
+		String url = null;
+		String daoClass = "org.openrtb.dsp.client.JsonFileBackedDAO";
+		String bidderClass = "org.openrtb.dsp.client.SimpleBidder";
+		String exchange = null;
+		double qps = 100;
+		long count = -1;
+		int threads = 16;
+		int timeout = 1000;
+		List<File> files = new ArrayList<File>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (!arg.startsWith("--")) {
+					files.add(new File(arg));
+				} else if (i + 1 >= args.length) {
+					throw new IllegalArgumentException("Missing value of " + arg);
+				} else if (arg.equals("--config")) {
+					configFile = args[++i];
+				} else if (arg.equals("--url")) {
+					url = args[++i];
+				} else if (arg.equals("--dao")) {
+					daoClass = args[++i];
+				} else if (arg.equals("--bidder")) {
+					bidderClass = args[++i];
+				} else if (arg.equals("--exchange")) {
+					exchange = args[++i];
+				} else if (arg.equals("--qps")) {
+					qps = Double.parseDouble(args[++i]);
+				} else if (arg.equals("--count")) {
+					count = Long.parseLong(args[++i]);
+				} else if (arg.equals("--threads")) {
+					threads = Integer.parseInt(args[++i]);
+				} else if (arg.equals("--timeout")) {
+					timeout = Integer.parseInt(args[++i]);
+				} else {
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			}
+			if ((configFile == null) || files.isEmpty()) {
+				throw new IllegalArgumentException(
+						"--config and at least one file are required");
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+
+		DemandSideDAO dao = (DemandSideDAO) Class.forName(daoClass)
+				.newInstance();
+		dao.loadData(configFile);
+		DemandSideConfig config = dao.getSnapshot();
+		if ((exchange == null) && !config.getExchanges().isEmpty()) {
+			exchange = config.getExchanges().keySet().iterator().next();
+		}
+		RequestLoader loader = new RequestLoader(config, exchange);
+		List<ReplayRequest> requests = new ArrayList<ReplayRequest>();
+		for (File f : files) {
+			requests.addAll(loader.load(f));
+		}
+		System.out.println("Loaded " + requests.size() + " requests, skipped "
+				+ loader.getSkipped());
+		if (requests.isEmpty()) {
+			System.exit(1);
+		}
+
+		ReplayTarget target;
+		if (url != null) {
+			target = new HttpTarget(url, timeout);
+		} else {
+			OpenRTBAPI bidder = (OpenRTBAPI) Class.forName(bidderClass)
+					.newInstance();
+			target = new InProcessTarget(new DemandSideServer(bidder, dao));
+		}
+		ReplayDriver driver = new ReplayDriver(target, threads);
+		try {
+			Map<String, ReplayStats> stats = driver.run(requests, qps,
+					(count < 0) ? requests.size() : count);
+			for (ReplayStats s : stats.values()) {
+				System.out.println(s);
+			}
+			System.out.println("max scheduler lag (us) "
+					+ driver.getMaxSchedulerLag());
+		} finally {
+			target.close();
+		}
+	}
+}
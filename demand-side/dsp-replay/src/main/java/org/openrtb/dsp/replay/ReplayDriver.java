@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openrtb.dsp.replay;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends requests to a {@link ReplayTarget} at a fixed rate, open loop: the
+ * send times are set by the rate alone, whatever the time the target takes to
+ * answer. Requests due while all the sender threads are busy wait in an
+ * unbounded queue, and their wait counts in their latency (see
+ * {@link ReplayStats}), so that a stalled DSP shows as such in the results
+ * instead of slowing the replay down.
+ */
+public class ReplayDriver {
+	private static final Logger logger = LoggerFactory
+			.getLogger(ReplayDriver.class);
+
+	private final ReplayTarget target;
+	private final int threads;
+	private final ConcurrentMap<String, ReplayStats> stats = new ConcurrentHashMap<String, ReplayStats>();
+	// how late the scheduler itself sent the requests, at worst
+	private final AtomicLong maxSchedulerLagNanos = new AtomicLong();
+
+	/**
+	 * @param threads
+	 *            number of requests in flight at most
+	 */
+	public ReplayDriver(ReplayTarget target, int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be positive");
+		}
+		this.target = target;
+		this.threads = threads;
+	}
+
+	/**
+	 * Replays <tt>count</tt> requests at <tt>qps</tt> requests per second,
+	 * going round the list as many times as needed, and waits for all of them
+	 * to be answered.
+	 * 
+	 * @return the statistics of the run by exchange and content type.
+	 */
+	public Map<String, ReplayStats> run(List<ReplayRequest> requests,
+			double qps, long count) throws InterruptedException {
+		if (requests.isEmpty() || (qps <= 0)) {
+			throw new IllegalArgumentException(
+					"requests must not be empty, qps must be positive");
+		}
+		ExecutorService senders = new ThreadPoolExecutor(threads, threads, 0L,
+				TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+		double intervalNanos = TimeUnit.SECONDS.toNanos(1) / qps;
+		long startNanos = System.nanoTime();
+		try {
+			for (long i = 0; i < count; i++) {
+				long intended = startNanos + (long) (i * intervalNanos);
+				long wait;
+				while ((wait = intended - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(wait);
+				}
+				long lag = -wait;
+				if (lag > maxSchedulerLagNanos.get()) {
+					maxSchedulerLagNanos.set(lag);
+				}
+				senders.execute(new Send(requests.get((int) (i % requests
+						.size())), intended));
+			}
+		} finally {
+			senders.shutdown();
+			senders.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		logger.info("Replayed " + count + " requests in "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)
+				+ "ms");
+		return getStats();
+	}
+
+	/**
+	 * @return the statistics so far, by exchange and content type.
+	 */
+	public Map<String, ReplayStats> getStats() {
+		return new TreeMap<String, ReplayStats>(stats);
+	}
+
+	/**
+	 * @return how late, in microseconds, the replay sent a request at worst.
+	 */
+	public long getMaxSchedulerLag() {
+		return TimeUnit.NANOSECONDS.toMicros(maxSchedulerLagNanos.get());
+	}
+
+	private ReplayStats statsOf(ReplayRequest request) {
+		String key = request.getKey();
+		ReplayStats s = stats.get(key);
+		if (s == null) {
+			ReplayStats created = new ReplayStats(key);
+			s = stats.putIfAbsent(key, created);
+			if (s == null) {
+				s = created;
+			}
+		}
+		return s;
+	}
+
+	private final class Send implements Runnable {
+		private final ReplayRequest request;
+		private final long intendedNanos;
+
+		Send(ReplayRequest request, long intendedNanos) {
+			this.request = request;
+			this.intendedNanos = intendedNanos;
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			try {
+				boolean bid = target.send(request);
+				statsOf(request).record(intendedNanos, start,
+						System.nanoTime(), bid);
+			} catch (Exception e) {
+				statsOf(request).recordError(intendedNanos, start,
+						System.nanoTime());
+				logger.debug("Request to " + request.getExchange()
+						+ " failed: " + e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openrtb.dsp.replay;
+
+/**
+ * A bid request ready to be replayed: already encoded in the content type of
+ * the exchange it is sent as, so that encoding costs nothing during the run.
+ */
+public final class ReplayRequest {
+	private final String exchange;
+	private final String contentType;
+	private final byte[] payload;
+	private final long timestamp;
+
+	/**
+	 * @param timestamp
+	 *            arrival time of the captured request, in milliseconds since
+	 *            the epoch, 0 if unknown
+	 */
+	public ReplayRequest(String exchange, String contentType, byte[] payload,
+			long timestamp) {
+		this.exchange = exchange;
+		this.contentType = contentType;
+		this.payload = payload;
+		this.timestamp = timestamp;
+	}
+
+	public String getExchange() {
+		return exchange;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public byte[] getPayload() {
+		return payload;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return the key the statistics of the request are kept under.
+	 */
+	public String getKey() {
+		return exchange + " " + contentType;
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openrtb.dsp.replay;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openrtb.common.util.LatencyHistogram;
+
+/**
+ * Outcome of the requests replayed for one exchange and content type.
+ * 
+ * Two latencies are recorded for every request, in microseconds:
+ * <ul>
+ * <li>the latency, from the time the request was due to be sent according to
+ * the rate of the replay until its response was received. It is free of
+ * coordinated omission: when the DSP (or the replay itself) falls behind,
+ * the time the requests wait for their turn counts, as it would for an
+ * exchange sending at that rate;</li>
+ * <li>the service time, from the time the request was actually sent.</li>
+ * </ul>
+ */
+public class ReplayStats {
+	private final String key;
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LatencyHistogram serviceTime = new LatencyHistogram();
+	private final AtomicLong bids = new AtomicLong();
+	private final AtomicLong noBids = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+
+	public ReplayStats(String key) {
+		this.key = key;
+	}
+
+	void record(long intendedNanos, long startNanos, long endNanos,
+			boolean bid) {
+		latency.record((endNanos - intendedNanos) / 1000L);
+		serviceTime.record((endNanos - startNanos) / 1000L);
+		if (bid) {
+			bids.incrementAndGet();
+		} else {
+			noBids.incrementAndGet();
+		}
+	}
+
+	void recordError(long intendedNanos, long startNanos, long endNanos) {
+		latency.record((endNanos - intendedNanos) / 1000L);
+		serviceTime.record((endNanos - startNanos) / 1000L);
+		errors.incrementAndGet();
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	/** @return latencies in microseconds, from the time each request was due */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	/** @return latencies in microseconds, from the time each request was sent */
+	public LatencyHistogram getServiceTime() {
+		return serviceTime;
+	}
+
+	public long getBids() {
+		return bids.get();
+	}
+
+	public long getNoBids() {
+		return noBids.get();
+	}
+
+	public long getErrors() {
+		return errors.get();
+	}
+
+	public long getCount() {
+		return bids.get() + noBids.get() + errors.get();
+	}
+
+	@Override
+	public String toString() {
+		return key + ": " + getCount() + " requests, " + getBids() + " bids, "
+				+ getNoBids() + " no bids, " + getErrors() + " errors"
+				+ "\n  latency (us)      " + percentiles(latency)
+				+ "\n  service time (us) " + percentiles(serviceTime);
+	}
+
+	private static String percentiles(LatencyHistogram h) {
+		return "p50 " + h.getPercentile(50) + "  p90 " + h.getPercentile(90)
+				+ "  p99 " + h.getPercentile(99) + "  p99.9 "
+				+ h.getPercentile(99.9) + "  max " + h.getMax();
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openrtb.dsp.replay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.protobuf.ProtobufDatumWriter;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.thrift.ThriftDatumWriter;
+import org.codehaus.jackson.map.ObjectWriter;
+import org.openrtb.common.api.BidCapture;
+import org.openrtb.common.api.BidRequest;
+import org.openrtb.common.util.StringUtils;
+import org.openrtb.dsp.core.JsonBidCodec;
+import org.openrtb.dsp.intf.model.DemandSideConfig;
+import org.openrtb.dsp.intf.model.RTBExchange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the requests to replay and encodes each of them in the content type
+ * (<tt>rtbCtype</tt>) of the exchange it is sent as.
+ * 
+ * Two kinds of files are read, directories are searched recursively:
+ * <ul>
+ * <li><tt>.avro</tt> data files, either captured by the DSP's
+ * <tt>TrafficCapture</tt> ({@link BidCapture} records, replayed as the
+ * exchange they came from) or holding plain {@link BidRequest} records;</li>
+ * <li><tt>.json</tt> files holding a single OpenRTB request each, such as the
+ * samples of the validator.</li>
+ * </ul>
+ * Requests without an exchange are replayed as the default exchange. Requests
+ * that cannot be decoded, come from an exchange unknown to the configuration
+ * or cannot be encoded in its content type are skipped.
+ */
+public class RequestLoader {
+	private static final Logger logger = LoggerFactory
+			.getLogger(RequestLoader.class);
+
+	private static final String AVRO_BINARY_CONTENT_TYPE = "avro/binary";
+	private static final String PROTOBUF_CONTENT_TYPE = "application/x-protobuf";
+	private static final String THRIFT_CONTENT_TYPE = "application/x-thrift";
+
+	private final DemandSideConfig config;
+	private final String defaultExchange;
+	private final JsonBidCodec json = new JsonBidCodec();
+	private final ObjectWriter jsonWriter = JsonBidCodec.newObjectMapper()
+			.writerWithType(BidRequest.class);
+	// binary writers by content type, null for the unsupported ones
+	private final Map<String, DatumWriter<BidRequest>> writers = new HashMap<String, DatumWriter<BidRequest>>();
+	private BinaryEncoder encoder;
+	private int skipped;
+
+	/**
+	 * @param config
+	 *            configuration of the DSP replayed to, for the content types of
+	 *            the exchanges
+	 * @param defaultExchange
+	 *            exchange of the requests that do not tell theirs
+	 */
+	public RequestLoader(DemandSideConfig config, String defaultExchange) {
+		this.config = config;
+		this.defaultExchange = defaultExchange;
+	}
+
+	/**
+	 * @return the requests of the file, or of the files under the directory
+	 *         in name order.
+	 */
+	public List<ReplayRequest> load(File file) throws IOException {
+		List<ReplayRequest> requests = new ArrayList<ReplayRequest>();
+		load(file, requests);
+		return requests;
+	}
+
+	/**
+	 * @return the number of requests skipped so far.
+	 */
+	public int getSkipped() {
+		return skipped;
+	}
+
+	private void load(File file, List<ReplayRequest> requests)
+			throws IOException {
+		if (file.isDirectory()) {
+			File[] files = file.listFiles();
+			Arrays.sort(files);
+			for (File f : files) {
+				load(f, requests);
+			}
+		} else if (file.getName().endsWith(".avro")) {
+			loadAvro(file, requests);
+		} else if (file.getName().endsWith(".json")) {
+			loadJson(file, requests);
+		}
+	}
+
+	private void loadAvro(File file, List<ReplayRequest> requests)
+			throws IOException {
+		// records are read with the schema they were written with
+		DataFileReader<Object> reader = new DataFileReader<Object>(file,
+				new SpecificDatumReader<Object>());
+		try {
+			while (reader.hasNext()) {
+				Object record = reader.next();
+				if (record instanceof BidCapture) {
+					BidCapture capture = (BidCapture) record;
+					add(requests, (capture.getExchange() == null) ? defaultExchange
+							: capture.getExchange().toString(), capture
+							.getTimestamp(), capture.getRequest());
+				} else if (record instanceof BidRequest) {
+					add(requests, defaultExchange, 0L, (BidRequest) record);
+				} else {
+					logger.warn("Skipped " + file + ", it holds no requests");
+					skipped++;
+					return;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void loadJson(File file, List<ReplayRequest> requests)
+			throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			add(requests, defaultExchange, 0L, json.decode(in));
+		} catch (IOException e) {
+			logger.warn("Skipped " + file + ": " + e.getMessage());
+			skipped++;
+		} finally {
+			in.close();
+		}
+	}
+
+	private void add(List<ReplayRequest> requests, String exchange,
+			long timestamp, BidRequest request) {
+		RTBExchange rtbExchange = (exchange == null) ? null : config
+				.getExchange(exchange);
+		if (rtbExchange == null) {
+			logger.warn("Skipped request " + request.getId()
+					+ " of unknown exchange " + exchange);
+			skipped++;
+			return;
+		}
+		String contentType = rtbExchange.getRtbContentType();
+		if (contentType == null) {
+			contentType = JsonBidCodec.CONTENT_TYPE;
+		}
+		try {
+			requests.add(new ReplayRequest(exchange, contentType, encode(
+					request, contentType), timestamp));
+		} catch (Exception e) {
+			logger.warn("Skipped request " + request.getId() + ", cannot encode "
+					+ contentType + ": " + StringUtils.stackTraceToString(e));
+			skipped++;
+		}
+	}
+
+	private byte[] encode(BidRequest request, String contentType)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+		if (contentType.equals(JsonBidCodec.CONTENT_TYPE)) {
+			jsonWriter.writeValue(out, request);
+			return out.toByteArray();
+		}
+		DatumWriter<BidRequest> writer = getWriter(contentType);
+		if (writer == null) {
+			throw new IOException("Unsupported content type: " + contentType);
+		}
+		encoder = EncoderFactory.get().binaryEncoder(out, encoder);
+		writer.write(request, encoder);
+		encoder.flush();
+		return out.toByteArray();
+	}
+
+	// the counterpart of the datum readers of the DemandSideServer
+	private DatumWriter<BidRequest> getWriter(String contentType) {
+		if (writers.containsKey(contentType)) {
+			return writers.get(contentType);
+		}
+		DatumWriter<BidRequest> writer = null;
+		try {
+			if (contentType.equals(AVRO_BINARY_CONTENT_TYPE)) {
+				writer = new SpecificDatumWriter<BidRequest>(BidRequest.SCHEMA$);
+			} else if (contentType.equals(PROTOBUF_CONTENT_TYPE)) {
+				writer = new ProtobufDatumWriter<BidRequest>(BidRequest.class);
+			} else if (contentType.equals(THRIFT_CONTENT_TYPE)) {
+				writer = new ThriftDatumWriter<BidRequest>(BidRequest.class);
+			}
+		} catch (RuntimeException e) {
+			logger.warn("Unable to encode content type " + contentType + ": "
+					+ e.getMessage());
+		}
+		writers.put(contentType, writer);
+		return writer;
+	}
+}
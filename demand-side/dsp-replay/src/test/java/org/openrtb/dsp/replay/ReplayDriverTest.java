@@ -0,0 +1,85 @@
+package org.openrtb.dsp.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.openrtb.dsp.client.JsonFileBackedDAO;
+import org.openrtb.dsp.client.SimpleBidder;
+import org.openrtb.dsp.core.DemandSideServer;
+
+/**
+ * This class is used to test the functionality of the ReplayDriver class
+ */
+public class ReplayDriverTest {
+
+	/**
+	 * This method test that requests keep being sent at the rate of the
+	 * replay while the target is slow, and that the time they wait counts in
+	 * their latency
+	 */
+	@Test
+	public void openLoopTest() throws InterruptedException {
+		ReplayTarget slow = new ReplayTarget() {
+			@Override
+			public boolean send(ReplayRequest request) throws Exception {
+				Thread.sleep(20);
+				return true;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		ReplayDriver driver = new ReplayDriver(slow, 1);
+		List<ReplayRequest> requests = Collections
+				.singletonList(new ReplayRequest("BigAdExchange",
+						"application/json", new byte[0], 0L));
+		long start = System.currentTimeMillis();
+		// one every 5ms, answered one at a time in 20ms
+		Map<String, ReplayStats> stats = driver.run(requests, 200, 10);
+		assertTrue(System.currentTimeMillis() - start >= 200);
+		ReplayStats s = stats.get("BigAdExchange application/json");
+		assertEquals(10L, s.getBids());
+		assertTrue("service time " + s.getServiceTime().getMax(), s
+				.getServiceTime().getMax() < 100000L);
+		// the last request was due at 45ms and answered after 200ms
+		assertTrue("latency " + s.getLatency().getMax(), s.getLatency()
+				.getMax() >= 140000L);
+	}
+
+	/**
+	 * This method test a replay into a DemandSideServer in process
+	 */
+	@Test
+	public void inProcessTest() throws Exception {
+		URL url = this.getClass().getResource("/properties.json");
+		JsonFileBackedDAO dao = new JsonFileBackedDAO();
+		dao.loadData(url.getPath());
+		DemandSideServer dsp = new DemandSideServer(new SimpleBidder(), dao);
+		File sample = File.createTempFile("request", ".json");
+		try {
+			FileOutputStream out = new FileOutputStream(sample);
+			out.write(("{\"id\": \"replayed\", \"tmax\": 1000, \"imp\": [{\"id\": \"1\","
+					+ " \"bidfloor\": 1.0, \"banner\": {\"w\": 300, \"h\": 250}}]}")
+					.getBytes("UTF-8"));
+			out.close();
+			List<ReplayRequest> requests = new RequestLoader(dao.getSnapshot(),
+					"BigAdExchange").load(sample);
+			ReplayDriver driver = new ReplayDriver(new InProcessTarget(dsp), 2);
+			ReplayStats s = driver.run(requests, 1000, 5).get(
+					"BigAdExchange application/json");
+			assertEquals(0L, s.getErrors());
+			assertEquals(5L, s.getBids());
+		} finally {
+			sample.delete();
+		}
+	}
+}
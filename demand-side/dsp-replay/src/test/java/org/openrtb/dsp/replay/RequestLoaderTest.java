@@ -0,0 +1,111 @@
+package org.openrtb.dsp.replay;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openrtb.common.api.BidRequest;
+import org.openrtb.common.api.Impression;
+import org.openrtb.dsp.core.JsonBidCodec;
+import org.openrtb.dsp.core.TrafficCapture;
+import org.openrtb.dsp.intf.model.DemandSideConfig;
+import org.openrtb.dsp.intf.model.RTBAdvertiser;
+import org.openrtb.dsp.intf.model.RTBExchange;
+
+/**
+ * This class is used to test the functionality of the RequestLoader class
+ */
+public class RequestLoaderTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private DemandSideConfig config;
+
+	@Before
+	public void setUp() {
+		List<RTBExchange> exchanges = new ArrayList<RTBExchange>();
+		exchanges.add(new RTBExchange("BigAdExchange", "http://bigadex.com/rtb",
+				"application/json"));
+		exchanges.add(new RTBExchange("BinaryExchange",
+				"http://binaryex.com/rtb", "avro/binary"));
+		config = DemandSideConfig.EMPTY.update(8080, 1500, 2500, exchanges,
+				Collections.<RTBAdvertiser> emptyList());
+	}
+
+	/**
+	 * This method test that json samples are replayed as the default exchange
+	 */
+	@Test
+	public void jsonTest() throws IOException {
+		File sample = folder.newFile("example1_simple_banner.json");
+		FileOutputStream out = new FileOutputStream(sample);
+		out.write(("{\"id\": \"1234534625254\", \"at\": 2, \"tmax\": 120,"
+				+ " \"imp\": [{\"id\": \"1\", \"banner\": {\"w\": 300, \"h\": 250}}],"
+				+ " \"badv\": [\"company1.com\"], \"unknown\": {\"a\": 1}}")
+				.getBytes("UTF-8"));
+		out.close();
+		folder.newFile("notes.txt");
+
+		RequestLoader loader = new RequestLoader(config, "BigAdExchange");
+		List<ReplayRequest> requests = loader.load(folder.getRoot());
+		assertEquals(1, requests.size());
+		ReplayRequest request = requests.get(0);
+		assertEquals("BigAdExchange", request.getExchange());
+		assertEquals("application/json", request.getContentType());
+		BidRequest decoded = new JsonBidCodec().decode(new ByteArrayInputStream(
+				request.getPayload()));
+		assertEquals("1234534625254", decoded.getId().toString());
+		assertEquals(300, decoded.getImp().get(0).getBanner().getW()
+				.intValue());
+	}
+
+	/**
+	 * This method test that captured requests are replayed as their exchange,
+	 * encoded in its content type
+	 */
+	@Test
+	public void captureTest() throws IOException {
+		File dir = folder.newFolder("captures");
+		TrafficCapture capture = new TrafficCapture(dir, 1.0, 16, 1024 * 1024);
+		capture.capture("BinaryExchange", 1000L, request("req-1"), null);
+		capture.capture("BigAdExchange", 2000L, request("req-2"), null);
+		capture.capture("UnknownExchange", 3000L, request("req-3"), null);
+		capture.close();
+
+		RequestLoader loader = new RequestLoader(config, "BigAdExchange");
+		List<ReplayRequest> requests = loader.load(dir);
+		assertEquals(2, requests.size());
+		assertEquals("unknown exchange", 1, loader.getSkipped());
+
+		ReplayRequest binary = requests.get(0);
+		assertEquals("BinaryExchange avro/binary", binary.getKey());
+		assertEquals(1000L, binary.getTimestamp());
+		BidRequest decoded = new SpecificDatumReader<BidRequest>(
+				BidRequest.SCHEMA$).read(null, DecoderFactory.get()
+				.binaryDecoder(binary.getPayload(), null));
+		assertEquals("req-1", decoded.getId().toString());
+		assertEquals("BigAdExchange application/json", requests.get(1)
+				.getKey());
+	}
+
+	private BidRequest request(String id) {
+		BidRequest request = new BidRequest();
+		request.setId(id);
+		Impression imp = new Impression();
+		imp.setId("1");
+		request.setImp(Collections.singletonList(imp));
+		return request;
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.web;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openrtb.common.api.BidRequest;
+import org.openrtb.dsp.core.AdmissionController;
+import org.openrtb.dsp.core.DemandSideServer;
+import org.openrtb.dsp.core.RequestMetrics;
+import org.openrtb.dsp.core.RequestMetrics.Outcome;
+import org.openrtb.dsp.core.ResponseBuffer;
+import org.openrtb.dsp.core.ResponseGate;
+import org.openrtb.dsp.intf.model.Deadline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single bid request handled in the asynchronous mode of the
+ * {@link DemandSideServlet}.
+ *
+ * The body of the request is read by the container thread before the task is
+ * queued. The task runs on the servlet's bidder executor: it decodes the body,
+ * runs the bidder and encodes the response. It never touches the servlet
+ * request, which the container may recycle as soon as the expiry completes
+ * the {@link AsyncContext}. Meanwhile an expiry is scheduled, first
+ * for the configured <tt>request_timeout</tt> (covering the time spent waiting
+ * in the executor queue) and, once the request is decoded, for what is left of
+ * its <tt>tmax</tt>. Both are counted from the arrival of the request, through
+ * the {@link Deadline} passed on to the bidder, so that the bidder gives up
+ * as the expiry fires. Whichever of the bidder and the expiry finishes first
+ * completes the {@link AsyncContext}, the other one is ignored: a late bid is
+ * dropped (and handed back to the bidder, see
+ * {@link DemandSideServer#dropResponse}) and an expired request is answered
+ * with 204 No Content. The bidder claims the request before encoding its
+ * response, so the expiry does not fire while the response is written. The
+ * request goes through the timed path of the server, so that slow requests
+ * are recorded as in the synchronous mode.
+ *
+ * The task holds the admission of its request: it releases it once run, and
+ * sheds the request without decoding it if the {@link AdmissionController}
+ * finds that it waited too long in the queue.
+ *
+ * The outcome of the request is recorded in the {@link RequestMetrics} of its
+ * exchange by whichever completes it.
+ */
+class AsyncBidTask implements Runnable, AsyncListener, ResponseGate {
+	private static final Logger logger = LoggerFactory
+			.getLogger(AsyncBidTask.class);
+
+	private final DemandSideServer dsp;
+	private final AsyncContext ctx;
+	private final String sspName;
+	private final String contentType;
+	// read by the container thread
+	private final byte[] body;
+	private final ScheduledExecutorService expiryTimer;
+	private final Deadline deadline;
+	private final AdmissionController admission;
+	private final RequestMetrics metrics;
+
+	// set by the first of bidder / expiry / container to answer the request
+	private final AtomicBoolean completed = new AtomicBoolean(false);
+	// set once the bidder thread completes the request, an error is then
+	// still answered
+	private boolean claimed;
+	private volatile ScheduledFuture<?> expiry;
+
+	private final Runnable expire = new Runnable() {
+		@Override
+		public void run() {
+			noBid("tmax expired");
+		}
+	};
+
+	AsyncBidTask(DemandSideServer dsp, AsyncContext ctx, String sspName,
+			String contentType, byte[] body,
+			ScheduledExecutorService expiryTimer,
+			Deadline deadline, AdmissionController admission,
+			RequestMetrics metrics) {
+		this.dsp = dsp;
+		this.ctx = ctx;
+		this.sspName = sspName;
+		this.contentType = contentType;
+		this.body = body;
+		this.expiryTimer = expiryTimer;
+		this.deadline = deadline;
+		this.admission = admission;
+		this.metrics = metrics;
+	}
+
+	// arms the initial expiry, before the task is queued
+	void start(long timeoutMs) {
+		deadline.setTimeout(timeoutMs);
+		scheduleExpiry(deadline.remainingMillis());
+	}
+
+	@Override
+	public void run() {
+		try {
+			bid();
+		} finally {
+			admission.release();
+		}
+	}
+
+	private void bid() {
+		if (completed.get()) {
+			// expired while waiting in the queue
+			return;
+		}
+		if (!admission.admit(System.nanoTime() - deadline.getArrivalNanos())) {
+			shed("shed after waiting in the bidder queue");
+			return;
+		}
+		try {
+			ResponseBuffer buffer = dsp.respondBuffered(sspName, body,
+					contentType, deadline, this);
+			if (buffer == null) {
+				logger.info("Dropped response for " + sspName + " sent after "
+						+ elapsedMillis() + "ms");
+				return;
+			}
+			boolean bid = DemandSideServlet.sendResponse(
+					(HttpServletResponse) ctx.getResponse(), buffer);
+			metrics.record(bid ? Outcome.BID : Outcome.NO_BID,
+					deadline.elapsedNanos());
+			ctx.complete();
+		} catch (Exception e) {
+			// still answered once claimed
+			if (claimed || completed.compareAndSet(false, true)) {
+				cancelExpiry();
+				logger.error("400 Bad Request: Error in processing request: "
+						+ e.getMessage());
+				try {
+					((HttpServletResponse) ctx.getResponse()).sendError(
+							HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+				} catch (IOException ie) {
+					logger.error("Unable to send error response: "
+							+ ie.getMessage());
+				}
+				metrics.record(Outcome.BAD_REQUEST, deadline.elapsedNanos());
+				ctx.complete();
+			}
+		}
+	}
+
+	// the tmax of the request is known, the expiry is moved to it
+	@Override
+	public void decoded(BidRequest bidRequest, Deadline deadline) {
+		deadline.setTimeout(dsp.getRequestTimeout(bidRequest));
+		scheduleExpiry(deadline.remainingMillis());
+	}
+
+	// the bidder thread answers the request, unless the expiry did; the
+	// expiry does not fire while the response is written
+	@Override
+	public boolean claim() {
+		if (completed.compareAndSet(false, true)) {
+			cancelExpiry();
+			claimed = true;
+			return true;
+		}
+		return false;
+	}
+
+	// answers the request with 204 No Content, unless it has been answered
+	void noBid(String reason) {
+		complete(reason, Outcome.NO_BID);
+	}
+
+	// as noBid, counted as shed by the admission control
+	void shed(String reason) {
+		complete(reason, Outcome.SHED);
+	}
+
+	private void complete(String reason, Outcome outcome) {
+		if (completed.compareAndSet(false, true)) {
+			cancelExpiry();
+			logger.info("204 No content: " + reason + " after "
+					+ elapsedMillis() + "ms");
+			((HttpServletResponse) ctx.getResponse())
+					.setStatus(HttpServletResponse.SC_NO_CONTENT);
+			metrics.record(outcome, deadline.elapsedNanos());
+			ctx.complete();
+		}
+	}
+
+	private void scheduleExpiry(long delayMs) {
+		cancelExpiry();
+		expiry = expiryTimer.schedule(expire, delayMs, TimeUnit.MILLISECONDS);
+	}
+
+	private void cancelExpiry() {
+		ScheduledFuture<?> f = expiry;
+		if (f != null) {
+			f.cancel(false);
+		}
+	}
+
+	private long elapsedMillis() {
+		return deadline.elapsedMillis();
+	}
+
+	// container timeout, only reached if the expiry timer could not run
+	@Override
+	public void onTimeout(AsyncEvent event) throws IOException {
+		noBid("container timeout");
+	}
+
+	@Override
+	public void onError(AsyncEvent event) throws IOException {
+		// the connection is gone, nothing left to answer
+		completed.set(true);
+		cancelExpiry();
+	}
+
+	@Override
+	public void onComplete(AsyncEvent event) throws IOException {
+	}
+
+	@Override
+	public void onStartAsync(AsyncEvent event) throws IOException {
+	}
+}
@@ -1,6 +1,20 @@
 package org.openrtb.dsp.web;
 
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -8,18 +22,60 @@ import javax.servlet.http.HttpServletResponse;
 
 // import org.openrtb.common.api.BlocklistAPI;
 import org.openrtb.common.api.OpenRTBAPI;
+import org.openrtb.dsp.client.FrequencyCapper;
+import org.openrtb.dsp.client.StatefulBidder;
+import org.openrtb.dsp.core.AdmissionController;
+import org.openrtb.dsp.core.DemandSideMetrics;
 import org.openrtb.dsp.core.DemandSideServer;
+import org.openrtb.dsp.core.RequestMetrics;
+import org.openrtb.dsp.core.RequestMetrics.Outcome;
+import org.openrtb.dsp.core.ResponseBuffer;
+import org.openrtb.dsp.core.SlowRequestRecorder;
+import org.openrtb.dsp.core.TrafficCapture;
+import org.openrtb.dsp.core.WinNoticeProcessor;
+import org.openrtb.dsp.intf.model.Deadline;
 import org.openrtb.dsp.intf.model.DemandSideDAO;
+import org.openrtb.dsp.intf.service.WinNoticeListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class DemandSideServlet extends HttpServlet {
 	private static final long serialVersionUID = 2L;
+	public static final int DEFAULT_MAX_REQUEST_BYTES = 256 * 1024;
 	private static final Logger logger = LoggerFactory.getLogger(DemandSideServlet.class);
 	private DemandSideServer dsp = null;
 	// private BlocklistAPI blockListRequestor = null;
 	private DemandSideDAO daoObject = null;
 
+	// asynchronous mode, bids are computed on a bounded executor instead of
+	// the container thread, see AsyncBidTask
+	private boolean asyncEnabled = false;
+	private ThreadPoolExecutor bidExecutor = null;
+	private ScheduledExecutorService expiryTimer = null;
+
+	// sheds the requests that cannot be answered in time, see
+	// AdmissionController
+	private AdmissionController admission = null;
+
+	// larger requests get a 413 before their body is read
+	private int maxRequestBytes = DEFAULT_MAX_REQUEST_BYTES;
+
+	// sampled capture of the traffic for replay, only created when a
+	// CaptureDirectory is configured
+	private TrafficCapture capture = null;
+
+	// delivers the notices received by the WinNoticeServlet, only created
+	// for bidders tracking their offers
+	private WinNoticeProcessor winNotices = null;
+
+	// latencies and outcomes of the requests, published over JMX and by the
+	// MetricsServlet
+	private DemandSideMetrics metrics = null;
+
+	// the slow requests dumped by the SlowRequestServlet, only created when
+	// a SlowRequestThresholdMs is configured
+	private SlowRequestRecorder slowRequests = null;
+
 	public void init() throws javax.servlet.ServletException {
 		try {
 			OpenRTBAPI bidder = null;
@@ -28,6 +84,9 @@ public class DemandSideServlet extends HttpServlet {
 			daoObject = (DemandSideDAO)  Class.forName(classname).newInstance();
 			daoObject.loadData(daoDBlocation);	
 
+			// the bidders take the default capper as they are created
+			FrequencyCapper.setDefaultCapacity(getIntConfigParameter(
+					"FrequencyCapCapacity", FrequencyCapper.DEFAULT_CAPACITY));
 			classname = getServletContext().getInitParameter("BidderClassName");
 			bidder = (OpenRTBAPI) Class.forName(classname).newInstance();
 			/*	
@@ -36,50 +95,156 @@ public class DemandSideServlet extends HttpServlet {
 				blockListRequestor = (BlocklistAPI)  Class.forName(classname).newInstance();
 			} */
 			dsp = new DemandSideServer(bidder, daoObject);
+			dsp.setResponseReserve(getIntConfigParameter("ResponseReserveMs",
+					(int) DemandSideServer.DEFAULT_RESPONSE_RESERVE));
+			maxRequestBytes = getIntConfigParameter("MaxRequestBytes",
+					DEFAULT_MAX_REQUEST_BYTES);
+			admission = new AdmissionController(
+					getIntConfigParameter("MaxInFlight", 0),
+					getIntConfigParameter("QueueDelayTargetMs",
+							(int) AdmissionController.DEFAULT_TARGET_MS),
+					getIntConfigParameter("QueueDelayIntervalMs",
+							(int) AdmissionController.DEFAULT_INTERVAL_MS));
+
+			metrics = dsp.getMetrics();
+			String jmxDomain = getConfigParameter("MetricsJmxDomain");
+			if (jmxDomain == null) {
+				jmxDomain = DemandSideMetrics.DEFAULT_DOMAIN;
+			}
+			if (jmxDomain.trim().length() > 0) {
+				metrics.registerMBeans(
+						ManagementFactory.getPlatformMBeanServer(),
+						jmxDomain.trim());
+			}
+			getServletContext().setAttribute(
+					MetricsServlet.METRICS_ATTRIBUTE, metrics);
 
+			int slowThresholdMs = getIntConfigParameter(
+					"SlowRequestThresholdMs", 0);
+			if (slowThresholdMs > 0) {
+				slowRequests = new SlowRequestRecorder(slowThresholdMs,
+						getIntConfigParameter("SlowRequestCapacity",
+								SlowRequestRecorder.DEFAULT_CAPACITY));
+				dsp.setSlowRequestRecorder(slowRequests);
+				getServletContext().setAttribute(
+						SlowRequestServlet.RECORDER_ATTRIBUTE, slowRequests);
+				logger.info("Recording the last " + slowRequests.getCapacity()
+						+ " requests slower than " + slowThresholdMs + "ms");
+			}
+
+			String captureDirectory = getConfigParameter("CaptureDirectory");
+			if ((captureDirectory != null)
+					&& (captureDirectory.trim().length() > 0)) {
+				String rate = getConfigParameter("CaptureSampleRate");
+				capture = new TrafficCapture(new File(captureDirectory.trim()),
+						(rate == null) ? 0.01 : Double.parseDouble(rate.trim()),
+						getIntConfigParameter("CaptureQueueSize", 4096),
+						getIntConfigParameter("CaptureFileSizeMB", 64) * 1024L * 1024L);
+				dsp.setTrafficCapture(capture);
+				logger.info("Capturing " + capture.getSampleRate()
+						+ " of the requests into " + capture.getDirectory());
+			}
+
+			if (bidder instanceof WinNoticeListener) {
+				winNotices = new WinNoticeProcessor((WinNoticeListener) bidder,
+						getIntConfigParameter("WinQueueSize", 65536),
+						getIntConfigParameter("WinBatchSize", 256));
+				getServletContext().setAttribute(
+						WinNoticeServlet.PROCESSOR_ATTRIBUTE, winNotices);
+			}
+
+			asyncEnabled = Boolean.parseBoolean(getConfigParameter("AsyncEnabled"));
+			if (asyncEnabled) {
+				int threads = getIntConfigParameter("AsyncThreads",
+						Runtime.getRuntime().availableProcessors() * 4);
+				int queueSize = getIntConfigParameter("AsyncQueueSize", threads * 16);
+				bidExecutor = new ThreadPoolExecutor(threads, threads, 60L,
+						TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+						new NamedThreadFactory("dsp-bidder"),
+						new ThreadPoolExecutor.AbortPolicy());
+				expiryTimer = Executors.newSingleThreadScheduledExecutor(
+						new NamedThreadFactory("dsp-bid-expiry"));
+				logger.info("Asynchronous mode enabled with " + threads
+						+ " bidder threads and a queue of " + queueSize);
+			}
 		} catch (Exception e) {
 			throw new ServletException(e.getMessage());
 		} 
 	}
 
+	/**
+	 * Answers a bid request. Requests beyond <tt>MaxInFlight</tt> get a 204
+	 * before they are read. In asynchronous mode the requests then wait in
+	 * the bidder queue, and the {@link AdmissionController} sheds the ones
+	 * that waited too long (CoDel). In synchronous mode there is no such
+	 * check: the requests wait in the container's queue, and the servlet
+	 * API gives no time of arrival to measure that wait from. Only
+	 * <tt>MaxInFlight</tt> and the tmax deadline, counted from this call,
+	 * apply there. The container's own queue should be kept short, or the
+	 * asynchronous mode enabled.
+	 */
 	@Override
 	protected void doPost(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
+		// counted from the arrival of the request, so that the checks made
+		// below count against its tmax
+		Deadline deadline = dsp.newDeadline();
+		// the metrics of unknown senders until the exchange is authorized
+		RequestMetrics requestMetrics = dsp.getRequestMetrics(null);
 		try {
 			String sspOrgName = request.getParameter("ssp_name");
 			if ((sspOrgName == null) || (sspOrgName == "")) {
 				String errMsg = "400 Bad Request: Required parameter ssp_name is missing or empty in Request URI";
 				logger.error(errMsg);
 				response.sendError(HttpServletResponse.SC_BAD_REQUEST, errMsg );
+				requestMetrics.record(Outcome.BAD_REQUEST, deadline.elapsedNanos());
 				return;
 			}
 			if (!dsp.authorizeRemoteService(sspOrgName)) {
 				logger.error("401 Unauthorized");
 				response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Unknown Sender");
+				requestMetrics.record(Outcome.UNAUTHORIZED, deadline.elapsedNanos());
 			} else {
+				requestMetrics = dsp.getRequestMetrics(sspOrgName);
 				String requestContentType = request.getContentType();
 				if (!dsp.verifyContentType(sspOrgName, requestContentType)) {
 					String errMsg = "415 Unsupported media type: Unexpected Content type in Servlet Request: " 
 										+ requestContentType;
 					logger.error(errMsg);
 					response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, errMsg);
+					requestMetrics.record(Outcome.UNSUPPORTED_MEDIA_TYPE,
+							deadline.elapsedNanos());
 				} else {
 					response.setContentType(requestContentType);
 
-					byte[] responseBuff = dsp.respond(sspOrgName, request.getInputStream(), 
-							requestContentType);
-					if (responseBuff == null) {
-						logger.error("400 Bad Request: Format error in request");
-						response.sendError(HttpServletResponse.SC_BAD_REQUEST);
-					}
-					else {
-						if (responseBuff.length == 0) {
-							logger.info("204 No content: Sending empty response");
-							response.setStatus(HttpServletResponse.SC_NO_CONTENT);
-						} else {
-							logger.info("200 OK: Sent Response");
-							response.setContentLength(responseBuff.length);
-							response.getOutputStream().write(responseBuff);
+					if (request.getContentLength() > maxRequestBytes) {
+						tooLarge(response, requestMetrics, deadline);
+					} else if (!admission.tryAcquire()) {
+						// shed before the request is even read
+						logger.info("204 No content: "
+								+ admission.getMaxInFlight()
+								+ " requests in flight already");
+						response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+						requestMetrics.record(Outcome.SHED, deadline.elapsedNanos());
+					} else if (asyncEnabled && request.isAsyncSupported()) {
+						// the container thread is released here, the response
+						// is sent by the bidder thread or the expiry timer
+						respondAsync(request, response, sspOrgName,
+								requestContentType, deadline, requestMetrics);
+						return;
+					} else {
+						try {
+							// the response is encoded into a per thread
+							// buffer, which gives the content length without
+							// copying the payload
+							ResponseBuffer responseBuff = dsp.respondBuffered(
+									sspOrgName, request.getInputStream(),
+									requestContentType, deadline);
+							boolean bid = sendResponse(response, responseBuff);
+							requestMetrics.record(bid ? Outcome.BID
+									: Outcome.NO_BID, deadline.elapsedNanos());
+						} finally {
+							admission.release();
 						}
 					}
 				}
@@ -90,6 +255,169 @@ public class DemandSideServlet extends HttpServlet {
 		} catch (Exception e) {
 			logger.error("400 Bad Request: Error in processing request: ", e.getMessage());
 			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			requestMetrics.record(Outcome.BAD_REQUEST, deadline.elapsedNanos());
 		} 
 	}
+
+	// the task holds the admission acquired for the request, and releases
+	// it once it has run or could not be queued
+	private void respondAsync(HttpServletRequest request,
+			HttpServletResponse response, String sspOrgName,
+			String requestContentType, Deadline deadline,
+			RequestMetrics requestMetrics) throws IOException {
+		byte[] body = null;
+		AsyncContext ctx = null;
+		try {
+			body = readBody(request, maxRequestBytes);
+			if (body == null) {
+				tooLarge(response, requestMetrics, deadline);
+				return;
+			}
+			ctx = request.startAsync();
+		} finally {
+			if (ctx == null) {
+				admission.release();
+			}
+		}
+		AsyncBidTask task = new AsyncBidTask(dsp, ctx, sspOrgName,
+				requestContentType, body, expiryTimer, deadline, admission,
+				requestMetrics);
+		ctx.addListener(task);
+		task.start(dsp.getRequestTimeout());
+		try {
+			bidExecutor.execute(task);
+		} catch (RejectedExecutionException ree) {
+			admission.release();
+			task.shed("bidder queue is full");
+		}
+	}
+
+	// reads the whole body on the container thread, so that the bidder
+	// thread never reads from a request the expiry may have completed
+	// @return null if the body is longer than maxBytes
+	private static byte[] readBody(HttpServletRequest request, int maxBytes)
+			throws IOException {
+		InputStream in = request.getInputStream();
+		int length = request.getContentLength();
+		if (length > maxBytes) {
+			return null;
+		}
+		if (length < 0) {
+			// chunked, read up to the limit
+			ResponseBuffer buffer = new ResponseBuffer();
+			if (!buffer.readFrom(in, maxBytes)) {
+				return null;
+			}
+			return buffer.toByteArray();
+		}
+		byte[] body = new byte[length];
+		for (int n = 0; n < length;) {
+			int read = in.read(body, n, length - n);
+			if (read < 0) {
+				throw new EOFException("Request body is shorter than its "
+						+ length + " bytes Content-Length");
+			}
+			n += read;
+		}
+		return body;
+	}
+
+	private void tooLarge(HttpServletResponse response,
+			RequestMetrics requestMetrics, Deadline deadline)
+			throws IOException {
+		String errMsg = "413 Request Entity Too Large: more than "
+				+ maxRequestBytes + " bytes";
+		logger.error(errMsg);
+		response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+				errMsg);
+		requestMetrics.record(Outcome.REQUEST_TOO_LARGE,
+				deadline.elapsedNanos());
+	}
+
+	// writes an encoded response, an empty buffer is sent as a no bid
+	// @return true if a bid was sent
+	static boolean sendResponse(HttpServletResponse response,
+			ResponseBuffer responseBuff) throws IOException {
+		if (responseBuff.size() == 0) {
+			logger.info("204 No content: Sending empty response");
+			response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+			return false;
+		}
+		logger.info("200 OK: Sent Response");
+		response.setContentLength(responseBuff.size());
+		responseBuff.writeTo(response.getOutputStream());
+		return true;
+	}
+
+	@Override
+	public void destroy() {
+		if (bidExecutor != null) {
+			bidExecutor.shutdown();
+			try {
+				// the bids still queued use the frequency capper
+				bidExecutor.awaitTermination(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (expiryTimer != null) {
+			expiryTimer.shutdownNow();
+		}
+		if (capture != null) {
+			capture.close();
+		}
+		if (winNotices != null) {
+			getServletContext().removeAttribute(
+					WinNoticeServlet.PROCESSOR_ATTRIBUTE);
+			winNotices.stop();
+		}
+		if (slowRequests != null) {
+			getServletContext().removeAttribute(
+					SlowRequestServlet.RECORDER_ATTRIBUTE);
+		}
+		if (metrics != null) {
+			getServletContext().removeAttribute(
+					MetricsServlet.METRICS_ATTRIBUTE);
+			metrics.unregisterMBeans();
+		}
+		// the servlet owns the default capper and shared timer the bidders
+		// were created with, which would otherwise pin the class loader of
+		// the application across redeploys
+		FrequencyCapper.closeDefault();
+		StatefulBidder.stopSharedTimer();
+		super.destroy();
+	}
+
+	// servlet init parameters take precedence over context parameters
+	private String getConfigParameter(String name) {
+		String value = getInitParameter(name);
+		if (value == null) {
+			value = getServletContext().getInitParameter(name);
+		}
+		return value;
+	}
+
+	private int getIntConfigParameter(String name, int defaultValue) {
+		String value = getConfigParameter(name);
+		if ((value == null) || (value.trim().length() == 0)) {
+			return defaultValue;
+		}
+		return Integer.parseInt(value.trim());
+	}
+
+	private static class NamedThreadFactory implements ThreadFactory {
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+
+		NamedThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
 }
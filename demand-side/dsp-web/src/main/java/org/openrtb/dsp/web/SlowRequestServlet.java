@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openrtb.dsp.web;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openrtb.dsp.core.SlowRequestRecorder;
+
+/**
+ * Dumps the latest slow bid requests as text, with their stage timings and
+ * raw bytes, i.e. on <tt>/admin/slow-requests</tt>. A POST empties the
+ * recorder. The {@link SlowRequestRecorder} is published by the
+ * {@link DemandSideServlet} when a <tt>SlowRequestThresholdMs</tt> is
+ * configured, a 404 is returned otherwise. The dump holds the requests as
+ * received, the web.xml restricts it to the <tt>dsp-admin</tt> role.
+ */
+public class SlowRequestServlet extends HttpServlet {
+	private static final long serialVersionUID = 2L;
+
+	// servlet context attribute holding the SlowRequestRecorder
+	public static final String RECORDER_ATTRIBUTE = SlowRequestRecorder.class.getName();
+
+	private static final String CONTENT_TYPE = "text/plain; charset=utf-8";
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		SlowRequestRecorder recorder = getRecorder(response);
+		if (recorder == null) {
+			return;
+		}
+		response.setContentType(CONTENT_TYPE);
+		response.setHeader("Cache-Control", "no-cache");
+		Writer out = response.getWriter();
+		recorder.writeText(out);
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		SlowRequestRecorder recorder = getRecorder(response);
+		if (recorder == null) {
+			return;
+		}
+		recorder.clear();
+		response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+	}
+
+	private SlowRequestRecorder getRecorder(HttpServletResponse response)
+			throws IOException {
+		SlowRequestRecorder recorder = (SlowRequestRecorder) getServletContext()
+				.getAttribute(RECORDER_ATTRIBUTE);
+		if (recorder == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND,
+					"Slow requests are not recorded");
+		}
+		return recorder;
+	}
+}
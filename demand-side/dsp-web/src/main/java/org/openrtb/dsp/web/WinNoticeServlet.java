@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openrtb.dsp.web;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openrtb.dsp.core.WinNoticeProcessor;
+import org.openrtb.dsp.intf.model.DemandSideConfig;
+import org.openrtb.dsp.intf.model.WinNotice;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives the win notices the exchanges send to the <tt>nurl</tt> of the
+ * winning bids, i.e.
+ * <tt>/win?ssp_name=BigAdExchange&id=${AUCTION_ID}&impid=${AUCTION_IMP_ID}&bidid=1234&price=${AUCTION_PRICE}</tt>
+ * as built for every bid once a <tt>winurl</tt> is configured (see
+ * {@link DemandSideConfig.ExchangeConfig#getWinNoticeUrl(CharSequence)}).
+ * 
+ * Notices are only queued here and answered with a 204, the
+ * {@link WinNoticeProcessor} published by the {@link DemandSideServlet}
+ * delivers them to the bidder in batches. A 503 is returned while the queue
+ * is full, and a 404 if the configured bidder does not track its offers.
+ */
+public class WinNoticeServlet extends HttpServlet {
+	private static final long serialVersionUID = 2L;
+	private static final Logger logger = LoggerFactory.getLogger(WinNoticeServlet.class);
+
+	// servlet context attribute holding the WinNoticeProcessor
+	public static final String PROCESSOR_ATTRIBUTE = WinNoticeProcessor.class.getName();
+
+	private volatile WinNoticeProcessor processor = null;
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		receive(request, response);
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		receive(request, response);
+	}
+
+	private void receive(HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		WinNoticeProcessor winNotices = getProcessor();
+		if (winNotices == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND,
+					"Win notices are not supported by the bidder");
+			return;
+		}
+		String sspOrgName = request.getParameter("ssp_name");
+		String requestId = request.getParameter("id");
+		if (isEmpty(sspOrgName) || isEmpty(requestId)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"Required parameters ssp_name and id are missing or empty");
+			return;
+		}
+		Float price = null;
+		String priceParam = request.getParameter("price");
+		if (!isEmpty(priceParam)) {
+			try {
+				price = Float.valueOf(priceParam);
+			} catch (NumberFormatException e) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+						"Invalid price " + priceParam);
+				return;
+			}
+		}
+		WinNotice notice = new WinNotice(sspOrgName, requestId,
+				request.getParameter("impid"), request.getParameter("bidid"),
+				price);
+		if (!winNotices.submit(notice)) {
+			logger.warn("503 Service Unavailable: win notice queue is full, dropped " + notice);
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+					"Win notice queue is full");
+			return;
+		}
+		response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+	}
+
+	// the processor is published once the DemandSideServlet is initialized
+	private WinNoticeProcessor getProcessor() {
+		WinNoticeProcessor winNotices = processor;
+		if (winNotices == null) {
+			winNotices = (WinNoticeProcessor) getServletContext().getAttribute(
+					PROCESSOR_ATTRIBUTE);
+			processor = winNotices;
+		}
+		return winNotices;
+	}
+
+	private static boolean isEmpty(String value) {
+		return (value == null) || (value.length() == 0);
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openrtb.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openrtb.common.api.BidRequest;
+import org.openrtb.common.api.BidResponse;
+import org.openrtb.dsp.core.DemandSideServer;
+import org.openrtb.dsp.intf.model.DSPException;
+
+/**
+ * Decoding of a bid request and encoding of a bid response by the
+ * {@link DemandSideServer}, in each of the content types it supports.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DemandSideCodecBenchmark {
+	// the content types the server can decode, see Fixtures.encode
+	@Param({ Fixtures.JSON, Fixtures.AVRO })
+	public String contentType;
+
+	@Param({ "1", "5" })
+	public int impressions;
+
+	private DemandSideServer server;
+	private byte[] request;
+	private BidResponse response;
+
+	@Setup
+	public void setUp() throws IOException {
+		// no bidder, encoded responses are not handed back for recycling
+		server = new DemandSideServer(null, Fixtures.dao(Fixtures.config(
+				contentType, 10)));
+		BidRequest bidRequest = Fixtures.bidRequest(impressions);
+		request = Fixtures.encode(bidRequest, contentType);
+		response = Fixtures.bidResponse(bidRequest);
+	}
+
+	@Benchmark
+	public BidRequest readRequest() throws DSPException {
+		return server.readRequest(new ByteArrayInputStream(request),
+				contentType);
+	}
+
+	@Benchmark
+	public int writeResponse() throws DSPException {
+		return server.encodeResponse(response, contentType).size();
+	}
+}
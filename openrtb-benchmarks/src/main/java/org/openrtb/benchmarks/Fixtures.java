@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openrtb.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.openrtb.common.api.Banner;
+import org.openrtb.common.api.Bid;
+import org.openrtb.common.api.BidRequest;
+import org.openrtb.common.api.BidResponse;
+import org.openrtb.common.api.Impression;
+import org.openrtb.common.api.SeatBid;
+import org.openrtb.common.api.Site;
+import org.openrtb.common.model.Advertiser;
+import org.openrtb.common.model.AdvertiserBlocklistRequest;
+import org.openrtb.common.model.Identification;
+import org.openrtb.dsp.core.JsonBidCodec;
+import org.openrtb.dsp.intf.model.DSPException;
+import org.openrtb.dsp.intf.model.DemandSideConfig;
+import org.openrtb.dsp.intf.model.DemandSideDAO;
+import org.openrtb.dsp.intf.model.RTBAdvertiser;
+import org.openrtb.dsp.intf.model.RTBExchange;
+
+/**
+ * Synthetic configurations, requests and responses shared by the benchmarks.
+ * Everything is derived from the benchmark parameters only, so that runs are
+ * comparable between builds.
+ */
+final class Fixtures {
+	static final String EXCHANGE = "BenchExchange";
+	static final String DSP = "BenchDSP";
+	static final byte[] SHARED_SECRET = "benchmark-secret".getBytes();
+
+	static final String JSON = "application/json";
+	static final String AVRO = "avro/binary";
+
+	// a category out of CATEGORIES is blocked by every request, as well as
+	// one advertiser out of BLOCKED
+	private static final int CATEGORIES = 20;
+	private static final int BLOCKED = 10;
+
+	private Fixtures() {
+	}
+
+	static String landingPage(int advertiser) {
+		return "advertiser" + advertiser + ".com";
+	}
+
+	/**
+	 * @return advertisers holding one seat each on the benchmark exchange
+	 */
+	static List<RTBAdvertiser> advertisers(int count) {
+		List<RTBAdvertiser> advertisers = new ArrayList<RTBAdvertiser>(count);
+		for (int i = 0; i < count; i++) {
+			Map<String, String> seats = new HashMap<String, String>();
+			seats.put(EXCHANGE, "seat" + i);
+			advertisers.add(new RTBAdvertiser(landingPage(i), "Advertiser " + i,
+					"http://adserver.com/win?adv=" + i, Collections
+							.singletonList("IAB" + (i % CATEGORIES)), seats));
+		}
+		return advertisers;
+	}
+
+	static DemandSideConfig config(String contentType, int advertisers) {
+		return DemandSideConfig.EMPTY.update(8080, 120, 500, Collections
+				.singletonList(new RTBExchange(EXCHANGE,
+						"http://exchange.com/rtb", contentType)),
+				advertisers(advertisers));
+	}
+
+	static DemandSideDAO dao(DemandSideConfig config) {
+		return new ConfigDAO(config);
+	}
+
+	static BidRequest bidRequest(int impressions) {
+		BidRequest request = new BidRequest();
+		request.setId("bench-request");
+		request.setAt(2);
+		request.setTmax(120);
+		List<Impression> imps = new ArrayList<Impression>(impressions);
+		for (int i = 0; i < impressions; i++) {
+			Banner banner = new Banner();
+			banner.setW(300);
+			banner.setH(250);
+			Impression imp = new Impression();
+			imp.setId(Integer.toString(i + 1));
+			imp.setBanner(banner);
+			imp.setBidfloor(0.5f);
+			imps.add(imp);
+		}
+		request.setImp(imps);
+		Site site = new Site();
+		site.setId("bench-site");
+		site.setDomain("publisher.com");
+		site.setCat(Collections.<CharSequence> singletonList("IAB1"));
+		request.setSite(site);
+		request.setBcat(Collections.<CharSequence> singletonList("IAB"
+				+ (CATEGORIES - 1)));
+		request.setBadv(Collections.<CharSequence> singletonList(landingPage(
+				BLOCKED)));
+		return request;
+	}
+
+	/**
+	 * @return a response holding one seat bid per impression of the request
+	 */
+	static BidResponse bidResponse(BidRequest request) {
+		List<SeatBid> seatBids = new ArrayList<SeatBid>();
+		for (Impression imp : request.getImp()) {
+			Bid bid = new Bid();
+			bid.setId("bid-" + imp.getId());
+			bid.setImpid(imp.getId());
+			bid.setPrice(imp.getBidfloor() + 0.1f);
+			bid.setAdid("ad-1");
+			bid.setNurl("http://adserver.com/win?imp=" + imp.getId());
+			SeatBid seatBid = new SeatBid();
+			seatBid.setSeat("seat" + imp.getId());
+			seatBid.setBid(new ArrayList<Bid>(Collections.singletonList(bid)));
+			seatBids.add(seatBid);
+		}
+		BidResponse response = new BidResponse();
+		response.setId(request.getId());
+		response.setSeatbid(seatBids);
+		return response;
+	}
+
+	/**
+	 * @return the request as sent by an exchange using the content type. The
+	 *         generated api classes cannot be written as protobuf or thrift,
+	 *         the server does not accept these either.
+	 */
+	static byte[] encode(BidRequest request, String contentType)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		if (JSON.equals(contentType)) {
+			JsonBidCodec.newObjectMapper().writeValue(out, request);
+			return out.toByteArray();
+		}
+		if (!AVRO.equals(contentType)) {
+			throw new IllegalArgumentException("Unsupported content type "
+					+ contentType);
+		}
+		DatumWriter<BidRequest> writer = new SpecificDatumWriter<BidRequest>(
+				BidRequest.SCHEMA$);
+		BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+		writer.write(request, encoder);
+		encoder.flush();
+		return out.toByteArray();
+	}
+
+	static AdvertiserBlocklistRequest blocklistRequest(int advertisers) {
+		AdvertiserBlocklistRequest request = new AdvertiserBlocklistRequest(
+				new Identification(DSP, 1356998400000L));
+		for (int i = 0; i < advertisers; i++) {
+			request.addAdvertiser(new Advertiser(landingPage(i), "Advertiser "
+					+ i));
+		}
+		return request;
+	}
+
+	// serves a fixed configuration
+	private static class ConfigDAO implements DemandSideDAO {
+		private final DemandSideConfig config;
+
+		ConfigDAO(DemandSideConfig config) {
+			this.config = config;
+		}
+
+		@Override
+		public DemandSideConfig getSnapshot() {
+			return config;
+		}
+
+		@Override
+		public long getServerPort() {
+			return config.getServerPort();
+		}
+
+		@Override
+		public long getDefaultTimeout(String property) {
+			return config.getProperty(property);
+		}
+
+		@Override
+		public ConcurrentMap<String, RTBExchange> getExchanges() {
+			return new ConcurrentHashMap<String, RTBExchange>(
+					config.getExchanges());
+		}
+
+		@Override
+		public ConcurrentMap<String, RTBAdvertiser> getAdvertisers() {
+			return new ConcurrentHashMap<String, RTBAdvertiser>(
+					config.getAdvertisers());
+		}
+
+		@Override
+		public void loadData(String dbLocation) throws DSPException {
+			// nothing to load
+		}
+	}
+}
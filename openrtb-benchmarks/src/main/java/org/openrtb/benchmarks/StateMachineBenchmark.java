@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openrtb.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openrtb.common.util.statemachines.FSMCallback;
+import org.openrtb.common.util.statemachines.FSMDefinition;
+import org.openrtb.common.util.statemachines.FSMTransition;
+import org.openrtb.common.util.statemachines.FiniteStateMachine;
+
+/**
+ * The life cycle of a request driven through four states, by a
+ * {@link FiniteStateMachine} built for the request as bidders used to, and by
+ * a shared {@link FSMDefinition}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateMachineBenchmark {
+	private static final String NEXT = "next";
+
+	// each step moves on to the next one, the last one ends the machine
+	enum Step implements FSMCallback {
+		RECEIVED, DECODED, BIDDING, RESPONDED;
+
+		private final FSMTransition<Step, String> next = new FSMTransition<Step, String>(
+				this, NEXT);
+
+		@Override
+		public FSMTransition<Step, String> exec(Object context) {
+			return (this == RESPONDED) ? null : next;
+		}
+	}
+
+	enum Event {
+		NEXT
+	}
+
+	static final FSMDefinition<Step, Event> DEFINITION = FSMDefinition
+			.builder(Step.class, Event.class).initial(Step.RECEIVED)
+			.transition(Step.RECEIVED, Event.NEXT, Step.DECODED)
+			.transition(Step.DECODED, Event.NEXT, Step.BIDDING)
+			.transition(Step.BIDDING, Event.NEXT, Step.RESPONDED).build();
+
+	static final class Transaction {
+		volatile int state;
+	}
+
+	private static final AtomicIntegerFieldUpdater<Transaction> STATE = AtomicIntegerFieldUpdater
+			.newUpdater(Transaction.class, "state");
+
+	@SuppressWarnings("deprecation")
+	@Benchmark
+	public Step finiteStateMachine() {
+		FiniteStateMachine<Step> fsm = new FiniteStateMachine<Step>();
+		fsm.addStates(Step.values());
+		fsm.addTransition(Step.RECEIVED, Step.RECEIVED.next, Step.DECODED);
+		fsm.addTransition(Step.DECODED, Step.DECODED.next, Step.BIDDING);
+		fsm.addTransition(Step.BIDDING, Step.BIDDING.next, Step.RESPONDED);
+		fsm.exec(Step.RECEIVED, null);
+		return fsm.getCurrent();
+	}
+
+	@Benchmark
+	public Step fsmDefinition() {
+		Transaction txn = new Transaction();
+		txn.state = DEFINITION.getInitial().ordinal();
+		Step step = DEFINITION.getInitial();
+		while (!DEFINITION.isEndState(step)) {
+			step = DEFINITION.fire(STATE, txn, Event.NEXT);
+		}
+		return step;
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2010, The OpenRTB Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the OpenRTB nor the names of its contributors
+ *      may be used to endorse or promote products derived from this
+ *      software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openrtb.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openrtb.common.json.AdvertiserBlocklistRequestTranslator;
+import org.openrtb.common.model.Advertiser;
+import org.openrtb.common.model.AdvertiserBlocklistRequest;
+import org.openrtb.common.model.Blocklist;
+import org.openrtb.ssp.SupplySideService;
+import org.openrtb.ssp.core.SupplySideServer;
+
+/**
+ * A signed advertiser blocklist request answered by the
+ * {@link SupplySideServer}: translation, verification, lookup of the
+ * blocklists, signature and translation of the response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SupplySideServerBenchmark {
+	@Param({ "1", "10", "100" })
+	public int advertisers;
+
+	private SupplySideServer server;
+	private String request;
+
+	// blocks the same publisher for every advertiser
+	static class BlocklistService implements SupplySideService {
+		private final Collection<Blocklist> blocklist = Collections
+				.singletonList(new Blocklist("bench-publisher", "Bench Publisher"));
+
+		@Override
+		public Collection<Advertiser> setBlocklists(
+				Collection<Advertiser> advertisers) {
+			for (Advertiser a : advertisers) {
+				a.setBlocklist(new ArrayList<Blocklist>(blocklist));
+			}
+			return advertisers;
+		}
+
+		@Override
+		public byte[] getSharedSecret(String dsp) {
+			return Fixtures.SHARED_SECRET;
+		}
+
+		@Override
+		public String getOrganization() {
+			return "BenchSSP";
+		}
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		server = new SupplySideServer(new BlocklistService());
+		AdvertiserBlocklistRequestTranslator translator = new AdvertiserBlocklistRequestTranslator();
+		AdvertiserBlocklistRequest blocklistRequest = Fixtures
+				.blocklistRequest(advertisers);
+		blocklistRequest.sign(Fixtures.SHARED_SECRET, translator);
+		request = translator.toJSON(blocklistRequest);
+	}
+
+	@Benchmark
+	public String process() {
+		return server.process(request);
+	}
+}